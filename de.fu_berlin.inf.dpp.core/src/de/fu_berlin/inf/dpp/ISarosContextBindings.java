@@ -54,6 +54,13 @@ public interface ISarosContextBindings {
         // marker interface
     }
 
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ ElementType.FIELD, ElementType.PARAMETER })
+    @Bind
+    public @interface TCPTransport {
+        // marker interface
+    }
+
     @Retention(RetentionPolicy.RUNTIME)
     @Target({ ElementType.FIELD, ElementType.PARAMETER })
     @Bind
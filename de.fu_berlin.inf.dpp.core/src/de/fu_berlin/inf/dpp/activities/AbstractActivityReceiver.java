@@ -75,6 +75,11 @@ public abstract class AbstractActivityReceiver implements IActivityReceiver {
         // do nothing
     }
 
+    @Override
+    public void receive(RecoveryTextEditActivity recoveryTextEditActivity) {
+        // do nothing
+    }
+
     @Override
     public void receive(ShareConsoleActivity shareConsoleActivity) {
         // do nothing
@@ -6,6 +6,7 @@ import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 
 import de.fu_berlin.inf.dpp.concurrent.jupiter.Timestamp;
+import de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums;
 import de.fu_berlin.inf.dpp.session.User;
 
 /**
@@ -17,6 +18,10 @@ import de.fu_berlin.inf.dpp.session.User;
  * 
  * To indicate that a file is missing on the host NON_EXISTING_DOC is used.
  * 
+ * For large documents the ChecksumActivity may additionally contain the
+ * {@link RangeChecksums hashes of consecutive ranges} of the document, which
+ * allow the receiver to narrow down the part of the document that differs.
+ * 
  * A ChecksumActivity also may contain a {@link Timestamp} to indicate at which
  * point of time the checksum was created. A user can use this information to
  * see whether the checksum can be used to check for consistency or whether the
@@ -40,6 +45,8 @@ public class ChecksumActivity extends AbstractResourceActivity {
     @XStreamAsAttribute
     protected final Timestamp jupiterTimestamp;
 
+    protected final RangeChecksums ranges;
+
     /**
      * Constructor for ChecksumActivities. Timestamp can be null.
      * ChecksumActivities created by the watchdog don't have access to the
@@ -61,11 +68,27 @@ public class ChecksumActivity extends AbstractResourceActivity {
      */
     public ChecksumActivity(User source, SPath path, long hash, long length,
         Timestamp jupiterTimestamp) {
+        this(source, path, hash, length, null, jupiterTimestamp);
+    }
+
+    /**
+     * Constructor for ChecksumActivities that also contain the hashes of the
+     * ranges of the document.
+     * 
+     * @param ranges
+     *            the hashes of the ranges of the document, may be
+     *            <code>null</code>
+     * 
+     * @see #ChecksumActivity(User, SPath, long, long, Timestamp)
+     */
+    public ChecksumActivity(User source, SPath path, long hash, long length,
+        RangeChecksums ranges, Timestamp jupiterTimestamp) {
 
         super(source, path);
 
         this.hash = hash;
         this.length = length;
+        this.ranges = ranges;
         this.jupiterTimestamp = jupiterTimestamp;
     }
 
@@ -83,14 +106,14 @@ public class ChecksumActivity extends AbstractResourceActivity {
      */
     public ChecksumActivity withTimestamp(Timestamp jupiterTimestamp) {
         return new ChecksumActivity(getSource(), getPath(), hash, length,
-            jupiterTimestamp);
+            ranges, jupiterTimestamp);
     }
 
     @Override
     public String toString() {
         return "ChecksumActivity(path: " + getPath() + ", hash: " + hash
-            + ", length: " + length + ", jupiterTimestamp: " + jupiterTimestamp
-            + ")";
+            + ", length: " + length + ", ranges: " + ranges
+            + ", jupiterTimestamp: " + jupiterTimestamp + ")";
     }
 
     @Override
@@ -104,6 +127,7 @@ public class ChecksumActivity extends AbstractResourceActivity {
         int result = super.hashCode();
         result = prime * result + (int) (hash ^ (hash >>> 32));
         result = prime * result + (int) (length ^ (length >>> 32));
+        result = prime * result + ObjectUtils.hashCode(ranges);
         result = prime * result + ObjectUtils.hashCode(jupiterTimestamp);
         return result;
     }
@@ -123,6 +147,8 @@ public class ChecksumActivity extends AbstractResourceActivity {
             return false;
         if (this.length != other.length)
             return false;
+        if (!ObjectUtils.equals(this.ranges, other.ranges))
+            return false;
         if (!ObjectUtils.equals(this.jupiterTimestamp, other.jupiterTimestamp))
             return false;
 
@@ -141,6 +167,15 @@ public class ChecksumActivity extends AbstractResourceActivity {
         return hash;
     }
 
+    /**
+     * Returns the hashes of the ranges of the document.
+     * 
+     * @return the hashes or <code>null</code> if they are not available
+     */
+    public RangeChecksums getRanges() {
+        return ranges;
+    }
+
     public boolean existsFile() {
         return !(this.length == NON_EXISTING_DOC && this.hash == NON_EXISTING_DOC);
     }
@@ -27,6 +27,7 @@ import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 import com.thoughtworks.xstream.annotations.XStreamImplicit;
 
+import de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums;
 import de.fu_berlin.inf.dpp.session.User;
 
 /**
@@ -36,6 +37,11 @@ import de.fu_berlin.inf.dpp.session.User;
  * The host will reply with a ChecksumError of the same recoveryID after having
  * sent the last FileActivity (with {@link FileActivity#isRecovery()} being set
  * related to this checksum recovery.
+ * 
+ * The user may attach the {@link RangeChecksums hashes of the ranges} of its
+ * local documents, so the host is able to send a
+ * {@link RecoveryTextEditActivity} that only replaces the differing part of a
+ * document instead of the whole file.
  */
 @XStreamAlias("checksumErrorActivity")
 public class ChecksumErrorActivity extends AbstractActivity implements
@@ -50,16 +56,36 @@ public class ChecksumErrorActivity extends AbstractActivity implements
     @XStreamImplicit
     protected List<SPath> paths;
 
+    @XStreamAlias("localRanges")
+    protected List<RangeChecksums> ranges;
+
     public ChecksumErrorActivity(User source, User target, List<SPath> paths,
         String recoveryID) {
+        this(source, target, paths, null, recoveryID);
+    }
+
+    /**
+     * @param ranges
+     *            the hashes of the ranges of the local documents in the same
+     *            order as the paths, an entry is <code>null</code> if the
+     *            hashes are not available for the corresponding path, may be
+     *            <code>null</code>
+     */
+    public ChecksumErrorActivity(User source, User target, List<SPath> paths,
+        List<RangeChecksums> ranges, String recoveryID) {
 
         super(source);
 
+        if (ranges != null && (paths == null || paths.size() != ranges.size()))
+            throw new IllegalArgumentException(
+                "number of paths and ranges differ");
+
         if (target == null)
             throw new IllegalArgumentException("target must not be null");
 
         this.target = target;
         this.paths = paths;
+        this.ranges = ranges;
         this.recoveryID = recoveryID;
     }
 
@@ -72,6 +98,16 @@ public class ChecksumErrorActivity extends AbstractActivity implements
         return paths;
     }
 
+    /**
+     * Returns the hashes of the ranges of the local document of the sender for
+     * the path with the given index.
+     * 
+     * @return the hashes or <code>null</code> if they are not available
+     */
+    public RangeChecksums getRanges(int index) {
+        return ranges == null ? null : ranges.get(index);
+    }
+
     /**
      * Each ChecksumError has a unique ID, which should be used to identify a
      * recovery session
@@ -90,6 +126,7 @@ public class ChecksumErrorActivity extends AbstractActivity implements
         final int prime = 31;
         int result = super.hashCode();
         result = prime * result + ObjectUtils.hashCode(paths);
+        result = prime * result + ObjectUtils.hashCode(ranges);
         result = prime * result + ObjectUtils.hashCode(recoveryID);
         result = prime * result + ObjectUtils.hashCode(target);
         return result;
@@ -110,6 +147,8 @@ public class ChecksumErrorActivity extends AbstractActivity implements
             return false;
         if (!ObjectUtils.equals(this.paths, other.paths))
             return false;
+        if (!ObjectUtils.equals(this.ranges, other.ranges))
+            return false;
         if (!ObjectUtils.equals(this.target, other.target))
             return false;
 
@@ -119,8 +158,8 @@ public class ChecksumErrorActivity extends AbstractActivity implements
     @Override
     public String toString() {
         return "ChecksumErrorActivity(src: " + getSource() + ", target: "
-            + target + ", paths: " + paths + ", recoveryID: " + recoveryID
-            + ")";
+            + target + ", paths: " + paths + ", ranges: " + ranges
+            + ", recoveryID: " + recoveryID + ")";
     }
 
     @Override
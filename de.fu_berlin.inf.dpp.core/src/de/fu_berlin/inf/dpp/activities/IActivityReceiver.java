@@ -44,6 +44,8 @@ public interface IActivityReceiver {
 
     void receive(ProgressActivity progressActivity);
 
+    void receive(RecoveryTextEditActivity recoveryTextEditActivity);
+
     void receive(ShareConsoleActivity shareConsoleActivity);
 
     void receive(StartFollowingActivity startFollowingActivity);
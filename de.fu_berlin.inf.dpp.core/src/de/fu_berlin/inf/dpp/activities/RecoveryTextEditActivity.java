@@ -0,0 +1,192 @@
+package de.fu_berlin.inf.dpp.activities;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+
+import de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums;
+import de.fu_berlin.inf.dpp.session.User;
+
+/**
+ * Activity that is used during the Recovery-Process to replace only the part of
+ * an inconsistent document that differs from the host's document. It is sent
+ * from the host to the client that requested the recovery instead of a
+ * {@link RecoveryFileActivity} if the client provided the
+ * {@link RangeChecksums hashes of the ranges} of its document.
+ * <p>
+ * The activity is not transformed by Jupiter, the Jupiter algorithm for the
+ * document has to be reset on both sides.
+ */
+@XStreamAlias("recoveryTextEditActivity")
+public class RecoveryTextEditActivity extends AbstractResourceActivity
+    implements ITargetedActivity {
+
+    @XStreamAsAttribute
+    private final User target;
+
+    @XStreamAsAttribute
+    protected final int offset;
+
+    @XStreamAsAttribute
+    protected final int replacedLength;
+
+    @XStreamAsAttribute
+    protected final int baseHash;
+
+    protected final String text;
+
+    /**
+     * @param offset
+     *            the offset inside the document where the text is replaced
+     * @param replacedLength
+     *            the number of characters that are replaced
+     * @param text
+     *            the text that is inserted instead
+     * @param baseHash
+     *            the hash of the whole document the replacement has to be
+     *            applied to
+     */
+    public RecoveryTextEditActivity(User source, SPath path, User target,
+        int offset, int replacedLength, String text, int baseHash) {
+
+        super(source, path);
+
+        if (target == null)
+            throw new IllegalArgumentException("target must not be null");
+        if (path == null)
+            throw new IllegalArgumentException("path must not be null");
+        if (text == null)
+            throw new IllegalArgumentException("text must not be null");
+
+        this.target = target;
+        this.offset = offset;
+        this.replacedLength = replacedLength;
+        this.text = text;
+        this.baseHash = baseHash;
+    }
+
+    /**
+     * Creates the activity that turns the target's document described by the
+     * given ranges into the given content. Only the ranges that differ from
+     * the content are replaced.
+     *
+     * @param targetRanges
+     *            the hashes of the ranges of the target's document
+     * @param content
+     *            the content of the local document
+     * @return the activity or <code>null</code> if the differing part of the
+     *         content is larger than half of the content, so it is cheaper to
+     *         recover the whole file
+     */
+    public static RecoveryTextEditActivity create(User source, SPath path,
+        User target, RangeChecksums targetRanges, String content) {
+
+        final int targetLength = targetRanges.getTotalLength();
+
+        final int first = targetRanges.findFirstMismatch(content);
+        final int last = targetRanges.findLastMismatch(content);
+
+        final int suffix = targetLength - targetRanges.getOffset(last + 1);
+
+        /*
+         * the matching prefix and suffix may overlap if text was inserted or
+         * removed at the border of two ranges
+         */
+        final int prefix = Math.min(targetRanges.getOffset(first),
+            Math.min(targetLength, content.length()) - suffix);
+
+        final String text = content.substring(prefix, content.length()
+            - suffix);
+
+        if (text.length() > content.length() / 2)
+            return null;
+
+        return new RecoveryTextEditActivity(source, path, target, prefix,
+            targetLength - suffix - prefix, text,
+            targetRanges.getTotalHash());
+    }
+
+    @Override
+    public boolean isValid() {
+        return super.isValid() && (target != null) && (getPath() != null);
+    }
+
+    @Override
+    public User getTarget() {
+        return target;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getReplacedLength() {
+        return replacedLength;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the {@linkplain String#hashCode() hash code} of the whole
+     * document this activity has to be applied to.
+     */
+    public int getBaseHash() {
+        return baseHash;
+    }
+
+    @Override
+    public void dispatch(IActivityReceiver receiver) {
+        receiver.receive(this);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + offset;
+        result = prime * result + replacedLength;
+        result = prime * result + baseHash;
+        result = prime * result + ObjectUtils.hashCode(text);
+        result = prime * result + ObjectUtils.hashCode(target);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (!(obj instanceof RecoveryTextEditActivity))
+            return false;
+
+        RecoveryTextEditActivity other = (RecoveryTextEditActivity) obj;
+
+        if (this.offset != other.offset)
+            return false;
+        if (this.replacedLength != other.replacedLength)
+            return false;
+        if (this.baseHash != other.baseHash)
+            return false;
+        if (!ObjectUtils.equals(this.text, other.text))
+            return false;
+        if (!ObjectUtils.equals(this.target, other.target))
+            return false;
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "RecoveryTextEditActivity(target: " + target + ", path: "
+            + getPath() + ", offset: " + offset + ", replaced: "
+            + replacedLength + ", new: '"
+            + StringEscapeUtils.escapeJava(StringUtils.abbreviate(text, 150))
+            + "', src: " + getSource() + ")";
+    }
+}
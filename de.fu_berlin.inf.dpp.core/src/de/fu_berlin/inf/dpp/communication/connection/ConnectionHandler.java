@@ -37,6 +37,13 @@ public class ConnectionHandler {
     private static final boolean MDNS_MODE = Boolean
         .getBoolean("de.fu_berlin.inf.dpp.net.ENABLE_MDNS");
 
+    /**
+     * The handshake of the TCP transport is not authenticated, so it must be
+     * enabled explicitly.
+     */
+    private static final boolean TCP_TRANSPORT_MODE = Boolean
+        .getBoolean("de.fu_berlin.inf.dpp.net.ENABLE_TCP_TRANSPORT");
+
     private final XMPPConnectionService connectionService;
     private final MDNSService mDNSService;
 
@@ -325,8 +332,12 @@ public class ConnectionHandler {
             if (preferences.forceIBBTransport())
                 connectionManager
                     .setTransport(IConnectionManager.IBB_TRANSPORT);
-            else
+            else if (TCP_TRANSPORT_MODE)
                 connectionManager.setTransport(/* use all */-1);
+            else
+                connectionManager
+                    .setTransport(IConnectionManager.SOCKS5_TRANSPORT
+                        | IConnectionManager.IBB_TRANSPORT);
 
             connectionService.connect(
                 createConnectionConfiguration(domain, server, port, useTLS,
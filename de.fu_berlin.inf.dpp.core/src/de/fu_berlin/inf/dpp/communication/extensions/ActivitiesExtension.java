@@ -39,6 +39,7 @@ import de.fu_berlin.inf.dpp.activities.NOPActivity;
 import de.fu_berlin.inf.dpp.activities.PermissionActivity;
 import de.fu_berlin.inf.dpp.activities.ProgressActivity;
 import de.fu_berlin.inf.dpp.activities.RecoveryFileActivity;
+import de.fu_berlin.inf.dpp.activities.RecoveryTextEditActivity;
 import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.ShareConsoleActivity;
 import de.fu_berlin.inf.dpp.activities.StartFollowingActivity;
@@ -53,6 +54,8 @@ import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.TimestampOperation;
+import de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums;
+import de.fu_berlin.inf.dpp.misc.binary.BinaryExtensionProvider;
 import de.fu_berlin.inf.dpp.net.xmpp.JID;
 import de.fu_berlin.inf.dpp.session.User;
 
@@ -61,6 +64,16 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
 
     public static final Provider PROVIDER = new Provider();
 
+    /**
+     * Provider for the compact binary representation of this extension. It
+     * can only be used if the remote side supports the
+     * {@linkplain de.fu_berlin.inf.dpp.versioning.VersionManager#BINARY_ACTIVITIES_FEATURE
+     * binary activities feature}. Received extensions are delivered as
+     * extensions of the {@link #PROVIDER}.
+     */
+    public static final BinaryExtensionProvider<ActivitiesExtension> BINARY_PROVIDER = new BinaryExtensionProvider<ActivitiesExtension>(
+        "adosb", PROVIDER);
+
     @XStreamImplicit
     private final List<IActivity> activities;
 
@@ -164,6 +177,9 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
                 // SPATH
                 SPath.class,
 
+                // Checksums
+                RangeChecksums.class,
+
                 // Activities
                 ChangeColorActivity.class,
 
@@ -187,6 +203,8 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
 
                 RecoveryFileActivity.class,
 
+                RecoveryTextEditActivity.class,
+
                 ShareConsoleActivity.class,
 
                 StartFollowingActivity.class,
@@ -20,10 +20,6 @@
  */
 package de.fu_berlin.inf.dpp.concurrent.jupiter.internal;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 
@@ -39,6 +35,7 @@ import de.fu_berlin.inf.dpp.concurrent.jupiter.Timestamp;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.OperationCompactor;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.TimestampOperation;
 import de.fu_berlin.inf.dpp.session.User;
 
@@ -73,7 +70,7 @@ public class Jupiter implements Algorithm {
      * corresponds to the 'outgoing' list in the Jupiter pseudo code
      * description.
      */
-    protected final List<OperationWrapper> ackJupiterActivityList;
+    protected final OperationLog ackJupiterActivityList;
 
     /**
      * Class constructor that creates a new Jupiter algorithm.
@@ -85,20 +82,27 @@ public class Jupiter implements Algorithm {
         this.inclusion = new GOTOInclusionTransformation();
         this.vectorTime = new JupiterVectorTime(0, 0);
         this.isClientSide = isClientSide;
-        this.ackJupiterActivityList = new ArrayList<OperationWrapper>();
+        this.ackJupiterActivityList = new OperationLog();
     }
 
     @Override
     public JupiterActivity generateJupiterActivity(Operation op, User source,
         SPath editor) {
 
+        /*
+         * the compacted operation is sent and kept in the outgoing list, so
+         * both sides transform the same operation, only the text operations
+         * of this single operation are merged
+         */
+        op = OperationCompactor.compact(op);
+
         // send(op, myMsgs, otherMsgs);
         JupiterActivity jupiterActivity = new JupiterActivity(this.vectorTime,
             op, source, editor);
 
         // add(op, myMsgs) to outgoing;
-        this.ackJupiterActivityList.add(new OperationWrapper(op,
-            this.vectorTime.getLocalOperationCount()));
+        this.ackJupiterActivityList.add(op,
+            this.vectorTime.getLocalOperationCount());
 
         // myMsgs = myMsgs + 1;
         this.vectorTime = this.vectorTime.incrementLocalOperationCount();
@@ -194,8 +198,7 @@ public class Jupiter implements Algorithm {
         int[] result = new int[indices.length];
         System.arraycopy(indices, 0, result, 0, indices.length);
         for (int i = 0; i < this.ackJupiterActivityList.size(); i++) {
-            OperationWrapper wrap = this.ackJupiterActivityList.get(i);
-            Operation ack = wrap.getOperation();
+            Operation ack = this.ackJupiterActivityList.get(i);
             for (int k = 0; k < indices.length; k++) {
                 result[k] = transformIndex(result[k], ack);
             }
@@ -227,14 +230,8 @@ public class Jupiter implements Algorithm {
      *            the remote JupiterVectorTime
      */
     protected void discardAcknowledgedOperations(JupiterVectorTime time) {
-        Iterator<OperationWrapper> iter = this.ackJupiterActivityList
-            .iterator();
-        while (iter.hasNext()) {
-            OperationWrapper wrap = iter.next();
-            if (wrap.getLocalOperationCount() < time.getRemoteOperationCount()) {
-                iter.remove();
-            }
-        }
+        this.ackJupiterActivityList.discardBefore(time
+            .getRemoteOperationCount());
         // ASSERT msg.myMsgs == otherMsgs
         assert time.getLocalOperationCount() == this.vectorTime
             .getRemoteOperationCount() : "msg.myMsgs != otherMsgs !!";
@@ -252,9 +249,8 @@ public class Jupiter implements Algorithm {
     protected Operation transform(Operation newOp) {
         for (int ackJupiterActivityListCnt = 0; ackJupiterActivityListCnt < this.ackJupiterActivityList
             .size(); ackJupiterActivityListCnt++) {
-            OperationWrapper wrap = this.ackJupiterActivityList
+            Operation existingOp = this.ackJupiterActivityList
                 .get(ackJupiterActivityListCnt);
-            Operation existingOp = wrap.getOperation();
 
             Operation transformedOp;
 
@@ -269,9 +265,8 @@ public class Jupiter implements Algorithm {
                 existingOp = this.inclusion.transform(existingOp, newOp,
                     Boolean.TRUE);
             }
-            this.ackJupiterActivityList
-                .set(ackJupiterActivityListCnt, new OperationWrapper(
-                    existingOp, wrap.getLocalOperationCount()));
+            this.ackJupiterActivityList.set(ackJupiterActivityListCnt,
+                existingOp);
 
             newOp = transformedOp;
         }
@@ -290,7 +285,7 @@ public class Jupiter implements Algorithm {
         throws TransformationException {
         if (!this.ackJupiterActivityList.isEmpty()
             && (time.getRemoteOperationCount() < this.ackJupiterActivityList
-                .get(0).getLocalOperationCount())) {
+                .getLocalOperationCount(0))) {
             throw new TransformationException("Precondition #1 violated.");
         } else if (time.getRemoteOperationCount() > this.vectorTime
             .getLocalOperationCount()) {
@@ -304,46 +299,6 @@ public class Jupiter implements Algorithm {
         }
     }
 
-    /**
-     * This is a simple helper class used in the implementation of the Jupiter
-     * algorithm. A OperationWrapper instance is created with an operation and
-     * the current local operation count and inserted into the outgoing queue
-     * (see {@link Jupiter#ackJupiterActivityList}).
-     * 
-     * @valueObject Instances of this class should be treated as value objects
-     *              and should be treated as immutable.
-     * 
-     * @see Jupiter#generateJupiterActivity(Operation, User, SPath)
-     * @see Jupiter#receiveJupiterActivity(JupiterActivity)
-     */
-    protected static class OperationWrapper {
-
-        protected final Operation op;
-
-        protected final int count;
-
-        OperationWrapper(Operation op, int count) {
-            this.op = op;
-            this.count = count;
-        }
-
-        Operation getOperation() {
-            return this.op;
-        }
-
-        int getLocalOperationCount() {
-            return this.count;
-        }
-
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public String toString() {
-            return ("OperationWrapper(" + this.op + ", " + this.count + ")");
-        }
-    }
-
     /**
      * Throws a CannotUndoException because undo is not supported by this
      * implementation.
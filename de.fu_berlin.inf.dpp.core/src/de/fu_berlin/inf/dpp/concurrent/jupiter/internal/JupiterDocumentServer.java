@@ -1,6 +1,8 @@
 package de.fu_berlin.inf.dpp.concurrent.jupiter.internal;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -12,6 +14,7 @@ import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.Timestamp;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
 import de.fu_berlin.inf.dpp.session.User;
 
 /**
@@ -49,13 +52,27 @@ public class JupiterDocumentServer {
         return proxies.remove(user) != null;
     }
 
-    // FIXME why is this not synchronized ?!
-    public Map<User, JupiterActivity> transformJupiterActivity(
+    public synchronized Map<User, JupiterActivity> transformJupiterActivity(
         final JupiterActivity activity) throws TransformationException {
 
+        return transformJupiterActivities(Collections.singletonList(activity));
+    }
+
+    /**
+     * Transforms consecutive JupiterActivities of the same source at once.
+     * Their operations are combined, so every other client receives a single
+     * JupiterActivity for all of them. Activities that cannot be transformed
+     * are skipped.
+     * 
+     * @throws TransformationException
+     *             if none of the activities can be transformed
+     */
+    public synchronized Map<User, JupiterActivity> transformJupiterActivities(
+        final List<JupiterActivity> activities) throws TransformationException {
+
         final Map<User, JupiterActivity> result = new HashMap<User, JupiterActivity>();
 
-        final User source = activity.getSource();
+        final User source = activities.get(0).getSource();
 
         // 1. Use JupiterClient of sender to transform JupiterActivity
         final Jupiter sourceProxy = proxies.get(source);
@@ -70,7 +87,30 @@ public class JupiterDocumentServer {
             throw new IllegalStateException(
                 "no proxy client registered for user: " + source);
 
-        final Operation op = sourceProxy.receiveJupiterActivity(activity);
+        Operation op = null;
+        TransformationException failure = null;
+
+        for (final JupiterActivity activity : activities) {
+            if (!source.equals(activity.getSource()))
+                throw new IllegalArgumentException(
+                    "activities of different sources: " + activities);
+
+            final Operation received;
+
+            try {
+                received = sourceProxy.receiveJupiterActivity(activity);
+            } catch (TransformationException e) {
+                LOG.error("failed to transform jupiter activity: " + activity,
+                    e);
+                failure = e;
+                continue;
+            }
+
+            op = op == null ? received : new SplitOperation(op, received);
+        }
+
+        if (op == null)
+            throw failure;
 
         // 2. Generate outgoing JupiterActivities for all other clients and the
         // host
@@ -117,7 +157,7 @@ public class JupiterDocumentServer {
             addProxyClient(user);
     }
 
-    public Map<User, ChecksumActivity> withTimestamp(
+    public synchronized Map<User, ChecksumActivity> withTimestamp(
         final ChecksumActivity activity) throws TransformationException {
 
         final Map<User, ChecksumActivity> result = new HashMap<User, ChecksumActivity>();
@@ -0,0 +1,135 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.internal;
+
+import java.util.Arrays;
+
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+
+/**
+ * The outgoing queue of the Jupiter algorithm: the operations that were sent
+ * to the other site but are not acknowledged yet.
+ * <p>
+ * Every operation is identified by the local operation count at the time it
+ * was generated. These counts increase by one with every generated operation,
+ * so the operations are stored in a ring buffer and acknowledged operations
+ * are discarded by advancing its head. Transformed operations replace the
+ * original ones in place.
+ * <p>
+ * This class is not thread safe.
+ */
+class OperationLog {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Operation[] operations = new Operation[INITIAL_CAPACITY];
+
+    /** array index of the oldest operation */
+    private int head;
+
+    private int size;
+
+    /** local operation count of the oldest operation */
+    private int firstCount;
+
+    /**
+     * Appends the given operation.
+     *
+     * @param count
+     *            the local operation count of the operation
+     * @throws IllegalArgumentException
+     *             if the log is not empty and the count does not directly
+     *             follow the count of the newest operation
+     */
+    void add(Operation operation, int count) {
+        if (size == 0)
+            firstCount = count;
+        else if (count != firstCount + size)
+            throw new IllegalArgumentException("operation count " + count
+                + " does not follow " + (firstCount + size - 1));
+
+        if (size == operations.length)
+            grow();
+
+        operations[(head + size) % operations.length] = operation;
+        size++;
+    }
+
+    /**
+     * Returns the operation at the given position, the oldest operation is at
+     * position <code>0</code>.
+     */
+    Operation get(int index) {
+        checkIndex(index);
+        return operations[(head + index) % operations.length];
+    }
+
+    /**
+     * Replaces the operation at the given position.
+     */
+    void set(int index, Operation operation) {
+        checkIndex(index);
+        operations[(head + index) % operations.length] = operation;
+    }
+
+    /**
+     * Returns the local operation count of the operation at the given
+     * position.
+     */
+    int getLocalOperationCount(int index) {
+        checkIndex(index);
+        return firstCount + index;
+    }
+
+    /**
+     * Discards all operations whose local operation count is lower than the
+     * given count.
+     */
+    void discardBefore(int count) {
+        final int discard = Math.min(size, Math.max(0, count - firstCount));
+
+        // release the references, the slots are reused later anyway
+        for (int i = 0; i < discard; i++)
+            operations[(head + i) % operations.length] = null;
+
+        head = (head + discard) % operations.length;
+        firstCount += discard;
+        size -= discard;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void grow() {
+        final Operation[] grown = Arrays.copyOfRange(operations, head,
+            head + operations.length * 2);
+
+        System.arraycopy(operations, 0, grown, operations.length - head, head);
+
+        operations = grown;
+        head = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: "
+                + size);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("OperationLog(");
+
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                builder.append(", ");
+
+            builder.append(firstCount + i).append(": ").append(get(i));
+        }
+
+        return builder.append(")").toString();
+    }
+}
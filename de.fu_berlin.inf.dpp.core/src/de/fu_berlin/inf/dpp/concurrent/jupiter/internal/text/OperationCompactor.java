@@ -0,0 +1,137 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+
+/**
+ * Reduces the number of operations contained in (nested)
+ * {@link SplitOperation}s by merging adjacent insertions and deletions.
+ * <p>
+ * Every text operation of an operation is transformed separately by the
+ * Jupiter algorithm, so an operation that consists of fewer text operations is
+ * cheaper to transform against all operations that are not acknowledged yet.
+ * <p>
+ * Only the text operations within a single operation are merged. Consecutive
+ * local edits, e.g. the keystrokes of a typing burst, are combined to a single
+ * operation by the ConcurrentDocumentClient before they are sent, and the
+ * operations of consecutive activities of the same user are combined by the
+ * JupiterDocumentServer before they are forwarded.
+ */
+public final class OperationCompactor {
+
+    private OperationCompactor() {
+        // NOP
+    }
+
+    /**
+     * Returns an operation with the same effect as the given one that
+     * consists of as few text operations as possible. The text operations are
+     * merged in the order they are executed, operations without any effect
+     * are removed.
+     *
+     * @return the given operation if it is not a {@link SplitOperation}
+     */
+    public static Operation compact(Operation operation) {
+        if (!(operation instanceof SplitOperation))
+            return operation;
+
+        final List<ITextOperation> compacted = new ArrayList<ITextOperation>();
+
+        for (ITextOperation next : operation.getTextOperations()) {
+            if (next.getTextLength() == 0)
+                continue;
+
+            final int last = compacted.size() - 1;
+
+            if (last >= 0) {
+                final ITextOperation combined = combine(compacted.get(last),
+                    next);
+
+                if (combined != null) {
+                    if (combined.getTextLength() == 0)
+                        compacted.remove(last);
+                    else
+                        compacted.set(last, combined);
+
+                    continue;
+                }
+            }
+
+            compacted.add(next);
+        }
+
+        if (compacted.isEmpty())
+            return new NoOperation();
+
+        Operation result = compacted.get(0);
+
+        for (int i = 1; i < compacted.size(); i++)
+            result = new SplitOperation(result, compacted.get(i));
+
+        return result;
+    }
+
+    /**
+     * Combined insertions keep the origin of the first insertion, which
+     * determines the order of concurrent insertions at the same position.
+     * 
+     * @return a text operation with the same effect as executing op1 and then
+     *         op2 or <code>null</code> if the two operations cannot be
+     *         combined
+     */
+    static ITextOperation combine(ITextOperation op1, ITextOperation op2) {
+
+        final int position1 = op1.getPosition();
+        final int position2 = op2.getPosition();
+
+        final String text1 = op1.getText();
+        final String text2 = op2.getText();
+
+        if (op1 instanceof InsertOperation && op2 instanceof InsertOperation) {
+
+            // Ins(2,"ab") + Ins(3,"cd") -> Ins(2,"acdb")
+            if (position2 >= position1
+                && position2 <= position1 + text1.length()) {
+                final int split = position2 - position1;
+
+                return new InsertOperation(position1, text1.substring(0,
+                    split) + text2 + text1.substring(split),
+                    ((InsertOperation) op1).getOrigin());
+            }
+
+        } else if (op1 instanceof DeleteOperation
+            && op2 instanceof DeleteOperation) {
+
+            // Del(5,"ab") + Del(5,"cde") -> Del(5,"abcde")
+            if (position2 == position1)
+                return new DeleteOperation(position1, text1 + text2);
+
+            // Del(8,"c") + Del(6,"ab") -> Del(6,"abc")
+            if (position2 + text2.length() == position1)
+                return new DeleteOperation(position2, text2 + text1);
+
+        } else if (op1 instanceof InsertOperation
+            && op2 instanceof DeleteOperation) {
+
+            // Ins(5,"ab") + Del(5,"abcd") -> Del(5,"cd")
+            if (position2 == position1 && text2.startsWith(text1))
+                return new DeleteOperation(position1,
+                    text2.substring(text1.length()));
+
+            // Ins(5,"abcd") + Del(6,"bc") -> Ins(5,"ad")
+            final int start = position2 - position1;
+            final int end = start + text2.length();
+
+            if (start >= 0 && end <= text1.length()
+                && text1.regionMatches(start, text2, 0, text2.length()))
+                return new InsertOperation(position1, text1.substring(0,
+                    start) + text1.substring(end),
+                    ((InsertOperation) op1).getOrigin());
+        }
+
+        // Nothing can be combined
+        return null;
+    }
+}
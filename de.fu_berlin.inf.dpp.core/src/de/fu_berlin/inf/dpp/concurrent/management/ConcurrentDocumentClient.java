@@ -15,6 +15,7 @@ import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.TextEditActivity;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
 import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 
 /**
@@ -28,20 +29,54 @@ import de.fu_berlin.inf.dpp.session.ISarosSession;
  * When JupiterActivities are received from the server they are transformed by
  * the ConcurrentDocumentClient to TextEditActivities which can then be executed
  * locally.
+ * 
+ * Local TextEdits of the same document are held back for
+ * {@link #TEXT_EDIT_MERGE_WINDOW} milliseconds, so the keystrokes of a typing
+ * burst are merged into a single JupiterActivity. Held back TextEdits must be
+ * sent by calling {@link #flushTextEdits()} once the window has expired.
  */
 public class ConcurrentDocumentClient {
 
     private static Logger log = Logger
         .getLogger(ConcurrentDocumentClient.class);
 
+    /**
+     * Time in milliseconds local TextEdits of a document are held back to merge
+     * them with following TextEdits of the same document. A value of zero
+     * sends every TextEdit immediately.
+     */
+    public static final long TEXT_EDIT_MERGE_WINDOW = Long.getLong(
+        "de.fu_berlin.inf.dpp.session.TEXT_EDIT_MERGE_WINDOW", 50);
+
     private final ISarosSession sarosSession;
 
     private final JupiterClient jupiterClient;
 
+    private final long mergeWindow;
+
+    /**
+     * Local TextEdits of a single document that are not passed to Jupiter yet
+     */
+    private final List<TextEditActivity> pendingTextEdits = new ArrayList<TextEditActivity>();
+
+    /** time the first of the pending TextEdits was made */
+    private long pendingSince;
+
+    /**
+     * Activities that were generated for held back TextEdits but were not
+     * returned to the caller yet
+     */
+    private final List<IActivity> generatedActivities = new ArrayList<IActivity>();
+
     public ConcurrentDocumentClient(ISarosSession sarosSession) {
+        this(sarosSession, TEXT_EDIT_MERGE_WINDOW);
+    }
+
+    ConcurrentDocumentClient(ISarosSession sarosSession, long mergeWindow) {
 
         this.sarosSession = sarosSession;
         this.jupiterClient = new JupiterClient(sarosSession);
+        this.mergeWindow = mergeWindow;
     }
 
     /**
@@ -57,18 +92,29 @@ public class ConcurrentDocumentClient {
      * @param activity
      *            The activity to be transformed
      * 
-     * @return The transformed activity
+     * @return The transformed activities in the order they must be sent, this
+     *         list is empty if the given activity is a TextEdit that is held
+     *         back to merge it with following TextEdits
      * 
      */
-    public IActivity transformToJupiter(IActivity activity) {
+    public synchronized List<IActivity> transformToJupiter(IActivity activity) {
 
         // assert isGUI() :
         // "CDC.transformOutgoing must be called on the SWT Thread";
 
         if (activity instanceof TextEditActivity) {
-            // Transform textEdit-into jupiterActivities
             TextEditActivity textEdit = (TextEditActivity) activity;
-            return jupiterClient.generate(textEdit);
+
+            if (!canMerge(textEdit))
+                generatePendingTextEdits();
+
+            if (pendingTextEdits.isEmpty())
+                pendingSince = System.currentTimeMillis();
+
+            pendingTextEdits.add(textEdit);
+
+            if (mergeWindow <= 0)
+                generatePendingTextEdits();
 
         } else if (activity instanceof ChecksumActivity) {
             ChecksumActivity checksumActivity = (ChecksumActivity) activity;
@@ -78,13 +124,87 @@ public class ConcurrentDocumentClient {
              */
             assert sarosSession.isHost();
 
+            generatePendingTextEdits();
+
             // Create Jupiter specific checksum
-            return jupiterClient.withTimestamp(checksumActivity);
+            generatedActivities.add(jupiterClient
+                .withTimestamp(checksumActivity));
 
         } else {
-            return activity;
+            generatePendingTextEdits();
+            generatedActivities.add(activity);
+        }
+
+        return removeGeneratedActivities();
+    }
 
+    /**
+     * Returns whether there are held back TextEdits that must be sent by
+     * calling {@link #flushTextEdits()}.
+     * 
+     * @GUI Must be called on the GUI Thread to ensure proper synchronization
+     */
+    public synchronized boolean hasPendingTextEdits() {
+        return !pendingTextEdits.isEmpty() || !generatedActivities.isEmpty();
+    }
+
+    /**
+     * Transforms all held back TextEdits to JupiterActivities.
+     * 
+     * @GUI Must be called on the GUI Thread to ensure proper synchronization
+     * 
+     * @return the JupiterActivities that must be sent, in the order they must
+     *         be sent
+     */
+    public synchronized List<IActivity> flushTextEdits() {
+        generatePendingTextEdits();
+        return removeGeneratedActivities();
+    }
+
+    /**
+     * Returns whether the given TextEdit can be merged with the pending
+     * TextEdits, i.e. it belongs to the same document and the merge window of
+     * the pending TextEdits has not expired yet.
+     */
+    private boolean canMerge(TextEditActivity textEdit) {
+        if (pendingTextEdits.isEmpty())
+            return true;
+
+        return pendingTextEdits.get(0).getPath().equals(textEdit.getPath())
+            && System.currentTimeMillis() - pendingSince < mergeWindow;
+    }
+
+    /**
+     * Generates a single JupiterActivity for all pending TextEdits. The
+     * operations of the TextEdits are executed after each other and are
+     * therefore combined with {@link SplitOperation}s, Jupiter compacts the
+     * result, e.g. to a single insertion for a typing burst.
+     */
+    private void generatePendingTextEdits() {
+        if (pendingTextEdits.isEmpty())
+            return;
+
+        Operation op = null;
+
+        for (TextEditActivity textEdit : pendingTextEdits) {
+            if (op == null)
+                op = textEdit.toOperation();
+            else
+                op = new SplitOperation(op, textEdit.toOperation());
         }
+
+        generatedActivities.add(jupiterClient.generate(pendingTextEdits.get(0)
+            .getPath(), op));
+
+        pendingTextEdits.clear();
+    }
+
+    private List<IActivity> removeGeneratedActivities() {
+        List<IActivity> activities = new ArrayList<IActivity>(
+            generatedActivities);
+
+        generatedActivities.clear();
+        return activities;
     }
 
     /**
@@ -92,7 +212,9 @@ public class ConcurrentDocumentClient {
      * executed locally.
      * 
      * This method will transform them back from Jupiter-specific activities to
-     * locally executable activities.
+     * locally executable activities. Held back TextEdits are passed to Jupiter
+     * before, so they must be sent afterwards by calling
+     * {@link #flushTextEdits()}.
      * 
      * @GUI Must be called on the GUI Thread to ensure proper synchronization
      * 
@@ -104,7 +226,7 @@ public class ConcurrentDocumentClient {
      * 
      * @return A list of locally executable activities
      */
-    public List<IActivity> transformFromJupiter(IActivity activity) {
+    public synchronized List<IActivity> transformFromJupiter(IActivity activity) {
 
         // assert isGUI() :
         // "CDC.transformIncoming must be called on the SWT Thread";
@@ -112,6 +234,13 @@ public class ConcurrentDocumentClient {
         List<IActivity> activities = new ArrayList<IActivity>();
 
         try {
+            /*
+             * the local document already contains the pending TextEdits, so
+             * Jupiter must know about them before transforming the remote
+             * operation
+             */
+            generatePendingTextEdits();
+
             activity.dispatch(clientReceiver);
 
             if (activity instanceof JupiterActivity) {
@@ -200,10 +329,22 @@ public class ConcurrentDocumentClient {
      */
     public synchronized void reset(SPath path) {
         log.debug("Resetting jupiter client: " + path.toString());
+
+        if (!pendingTextEdits.isEmpty()
+            && pendingTextEdits.get(0).getPath().equals(path))
+            pendingTextEdits.clear();
+
         jupiterClient.reset(path);
     }
 
-    public boolean isCurrent(ChecksumActivity checksumActivity) {
+    public synchronized boolean isCurrent(ChecksumActivity checksumActivity) {
+
+        // the pending TextEdits are not contained in the checksum
+        if (!pendingTextEdits.isEmpty()
+            && pendingTextEdits.get(0).getPath()
+                .equals(checksumActivity.getPath()))
+            return false;
+
         try {
             return jupiterClient.isCurrent(checksumActivity);
         } catch (TransformationException e) {
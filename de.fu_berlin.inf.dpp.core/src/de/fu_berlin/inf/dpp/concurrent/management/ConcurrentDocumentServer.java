@@ -1,6 +1,7 @@
 package de.fu_berlin.inf.dpp.concurrent.management;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -99,7 +100,9 @@ public class ConcurrentDocumentServer implements Startable {
      * 
      * @host
      * 
-     * @sarosThread Must be executed in the Saros dispatch thread.
+     * @sarosThread Activities of the same path must be transformed in the
+     *              order they were received, activities of different paths
+     *              may be transformed concurrently.
      * 
      * @notGUI This method may not be called from SWT, otherwise a deadlock
      *         might occur!!
@@ -134,11 +137,82 @@ public class ConcurrentDocumentServer implements Startable {
         return result;
     }
 
+    /**
+     * Transforms the given activities on the server side like
+     * {@link #transformIncoming(IActivity)}. Consecutive JupiterActivities of
+     * the same source and path are transformed at once, so the other clients
+     * receive a single JupiterActivity for them.
+     * 
+     * @host
+     * 
+     * @notGUI This method may not be called from SWT, otherwise a deadlock
+     *         might occur!!
+     * 
+     * @param activities
+     *            Activities to be transformed
+     * 
+     * @return A list of QueueItems containing the activities and receivers
+     */
+    public List<QueueItem> transformIncoming(final List<IActivity> activities) {
+
+        final List<QueueItem> result = new ArrayList<QueueItem>();
+
+        final List<JupiterActivity> consecutive = new ArrayList<JupiterActivity>();
+
+        for (final IActivity activity : activities) {
+            if (activity instanceof JupiterActivity) {
+                final JupiterActivity jupiterActivity = (JupiterActivity) activity;
+
+                if (consecutive.isEmpty()
+                    || isConsecutive(consecutive.get(0), jupiterActivity)) {
+                    consecutive.add(jupiterActivity);
+                    continue;
+                }
+            }
+
+            if (!consecutive.isEmpty()) {
+                result.addAll(transformConsecutive(consecutive));
+                consecutive.clear();
+            }
+
+            if (activity instanceof JupiterActivity)
+                consecutive.add((JupiterActivity) activity);
+            else
+                result.addAll(transformIncoming(activity));
+        }
+
+        if (!consecutive.isEmpty())
+            result.addAll(transformConsecutive(consecutive));
+
+        return result;
+    }
+
+    private List<QueueItem> transformConsecutive(
+        final List<JupiterActivity> activities) {
+        try {
+            return receive(activities);
+        } catch (Exception e) {
+            LOG.error("failed to transform jupiter activities: " + activities,
+                e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static boolean isConsecutive(final JupiterActivity first,
+        final JupiterActivity next) {
+        return first.getSource().equals(next.getSource())
+            && first.getPath().equals(next.getPath());
+    }
+
     /**
      * Does the actual work of transforming a clients JupiterActivity into
      * specific JupiterActivities for every client.
      */
     private List<QueueItem> receive(final JupiterActivity activity) {
+        return receive(Collections.singletonList(activity));
+    }
+
+    private List<QueueItem> receive(final List<JupiterActivity> activities) {
 
         final List<QueueItem> result = new ArrayList<QueueItem>();
 
@@ -146,9 +220,10 @@ public class ConcurrentDocumentServer implements Startable {
         final Map<User, JupiterActivity> outgoing;
 
         try {
-            outgoing = server.transform(activity);
+            outgoing = server.transform(activities);
         } catch (TransformationException e) {
-            LOG.error("failed to transform jupiter activity: " + activity, e);
+            LOG.error("failed to transform jupiter activities: " + activities,
+                e);
             // TODO this should trigger a consistency check
             return result;
         }
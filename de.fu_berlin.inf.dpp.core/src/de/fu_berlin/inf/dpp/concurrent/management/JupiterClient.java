@@ -65,9 +65,15 @@ public class JupiterClient {
     }
 
     public synchronized JupiterActivity generate(TextEditActivity textEdit) {
+        return generate(textEdit.getPath(), textEdit.toOperation());
+    }
 
-        SPath path = textEdit.getPath();
-        return get(path).generateJupiterActivity(textEdit.toOperation(),
+    /**
+     * Generates a single JupiterActivity for the given local operation, e.g.
+     * the combined operation of several local text edits of the document.
+     */
+    public synchronized JupiterActivity generate(SPath path, Operation op) {
+        return get(path).generateJupiterActivity(op,
             sarosSession.getLocalUser(), path);
     }
 
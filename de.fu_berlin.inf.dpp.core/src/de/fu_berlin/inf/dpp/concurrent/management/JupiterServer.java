@@ -1,9 +1,10 @@
 package de.fu_berlin.inf.dpp.concurrent.management;
 
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.fu_berlin.inf.dpp.activities.ChecksumActivity;
 import de.fu_berlin.inf.dpp.activities.JupiterActivity;
@@ -18,6 +19,11 @@ import de.fu_berlin.inf.dpp.session.User;
  * number of paths.
  * 
  * (in contrast to a JupiterDocumentServer which only handles a single path)
+ * 
+ * Activities for different paths can be transformed concurrently as every
+ * JupiterDocumentServer is guarded by its own monitor. The monitor of this
+ * server only guards the set of clients and the creation of new
+ * JupiterDocumentServers.
  */
 public class JupiterServer {
 
@@ -26,7 +32,7 @@ public class JupiterServer {
      * 
      * @host
      */
-    private final HashMap<SPath, JupiterDocumentServer> concurrentDocuments = new HashMap<SPath, JupiterDocumentServer>();
+    private final Map<SPath, JupiterDocumentServer> concurrentDocuments = new ConcurrentHashMap<SPath, JupiterDocumentServer>();
 
     private final Set<User> currentClients = new HashSet<User>();
 
@@ -36,7 +42,7 @@ public class JupiterServer {
         this.sarosSession = sarosSession;
     }
 
-    public synchronized void removePath(final SPath path) {
+    public void removePath(final SPath path) {
         concurrentDocuments.remove(path);
     }
 
@@ -68,11 +74,18 @@ public class JupiterServer {
      * SarosSessionMapper to also track the resources and not just the projects
      * that are already shared for every user individually.
      */
-    private synchronized JupiterDocumentServer getServer(final SPath path) {
+    private JupiterDocumentServer getServer(final SPath path) {
 
         JupiterDocumentServer docServer = concurrentDocuments.get(path);
 
-        if (docServer == null) {
+        if (docServer != null)
+            return docServer;
+
+        synchronized (this) {
+            docServer = concurrentDocuments.get(path);
+
+            if (docServer != null)
+                return docServer;
 
             docServer = new JupiterDocumentServer(path);
 
@@ -94,11 +107,11 @@ public class JupiterServer {
         return docServer;
     }
 
-    public synchronized void reset(final SPath path, final User user) {
+    public void reset(final SPath path, final User user) {
         getServer(path).reset(user);
     }
 
-    public synchronized Map<User, JupiterActivity> transform(
+    public Map<User, JupiterActivity> transform(
         final JupiterActivity activity) throws TransformationException {
 
         final JupiterDocumentServer docServer = getServer(activity.getPath());
@@ -106,7 +119,20 @@ public class JupiterServer {
         return docServer.transformJupiterActivity(activity);
     }
 
-    public synchronized Map<User, ChecksumActivity> withTimestamp(
+    /**
+     * Transforms consecutive JupiterActivities of the same source and path at
+     * once, every other client receives a single JupiterActivity for them.
+     */
+    public Map<User, JupiterActivity> transform(
+        final List<JupiterActivity> activities) throws TransformationException {
+
+        final JupiterDocumentServer docServer = getServer(activities.get(0)
+            .getPath());
+
+        return docServer.transformJupiterActivities(activities);
+    }
+
+    public Map<User, ChecksumActivity> withTimestamp(
         final ChecksumActivity activity) throws TransformationException {
 
         final JupiterDocumentServer docServer = getServer(activity.getPath());
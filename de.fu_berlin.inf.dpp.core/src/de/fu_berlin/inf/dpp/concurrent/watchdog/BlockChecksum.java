@@ -0,0 +1,299 @@
+package de.fu_berlin.inf.dpp.concurrent.watchdog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A checksum of a text that is split into blocks, so that changes of the text
+ * only require to rehash the changed blocks instead of the whole text.
+ * <p>
+ * The hash of the text is equal to {@link String#hashCode()} of the text. The
+ * hash of a block only depends on its content and the hashes of consecutive
+ * blocks can be combined to the hash of their concatenation, see
+ * {@link #combine(int, int, int)}.
+ * <p>
+ * Changes are announced via {@link #replace(int, int, int)} and only mark the
+ * affected blocks as dirty. The dirty blocks are rehashed on the next call of
+ * {@link #update(CharSequence)}.
+ * <p>
+ * This class is <b>not</b> thread safe.
+ */
+public final class BlockChecksum {
+
+    /**
+     * The preferred number of characters of a block.
+     */
+    static final int BLOCK_SIZE = 4096;
+
+    private static final int HASH_MULTIPLIER = 31;
+
+    private static final class Block {
+        int length;
+        int hash;
+        boolean dirty;
+
+        Block(int length) {
+            this.length = length;
+            this.dirty = true;
+        }
+    }
+
+    private final List<Block> blocks = new ArrayList<Block>();
+
+    private int length;
+
+    private int hash;
+
+    private boolean dirty;
+
+    /**
+     * Creates a checksum of an empty text.
+     */
+    public BlockChecksum() {
+        reset(0);
+    }
+
+    /**
+     * Discards all blocks and marks the whole text of the given length as
+     * changed.
+     */
+    public void reset(int length) {
+        blocks.clear();
+        blocks.add(new Block(length));
+
+        this.length = length;
+        this.dirty = true;
+    }
+
+    /**
+     * Announces that <code>removedLength</code> characters at the given offset
+     * were replaced by <code>insertedLength</code> characters.
+     */
+    public void replace(int offset, int removedLength, int insertedLength) {
+        if (offset < 0 || removedLength < 0 || insertedLength < 0
+            || offset + removedLength > length)
+            throw new IllegalArgumentException("invalid replacement: offset="
+                + offset + ", removed=" + removedLength + ", length="
+                + length);
+
+        int first = 0;
+        int firstOffset = 0;
+
+        /*
+         * find the first block that contains the offset, an insertion at the
+         * border of two blocks is assigned to the preceding block
+         */
+        while (first < blocks.size() - 1
+            && firstOffset + blocks.get(first).length < offset
+            + (removedLength == 0 ? 0 : 1)) {
+            firstOffset += blocks.get(first).length;
+            first++;
+        }
+
+        final Block block = blocks.get(first);
+
+        int last = first;
+        int lastEnd = firstOffset + block.length;
+
+        while (lastEnd < offset + removedLength) {
+            last++;
+            lastEnd += blocks.get(last).length;
+        }
+
+        // merge all affected blocks into the first one
+        for (int i = first + 1; i <= last; i++)
+            block.length += blocks.get(i).length;
+
+        blocks.subList(first + 1, last + 1).clear();
+
+        block.length += insertedLength - removedLength;
+        block.dirty = true;
+
+        length += insertedLength - removedLength;
+        dirty = true;
+    }
+
+    /**
+     * Returns whether the checksum has to be updated.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Rehashes all dirty blocks and recalculates the hash of the text.
+     *
+     * @param text
+     *            the current text, only the content of the dirty blocks is
+     *            retrieved via {@link CharSequence#subSequence(int, int)}
+     *
+     * @throws IllegalArgumentException
+     *             if the length of the text does not match the announced
+     *             changes
+     */
+    public void update(CharSequence text) {
+        if (!dirty)
+            return;
+
+        if (text.length() != length)
+            throw new IllegalArgumentException("text length " + text.length()
+                + " does not match the checksum length " + length);
+
+        int offset = 0;
+
+        for (int i = 0; i < blocks.size(); i++) {
+            final Block block = blocks.get(i);
+
+            if (block.dirty) {
+                final CharSequence content = text.subSequence(offset, offset
+                    + block.length);
+
+                i += rehash(i, content) - 1;
+            }
+
+            offset += block.length;
+        }
+
+        int newHash = 0;
+
+        for (Block block : blocks)
+            newHash = combine(newHash, block.hash, block.length);
+
+        hash = newHash;
+        dirty = false;
+    }
+
+    /**
+     * Returns the hash of the text, which is equal to the
+     * {@linkplain String#hashCode() hash code} of the text.
+     */
+    public int getHash() {
+        return hash;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Groups the blocks into at most the given number of consecutive ranges of
+     * similar length.
+     *
+     * @throws IllegalStateException
+     *             if the checksum is {@linkplain #isDirty() dirty}
+     */
+    public RangeChecksums getRanges(int maxCount) {
+        if (dirty)
+            throw new IllegalStateException("checksum is not up to date");
+
+        final int minRangeLength = (length + maxCount - 1) / maxCount;
+
+        final List<Integer> lengths = new ArrayList<Integer>();
+        final List<Integer> hashes = new ArrayList<Integer>();
+
+        int rangeLength = 0;
+        int rangeHash = 0;
+
+        for (int i = 0; i < blocks.size(); i++) {
+            final Block block = blocks.get(i);
+
+            rangeHash = combine(rangeHash, block.hash, block.length);
+            rangeLength += block.length;
+
+            if (rangeLength >= minRangeLength || i == blocks.size() - 1) {
+                lengths.add(rangeLength);
+                hashes.add(rangeHash);
+                rangeLength = 0;
+                rangeHash = 0;
+            }
+        }
+
+        final int[] rangeLengths = new int[lengths.size()];
+        final int[] rangeHashes = new int[hashes.size()];
+
+        for (int i = 0; i < rangeLengths.length; i++) {
+            rangeLengths[i] = lengths.get(i);
+            rangeHashes[i] = hashes.get(i);
+        }
+
+        return new RangeChecksums(rangeLengths, rangeHashes);
+    }
+
+    /**
+     * Returns the hash of the concatenation of two texts.
+     *
+     * @param hash
+     *            hash of the first text
+     * @param suffixHash
+     *            hash of the second text
+     * @param suffixLength
+     *            length of the second text
+     */
+    static int combine(int hash, int suffixHash, int suffixLength) {
+        return hash * power(suffixLength) + suffixHash;
+    }
+
+    /**
+     * Calculates the hash of the given text, which is equal to the
+     * {@linkplain String#hashCode() hash code} of the text.
+     */
+    static int hash(CharSequence text, int offset, int length) {
+        int hash = 0;
+
+        for (int i = offset, end = offset + length; i < end; i++)
+            hash = HASH_MULTIPLIER * hash + text.charAt(i);
+
+        return hash;
+    }
+
+    /**
+     * Replaces the block at the given index with blocks of the preferred size.
+     * Empty blocks are removed.
+     *
+     * @return the number of blocks that replaced the block
+     */
+    private int rehash(int index, CharSequence content) {
+        final int contentLength = content.length();
+
+        blocks.remove(index);
+
+        // keep at least one block, even for an empty text
+        final int count = contentLength == 0 && !blocks.isEmpty() ? 0 : Math
+            .max(1, (contentLength + BLOCK_SIZE / 2) / BLOCK_SIZE);
+
+        int offset = 0;
+
+        for (int i = 0; i < count; i++) {
+            final int blockLength = i == count - 1 ? contentLength - offset
+                : BLOCK_SIZE;
+
+            final Block block = new Block(blockLength);
+            block.hash = hash(content, offset, blockLength);
+            block.dirty = false;
+
+            blocks.add(index + i, block);
+
+            offset += blockLength;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns 31 to the power of the given exponent (modulo 2^32).
+     */
+    private static int power(int exponent) {
+        int result = 1;
+        int base = HASH_MULTIPLIER;
+
+        while (exponent > 0) {
+            if ((exponent & 1) != 0)
+                result *= base;
+
+            base *= base;
+            exponent >>>= 1;
+        }
+
+        return result;
+    }
+}
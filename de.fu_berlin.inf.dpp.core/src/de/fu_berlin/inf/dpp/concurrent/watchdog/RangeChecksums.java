@@ -0,0 +1,141 @@
+package de.fu_berlin.inf.dpp.concurrent.watchdog;
+
+import java.util.Arrays;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+
+/**
+ * The hashes of consecutive ranges of a text, see
+ * {@link BlockChecksum#getRanges(int)}. They are used to narrow down the part
+ * of a text that differs from a remote copy. The hash of a range is equal to
+ * the {@linkplain String#hashCode() hash code} of its content.
+ * <p>
+ * Instances of this class are immutable.
+ */
+@XStreamAlias("ranges")
+public final class RangeChecksums {
+
+    private final int[] lengths;
+
+    private final int[] hashes;
+
+    public RangeChecksums(int[] lengths, int[] hashes) {
+        if (lengths.length != hashes.length)
+            throw new IllegalArgumentException(
+                "number of lengths and hashes differ");
+
+        this.lengths = lengths.clone();
+        this.hashes = hashes.clone();
+    }
+
+    public int getCount() {
+        return lengths.length;
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public int getHash(int index) {
+        return hashes[index];
+    }
+
+    /**
+     * Returns the offset of the range with the given index.
+     */
+    public int getOffset(int index) {
+        int offset = 0;
+
+        for (int i = 0; i < index; i++)
+            offset += lengths[i];
+
+        return offset;
+    }
+
+    /**
+     * Returns the length of the whole text.
+     */
+    public int getTotalLength() {
+        return getOffset(lengths.length);
+    }
+
+    /**
+     * Returns the hash of the whole text, which is equal to the
+     * {@linkplain String#hashCode() hash code} of the text.
+     */
+    public int getTotalHash() {
+        int hash = 0;
+
+        for (int i = 0; i < lengths.length; i++)
+            hash = BlockChecksum.combine(hash, hashes[i], lengths[i]);
+
+        return hash;
+    }
+
+    /**
+     * Returns the index of the first range whose content differs from the
+     * given text at the same offset.
+     *
+     * @return the index of the range or {@link #getCount()} if all ranges
+     *         match
+     */
+    public int findFirstMismatch(CharSequence text) {
+        int offset = 0;
+
+        for (int i = 0; i < lengths.length; i++) {
+            if (!matches(text, offset, i))
+                return i;
+
+            offset += lengths[i];
+        }
+
+        return lengths.length;
+    }
+
+    /**
+     * Returns the index of the last range whose content differs from the given
+     * text at the same distance to the end of the text.
+     *
+     * @return the index of the range or <code>-1</code> if all ranges match
+     */
+    public int findLastMismatch(CharSequence text) {
+        int offset = text.length();
+
+        for (int i = lengths.length - 1; i >= 0; i--) {
+            offset -= lengths[i];
+
+            if (!matches(text, offset, i))
+                return i;
+        }
+
+        return -1;
+    }
+
+    private boolean matches(CharSequence text, int offset, int index) {
+        return offset >= 0 && offset + lengths[index] <= text.length()
+            && BlockChecksum.hash(text, offset, lengths[index]) == hashes[index];
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(lengths) + Arrays.hashCode(hashes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof RangeChecksums))
+            return false;
+
+        RangeChecksums other = (RangeChecksums) obj;
+
+        return Arrays.equals(lengths, other.lengths)
+            && Arrays.equals(hashes, other.hashes);
+    }
+
+    @Override
+    public String toString() {
+        return "RangeChecksums(count: " + lengths.length + ")";
+    }
+}
@@ -0,0 +1,354 @@
+package de.fu_berlin.inf.dpp.filesystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.picocontainer.Disposable;
+
+/**
+ * A checksum cache that keeps the checksums of files across restarts of the
+ * application. Checksums are primarily served by a {@link ChecksumCacheImpl}.
+ * If it does not contain a checksum for a file, the checksum is looked up in
+ * a store file which is loaded on first access. Modified checksums are written
+ * back periodically and on {@linkplain #dispose() disposal}, so a crash only
+ * loses the changes since the last write.
+ * <p>
+ * A stored checksum is only used if the size and the modification time of the
+ * file did not change since the checksum was stored. This is validated lazily
+ * on every lookup. Checksums of files that were modified shortly before the
+ * checksum was added are not stored because a further modification that does
+ * not change the size of the file may not change its modification time
+ * either.
+ * <p>
+ * Stored checksums of files that no longer exist or did not change since they
+ * were stored are pruned on every write, as well as checksums that were not
+ * used for a long time, e.g. because their project is no longer shared.
+ */
+public final class PersistentChecksumCache implements IChecksumCache,
+    Disposable {
+
+    private static final Logger LOG = Logger
+        .getLogger(PersistentChecksumCache.class);
+
+    private static final int MAGIC = 0x53435343;
+
+    private static final int VERSION = 2;
+
+    /**
+     * The coarsest resolution of file modification times on the supported
+     * file systems (FAT) in milliseconds.
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+
+    /**
+     * Interval in milliseconds in which modified checksums are written to the
+     * store file.
+     */
+    private static final long SAVE_INTERVAL = 5 * 60 * 1000;
+
+    /**
+     * Time in milliseconds after which a stored checksum that was not used is
+     * pruned.
+     */
+    private static final long MAX_UNUSED_TIME = 30L * 24 * 60 * 60 * 1000;
+
+    private static class Entry {
+        private final String location;
+        private final long size;
+        private final long lastModified;
+        private final long checksum;
+        private long lastUsed;
+
+        private Entry(String location, long size, long lastModified,
+            long checksum, long lastUsed) {
+            this.location = location;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.lastUsed = lastUsed;
+        }
+
+        private boolean isValid(File localFile) {
+            return localFile != null && localFile.length() == size
+                && localFile.lastModified() == lastModified;
+        }
+    }
+
+    private final IFileContentChangedListener fileContentChangedListener = new IFileContentChangedListener() {
+
+        @Override
+        public void fileContentChanged(IFile file) {
+            synchronized (PersistentChecksumCache.this) {
+                if (entries.remove(getKey(file)) != null)
+                    isModified = true;
+            }
+        }
+    };
+
+    private final ChecksumCacheImpl cache;
+
+    private final File storeFile;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    private final Timer saveTimer = new Timer("Checksum-Store-Writer", true);
+
+    private boolean isLoaded;
+
+    private boolean isModified;
+
+    /**
+     * Creates a persistent checksum cache.
+     *
+     * @param fileContentChangedNotifier
+     *            the notifier that reports changes of files
+     * @param storeFile
+     *            the file the checksums are stored in, it is created if it
+     *            does not exist
+     */
+    public PersistentChecksumCache(
+        IFileContentChangedNotifier fileContentChangedNotifier, File storeFile) {
+        this.cache = new ChecksumCacheImpl(fileContentChangedNotifier);
+        this.storeFile = storeFile;
+
+        fileContentChangedNotifier
+            .addFileContentChangedListener(fileContentChangedListener);
+
+        saveTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                saveIfModified();
+            }
+        }, SAVE_INTERVAL, SAVE_INTERVAL);
+    }
+
+    @Override
+    public Long getChecksum(IFile file) {
+        final Long checksum = cache.getChecksum(file);
+
+        if (checksum != null)
+            return checksum;
+
+        final File localFile = getLocalFile(file);
+        final String key = getKey(file);
+
+        synchronized (this) {
+            load();
+
+            final Entry entry = entries.get(key);
+
+            if (entry == null)
+                return null;
+
+            if (!entry.isValid(localFile)) {
+
+                if (LOG.isTraceEnabled())
+                    LOG.trace("discarding outdated stored checksum for file: "
+                        + key);
+
+                entries.remove(key);
+                isModified = true;
+                return null;
+            }
+
+            if (LOG.isTraceEnabled())
+                LOG.trace("found valid stored checksum for file: " + key + " ["
+                    + entry.checksum + "]");
+
+            entry.lastUsed = System.currentTimeMillis();
+            isModified = true;
+
+            return entry.checksum;
+        }
+    }
+
+    @Override
+    public boolean addChecksum(IFile file, long checksum) {
+        final boolean isInvalid = cache.addChecksum(file, checksum);
+
+        final File localFile = getLocalFile(file);
+        final String key = getKey(file);
+
+        synchronized (this) {
+            load();
+
+            final long lastModified = localFile == null ? 0 : localFile
+                .lastModified();
+
+            /*
+             * if the checksum was invalid it may have been calculated on data
+             * that is older than the current modification time
+             */
+            if (isInvalid
+                || lastModified == 0
+                || System.currentTimeMillis() - lastModified < MODIFICATION_TIME_RESOLUTION) {
+
+                if (entries.remove(key) != null)
+                    isModified = true;
+
+                return isInvalid;
+            }
+
+            entries.put(key, new Entry(localFile.getAbsolutePath(),
+                localFile.length(), lastModified, checksum,
+                System.currentTimeMillis()));
+
+            isModified = true;
+        }
+
+        return isInvalid;
+    }
+
+    /**
+     * Stops the periodic writing and writes the checksums to the store file if
+     * they were modified.
+     */
+    @Override
+    public void dispose() {
+        saveTimer.cancel();
+        saveIfModified();
+    }
+
+    private synchronized void saveIfModified() {
+        if (!isModified)
+            return;
+
+        prune();
+
+        try {
+            save();
+            isModified = false;
+        } catch (IOException e) {
+            LOG.error("failed to store checksums in file: " + storeFile, e);
+        }
+    }
+
+    /**
+     * Removes the checksums of files that no longer exist or were changed and
+     * of files whose checksum was not used for a long time.
+     */
+    private void prune() {
+        final long currentTime = System.currentTimeMillis();
+
+        int pruned = 0;
+
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            final Entry entry = it.next();
+
+            if (currentTime - entry.lastUsed <= MAX_UNUSED_TIME
+                && entry.isValid(new File(entry.location)))
+                continue;
+
+            it.remove();
+            pruned++;
+        }
+
+        if (pruned > 0)
+            LOG.debug("pruned " + pruned + " outdated or unused checksums");
+    }
+
+    private void load() {
+        if (isLoaded)
+            return;
+
+        isLoaded = true;
+
+        if (!storeFile.exists())
+            return;
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(storeFile)));
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("ignoring checksum store with unknown format: "
+                    + storeFile);
+                return;
+            }
+
+            final int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                entries.put(key, new Entry(in.readUTF(), in.readLong(),
+                    in.readLong(), in.readLong(), in.readLong()));
+            }
+
+            LOG.debug("loaded " + count + " checksums from file: " + storeFile);
+        } catch (IOException e) {
+            LOG.warn("failed to load checksums from file: " + storeFile, e);
+            entries.clear();
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void save() throws IOException {
+        final File parent = storeFile.getAbsoluteFile().getParentFile();
+
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("could not create directory: " + parent);
+
+        final File tmpFile = new File(storeFile.getPath() + ".tmp");
+
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().location);
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().lastModified);
+                out.writeLong(entry.getValue().checksum);
+                out.writeLong(entry.getValue().lastUsed);
+            }
+
+            out.close();
+            out = null;
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        // renaming does not replace existing files on all platforms
+        if (storeFile.exists() && !storeFile.delete())
+            throw new IOException("could not delete file: " + storeFile);
+
+        if (!tmpFile.renameTo(storeFile))
+            throw new IOException("could not rename file " + tmpFile + " to "
+                + storeFile);
+
+        LOG.debug("stored " + entries.size() + " checksums in file: "
+            + storeFile);
+    }
+
+    private static String getKey(IFile file) {
+        return file.getFullPath().toPortableString();
+    }
+
+    private static File getLocalFile(IFile file) {
+        final IPath location = file.getLocation();
+        return location == null ? null : location.toFile();
+    }
+}
@@ -0,0 +1,720 @@
+package de.fu_berlin.inf.dpp.misc.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+
+import de.fu_berlin.inf.dpp.activities.ChecksumActivity;
+import de.fu_berlin.inf.dpp.activities.IActivity;
+import de.fu_berlin.inf.dpp.activities.JupiterActivity;
+import de.fu_berlin.inf.dpp.activities.NOPActivity;
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.TextEditActivity;
+import de.fu_berlin.inf.dpp.activities.TextSelectionActivity;
+import de.fu_berlin.inf.dpp.activities.ViewportActivity;
+import de.fu_berlin.inf.dpp.communication.extensions.ActivitiesExtension;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Timestamp;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterVectorTime;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.TimestampOperation;
+import de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums;
+import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.net.xmpp.JID;
+import de.fu_berlin.inf.dpp.session.ISarosSession;
+import de.fu_berlin.inf.dpp.session.User;
+
+/**
+ * Binary codec for {@link ActivitiesExtension}s. It is the binary counterpart
+ * of the XStream based serialization and uses the same session dependent
+ * information as the {@linkplain de.fu_berlin.inf.dpp.misc.xstream.SPathConverter
+ * SPathConverter} and {@linkplain de.fu_berlin.inf.dpp.misc.xstream.UserConverter
+ * UserConverter}.
+ * <p>
+ * The encoded data starts with a header containing the session id and the
+ * sequence number followed by the content. The content starts with a
+ * dictionary of all users and paths referenced by the activities. The
+ * activities themselves only refer to dictionary indices. The dictionary may
+ * contain entries that are not referenced by any activity, see
+ * {@link BroadcastEncoder}. All offsets, lengths and indices are written as
+ * varints. Larger content is deflated, so binary packet extensions do not need
+ * to be compressed by the transport again.
+ * <p>
+ * The frequently sent activity types (e.g {@link JupiterActivity},
+ * {@link TextSelectionActivity}, {@link ViewportActivity} and
+ * {@link ChecksumActivity}) are encoded natively. All other activities are
+ * embedded in their XStream representation.
+ */
+public class ActivitiesExtensionCodec implements
+    IBinaryCodec<ActivitiesExtension> {
+
+    private static final Logger LOG = Logger
+        .getLogger(ActivitiesExtensionCodec.class);
+
+    /**
+     * The version of the binary format. It <b>must</b> be increased on every
+     * incompatible change.
+     */
+    public static final int FORMAT_VERSION = 5;
+
+    private static class Type {
+        private static final int XSTREAM = 0;
+        private static final int JUPITER = 1;
+        private static final int TEXT_SELECTION = 2;
+        private static final int VIEWPORT = 3;
+        private static final int CHECKSUM = 4;
+        private static final int TEXT_EDIT = 5;
+        private static final int NOP = 6;
+    }
+
+    private static class OperationType {
+        private static final int NO_OP = 0;
+        private static final int INSERT = 1;
+        private static final int DELETE = 2;
+        private static final int SPLIT = 3;
+        private static final int TIMESTAMP = 4;
+    }
+
+    private static class ChecksumFlags {
+        private static final int TIMESTAMP = 1;
+        private static final int RANGES = 2;
+    }
+
+    private static class Encoding {
+        private static final int RAW = 0;
+        private static final int DEFLATED = 1;
+    }
+
+    /** Encoded content smaller than this is not worth being compressed. */
+    private static final int COMPRESS_THRESHOLD = 256;
+
+    private final ISarosSession session;
+    private final IPathFactory pathFactory;
+
+    /**
+     * Encodes the extensions of one broadcast, i.e the extensions the host
+     * sends to several participants at the same time. All extensions share one
+     * dictionary, so the encoding of an activity does not depend on its
+     * recipient. Activities that are sent to several recipients and Jupiter
+     * operations that are shared by the activities of several recipients are
+     * therefore only encoded once, as long as they are the same instances.
+     * <p>
+     * The encoder keeps all encoded activities and must not be used for more
+     * than one broadcast. This class is <b>not</b> thread safe.
+     */
+    public final class BroadcastEncoder {
+
+        private final Map<String, Integer> users = new LinkedHashMap<String, Integer>();
+        private final Map<SPath, Integer> paths = new LinkedHashMap<SPath, Integer>();
+        private final List<String> projectIDs = new ArrayList<String>();
+
+        private final Map<Object, byte[]> encodedParts = new IdentityHashMap<Object, byte[]>();
+
+        private BroadcastEncoder() {
+            // use createBroadcastEncoder()
+        }
+
+        /**
+         * Returns the binary representation of the given extension.
+         */
+        public byte[] encode(ActivitiesExtension extension) throws IOException {
+            return ActivitiesExtensionCodec.this.encode(extension, users,
+                paths, projectIDs, encodedParts);
+        }
+    }
+
+    public ActivitiesExtensionCodec(ISarosSession session,
+        IPathFactory pathFactory) {
+        this.session = session;
+        this.pathFactory = pathFactory;
+    }
+
+    /**
+     * Returns a new encoder for the extensions of a single broadcast.
+     */
+    public BroadcastEncoder createBroadcastEncoder() {
+        return new BroadcastEncoder();
+    }
+
+    @Override
+    public byte[] encode(ActivitiesExtension extension) throws IOException {
+        return encode(extension, new LinkedHashMap<String, Integer>(),
+            new LinkedHashMap<SPath, Integer>(), new ArrayList<String>(), null);
+    }
+
+    /**
+     * @param encodedParts
+     *            the already encoded activities and operations by identity or
+     *            <code>null</code> if the encodings are not reused
+     */
+    private byte[] encode(ActivitiesExtension extension,
+        Map<String, Integer> users, Map<SPath, Integer> paths,
+        List<String> projectIDs, Map<Object, byte[]> encodedParts)
+        throws IOException {
+
+        final String sessionID = extension.getSessionID();
+        final List<IActivity> activities = extension.getActivities();
+
+        final BinaryWriter body = new BinaryWriter();
+
+        for (IActivity activity : activities) {
+            final byte[] encoded = encodedParts == null ? null : encodedParts
+                .get(activity);
+
+            if (encoded != null) {
+                body.write(encoded, 0, encoded.length);
+                continue;
+            }
+
+            final int mark = body.size();
+
+            if (!writeActivity(body, activity, users, paths, projectIDs,
+                encodedParts)) {
+                body.truncate(mark);
+                body.write(Type.XSTREAM);
+                body.writeString(toXML(sessionID, activity));
+            }
+
+            if (encodedParts != null)
+                encodedParts.put(activity, body.toByteArray(mark));
+        }
+
+        final BinaryWriter out = new BinaryWriter(body.size() + 64);
+
+        out.writeUnsignedVarInt(users.size());
+
+        for (String jid : users.keySet())
+            out.writeString(jid);
+
+        out.writeUnsignedVarInt(paths.size());
+
+        int projectIDIndex = 0;
+        for (SPath path : paths.keySet()) {
+            out.writeString(projectIDs.get(projectIDIndex++));
+            out.writeString(pathFactory.fromPath(path.getProjectRelativePath()));
+        }
+
+        out.writeUnsignedVarInt(activities.size());
+        body.writeTo(out);
+
+        byte[] content = out.toByteArray();
+        int encoding = Encoding.RAW;
+
+        if (content.length >= COMPRESS_THRESHOLD) {
+            final byte[] deflated = deflate(content);
+
+            if (deflated.length < content.length) {
+                content = deflated;
+                encoding = Encoding.DEFLATED;
+            }
+        }
+
+        final BinaryWriter header = new BinaryWriter(sessionID.length() + 16);
+
+        header.write(FORMAT_VERSION);
+        header.writeString(sessionID);
+        header.writeVarInt(extension.getSequenceNumber());
+        header.write(encoding);
+
+        final byte[] data = new byte[header.size() + content.length];
+
+        System.arraycopy(header.toByteArray(), 0, data, 0, header.size());
+        System.arraycopy(content, 0, data, header.size(), content.length);
+
+        return data;
+    }
+
+    @Override
+    public ActivitiesExtension decode(byte[] data) throws IOException {
+        BinaryReader in = new BinaryReader(data);
+
+        final int version = in.readUnsignedByte();
+
+        if (version != FORMAT_VERSION)
+            throw new IOException("unsupported format version: " + version);
+
+        final String sessionID = in.readString();
+        final int sequenceNumber = in.readVarInt();
+        final int encoding = in.readUnsignedByte();
+
+        switch (encoding) {
+        case Encoding.RAW:
+            break;
+        case Encoding.DEFLATED:
+            in = new BinaryReader(inflate(in.readRemaining()));
+            break;
+        default:
+            throw new IOException("unknown content encoding: " + encoding);
+        }
+
+        /*
+         * the dictionary of a broadcast may contain users and projects that
+         * are unknown to this recipient, this is only an error if an activity
+         * refers to them
+         */
+        final User[] users = new User[in.readUnsignedVarInt()];
+
+        for (int i = 0; i < users.length; i++)
+            users[i] = session.getUser(new JID(in.readString()));
+
+        final SPath[] paths = new SPath[in.readUnsignedVarInt()];
+
+        for (int i = 0; i < paths.length; i++) {
+            final String projectID = in.readString();
+            final String path = in.readString();
+
+            final IProject project = session.getProject(projectID);
+
+            if (project != null)
+                paths[i] = new SPath(project, pathFactory.fromString(path));
+        }
+
+        final int count = in.readUnsignedVarInt();
+        final List<IActivity> activities = new ArrayList<IActivity>(count);
+
+        for (int i = 0; i < count; i++)
+            activities.add(readActivity(in, users, paths));
+
+        if (in.hasRemaining())
+            throw new IOException("trailing data after last activity");
+
+        return new ActivitiesExtension(sessionID, activities, sequenceNumber);
+    }
+
+    /**
+     * Writes the activity in its native binary representation.
+     *
+     * @return <code>false</code> if the activity cannot be represented natively
+     *         and must be written in its XStream representation
+     */
+    private boolean writeActivity(BinaryWriter out, IActivity activity,
+        Map<String, Integer> users, Map<SPath, Integer> paths,
+        List<String> projectIDs, Map<Object, byte[]> encodedParts) {
+
+        final Class<?> clazz = activity.getClass();
+
+        if (clazz == JupiterActivity.class) {
+            JupiterActivity jupiterActivity = (JupiterActivity) activity;
+
+            if (!(jupiterActivity.getTimestamp() instanceof JupiterVectorTime))
+                return false;
+
+            out.write(Type.JUPITER);
+
+            if (!writeResource(out, activity.getSource(),
+                jupiterActivity.getPath(), users, paths, projectIDs))
+                return false;
+
+            writeTimestamp(out, jupiterActivity.getTimestamp());
+
+            /*
+             * the host transforms an operation once and sends it with a
+             * different timestamp to every other participant
+             */
+            final Operation operation = jupiterActivity.getOperation();
+
+            if (encodedParts == null)
+                return writeOperation(out, operation);
+
+            byte[] encoded = encodedParts.get(operation);
+
+            if (encoded == null) {
+                final int mark = out.size();
+
+                if (!writeOperation(out, operation))
+                    return false;
+
+                encodedParts.put(operation, out.toByteArray(mark));
+                return true;
+            }
+
+            out.write(encoded, 0, encoded.length);
+            return true;
+
+        } else if (clazz == TextSelectionActivity.class) {
+            TextSelectionActivity selection = (TextSelectionActivity) activity;
+
+            out.write(Type.TEXT_SELECTION);
+
+            if (!writeResource(out, activity.getSource(), selection.getPath(),
+                users, paths, projectIDs))
+                return false;
+
+            out.writeVarInt(selection.getOffset());
+            out.writeVarInt(selection.getLength());
+            return true;
+
+        } else if (clazz == ViewportActivity.class) {
+            ViewportActivity viewport = (ViewportActivity) activity;
+
+            out.write(Type.VIEWPORT);
+
+            if (!writeResource(out, activity.getSource(), viewport.getPath(),
+                users, paths, projectIDs))
+                return false;
+
+            out.writeVarInt(viewport.getStartLine());
+            out.writeVarInt(viewport.getNumberOfLines());
+            return true;
+
+        } else if (clazz == ChecksumActivity.class) {
+            ChecksumActivity checksum = (ChecksumActivity) activity;
+
+            final Timestamp timestamp = checksum.getTimestamp();
+
+            if (timestamp != null && !(timestamp instanceof JupiterVectorTime))
+                return false;
+
+            out.write(Type.CHECKSUM);
+
+            if (!writeResource(out, activity.getSource(), checksum.getPath(),
+                users, paths, projectIDs))
+                return false;
+
+            final RangeChecksums ranges = checksum.getRanges();
+
+            out.writeVarLong(checksum.getHash());
+            out.writeVarLong(checksum.getLength());
+            out.write((timestamp == null ? 0 : ChecksumFlags.TIMESTAMP)
+                | (ranges == null ? 0 : ChecksumFlags.RANGES));
+
+            if (timestamp != null)
+                writeTimestamp(out, timestamp);
+
+            if (ranges != null) {
+                out.writeUnsignedVarInt(ranges.getCount());
+
+                for (int i = 0; i < ranges.getCount(); i++) {
+                    out.writeUnsignedVarInt(ranges.getLength(i));
+                    out.writeVarInt(ranges.getHash(i));
+                }
+            }
+
+            return true;
+
+        } else if (clazz == TextEditActivity.class) {
+            TextEditActivity edit = (TextEditActivity) activity;
+
+            out.write(Type.TEXT_EDIT);
+
+            if (!writeResource(out, activity.getSource(), edit.getPath(),
+                users, paths, projectIDs))
+                return false;
+
+            out.writeVarInt(edit.getOffset());
+            out.writeString(edit.getText());
+            out.writeString(edit.getReplacedText());
+            return true;
+
+        } else if (clazz == NOPActivity.class) {
+            NOPActivity nop = (NOPActivity) activity;
+
+            out.write(Type.NOP);
+            out.writeUnsignedVarInt(internUser(nop.getSource(), users));
+            out.writeUnsignedVarInt(internUser(nop.getTarget(), users));
+            out.writeVarInt(nop.getID());
+            return true;
+        }
+
+        return false;
+    }
+
+    private IActivity readActivity(BinaryReader in, User[] users,
+        SPath[] paths) throws IOException {
+
+        final int type = in.readUnsignedByte();
+
+        if (type == Type.XSTREAM)
+            return fromXML(in.readString());
+
+        final User source;
+        final SPath path;
+
+        switch (type) {
+        case Type.JUPITER:
+            source = readUser(in, users);
+            path = readPath(in, paths);
+            return new JupiterActivity(readTimestamp(in), readOperation(in),
+                source, path);
+
+        case Type.TEXT_SELECTION:
+            source = readUser(in, users);
+            path = readPath(in, paths);
+            return new TextSelectionActivity(source, in.readVarInt(),
+                in.readVarInt(), path);
+
+        case Type.VIEWPORT:
+            source = readUser(in, users);
+            path = readPath(in, paths);
+            return new ViewportActivity(source, in.readVarInt(),
+                in.readVarInt(), path);
+
+        case Type.CHECKSUM:
+            source = readUser(in, users);
+            path = readPath(in, paths);
+
+            final long hash = in.readVarLong();
+            final long length = in.readVarLong();
+            final int flags = in.readUnsignedByte();
+
+            final Timestamp timestamp = (flags & ChecksumFlags.TIMESTAMP) == 0
+                ? null : readTimestamp(in);
+
+            final RangeChecksums ranges = (flags & ChecksumFlags.RANGES) == 0
+                ? null : readRanges(in);
+
+            return new ChecksumActivity(source, path, hash, length, ranges,
+                timestamp);
+
+        case Type.TEXT_EDIT:
+            source = readUser(in, users);
+            path = readPath(in, paths);
+            return new TextEditActivity(source, in.readVarInt(),
+                in.readString(), in.readString(), path);
+
+        case Type.NOP:
+            source = readUser(in, users);
+            return new NOPActivity(source, readUser(in, users), in.readVarInt());
+
+        default:
+            throw new IOException("unknown activity type: " + type);
+        }
+    }
+
+    private boolean writeResource(BinaryWriter out, User source, SPath path,
+        Map<String, Integer> users, Map<SPath, Integer> paths,
+        List<String> projectIDs) {
+
+        if (path == null)
+            return false;
+
+        Integer index = paths.get(path);
+
+        if (index == null) {
+            final String projectID = session.getProjectID(path.getProject());
+
+            // let the XStream converter report this error
+            if (projectID == null)
+                return false;
+
+            index = paths.size();
+            paths.put(path, index);
+            projectIDs.add(projectID);
+        }
+
+        out.writeUnsignedVarInt(internUser(source, users));
+        out.writeUnsignedVarInt(index);
+        return true;
+    }
+
+    private static int internUser(User user, Map<String, Integer> users) {
+        // the string representation of a user is its JID
+        final String jid = user.toString();
+
+        Integer index = users.get(jid);
+
+        if (index == null) {
+            index = users.size();
+            users.put(jid, index);
+        }
+
+        return index;
+    }
+
+    private static User readUser(BinaryReader in, User[] users)
+        throws IOException {
+        final int index = in.readUnsignedVarInt();
+
+        if (index >= users.length)
+            throw new IOException("invalid user index: " + index);
+
+        if (users[index] == null)
+            throw new IOException("user with index " + index
+                + " is not a participant of the current session");
+
+        return users[index];
+    }
+
+    private static SPath readPath(BinaryReader in, SPath[] paths)
+        throws IOException {
+        final int index = in.readUnsignedVarInt();
+
+        if (index >= paths.length)
+            throw new IOException("invalid path index: " + index);
+
+        if (paths[index] == null)
+            throw new IOException("path with index " + index
+                + " does not belong to a shared project");
+
+        return paths[index];
+    }
+
+    private static void writeTimestamp(BinaryWriter out, Timestamp timestamp) {
+        final JupiterVectorTime vectorTime = (JupiterVectorTime) timestamp;
+        out.writeUnsignedVarInt(vectorTime.getLocalOperationCount());
+        out.writeUnsignedVarInt(vectorTime.getRemoteOperationCount());
+    }
+
+    private static Timestamp readTimestamp(BinaryReader in) throws IOException {
+        return new JupiterVectorTime(in.readUnsignedVarInt(),
+            in.readUnsignedVarInt());
+    }
+
+    private static RangeChecksums readRanges(BinaryReader in)
+        throws IOException {
+        final int count = in.readUnsignedVarInt();
+
+        final int[] lengths = new int[count];
+        final int[] hashes = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            lengths[i] = in.readUnsignedVarInt();
+            hashes[i] = in.readVarInt();
+        }
+
+        return new RangeChecksums(lengths, hashes);
+    }
+
+    /**
+     * @return <code>false</code> if the operation (or one of its nested
+     *         operations) cannot be represented natively
+     */
+    private static boolean writeOperation(BinaryWriter out, Operation operation) {
+        final Class<?> clazz = operation.getClass();
+
+        if (clazz == InsertOperation.class) {
+            InsertOperation insert = (InsertOperation) operation;
+            out.write(OperationType.INSERT);
+            out.writeUnsignedVarInt(insert.getPosition());
+            out.writeUnsignedVarInt(insert.getOrigin());
+            out.writeString(insert.getText());
+            return true;
+        } else if (clazz == DeleteOperation.class) {
+            DeleteOperation delete = (DeleteOperation) operation;
+            out.write(OperationType.DELETE);
+            out.writeUnsignedVarInt(delete.getPosition());
+            out.writeString(delete.getText());
+            return true;
+        } else if (clazz == SplitOperation.class) {
+            SplitOperation split = (SplitOperation) operation;
+            out.write(OperationType.SPLIT);
+            return writeOperation(out, split.getFirst())
+                && writeOperation(out, split.getSecond());
+        } else if (clazz == NoOperation.class) {
+            out.write(OperationType.NO_OP);
+            return true;
+        } else if (clazz == TimestampOperation.class) {
+            out.write(OperationType.TIMESTAMP);
+            return true;
+        }
+
+        return false;
+    }
+
+    private static Operation readOperation(BinaryReader in) throws IOException {
+        final int type = in.readUnsignedByte();
+
+        switch (type) {
+        case OperationType.INSERT:
+            final int position = in.readUnsignedVarInt();
+            final int origin = in.readUnsignedVarInt();
+            return new InsertOperation(position, in.readString(), origin);
+        case OperationType.DELETE:
+            return new DeleteOperation(in.readUnsignedVarInt(), in.readString());
+        case OperationType.SPLIT:
+            return new SplitOperation(readOperation(in), readOperation(in));
+        case OperationType.NO_OP:
+            return new NoOperation();
+        case OperationType.TIMESTAMP:
+            return new TimestampOperation();
+        default:
+            throw new IOException("unknown operation type: " + type);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        final Deflater deflater = new Deflater();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+            data.length / 2);
+        final byte[] buffer = new byte[4096];
+
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            while (!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+
+        } finally {
+            deflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        final Inflater inflater = new Inflater();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+            data.length * 4);
+        final byte[] buffer = new byte[4096];
+
+        try {
+            inflater.setInput(data);
+
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+
+                if (length == 0
+                    && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new EOFException("compressed content is truncated");
+
+                out.write(buffer, 0, length);
+            }
+
+            if (inflater.getRemaining() != 0)
+                throw new IOException("trailing data after compressed content");
+
+        } catch (DataFormatException e) {
+            throw new IOException("compressed content is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    private static String toXML(String sessionID, IActivity activity) {
+        if (LOG.isTraceEnabled())
+            LOG.trace("using XStream representation for activity: "
+                + activity);
+
+        return ActivitiesExtension.PROVIDER.create(
+            new ActivitiesExtension(sessionID, Collections
+                .singletonList(activity), 0)).toXML();
+    }
+
+    private static IActivity fromXML(String xml) throws IOException {
+        final List<IActivity> activities = ActivitiesExtension.PROVIDER
+            .parseString(xml).getActivities();
+
+        if (activities == null || activities.size() != 1)
+            throw new IOException("malformed XStream activity representation");
+
+        return activities.get(0);
+    }
+}
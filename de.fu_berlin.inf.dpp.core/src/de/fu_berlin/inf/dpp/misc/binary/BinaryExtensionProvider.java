@@ -0,0 +1,211 @@
+package de.fu_berlin.inf.dpp.misc.binary;
+
+import java.io.IOException;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.log4j.Logger;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.xmlpull.v1.XmlPullParser;
+
+import de.fu_berlin.inf.dpp.misc.xstream.XStreamExtensionProvider;
+import de.fu_berlin.inf.dpp.net.IBinaryPacketExtension;
+import de.fu_berlin.inf.dpp.net.IBinaryPacketExtensionProvider;
+
+/**
+ * Extension provider offering a binary wire format for the payload of an
+ * existing {@link XStreamExtensionProvider}. Packet extensions created by this
+ * provider are transmitted in their binary representation but are delivered as
+ * the packet extensions of the XStream provider on the receiving side. So
+ * packet listeners and filters only have to know the XStream provider.
+ * <p>
+ * The binary representation is created by an {@link IBinaryCodec} that must be
+ * registered at runtime, e.g because it requires a running Saros session.
+ * 
+ * @param <T>
+ *            the payload type of the XStream provider
+ */
+public class BinaryExtensionProvider<T> implements
+    IBinaryPacketExtensionProvider {
+
+    private static final Logger LOG = Logger
+        .getLogger(BinaryExtensionProvider.class);
+
+    private final String elementName;
+
+    private final XStreamExtensionProvider<T> xmlProvider;
+
+    private volatile IBinaryCodec<T> codec;
+
+    /**
+     * Creates a binary extension provider using the given element name and the
+     * namespace of the given XStream provider.
+     * <p>
+     * <b>Important</b>: the element name must differ from the element name of
+     * the XStream provider.
+     */
+    public BinaryExtensionProvider(String elementName,
+        XStreamExtensionProvider<T> xmlProvider) {
+
+        if (elementName.equals(xmlProvider.getElementName()))
+            throw new IllegalArgumentException(
+                "element name is already used by the XStream provider: "
+                    + elementName);
+
+        this.elementName = elementName;
+        this.xmlProvider = xmlProvider;
+
+        ProviderManager.getInstance().addExtensionProvider(getElementName(),
+            getNamespace(), this);
+    }
+
+    /**
+     * Registers the codec that is used to encode and decode payloads. There
+     * can only be one codec at a time, registering a codec replaces the
+     * current one.
+     */
+    public synchronized void registerCodec(IBinaryCodec<T> codec) {
+        LOG.debug("registering codec " + codec.getClass());
+        this.codec = codec;
+    }
+
+    /**
+     * Unregisters the given codec. Nothing happens if the codec is not the
+     * currently registered one.
+     */
+    public synchronized void unregisterCodec(IBinaryCodec<T> codec) {
+        if (this.codec != codec)
+            return;
+
+        LOG.debug("unregistering codec " + codec.getClass());
+        this.codec = null;
+    }
+
+    /**
+     * Returns whether a codec is currently registered, i.e. whether packet
+     * extensions created by this provider can be encoded.
+     */
+    public boolean isCodecAvailable() {
+        return codec != null;
+    }
+
+    /**
+     * Returns the currently registered codec or <code>null</code> if no codec
+     * is registered.
+     */
+    public IBinaryCodec<T> getCodec() {
+        return codec;
+    }
+
+    public String getElementName() {
+        return elementName;
+    }
+
+    public String getNamespace() {
+        return xmlProvider.getNamespace();
+    }
+
+    public BinaryPacketExtension<T> create(T payload) {
+        return new BinaryPacketExtension<T>(this, payload, null);
+    }
+
+    /**
+     * Creates a packet extension for a payload that is already encoded, e.g
+     * because parts of the encoding are shared by several recipients.
+     * 
+     * @param payload
+     *            the payload
+     * @param data
+     *            the binary representation of the payload, the array must not
+     *            be modified afterwards
+     */
+    public BinaryPacketExtension<T> create(T payload, byte[] data) {
+        return new BinaryPacketExtension<T>(this, payload, data);
+    }
+
+    @Override
+    public PacketExtension parseExtension(byte[] data) throws IOException {
+        final IBinaryCodec<T> currentCodec = codec;
+
+        if (currentCodec == null)
+            throw new IOException("no codec is registered for element name '"
+                + elementName + "'");
+
+        return xmlProvider.create(currentCodec.decode(data));
+    }
+
+    @Override
+    public PacketExtension parseExtension(XmlPullParser parser)
+        throws Exception {
+        return parseExtension(Base64.decodeBase64(parser.nextText().getBytes(
+            "US-ASCII")));
+    }
+
+    private byte[] encode(T payload) throws IOException {
+        final IBinaryCodec<T> currentCodec = codec;
+
+        if (currentCodec == null)
+            throw new IOException("no codec is registered for element name '"
+                + elementName + "'");
+
+        return currentCodec.encode(payload);
+    }
+
+    public static class BinaryPacketExtension<T> implements
+        IBinaryPacketExtension {
+
+        private final BinaryExtensionProvider<T> provider;
+
+        private final T payload;
+
+        private final byte[] data;
+
+        private BinaryPacketExtension(BinaryExtensionProvider<T> provider,
+            T payload, byte[] data) {
+            this.provider = provider;
+            this.payload = payload;
+            this.data = data;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        @Override
+        public String getElementName() {
+            return provider.getElementName();
+        }
+
+        @Override
+        public String getNamespace() {
+            return provider.getNamespace();
+        }
+
+        @Override
+        public byte[] toByteArray() throws IOException {
+            return data != null ? data : provider.encode(payload);
+        }
+
+        /**
+         * Returns the Base64 encoded binary representation wrapped in an XML
+         * element. This is only used if the extension is not sent over a
+         * binary stream.
+         */
+        @Override
+        public String toXML() {
+            StringBuilder buf = new StringBuilder();
+            buf.append("<").append(getElementName()).append(" xmlns=\"")
+                .append(getNamespace()).append("\">");
+
+            try {
+                buf.append(new String(Base64.encodeBase64(toByteArray()),
+                    "US-ASCII"));
+            } catch (IOException e) {
+                LOG.error("could not encode payload: " + payload, e);
+            }
+
+            buf.append("</").append(getElementName()).append(">");
+            return buf.toString();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package de.fu_berlin.inf.dpp.misc.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+
+/**
+ * Reads data written by a {@link BinaryWriter} from a byte array.
+ * <p>
+ * This class is <b>not</b> thread safe.
+ */
+public class BinaryReader {
+
+    private final byte[] data;
+
+    private final int limit;
+
+    private int position;
+
+    public BinaryReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public BinaryReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Returns <code>true</code> if there are still bytes left to read.
+     */
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    public int readUnsignedByte() throws IOException {
+        if (position >= limit)
+            throw new EOFException("no more data available");
+
+        return data[position++] & 0xFF;
+    }
+
+    /**
+     * Reads a value written by {@link BinaryWriter#writeUnsignedVarInt(int)}.
+     */
+    public int readUnsignedVarInt() throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                if (value < 0)
+                    throw new IOException("malformed varint");
+
+                return value;
+            }
+        }
+
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * Reads a value written by {@link BinaryWriter#writeVarInt(int)}.
+     */
+    public int readVarInt() throws IOException {
+        int zigzag = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            zigzag |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * Reads a value written by {@link BinaryWriter#writeVarLong(long)}.
+     */
+    public long readVarLong() throws IOException {
+        long zigzag = 0;
+
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        throw new IOException("malformed varlong");
+    }
+
+    /**
+     * Reads a value written by {@link BinaryWriter#writeString(String)}.
+     */
+    public String readString() throws IOException {
+        int length = readUnsignedVarInt();
+
+        if (length > limit - position)
+            throw new UTFDataFormatException("string length exceeds data: "
+                + length);
+
+        String value = new String(data, position, length, BinaryWriter.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Reads all remaining bytes.
+     */
+    public byte[] readRemaining() {
+        byte[] remaining = new byte[limit - position];
+        System.arraycopy(data, position, remaining, 0, remaining.length);
+        position = limit;
+        return remaining;
+    }
+}
@@ -0,0 +1,114 @@
+package de.fu_berlin.inf.dpp.misc.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growing byte buffer with methods for writing variable length encoded
+ * integers and strings. The counterpart of this class is the
+ * {@link BinaryReader}.
+ * <p>
+ * Integers are written as base 128 varints, i.e 7 bits per byte with the most
+ * significant bit set if more bytes are following. Signed values are zigzag
+ * encoded first so small negative values are also written in few bytes.
+ * Strings are written as the varint length of their UTF-8 representation
+ * followed by the UTF-8 bytes.
+ * <p>
+ * This class is <b>not</b> thread safe.
+ */
+public class BinaryWriter extends ByteArrayOutputStream {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public BinaryWriter() {
+        this(256);
+    }
+
+    public BinaryWriter(int size) {
+        super(size);
+    }
+
+    /**
+     * Writes the given non negative value as a varint.
+     * 
+     * @throws IllegalArgumentException
+     *             if the value is negative
+     */
+    public void writeUnsignedVarInt(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("value is negative: " + value);
+
+        while ((value & ~0x7F) != 0) {
+            write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        write(value);
+    }
+
+    /**
+     * Writes the given value as a zigzag encoded varint.
+     */
+    public void writeVarInt(int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+
+        while ((zigzag & ~0x7F) != 0) {
+            write((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+
+        write(zigzag);
+    }
+
+    /**
+     * Writes the given value as a zigzag encoded varint.
+     */
+    public void writeVarLong(long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+
+        while ((zigzag & ~0x7FL) != 0) {
+            write((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+
+        write((int) zigzag);
+    }
+
+    /**
+     * Writes the given string. The string must not be <code>null</code>.
+     */
+    public void writeString(String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeUnsignedVarInt(bytes.length);
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns a copy of the bytes that were written after the given position.
+     * 
+     * @param from
+     *            the position of the first byte to copy, must not be greater
+     *            than the current {@linkplain #size() size}
+     */
+    public byte[] toByteArray(int from) {
+        if (from < 0 || from > count)
+            throw new IllegalArgumentException("invalid position: " + from);
+
+        return Arrays.copyOfRange(buf, from, count);
+    }
+
+    /**
+     * Discards all bytes that were written after the given position.
+     * 
+     * @param size
+     *            the new size of this buffer, must not be greater than the
+     *            current {@linkplain #size() size}
+     */
+    public void truncate(int size) {
+        if (size < 0 || size > count)
+            throw new IllegalArgumentException("invalid size: " + size);
+
+        count = size;
+    }
+}
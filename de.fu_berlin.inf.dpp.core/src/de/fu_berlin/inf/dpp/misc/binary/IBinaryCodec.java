@@ -0,0 +1,35 @@
+package de.fu_berlin.inf.dpp.misc.binary;
+
+import java.io.IOException;
+
+/**
+ * Converts objects of a given type to a compact binary representation, and
+ * vice versa.
+ * 
+ * @param <T>
+ *            the type of objects this codec is able to convert
+ */
+public interface IBinaryCodec<T> {
+
+    /**
+     * Encodes the given object.
+     * 
+     * @param object
+     *            the object to encode
+     * @return the binary representation of the object
+     * @throws IOException
+     *             if the object could not be encoded
+     */
+    public byte[] encode(T object) throws IOException;
+
+    /**
+     * Decodes an object previously encoded with {@link #encode(Object)}.
+     * 
+     * @param data
+     *            the binary representation of the object
+     * @return the decoded object
+     * @throws IOException
+     *             if the data is malformed or could not be decoded
+     */
+    public T decode(byte[] data) throws IOException;
+}
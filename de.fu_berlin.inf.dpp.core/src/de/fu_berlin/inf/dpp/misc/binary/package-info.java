@@ -0,0 +1,10 @@
+/**
+ * Compact binary representations for data that is frequently transferred
+ * through the network, e.g Activities. They are used instead of the XML
+ * representations created by XStream if both sides support them.
+ * <p>
+ * Binary representations are created by implementations of the IBinaryCodec
+ * interface, e.g the ActivitiesExtensionCodec.
+ */
+
+package de.fu_berlin.inf.dpp.misc.binary;
@@ -0,0 +1,275 @@
+package de.fu_berlin.inf.dpp.negotiation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+
+/**
+ * Creates and applies rsync like deltas of files. A delta describes the
+ * content of a file in terms of the blocks of an older version of the file
+ * which is only known by its {@link FileSignature signature}. Blocks that
+ * already exist in the old version are copied, everything else is sent
+ * literally. Every delta contains the MD5 hash of the resulting content which
+ * is verified when the delta is applied.
+ * <p>
+ * Deltas are only supported for files of limited size as both versions of the
+ * file are kept in memory.
+ */
+public final class FileDelta {
+
+    /**
+     * Files smaller than this size are always transferred completely.
+     */
+    public static final long MIN_FILE_SIZE = 4 * 1024;
+
+    /**
+     * Files larger than this size are always transferred completely.
+     */
+    public static final long MAX_FILE_SIZE = 16 * 1024 * 1024;
+
+    private static final int VERSION = 1;
+
+    private static final int END = 0;
+    private static final int COPY = 1;
+    private static final int DATA = 2;
+
+    /**
+     * ID of the extra field of a zip entry that marks the content of the entry
+     * as a delta.
+     */
+    private static final int EXTRA_FIELD_ID = 0x4453;
+
+    private static final byte[] EXTRA_FIELD = new byte[] {
+        (byte) EXTRA_FIELD_ID, (byte) (EXTRA_FIELD_ID >>> 8), 1, 0, VERSION };
+
+    private FileDelta() {
+        // NOP
+    }
+
+    /**
+     * Returns whether it is worth to synchronize a file of the given size with
+     * a delta.
+     */
+    public static boolean isApplicable(long size) {
+        return size >= MIN_FILE_SIZE && size <= MAX_FILE_SIZE;
+    }
+
+    /**
+     * Creates a zip entry whose content is a delta.
+     */
+    public static ZipEntry createEntry(String name) {
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setExtra(EXTRA_FIELD.clone());
+        return entry;
+    }
+
+    /**
+     * Returns whether the content of the given zip entry is a delta.
+     */
+    public static boolean isDelta(ZipEntry entry) {
+        final byte[] extra = entry.getExtra();
+
+        if (extra == null)
+            return false;
+
+        // the extra data may contain multiple fields
+        for (int i = 0; i + 4 <= extra.length;) {
+            final int id = (extra[i] & 0xFF) | (extra[i + 1] & 0xFF) << 8;
+            final int size = (extra[i + 2] & 0xFF) | (extra[i + 3] & 0xFF) << 8;
+
+            if (id == EXTRA_FIELD_ID)
+                return true;
+
+            i += 4 + size;
+        }
+
+        return false;
+    }
+
+    /**
+     * Creates the delta of the given content against the file with the given
+     * signature.
+     *
+     * @param signature
+     *            the signature of the old version of the file
+     * @param content
+     *            the new content of the file
+     * @return the delta
+     */
+    public static byte[] create(FileSignature signature, byte[] content) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        final MessageDigest digest = FileSignature.createDigest();
+        final RollingChecksum checksum = new RollingChecksum();
+
+        final int blockSize = signature.getBlockSize();
+
+        try {
+            out.writeByte(VERSION);
+            out.writeInt(blockSize);
+
+            int position = 0;
+            int literalStart = 0;
+
+            int copyStart = 0;
+            int copyCount = 0;
+
+            if (content.length >= blockSize)
+                checksum.reset(content, 0, blockSize);
+
+            while (position + blockSize <= content.length) {
+                final int block = signature.findBlock(checksum.getValue(),
+                    content, position, digest);
+
+                if (block == -1) {
+                    if (position + blockSize < content.length)
+                        checksum.roll(content[position], content[position
+                            + blockSize]);
+
+                    position++;
+                    continue;
+                }
+
+                if (literalStart < position) {
+                    writeCopy(out, copyStart, copyCount);
+                    copyCount = 0;
+                    writeData(out, content, literalStart, position
+                        - literalStart);
+                }
+
+                if (copyCount > 0 && copyStart + copyCount == block) {
+                    copyCount++;
+                } else {
+                    writeCopy(out, copyStart, copyCount);
+                    copyStart = block;
+                    copyCount = 1;
+                }
+
+                position += blockSize;
+                literalStart = position;
+
+                if (position + blockSize <= content.length)
+                    checksum.reset(content, position, blockSize);
+            }
+
+            writeCopy(out, copyStart, copyCount);
+            writeData(out, content, literalStart, content.length
+                - literalStart);
+
+            out.writeByte(END);
+            out.write(digest.digest(content));
+        } catch (IOException e) {
+            // cannot happen
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Applies a delta to the old version of a file.
+     *
+     * @param base
+     *            the old content of the file the delta was created for
+     * @param delta
+     *            the delta, the stream is <b>not</b> closed
+     * @return the new content of the file
+     *
+     * @throws IOException
+     *             if the delta is malformed or does not reproduce the content
+     *             it was created from
+     */
+    public static byte[] apply(byte[] base, InputStream delta)
+        throws IOException {
+
+        final DataInputStream in = new DataInputStream(delta);
+
+        final int version = in.readUnsignedByte();
+
+        if (version != VERSION)
+            throw new IOException("unsupported delta version: " + version);
+
+        final int blockSize = in.readInt();
+
+        if (blockSize < FileSignature.MIN_BLOCK_SIZE
+            || blockSize > FileSignature.MAX_BLOCK_SIZE)
+            throw new IOException("invalid block size: " + blockSize);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+            base.length);
+
+        final byte[] buffer = new byte[blockSize];
+
+        int op;
+
+        while ((op = in.readUnsignedByte()) != END) {
+            final int value = in.readInt();
+
+            switch (op) {
+            case COPY:
+                final int count = in.readInt();
+
+                if (value < 0 || count < 0
+                    || (value + (long) count) * blockSize > base.length)
+                    throw new IOException("invalid block range: " + value
+                        + " + " + count);
+
+                out.write(base, value * blockSize, count * blockSize);
+                break;
+            case DATA:
+                if (value < 0 || out.size() + (long) value > MAX_FILE_SIZE)
+                    throw new IOException("invalid data length: " + value);
+
+                for (int remaining = value; remaining > 0;) {
+                    final int length = Math.min(remaining, buffer.length);
+                    in.readFully(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                    remaining -= length;
+                }
+                break;
+            default:
+                throw new IOException("unknown delta operation: " + op);
+            }
+        }
+
+        final byte[] expectedHash = new byte[16];
+        in.readFully(expectedHash);
+
+        final byte[] content = out.toByteArray();
+
+        if (!Arrays.equals(expectedHash, FileSignature.createDigest().digest(
+            content)))
+            throw new IOException(
+                "delta does not match the content of the file");
+
+        return content;
+    }
+
+    private static void writeCopy(DataOutputStream out, int firstBlock,
+        int count) throws IOException {
+
+        if (count == 0)
+            return;
+
+        out.writeByte(COPY);
+        out.writeInt(firstBlock);
+        out.writeInt(count);
+    }
+
+    private static void writeData(DataOutputStream out, byte[] data,
+        int offset, int length) throws IOException {
+
+        if (length == 0)
+            return;
+
+        out.writeByte(DATA);
+        out.writeInt(length);
+        out.write(data, offset, length);
+    }
+}
@@ -19,6 +19,7 @@
  */
 package de.fu_berlin.inf.dpp.negotiation;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -301,6 +302,15 @@ public class FileList {
         @XStreamAlias("vcs")
         VCSResourceInfo vcsInfo;
 
+        /**
+         * Block signature of the local version of this file, see
+         * {@link FileSignature#toByteArray()}. It is not part of the equality
+         * of the meta data.
+         */
+
+        @XStreamAlias("sig")
+        byte[] signature;
+
         @Override
         public boolean equals(Object o) {
             if (o == this)
@@ -375,6 +385,24 @@ public class FileList {
         return metaData.vcsInfo == null ? null : metaData.vcsInfo.getURL();
     }
 
+    /**
+     * Returns the block signature that was attached to the given path by the
+     * remote side to request a delta instead of the complete file.
+     * 
+     * @return the signature or <code>null</code> if the complete file must be
+     *         sent
+     * @throws IOException
+     *             if the attached signature is malformed
+     */
+    public FileSignature getSignature(String path) throws IOException {
+        MetaData metaData = root.getMetaData(path);
+
+        if (metaData == null || metaData.signature == null)
+            return null;
+
+        return FileSignature.fromByteArray(metaData.signature);
+    }
+
     /**
      * Creates an empty file list.
      */
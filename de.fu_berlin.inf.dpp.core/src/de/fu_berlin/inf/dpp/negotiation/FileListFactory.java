@@ -2,10 +2,20 @@ package de.fu_berlin.inf.dpp.negotiation;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.Adler32;
 
 import org.apache.commons.io.IOUtils;
@@ -19,6 +29,7 @@ import de.fu_berlin.inf.dpp.filesystem.IResource;
 import de.fu_berlin.inf.dpp.monitoring.IProgressMonitor;
 import de.fu_berlin.inf.dpp.monitoring.NullProgressMonitor;
 import de.fu_berlin.inf.dpp.negotiation.FileList.MetaData;
+import de.fu_berlin.inf.dpp.util.NamedThreadFactory;
 import de.fu_berlin.inf.dpp.vcs.VCSProvider;
 import de.fu_berlin.inf.dpp.vcs.VCSResourceInfo;
 
@@ -39,6 +50,27 @@ public class FileListFactory {
 
     private static final int BUFFER_SIZE = 32 * 1024;
 
+    /**
+     * Minimum number of checksum workers, so that reading one file can overlap
+     * with calculating the checksum of another one even on single core
+     * machines.
+     */
+    private static final int MIN_WORKERS = 2;
+
+    /**
+     * Interval in milliseconds in which the progress monitor is checked for
+     * cancellation while waiting for the checksum workers.
+     */
+    private static final long CANCEL_POLL_INTERVAL = 100;
+
+    /** Read buffer of each checksum worker. */
+    private final ThreadLocal<byte[]> buffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
     private IChecksumCache checksumCache;
     private IProgressMonitor monitor;
 
@@ -79,6 +111,45 @@ public class FileListFactory {
         return list;
     }
 
+    /**
+     * Creates a new file list from given paths. The block signatures of the
+     * local versions of the given altered files are attached, so that the
+     * remote side only has to send the differences of these files, see
+     * {@link FileDelta}. Files whose size does not qualify for a delta are
+     * requested completely.
+     * 
+     * @param project
+     *            the project containing the local versions of the files
+     * @param paths
+     *            a list of paths that <b>refers</b> to <b>files</b> that should
+     *            be added to this file list
+     * @param alteredPaths
+     *            the paths of the files that exist locally but differ from the
+     *            remote version
+     */
+    public static FileList createFileList(IProject project, List<String> paths,
+        Collection<String> alteredPaths) throws IOException {
+        FileList list = new FileList();
+
+        for (String path : paths) {
+            byte[] signature = null;
+
+            if (alteredPaths.contains(path))
+                signature = createSignature(project.getFile(path));
+
+            if (signature == null) {
+                list.addPath(path);
+                continue;
+            }
+
+            MetaData metaData = new MetaData();
+            metaData.signature = signature;
+            list.addPath(path, metaData, false);
+        }
+
+        return list;
+    }
+
     public static FileList createEmptyFileList() {
         return new FileList();
     }
@@ -177,38 +248,114 @@ public class FileListFactory {
             }
         }
 
+        calculateChecksums(list, files);
+    }
+
+    /**
+     * Calculates the checksums of the given files and stores them in the meta
+     * data of the file list. The checksums are calculated in parallel by a
+     * bounded number of workers while the calling thread reports the progress.
+     * 
+     * @throws IOException
+     *             if the calculation was canceled
+     */
+    private void calculateChecksums(final FileList list, final List<IFile> files)
+        throws IOException {
+
         monitor.beginTask("Calculating checksums...", files.size());
 
-        for (IFile file : files) {
-            try {
-                monitor.subTask(file.getProject().getName() + ": "
-                    + file.getName());
+        if (files.isEmpty())
+            return;
 
-                MetaData data = list.getMetaData(file.getProjectRelativePath()
-                    .toPortableString());
+        final int workers = Math.min(files.size(),
+            Math.max(MIN_WORKERS, Runtime.getRuntime().availableProcessors()));
 
-                Long checksum = null;
+        final ExecutorService executor = Executors.newFixedThreadPool(workers,
+            new NamedThreadFactory("dpp-checksum-"));
 
-                if (checksumCache != null)
-                    checksum = checksumCache.getChecksum(file);
+        final CompletionService<IFile> completionService = new ExecutorCompletionService<IFile>(
+            executor);
 
-                data.checksum = checksum == null ? checksum(file) : checksum;
+        final List<Future<IFile>> futures = new ArrayList<Future<IFile>>(
+            files.size());
 
-                if (checksumCache != null) {
-                    boolean isInvalid = checksumCache.addChecksum(file,
-                        data.checksum);
+        try {
+            for (final IFile file : files) {
+                final MetaData data = list.getMetaData(file
+                    .getProjectRelativePath().toPortableString());
+
+                futures.add(completionService.submit(new Callable<IFile>() {
+                    @Override
+                    public IFile call() throws IOException {
+                        data.checksum = getChecksum(file);
+                        return file;
+                    }
+                }));
+            }
+
+            for (int remaining = files.size(); remaining > 0;) {
+                if (monitor.isCanceled())
+                    throw new IOException("checksum calculation was canceled");
+
+                final Future<IFile> future;
 
-                    if (isInvalid && checksum != null)
-                        LOG.warn("calculated checksum on dirty data: "
-                            + file.getFullPath());
+                try {
+                    future = completionService.poll(CANCEL_POLL_INTERVAL,
+                        TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(
+                        "interrupted while calculating checksums", e);
                 }
 
-            } catch (IOException e) {
-                LOG.error(e);
+                if (future == null)
+                    continue;
+
+                remaining--;
+
+                try {
+                    final IFile file = future.get();
+                    monitor.subTask(file.getProject().getName() + ": "
+                        + file.getName());
+                } catch (ExecutionException e) {
+                    LOG.error(e.getCause());
+                } catch (InterruptedException e) {
+                    // cannot happen, the future is already done
+                    Thread.currentThread().interrupt();
+                }
+
+                monitor.worked(1);
             }
+        } finally {
+            for (Future<IFile> future : futures)
+                future.cancel(false);
+
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the checksum of the given file either from the checksum cache or
+     * by calculating it. This method is called by the checksum workers.
+     */
+    private long getChecksum(final IFile file) throws IOException {
+        Long checksum = null;
+
+        if (checksumCache != null)
+            checksum = checksumCache.getChecksum(file);
+
+        final long result = checksum == null ? checksum(file, buffer.get())
+            : checksum;
+
+        if (checksumCache != null) {
+            boolean isInvalid = checksumCache.addChecksum(file, result);
 
-            monitor.worked(1);
+            if (isInvalid && checksum != null)
+                LOG.warn("calculated checksum on dirty data: "
+                    + file.getFullPath());
         }
+
+        return result;
     }
 
     /**
@@ -222,7 +369,7 @@ public class FileListFactory {
      * @throws IOException
      *             if checksum calculation has been failed.
      */
-    private static long checksum(IFile file) throws IOException {
+    private static long checksum(IFile file, byte[] buffer) throws IOException {
 
         InputStream in;
         try {
@@ -231,8 +378,6 @@ public class FileListFactory {
             throw new IOException("failed to calculate checksum", e);
         }
 
-        byte[] buffer = new byte[BUFFER_SIZE];
-
         Adler32 adler = new Adler32();
 
         int read;
@@ -246,4 +391,31 @@ public class FileListFactory {
 
         return adler.getValue();
     }
+
+    /**
+     * Calculates the serialized block signature of the given file.
+     * 
+     * @return the signature or <code>null</code> if the file is not suitable
+     *         for a delta or its signature could not be calculated
+     */
+    private static byte[] createSignature(IFile file) {
+        InputStream in = null;
+
+        try {
+            final long size = file.getSize();
+
+            if (!FileDelta.isApplicable(size))
+                return null;
+
+            in = file.getContents();
+
+            return FileSignature.create(in, size).toByteArray();
+        } catch (IOException e) {
+            LOG.warn("failed to calculate signature of file " + file
+                + ", requesting the complete file", e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
 }
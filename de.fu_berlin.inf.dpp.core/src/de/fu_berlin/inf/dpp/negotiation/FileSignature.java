@@ -0,0 +1,276 @@
+package de.fu_berlin.inf.dpp.negotiation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The block signature of a file that is used to synchronize the file with a
+ * remote copy by only transferring the differences, see {@link FileDelta}.
+ * <p>
+ * The file is split into blocks of a fixed size and for every block a weak
+ * {@linkplain RollingChecksum rolling checksum} and a strong checksum is
+ * calculated. The remaining bytes at the end of the file that do not fill a
+ * complete block are not part of the signature.
+ * <p>
+ * Instances of this class are immutable but the lookup of blocks is <b>not</b>
+ * thread safe.
+ */
+public final class FileSignature {
+
+    static final int MIN_BLOCK_SIZE = 512;
+
+    static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private static final int VERSION = 1;
+
+    private static final int STRONG_CHECKSUM_LENGTH = 8;
+
+    /** Number of bits of the weak checksum used for the fast lookup filter */
+    private static final int FILTER_BITS = 16;
+
+    private final int blockSize;
+
+    private final int[] weakChecksums;
+
+    private final long[] strongChecksums;
+
+    private BitSet filter;
+
+    private Map<Integer, int[]> blocksByWeakChecksum;
+
+    private FileSignature(int blockSize, int[] weakChecksums,
+        long[] strongChecksums) {
+        this.blockSize = blockSize;
+        this.weakChecksums = weakChecksums;
+        this.strongChecksums = strongChecksums;
+    }
+
+    /**
+     * Calculates the signature of a file.
+     *
+     * @param in
+     *            the content of the file, the stream is <b>not</b> closed
+     * @param length
+     *            the length of the file which determines the block size
+     */
+    public static FileSignature create(InputStream in, long length)
+        throws IOException {
+
+        final int blockSize = getBlockSize(length);
+        final int blockCount = (int) Math.min(length / blockSize,
+            Integer.MAX_VALUE);
+
+        final int[] weakChecksums = new int[blockCount];
+        final long[] strongChecksums = new long[blockCount];
+
+        final MessageDigest digest = createDigest();
+        final byte[] block = new byte[blockSize];
+
+        for (int i = 0; i < blockCount; i++) {
+            readFully(in, block);
+            weakChecksums[i] = RollingChecksum.checksum(block, 0, blockSize);
+            strongChecksums[i] = strongChecksum(digest, block, 0, blockSize);
+        }
+
+        return new FileSignature(blockSize, weakChecksums, strongChecksums);
+    }
+
+    /**
+     * Restores a signature from the representation returned by
+     * {@link #toByteArray()}.
+     *
+     * @throws IOException
+     *             if the data is not a valid signature
+     */
+    public static FileSignature fromByteArray(byte[] data) throws IOException {
+        final DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(data));
+
+        final int version = in.readUnsignedByte();
+
+        if (version != VERSION)
+            throw new IOException("unsupported signature version: " + version);
+
+        final int blockSize = in.readInt();
+        final int blockCount = in.readInt();
+
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE)
+            throw new IOException("invalid block size: " + blockSize);
+
+        if (blockCount < 0
+            || blockCount > (data.length / (4 + STRONG_CHECKSUM_LENGTH)))
+            throw new IOException("invalid block count: " + blockCount);
+
+        final int[] weakChecksums = new int[blockCount];
+        final long[] strongChecksums = new long[blockCount];
+
+        for (int i = 0; i < blockCount; i++) {
+            weakChecksums[i] = in.readInt();
+            strongChecksums[i] = in.readLong();
+        }
+
+        return new FileSignature(blockSize, weakChecksums, strongChecksums);
+    }
+
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            9 + weakChecksums.length * (4 + STRONG_CHECKSUM_LENGTH));
+
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(VERSION);
+            out.writeInt(blockSize);
+            out.writeInt(weakChecksums.length);
+
+            for (int i = 0; i < weakChecksums.length; i++) {
+                out.writeInt(weakChecksums[i]);
+                out.writeLong(strongChecksums[i]);
+            }
+        } catch (IOException e) {
+            // cannot happen
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return weakChecksums.length;
+    }
+
+    /**
+     * Returns the index of a block whose content is equal to the given data.
+     *
+     * @param weakChecksum
+     *            the {@linkplain RollingChecksum weak checksum} of the data
+     * @param data
+     *            array containing the data
+     * @param offset
+     *            the offset of the data, the data has a length of
+     *            {@linkplain #getBlockSize() block size} bytes
+     * @param digest
+     *            digest returned by {@link #createDigest()} that is used to
+     *            calculate the strong checksum of the data
+     * @return the index of the block or <code>-1</code> if there is no such
+     *         block
+     */
+    int findBlock(int weakChecksum, byte[] data, int offset,
+        MessageDigest digest) {
+
+        if (filter == null)
+            createIndex();
+
+        if (!filter.get(filterIndex(weakChecksum)))
+            return -1;
+
+        final int[] blocks = blocksByWeakChecksum.get(weakChecksum);
+
+        if (blocks == null)
+            return -1;
+
+        final long strongChecksum = strongChecksum(digest, data, offset,
+            blockSize);
+
+        for (int block : blocks) {
+            if (strongChecksums[block] == strongChecksum)
+                return block;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the block size that is used for a file of the given length.
+     */
+    static int getBlockSize(long length) {
+        // the square root keeps the signature and the delta reasonably small
+        int blockSize = (int) Math.min(Math.sqrt(length), MAX_BLOCK_SIZE);
+
+        // round up to a multiple of 64
+        blockSize = (blockSize + 63) & ~63;
+
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long strongChecksum(MessageDigest digest, byte[] data, int offset,
+        int length) {
+
+        digest.update(data, offset, length);
+
+        final byte[] hash = digest.digest();
+
+        long checksum = 0;
+
+        for (int i = 0; i < STRONG_CHECKSUM_LENGTH; i++)
+            checksum = (checksum << 8) | (hash[i] & 0xFF);
+
+        return checksum;
+    }
+
+    private void createIndex() {
+        filter = new BitSet(1 << FILTER_BITS);
+        blocksByWeakChecksum = new HashMap<Integer, int[]>();
+
+        for (int i = 0; i < weakChecksums.length; i++) {
+            final int weakChecksum = weakChecksums[i];
+
+            filter.set(filterIndex(weakChecksum));
+
+            final int[] blocks = blocksByWeakChecksum.get(weakChecksum);
+
+            if (blocks == null) {
+                blocksByWeakChecksum.put(weakChecksum, new int[] { i });
+                continue;
+            }
+
+            final int[] extendedBlocks = new int[blocks.length + 1];
+            System.arraycopy(blocks, 0, extendedBlocks, 0, blocks.length);
+            extendedBlocks[blocks.length] = i;
+            blocksByWeakChecksum.put(weakChecksum, extendedBlocks);
+        }
+    }
+
+    private static int filterIndex(int weakChecksum) {
+        return (weakChecksum ^ (weakChecksum >>> FILTER_BITS))
+            & ((1 << FILTER_BITS) - 1);
+    }
+
+    private static void readFully(InputStream in, byte[] buffer)
+        throws IOException {
+
+        int offset = 0;
+
+        while (offset < buffer.length) {
+            final int read = in.read(buffer, offset, buffer.length - offset);
+
+            if (read == -1)
+                throw new EOFException("file is shorter than expected");
+
+            offset += read;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package de.fu_berlin.inf.dpp.negotiation;
+
+/**
+ * The weak rolling checksum of the rsync algorithm. The checksum of a window
+ * of bytes can be moved forward by one byte in constant time.
+ * <p>
+ * This class is <b>not</b> thread safe.
+ */
+final class RollingChecksum {
+
+    private int a;
+    private int b;
+    private int length;
+
+    /**
+     * Calculates the checksum of the given window.
+     */
+    void reset(byte[] data, int offset, int length) {
+        a = 0;
+        b = 0;
+        this.length = length;
+
+        for (int i = 0; i < length; i++) {
+            final int value = data[offset + i] & 0xFF;
+            a += value;
+            b += (length - i) * value;
+        }
+    }
+
+    /**
+     * Moves the window forward by one byte.
+     *
+     * @param out
+     *            the first byte of the current window
+     * @param in
+     *            the byte following the current window
+     */
+    void roll(byte out, byte in) {
+        a += (in & 0xFF) - (out & 0xFF);
+        b += a - length * (out & 0xFF);
+    }
+
+    int getValue() {
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    /**
+     * Calculates the checksum of the given bytes.
+     */
+    static int checksum(byte[] data, int offset, int length) {
+        final RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, length);
+        return checksum.getValue();
+    }
+}
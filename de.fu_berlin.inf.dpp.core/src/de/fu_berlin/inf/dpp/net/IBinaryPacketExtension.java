@@ -0,0 +1,29 @@
+package de.fu_berlin.inf.dpp.net;
+
+import java.io.IOException;
+
+import org.jivesoftware.smack.packet.PacketExtension;
+
+import de.fu_berlin.inf.dpp.net.internal.XMPPTransmitter;
+
+/**
+ * A {@link PacketExtension} that offers a compact binary representation in
+ * addition to its XML representation. The {@link XMPPTransmitter} uses the
+ * binary representation when the extension is sent over a binary stream.
+ * <p>
+ * The binary representation is not compressed by the transmitter. It is up to
+ * the implementation to compress it if this is worth the effort.
+ * <p>
+ * The receiving side must have an {@link IBinaryPacketExtensionProvider}
+ * installed for the element name and namespace of this extension.
+ */
+public interface IBinaryPacketExtension extends PacketExtension {
+
+    /**
+     * Returns the binary representation of this packet extension.
+     * 
+     * @throws IOException
+     *             if the extension could not be encoded
+     */
+    public byte[] toByteArray() throws IOException;
+}
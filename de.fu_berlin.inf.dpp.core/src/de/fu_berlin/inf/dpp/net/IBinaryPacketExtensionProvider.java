@@ -0,0 +1,24 @@
+package de.fu_berlin.inf.dpp.net;
+
+import java.io.IOException;
+
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.provider.PacketExtensionProvider;
+
+/**
+ * A {@link PacketExtensionProvider} that is also able to parse the binary
+ * representation of an {@link IBinaryPacketExtension}.
+ */
+public interface IBinaryPacketExtensionProvider extends PacketExtensionProvider {
+
+    /**
+     * Parses the binary representation of a packet extension.
+     * 
+     * @param data
+     *            the data returned from {@link IBinaryPacketExtension#toByteArray()}
+     * @return the parsed packet extension
+     * @throws IOException
+     *             if the data is malformed or could not be decoded
+     */
+    public PacketExtension parseExtension(byte[] data) throws IOException;
+}
@@ -13,6 +13,12 @@ public interface IConnectionManager {
 
     public static final int SOCKS5_TRANSPORT = 2;
 
+    /**
+     * Direct connections in the local network. This transport does not
+     * authenticate its peers and should only be used in trusted networks.
+     */
+    public static final int TCP_TRANSPORT = 4;
+
     /**
      * Sets the transport that should be used to establish direct connections.
      * 
@@ -10,7 +10,13 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.ProtocolException;
 import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -25,9 +31,28 @@ import de.fu_berlin.inf.dpp.net.xmpp.JID;
  * The threading requirements of this class are the following:
  * 
  * send() is a reentrant method for sending data. Any number of threads can call
- * it in parallel. </p> <b>Note:</b> The maximum number of concurrent threads is
- * 32 !
- * 
+ * it in parallel. If all {@value IDPool#MAX_ID} fragment ids are in use, send()
+ * waits until one is released.
+ * <p>
+ * JIDs, namespaces and element names are replaced by ids that are announced
+ * to the remote side once. If all ids of a kind are in use, the id of the
+ * least recently used string is reassigned.
+ * <p>
+ * All data is written by a dedicated writer thread. Packets that fit into a
+ * single chunk and cache updates are written before the chunks of larger
+ * packets, so latency critical packets are not delayed by large transfers.
+ * <p>
+ * Larger packets are multiplexed over logical streams, one for each kind of
+ * packet (namespace and element name). The streams are served in a
+ * round-robin fashion one chunk at a time, so a bulk transfer on one stream
+ * cannot starve the packets of other streams. The packets of a single stream
+ * are written in the order they were sent. Each stream has its own flow
+ * control window: calls to send() wait if too many bytes are already pending
+ * on the stream of the packet, without affecting senders on other streams.
+ * <p>
+ * The output stream is only flushed if no more high priority data is pending
+ * or the writer becomes idle. Calls to send() block until the data was
+ * written.
  * 
  * @author sszuecs
  * @author coezbek
@@ -56,37 +81,62 @@ public class BinaryChannelConnection implements IByteStreamConnection {
      */
     private static final int CHUNKSIZE = 32 * 1024 - 1;
 
+    /**
+     * Max number of pending bytes of packets that consist of multiple chunks
+     * per logical stream
+     */
+    private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+
+    /**
+     * Max number of bytes that are allocated for a received packet before its
+     * chunks actually arrive
+     */
+    private static final int INITIAL_PACKET_BUFFER_SIZE = 1024 * 1024;
+
     private IByteStreamConnectionListener listener;
     private ReceiverThread receiveThread;
+    private WriterThread writeThread;
 
     private final JID peer;
 
     private final String connectionID;
 
-    private IDPool idPool = new IDPool();
+    private final IDPool idPool = new IDPool();
 
     private boolean connected;
     private boolean initialized;
 
-    private Map<Integer, ByteArrayOutputStream> pendingFragmentedPackets = new HashMap<Integer, ByteArrayOutputStream>();
-    private Map<Integer, BinaryXMPPExtension> pendingXMPPExtensions = new HashMap<Integer, BinaryXMPPExtension>();
+    private Map<Integer, IncomingPacket> pendingPackets = new HashMap<Integer, IncomingPacket>();
 
     private DataInputStream inputStream;
     private DataOutputStream outputStream;
     private ByteStream stream;
 
+    /**
+     * Frames that fit into a single write and must not wait for large packets
+     */
+    private final Deque<OutgoingFrame> highPriorityFrames = new ArrayDeque<OutgoingFrame>();
+
+    /**
+     * Logical streams of packets that consist of multiple chunks by their
+     * stream id
+     */
+    private final Map<Integer, LogicalStream> streams = new HashMap<Integer, LogicalStream>();
+
+    /**
+     * Streams with pending frames in the order they are served, a stream is
+     * appended again after one chunk of it was written
+     */
+    private final Deque<LogicalStream> activeStreams = new ArrayDeque<LogicalStream>();
+
     private Map<Integer, String> inNamespaceCache = new HashMap<Integer, String>();
-    private Map<String, Integer> outNamespaceCache = new HashMap<String, Integer>();
+    private final Dictionary outNamespaceCache = new Dictionary(256);
 
     private Map<Integer, String> inElementNameCache = new HashMap<Integer, String>();
-    private Map<String, Integer> outElementNameCache = new HashMap<String, Integer>();
+    private final Dictionary outElementNameCache = new Dictionary(65536);
 
     private Map<Integer, String> inJIDCache = new HashMap<Integer, String>();
-    private Map<String, Integer> outJIDCache = new HashMap<String, Integer>();
-
-    private int nextJIDId = 0;
-    private int nextNamespaceId = 0;
-    private int nextElementNameId = 0;
+    private final Dictionary outJIDCache = new Dictionary(256);
 
     /**
      * NetTransferMode to identify the transport method of the underlying socket
@@ -121,6 +171,114 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         }
     }
 
+    /**
+     * A packet whose chunks are read directly into a single buffer.
+     */
+    private static class IncomingPacket {
+
+        private final BinaryXMPPExtension extension;
+
+        private final int chunks;
+
+        private byte[] buffer;
+
+        private int length;
+
+        private IncomingPacket(BinaryXMPPExtension extension, int chunks) {
+            this.extension = extension;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * Data that is written by the writer thread.
+     */
+    private static class OutgoingFrame {
+
+        /** opcodes that are written before the content, may be null */
+        private final byte[] header;
+
+        private final int fragmentId;
+
+        /** content that is written in DATA chunks, may be null */
+        private final byte[] content;
+
+        private final int end;
+
+        /** the stream of the frame or null if it has high priority */
+        private LogicalStream stream;
+
+        private boolean headerWritten;
+
+        private int offset;
+
+        private boolean written;
+
+        private OutgoingFrame(byte[] header, int fragmentId, byte[] content,
+            int offset, int length) {
+            this.header = header;
+            this.fragmentId = fragmentId;
+            this.content = content;
+            this.offset = offset;
+            this.end = offset + length;
+        }
+
+        private int getRemaining() {
+            return end - offset;
+        }
+
+        private boolean isComplete() {
+            return headerWritten && offset == end;
+        }
+    }
+
+    /**
+     * Frames of the same kind that share a flow control window.
+     */
+    private static class LogicalStream {
+
+        private final int id;
+
+        private final Deque<OutgoingFrame> frames = new ArrayDeque<OutgoingFrame>();
+
+        private int pendingBytes;
+
+        private LogicalStream(int id) {
+            this.id = id;
+        }
+    }
+
+    private class WriterThread extends Thread {
+
+        @Override
+        public void run() {
+            String connection = BinaryChannelConnection.this.toString();
+
+            LOG.debug(connection + " WriterThread started.");
+            try {
+                OutgoingFrame frame;
+
+                while ((frame = nextFrame()) != null) {
+                    final int length = writeFrame(frame);
+
+                    if (frameWritten(frame, length))
+                        outputStream.flush();
+                }
+
+            } catch (InterruptedException e) {
+                LOG.debug(connection + " WriterThread interrupted");
+            } catch (IOException e) {
+                if (isConnected())
+                    LOG.error(connection + " network error: " + e.getMessage(),
+                        e);
+            } catch (Exception e) {
+                LOG.error(connection + " internal error: " + e.getMessage(), e);
+            } finally {
+                close();
+            }
+        }
+    }
+
     public BinaryChannelConnection(JID peer, String connectionID,
         ByteStream stream, ConnectionMode mode,
         IByteStreamConnectionListener listener) throws IOException {
@@ -149,6 +307,9 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         receiveThread = new ReceiverThread();
         receiveThread.setName("BinaryChannel-" + peer.getName());
         receiveThread.start();
+        writeThread = new WriterThread();
+        writeThread.setName("BinaryChannelWriter-" + peer.getName());
+        writeThread.start();
         connected = true;
         initialized = true;
     }
@@ -176,10 +337,27 @@ public class BinaryChannelConnection implements IByteStreamConnection {
                 LOG.error("failed to gracefully close connection " + this, e);
             } finally {
                 connected = false;
+                // wake up the writer and all waiting senders
+                notifyAll();
             }
         }
 
         assert receiveThread != null;
+        assert writeThread != null;
+
+        if (Thread.currentThread() != writeThread) {
+            try {
+                writeThread.join(TERMINATE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (writeThread.isAlive()) {
+                LOG.warn("timeout while waiting for termination of the writer"
+                    + " of binary channel " + this);
+                writeThread.interrupt();
+            }
+        }
 
         if (Thread.currentThread() != receiveThread) {
             try {
@@ -209,16 +387,10 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     }
 
     @Override
-    public void send(TransferDescription data, byte[] content)
-        throws IOException {
-
-        if (!isConnected())
-            throw new EOFException("connection is closed");
-
-        final int fragmentId = idPool.nextID();
+    public void send(TransferDescription data, byte[] content, int offset,
+        int length) throws IOException {
 
-        if (fragmentId < 0)
-            throw new IOException("concurrent access threshold exceeded");
+        final int fragmentId = acquireFragmentId();
 
         try {
 
@@ -227,110 +399,153 @@ public class BinaryChannelConnection implements IByteStreamConnection {
             Integer namespaceId;
             Integer elementNameId;
 
+            assert length > 0;
+
+            final ByteArrayOutputStream updateBuffer = new ByteArrayOutputStream();
+            final DataOutputStream updates = new DataOutputStream(updateBuffer);
+
+            final OutgoingFrame frame;
+
             synchronized (this) {
-                boolean sendUpdate = false;
 
                 final String localJID = data.getSender().toString();
                 localId = outJIDCache.get(localJID);
 
                 if (localId == null) {
-                    if (nextJIDId > 255)
-                        throw new IOException("JID cache limit exceeded");
-
-                    localId = Integer.valueOf(nextJIDId++);
-                    outJIDCache.put(localJID, localId);
+                    localId = outJIDCache.add(localJID);
 
                     if (LOG.isTraceEnabled())
                         LOG.trace("updated outgoing JID cache, id: " + localId
                             + " , jid: " + localJID);
 
-                    outputStream.write(Opcode.JID_UPDATE);
-                    outputStream.write(localId);
-                    outputStream.writeUTF(localJID);
-                    sendUpdate = true;
+                    updates.write(Opcode.JID_UPDATE);
+                    updates.write(localId);
+                    updates.writeUTF(localJID);
                 }
 
                 final String remoteJID = data.getRecipient().toString();
                 remoteId = outJIDCache.get(remoteJID);
 
                 if (remoteId == null) {
-                    if (nextJIDId > 255)
-                        throw new IOException("JID cache limit exceeded");
-
-                    remoteId = Integer.valueOf(nextJIDId++);
-                    outJIDCache.put(remoteJID, remoteId);
+                    remoteId = outJIDCache.add(remoteJID);
 
                     if (LOG.isTraceEnabled())
                         LOG.trace("updated outgoing JID cache, id: " + remoteId
                             + " , jid: " + remoteJID);
 
-                    outputStream.write(Opcode.JID_UPDATE);
-                    outputStream.write(remoteId);
-                    outputStream.writeUTF(remoteJID);
-                    sendUpdate = true;
+                    updates.write(Opcode.JID_UPDATE);
+                    updates.write(remoteId);
+                    updates.writeUTF(remoteJID);
                 }
 
                 final String namespace = data.getNamespace();
                 namespaceId = outNamespaceCache.get(namespace);
 
                 if (namespaceId == null) {
-                    if (nextNamespaceId > 255)
-                        throw new IOException("namespace cache limit exceeded");
-
-                    namespaceId = Integer.valueOf(nextNamespaceId++);
-                    outNamespaceCache.put(namespace, namespaceId);
+                    namespaceId = outNamespaceCache.add(namespace);
 
                     if (LOG.isTraceEnabled())
                         LOG.trace("updated outgoing namespace cache, id: "
                             + namespaceId + " , namespace: " + namespace);
 
-                    outputStream.write(Opcode.NAMESPACE_UPDATE);
-                    outputStream.write(namespaceId);
-                    outputStream.writeUTF(namespace);
-                    sendUpdate = true;
+                    updates.write(Opcode.NAMESPACE_UPDATE);
+                    updates.write(namespaceId);
+                    updates.writeUTF(namespace);
                 }
 
                 final String elementName = data.getElementName();
                 elementNameId = outElementNameCache.get(elementName);
 
                 if (elementNameId == null) {
-                    if (nextElementNameId > 65535)
-                        throw new IOException(
-                            "element name cache limit exceeded");
-
-                    elementNameId = Integer.valueOf(nextElementNameId++);
-                    outElementNameCache.put(elementName, elementNameId);
+                    elementNameId = outElementNameCache.add(elementName);
 
                     if (LOG.isTraceEnabled())
                         LOG.trace("updated outgoing element name cache, id: "
                             + elementNameId + " , element name: " + elementName);
 
-                    outputStream.write(Opcode.ELEMENT_NAME_UPDATE);
-                    outputStream.writeShort(elementNameId);
-                    outputStream.writeUTF(elementName);
-                    sendUpdate = true;
+                    updates.write(Opcode.ELEMENT_NAME_UPDATE);
+                    updates.writeShort(elementNameId);
+                    updates.writeUTF(elementName);
                 }
 
-                if (sendUpdate)
-                    outputStream.flush();
+                /*
+                 * the updates must be written before any transfer description
+                 * that refers to them, so they always have high priority
+                 */
+                if (updateBuffer.size() > 0)
+                    enqueue(new OutgoingFrame(updateBuffer.toByteArray(), -1,
+                        null, 0, 0));
+
+                final int chunks = ((length - 1) / CHUNKSIZE) + 1;
+
+                final byte[] transferDescription = createTransferDescription(
+                    fragmentId, chunks, localId, remoteId, namespaceId,
+                    elementNameId, data.compressContent());
+
+                if (chunks == 1) {
+                    frame = new OutgoingFrame(transferDescription, fragmentId,
+                        content, offset, length);
+
+                    enqueue(frame);
+                } else {
+                    /*
+                     * ids are reassigned if the caches are full, so the
+                     * transfer description must be written in order with the
+                     * cache updates and cannot wait for the chunks
+                     */
+                    enqueue(new OutgoingFrame(transferDescription, -1, null,
+                        0, 0));
+
+                    frame = new OutgoingFrame(null, fragmentId, content,
+                        offset, length);
+
+                    enqueue(frame, (namespaceId << 16) | elementNameId);
+                }
             }
 
-            assert content.length > 0;
-
-            int chunks = ((content.length - 1) / CHUNKSIZE) + 1;
-
-            sendTransferDescription(fragmentId, chunks, localId, remoteId,
-                namespaceId, elementNameId, data.compressContent());
-
-            splitAndSend(content, chunks, fragmentId);
+            awaitWritten(frame);
         } catch (IOException e) {
             close();
             throw e;
         } finally {
-            idPool.freeID(fragmentId);
+            releaseFragmentId(fragmentId);
+        }
+    }
+
+    /**
+     * Returns an unused fragment id. Waits until an id is released if all ids
+     * are in use.
+     */
+    private synchronized int acquireFragmentId() throws IOException {
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                if (!connected)
+                    throw new EOFException("connection is closed");
+
+                final int fragmentId = idPool.nextID();
+
+                if (fragmentId >= 0)
+                    return fragmentId;
+
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
     }
 
+    private synchronized void releaseFragmentId(int fragmentId) {
+        idPool.freeID(fragmentId);
+        notifyAll();
+    }
+
     /**
      * Reads the next XMPP extension.
      * 
@@ -356,7 +571,7 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
             switch (opcode) {
             case Opcode.TRANSFERDESCRIPTION:
-                fragmentId = inputStream.readShort();
+                fragmentId = inputStream.readUnsignedShort();
                 final int chunks = inputStream.readInt();
 
                 if (LOG.isTraceEnabled()) {
@@ -392,17 +607,22 @@ public class BinaryChannelConnection implements IByteStreamConnection {
                 transferDescription.setElementName(elementName);
                 transferDescription.setCompressContent(compressed == 1);
 
-                BinaryXMPPExtension oldTransferObject = pendingXMPPExtensions
-                    .put(fragmentId, new BinaryXMPPExtension(transferMode,
-                        transferDescription, chunks));
+                if (chunks <= 0 || chunks > Integer.MAX_VALUE / CHUNKSIZE)
+                    throw new ProtocolException(
+                        "chunk count field contains corrupted value: "
+                            + chunks);
+
+                IncomingPacket oldPacket = pendingPackets.put(fragmentId,
+                    new IncomingPacket(new BinaryXMPPExtension(transferMode,
+                        transferDescription, chunks), chunks));
 
-                if (oldTransferObject != null)
+                if (oldPacket != null)
                     throw new IOException(
                         "replaced a XMPP extension that is still transmitted");
                 break;
 
             case Opcode.DATA:
-                fragmentId = inputStream.readShort();
+                fragmentId = inputStream.readUnsignedShort();
                 final int payloadLength = inputStream.readInt();
 
                 if (LOG.isTraceEnabled()) {
@@ -417,34 +637,50 @@ public class BinaryChannelConnection implements IByteStreamConnection {
                         "payload length field contains corrupted value: 0 < "
                             + payloadLength + " <= " + CHUNKSIZE);
 
-                byte[] payload = new byte[payloadLength];
-                inputStream.readFully(payload);
+                final IncomingPacket packet = pendingPackets.get(fragmentId);
 
-                ByteArrayOutputStream out = pendingFragmentedPackets
-                    .get(fragmentId);
+                if (packet == null)
+                    throw new ProtocolException(
+                        "received data for unknown XMPP extension: id="
+                            + fragmentId);
+
+                /*
+                 * all chunks except the last one are full, so the chunks are
+                 * read directly into a single buffer, the chunk count is sent
+                 * by the peer and so the buffer only grows as the chunks
+                 * arrive
+                 */
+                if (packet.length + payloadLength > packet.chunks
+                    * (long) CHUNKSIZE)
+                    throw new ProtocolException(
+                        "XMPP extension exceeds its chunk count: id="
+                            + fragmentId);
 
-                if (out == null) {
-                    out = new ByteArrayOutputStream(payloadLength * 2);
-                    pendingFragmentedPackets.put(fragmentId, out);
-                }
+                if (packet.buffer == null)
+                    packet.buffer = new byte[packet.chunks == 1 ? payloadLength
+                        : Math.min(packet.chunks * CHUNKSIZE,
+                            INITIAL_PACKET_BUFFER_SIZE)];
 
-                out.write(payload);
-                out.flush();
+                if (payloadLength > packet.buffer.length - packet.length)
+                    packet.buffer = Arrays.copyOf(packet.buffer, Math.max(
+                        packet.length + payloadLength, (int) Math.min(
+                            packet.chunks * (long) CHUNKSIZE,
+                            packet.buffer.length * 2L)));
 
-                if (!pendingXMPPExtensions.get(fragmentId).isLastChunk())
-                    break;
+                inputStream.readFully(packet.buffer, packet.length,
+                    payloadLength);
 
-                pendingFragmentedPackets.remove(fragmentId);
+                packet.length += payloadLength;
 
-                BinaryXMPPExtension fullyReceivedTransferObject = pendingXMPPExtensions
-                    .remove(fragmentId);
+                if (!packet.extension.isLastChunk())
+                    break;
 
-                payload = out.toByteArray();
-                out = null; // help GC
+                pendingPackets.remove(fragmentId);
 
-                fullyReceivedTransferObject.setPayload(payload.length, payload);
+                packet.extension.setPayload(packet.length, packet.buffer,
+                    packet.length);
 
-                return fullyReceivedTransferObject;
+                return packet.extension;
 
             case Opcode.ELEMENT_NAME_UPDATE:
 
@@ -510,57 +746,204 @@ public class BinaryChannelConnection implements IByteStreamConnection {
             "interrupted while reading stream data");
     }
 
-    private synchronized void sendData(int fragmentId, byte[] data, int offset,
-        int length) throws IOException {
+    /**
+     * Queues the given frame for the writer thread with high priority.
+     */
+    private synchronized void enqueue(OutgoingFrame frame) {
+        highPriorityFrames.addLast(frame);
+        notifyAll();
+    }
 
-        if (LOG.isTraceEnabled()) {
-            LOG.trace("sending data: id=" + fragmentId + ", len=" + length
-                + " bytes");
+    /**
+     * Queues the given frame for the writer thread on the logical stream with
+     * the given id. Waits until the number of pending bytes of the stream
+     * drops below {@value #STREAM_WINDOW_SIZE}.
+     */
+    private synchronized void enqueue(OutgoingFrame frame, int streamId)
+        throws IOException {
+
+        LogicalStream stream;
+
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                /*
+                 * the stream may have been discarded and recreated while
+                 * waiting, so look it up again every time
+                 */
+                stream = streams.get(streamId);
+
+                if (stream == null) {
+                    stream = new LogicalStream(streamId);
+                    streams.put(streamId, stream);
+                }
+
+                final int pending = stream.pendingBytes;
+
+                if (!connected || pending == 0
+                    || pending + frame.getRemaining() <= STREAM_WINDOW_SIZE)
+                    break;
+
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
 
-        outputStream.write(Opcode.DATA);
-        outputStream.writeShort(fragmentId);
-        outputStream.writeInt(length);
-        outputStream.write(data, offset, length);
-        outputStream.flush();
+        if (!connected)
+            throw new EOFException("connection is closed");
+
+        frame.stream = stream;
+        stream.pendingBytes += frame.getRemaining();
+        stream.frames.addLast(frame);
+
+        /*
+         * a stream with other frames is either already active or its first
+         * frame is currently written
+         */
+        if (stream.frames.size() == 1)
+            activeStreams.addLast(stream);
+
+        notifyAll();
     }
 
-    private synchronized void sendTransferDescription(int fragmentId,
-        int chunks, int localId, int remoteId, int namespaceId,
-        int elementNameId, boolean compress) throws IOException {
+    /**
+     * Waits until the given frame was written. The wait is not interruptible
+     * because the fragment id of the frame must not be reused before.
+     */
+    private synchronized void awaitWritten(OutgoingFrame frame)
+        throws IOException {
 
-        if (LOG.isTraceEnabled()) {
-            LOG.trace("sending transfer description: id=" + fragmentId);
+        boolean interrupted = false;
+
+        try {
+            while (!frame.written) {
+                if (!connected)
+                    throw new EOFException("connection is closed");
+
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
+    }
 
-        outputStream.write(Opcode.TRANSFERDESCRIPTION);
-        outputStream.writeShort(fragmentId);
-        outputStream.writeInt(chunks);
-        outputStream.write(localId);
-        outputStream.write(remoteId);
-        outputStream.write(namespaceId);
-        outputStream.writeShort(elementNameId);
-        outputStream.write(compress ? 1 : 0);
-        outputStream.flush();
+    /**
+     * Returns the next frame to write or <code>null</code> if the connection
+     * is closed.
+     */
+    private synchronized OutgoingFrame nextFrame() throws InterruptedException {
+        while (connected && highPriorityFrames.isEmpty()
+            && activeStreams.isEmpty())
+            wait();
+
+        if (!connected)
+            return null;
+
+        if (!highPriorityFrames.isEmpty())
+            return highPriorityFrames.removeFirst();
+
+        return activeStreams.removeFirst().frames.getFirst();
     }
 
     /**
-     * Splits the given data into chunks of CHUNKSIZE to send the BinaryPackets.
+     * Marks the given frame as written if all of its chunks are written and
+     * reschedules the stream of the frame.
+     * 
+     * @return <code>true</code> if the output stream should be flushed
      */
-    private void splitAndSend(byte[] data, int chunks, int fragmentId)
-        throws IOException {
+    private synchronized boolean frameWritten(OutgoingFrame frame, int length) {
+        final LogicalStream stream = frame.stream;
 
-        int offset = 0;
-        int length = 0;
+        if (frame.isComplete())
+            frame.written = true;
 
-        while (chunks-- > 0) {
+        if (stream != null) {
+            stream.pendingBytes -= length;
 
-            length = Math.min(data.length - offset, CHUNKSIZE);
+            if (frame.written)
+                stream.frames.removeFirst();
 
-            sendData(fragmentId, data, offset, length);
+            if (!stream.frames.isEmpty())
+                activeStreams.addLast(stream);
+            else
+                streams.remove(stream.id);
+        }
+
+        notifyAll();
+
+        return highPriorityFrames.isEmpty()
+            && (stream == null || activeStreams.isEmpty());
+    }
+
+    /**
+     * Writes the header and the next chunk of the given frame. Must only be
+     * called by the writer thread.
+     * 
+     * @return the number of written content bytes
+     */
+    private int writeFrame(OutgoingFrame frame) throws IOException {
+
+        if (!frame.headerWritten) {
+            if (LOG.isTraceEnabled() && frame.content != null) {
+                LOG.trace("sending transfer description: id="
+                    + frame.fragmentId);
+            }
+
+            if (frame.header != null)
+                outputStream.write(frame.header);
+
+            frame.headerWritten = true;
+        }
+
+        if (frame.content == null)
+            return 0;
 
-            offset += length;
+        final int length = Math.min(frame.getRemaining(), CHUNKSIZE);
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("sending data: id=" + frame.fragmentId + ", len="
+                + length + " bytes");
         }
+
+        outputStream.write(Opcode.DATA);
+        outputStream.writeShort(frame.fragmentId);
+        outputStream.writeInt(length);
+        outputStream.write(frame.content, frame.offset, length);
+
+        frame.offset += length;
+
+        return length;
+    }
+
+    private static byte[] createTransferDescription(int fragmentId,
+        int chunks, int localId, int remoteId, int namespaceId,
+        int elementNameId, boolean compress) throws IOException {
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(16);
+        final DataOutputStream out = new DataOutputStream(buffer);
+
+        out.write(Opcode.TRANSFERDESCRIPTION);
+        out.writeShort(fragmentId);
+        out.writeInt(chunks);
+        out.write(localId);
+        out.write(remoteId);
+        out.write(namespaceId);
+        out.writeShort(elementNameId);
+        out.write(compress ? 1 : 0);
+
+        return buffer.toByteArray();
     }
 
     @Override
@@ -569,35 +952,93 @@ public class BinaryChannelConnection implements IByteStreamConnection {
             + " " + peer;
     }
 
+    /**
+     * Assigns ids to strings. If all ids are in use, the id of the least
+     * recently used string is reassigned.
+     */
+    static class Dictionary {
+
+        private final int capacity;
+
+        private final LinkedHashMap<String, Integer> ids = new LinkedHashMap<String, Integer>(
+            16, 0.75F, true);
+
+        private int nextId;
+
+        /**
+         * @param capacity
+         *            the number of available ids
+         */
+        Dictionary(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Returns the id of the given string or <code>null</code> if it has
+         * no id.
+         */
+        Integer get(String string) {
+            return ids.get(string);
+        }
+
+        /**
+         * Assigns an id to the given string, which must not have an id yet.
+         */
+        int add(String string) {
+            final int id;
+
+            if (nextId < capacity) {
+                id = nextId++;
+            } else {
+                final Iterator<Integer> eldest = ids.values().iterator();
+                id = eldest.next();
+                eldest.remove();
+            }
+
+            ids.put(string, id);
+            return id;
+        }
+    }
+
+    /**
+     * Pool of fragment ids, which are transmitted as unsigned short values.
+     * This class is not thread safe.
+     */
     static class IDPool {
 
-        private final int MAX_ID = 32;
-        private int pool = 0; // 32 ids
+        static final int MAX_ID = 65536;
 
-        // see
-        // http://graphics.stanford.edu/~seander/bithacks.html#IntegerLogDeBruijn
-        private final static int LOG_2_TABLE[] = { 0, 1, 28, 2, 29, 14, 24, 3,
-            30, 22, 20, 15, 25, 17, 4, 8, 31, 27, 13, 23, 21, 19, 16, 7, 26,
-            12, 18, 6, 11, 5, 10, 9 };
+        private final BitSet pool = new BitSet(MAX_ID);
 
-        public synchronized int nextID() {
+        private final int maxId;
 
-            final int bitIdx = Integer.lowestOneBit(~pool);
+        IDPool() {
+            this(MAX_ID);
+        }
 
-            if (bitIdx == 0)
-                return -1;
+        IDPool(int maxId) {
+            this.maxId = maxId;
+        }
 
-            pool |= bitIdx;
+        /**
+         * Returns the lowest unused id or <code>-1</code> if all ids are in
+         * use.
+         */
+        int nextID() {
+            final int id = pool.nextClearBit(0);
+
+            if (id >= maxId)
+                return -1;
 
-            return LOG_2_TABLE[(bitIdx * 0x077CB531) >>> 27];
+            pool.set(id);
+            return id;
         }
 
-        public synchronized void freeID(int id) {
-            if (id < 0 || id >= MAX_ID)
+        void freeID(int id) {
+            if (id < 0 || id >= maxId)
                 return;
 
-            int bitIdx = 1 << id;
-            pool &= (~bitIdx);
+            pool.clear(id);
         }
     }
 }
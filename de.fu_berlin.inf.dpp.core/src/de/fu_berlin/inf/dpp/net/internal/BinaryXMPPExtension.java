@@ -1,5 +1,7 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
+import java.util.Arrays;
+
 import de.fu_berlin.inf.dpp.net.ConnectionMode;
 
 public final class BinaryXMPPExtension {
@@ -10,6 +12,7 @@ public final class BinaryXMPPExtension {
     private long transferredSize;
     private long uncompressedSize;
     private byte[] payload;
+    private int payloadLength;
     private long transferDuration;
     private ConnectionMode transferMode;
 
@@ -26,11 +29,35 @@ public final class BinaryXMPPExtension {
     /**
      * Returns the XMPP packet extension in binary form. </p> <b>Note:</b>The
      * returned byte array <b>must not</b> be modified directly.
+     * <p>
+     * If the payload buffer is larger than the payload it is trimmed by this
+     * call. Use {@link #getPayloadBuffer()} to access the payload without
+     * copying it.
      */
     byte[] getPayload() {
+        if (payload != null && payload.length != payloadLength)
+            payload = Arrays.copyOf(payload, payloadLength);
+
+        return payload;
+    }
+
+    /**
+     * Returns the buffer that contains the XMPP packet extension in binary
+     * form from offset <code>0</code> up to {@link #getPayloadLength()}. The
+     * buffer may be larger than the payload. </p> <b>Note:</b>The returned
+     * byte array <b>must not</b> be modified directly.
+     */
+    byte[] getPayloadBuffer() {
         return payload;
     }
 
+    /**
+     * Returns the length of the XMPP packet extension in binary form.
+     */
+    int getPayloadLength() {
+        return payloadLength;
+    }
+
     /**
      * Returns the transfer description of this transfer object.
      */
@@ -84,14 +111,38 @@ public final class BinaryXMPPExtension {
      *             {@link #isLastChunk}
      */
     void setPayload(long originalSize, byte[] data) {
+        setPayload(originalSize, data, data.length);
+    }
+
+    /**
+     * Sets the data for this XMPP packet extension without copying it.
+     * 
+     * @param originalSize
+     *            the original size of the received data
+     * @param buffer
+     *            the buffer that contains the binary form of the XMPP packet
+     *            extension starting at offset <code>0</code>
+     * @param length
+     *            the length of the binary form in the buffer
+     * 
+     * @throws IllegalStateException
+     *             if there are still missing chunks, see also
+     *             {@link #isLastChunk}
+     */
+    void setPayload(long originalSize, byte[] buffer, int length) {
 
         if (chunkCount > 0)
             throw new IllegalStateException("there are chunks missing: "
                 + chunkCount + " > 0");
 
-        payload = data;
+        if (length > buffer.length)
+            throw new IllegalArgumentException("length exceeds buffer: "
+                + length + " > " + buffer.length);
+
+        payload = buffer;
+        payloadLength = length;
         transferredSize = originalSize;
-        uncompressedSize = data.length;
+        uncompressedSize = length;
     }
 
     /**
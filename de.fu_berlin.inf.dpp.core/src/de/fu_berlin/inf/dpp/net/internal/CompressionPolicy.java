@@ -0,0 +1,160 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import de.fu_berlin.inf.dpp.net.ConnectionMode;
+import de.fu_berlin.inf.dpp.net.ITransferListener;
+
+/**
+ * Chooses the compression level of a payload based on the observed throughput
+ * of the connection mode it is sent with and the entropy of a sample of the
+ * payload.
+ * <p>
+ * Compressing is a waste of CPU time on links that transfer data faster than
+ * it can be deflated, whereas slow links like IBB benefit from the strongest
+ * compression. Payloads that look random are not compressed at all.
+ * <p>
+ * The throughput is updated with the transfers reported via the
+ * {@link ITransferListener} interface. This class is thread safe.
+ */
+final class CompressionPolicy implements ITransferListener {
+
+    /**
+     * Links that are faster than this (in bytes per millisecond) are not worth
+     * compressing
+     */
+    static final double NO_COMPRESSION_THROUGHPUT = 50 * 1024;
+
+    /**
+     * Links that are slower than this (in bytes per millisecond) use the
+     * strongest compression
+     */
+    static final double FAST_COMPRESSION_THROUGHPUT = 2 * 1024;
+
+    /**
+     * Payloads with a higher entropy (in bits per byte) are not compressed
+     */
+    static final double MAX_ENTROPY = 7.5;
+
+    /**
+     * Transfers smaller than this are dominated by latency and are no
+     * meaningful throughput samples
+     */
+    private static final long MIN_SAMPLE_SIZE = 16 * 1024;
+
+    /**
+     * Weight of a new throughput sample
+     */
+    private static final double SAMPLE_WEIGHT = 0.25;
+
+    private static final int SAMPLE_WINDOWS = 16;
+
+    private static final int SAMPLE_WINDOW_SIZE = 256;
+
+    private final Map<ConnectionMode, Double> throughputs = new EnumMap<ConnectionMode, Double>(
+        ConnectionMode.class);
+
+    CompressionPolicy() {
+        // assumptions until the first transfers are observed
+        throughputs.put(ConnectionMode.TCP, 100.0 * 1024);
+        throughputs.put(ConnectionMode.SOCKS5_DIRECT, 10.0 * 1024);
+        throughputs.put(ConnectionMode.SOCKS5_MEDIATED, 1.0 * 1024);
+        throughputs.put(ConnectionMode.IBB, 10.0);
+        throughputs.put(ConnectionMode.NONE, 1.0 * 1024);
+    }
+
+    /**
+     * Returns the compression level for the given payload.
+     *
+     * @return {@link Deflater#NO_COMPRESSION}, {@link Deflater#BEST_SPEED} or
+     *         {@link Deflater#BEST_COMPRESSION}
+     */
+    int getCompressionLevel(ConnectionMode mode, byte[] payload) {
+        final double throughput = getThroughput(mode);
+
+        if (throughput >= NO_COMPRESSION_THROUGHPUT)
+            return Deflater.NO_COMPRESSION;
+
+        if (estimateEntropy(payload) > MAX_ENTROPY)
+            return Deflater.NO_COMPRESSION;
+
+        if (throughput >= FAST_COMPRESSION_THROUGHPUT)
+            return Deflater.BEST_SPEED;
+
+        return Deflater.BEST_COMPRESSION;
+    }
+
+    /**
+     * Returns the average throughput of the given connection mode in bytes per
+     * millisecond.
+     */
+    synchronized double getThroughput(ConnectionMode mode) {
+        return throughputs.get(mode);
+    }
+
+    @Override
+    public void sent(ConnectionMode mode, long sizeCompressed,
+        long sizeUncompressed, long duration) {
+        addSample(mode, sizeCompressed, duration);
+    }
+
+    @Override
+    public void received(ConnectionMode mode, long sizeCompressed,
+        long sizeUncompressed, long duration) {
+        addSample(mode, sizeCompressed, duration);
+    }
+
+    private synchronized void addSample(ConnectionMode mode, long size,
+        long duration) {
+
+        if (size < MIN_SAMPLE_SIZE || duration <= 0)
+            return;
+
+        final double sample = (double) size / duration;
+
+        throughputs.put(mode, throughputs.get(mode) * (1 - SAMPLE_WEIGHT)
+            + sample * SAMPLE_WEIGHT);
+    }
+
+    /**
+     * Estimates the Shannon entropy of the given data in bits per byte by
+     * sampling evenly spaced windows of it.
+     */
+    static double estimateEntropy(byte[] data) {
+        final int[] counts = new int[256];
+
+        int total = 0;
+
+        if (data.length <= SAMPLE_WINDOWS * SAMPLE_WINDOW_SIZE) {
+            for (byte b : data)
+                counts[b & 0xFF]++;
+
+            total = data.length;
+        } else {
+            final int stride = data.length / SAMPLE_WINDOWS;
+
+            for (int i = 0; i < SAMPLE_WINDOWS; i++) {
+                final int start = i * stride;
+
+                for (int j = start; j < start + SAMPLE_WINDOW_SIZE; j++)
+                    counts[data[j] & 0xFF]++;
+            }
+
+            total = SAMPLE_WINDOWS * SAMPLE_WINDOW_SIZE;
+        }
+
+        double entropy = 0;
+
+        for (int count : counts) {
+            if (count == 0)
+                continue;
+
+            final double p = (double) count / total;
+            entropy -= p * Math.log(p);
+        }
+
+        return entropy / Math.log(2);
+    }
+}
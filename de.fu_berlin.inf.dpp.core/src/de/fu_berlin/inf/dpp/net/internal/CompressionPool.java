@@ -0,0 +1,213 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses payloads with pooled {@link Deflater} and
+ * {@link Inflater} instances and pooled buffers.
+ * <p>
+ * The native memory of codec instances that do not fit into the pool is
+ * released immediately by calling <code>end()</code> instead of relying on
+ * finalization.
+ * <p>
+ * This class is thread safe.
+ */
+final class CompressionPool {
+
+    /**
+     * Max number of idle instances of each type that are kept
+     */
+    private static final int MAX_POOL_SIZE = 4;
+
+    /**
+     * Buffers that grew larger than this are not kept for reuse
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * A pooled buffer with the length of its valid content.
+     */
+    static final class Buffer {
+        private byte[] data;
+        private int length;
+
+        private Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        private void ensureFreeSpace() {
+            if (length == data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+        }
+    }
+
+    private final Deque<Deflater> deflaters = new ArrayDeque<Deflater>();
+
+    private final Deque<Inflater> inflaters = new ArrayDeque<Inflater>();
+
+    private final Deque<Buffer> buffers = new ArrayDeque<Buffer>();
+
+    /**
+     * Compresses the given data into a pooled buffer. The buffer must be
+     * returned with {@link #release(Buffer)} after its content is consumed.
+     *
+     * @param level
+     *            the compression level, see {@link Deflater#setLevel(int)}
+     */
+    Buffer deflate(byte[] input, int level) {
+        final Deflater deflater = acquireDeflater();
+        final Buffer buffer = acquireBuffer(input.length / 2 + 64);
+
+        try {
+            deflater.setLevel(level);
+            deflater.setInput(input);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                buffer.ensureFreeSpace();
+                buffer.length += deflater.deflate(buffer.data, buffer.length,
+                    buffer.data.length - buffer.length);
+            }
+
+            return buffer;
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * Decompresses the given data.
+     *
+     * @throws IOException
+     *             if the data is corrupted or truncated
+     */
+    byte[] inflate(byte[] input) throws IOException {
+        return inflate(input, 0, input.length);
+    }
+
+    /**
+     * Decompresses the given range of the given data.
+     *
+     * @throws IOException
+     *             if the data is corrupted or truncated
+     */
+    byte[] inflate(byte[] input, int offset, int length) throws IOException {
+        final Inflater inflater = acquireInflater();
+        final Buffer buffer = acquireBuffer(length * 2);
+
+        try {
+            inflater.setInput(input, offset, length);
+
+            while (!inflater.finished()) {
+                buffer.ensureFreeSpace();
+
+                final int count = inflater.inflate(buffer.data, buffer.length,
+                    buffer.data.length - buffer.length);
+
+                if (count == 0 && (inflater.needsInput()
+                    || inflater.needsDictionary()))
+                    throw new IOException("failed to inflate data: "
+                        + "compressed data is truncated");
+
+                buffer.length += count;
+            }
+
+            return Arrays.copyOf(buffer.data, buffer.length);
+        } catch (DataFormatException e) {
+            throw new IOException("failed to inflate data", e);
+        } finally {
+            release(inflater);
+            release(buffer);
+        }
+    }
+
+    /**
+     * Returns the given buffer to the pool.
+     */
+    void release(Buffer buffer) {
+        if (buffer.data.length > MAX_POOLED_BUFFER_SIZE)
+            return;
+
+        buffer.length = 0;
+
+        synchronized (buffers) {
+            if (buffers.size() < MAX_POOL_SIZE)
+                buffers.addLast(buffer);
+        }
+    }
+
+    private Buffer acquireBuffer(int capacity) {
+        Buffer buffer;
+
+        synchronized (buffers) {
+            buffer = buffers.pollLast();
+        }
+
+        if (buffer == null)
+            buffer = new Buffer(Math.max(INITIAL_BUFFER_SIZE, capacity));
+
+        return buffer;
+    }
+
+    private Deflater acquireDeflater() {
+        Deflater deflater;
+
+        synchronized (deflaters) {
+            deflater = deflaters.pollLast();
+        }
+
+        return deflater != null ? deflater : new Deflater();
+    }
+
+    private void release(Deflater deflater) {
+        deflater.reset();
+
+        synchronized (deflaters) {
+            if (deflaters.size() < MAX_POOL_SIZE) {
+                deflaters.addLast(deflater);
+                return;
+            }
+        }
+
+        deflater.end();
+    }
+
+    private Inflater acquireInflater() {
+        Inflater inflater;
+
+        synchronized (inflaters) {
+            inflater = inflaters.pollLast();
+        }
+
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private void release(Inflater inflater) {
+        inflater.reset();
+
+        synchronized (inflaters) {
+            if (inflaters.size() < MAX_POOL_SIZE) {
+                inflaters.addLast(inflater);
+                return;
+            }
+        }
+
+        inflater.end();
+    }
+}
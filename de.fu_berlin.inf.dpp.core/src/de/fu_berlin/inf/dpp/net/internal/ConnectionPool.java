@@ -1,14 +1,30 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
 
+import de.fu_berlin.inf.dpp.net.ConnectionMode;
+
 /**
  * A connection pool with the ability to close all pooled connections when the
  * pool is closed. After construction the pool must be opened first.
+ * <p>
+ * A connection that is added while the pool already contains a connected
+ * connection with the same id does not replace the current connection but is
+ * kept as a standby connection, unless it uses a better connection mode. In
+ * that case it becomes the current connection and the previous one is kept as
+ * standby connection instead. Both sides of a connection rank the connections
+ * this way, so they agree on the connection to use. Such connections are
+ * established when both sides connect at the same time or several transports
+ * are tried in parallel and closing them at once could lose data that is
+ * already on the way. A standby connection becomes the current connection
+ * when the current connection is removed.
  */
 final class ConnectionPool {
 
@@ -18,6 +34,8 @@ final class ConnectionPool {
 
     private final Map<String, IByteStreamConnection> pool = new HashMap<String, IByteStreamConnection>();
 
+    private final Map<String, List<IByteStreamConnection>> standbyPool = new HashMap<String, List<IByteStreamConnection>>();
+
     /**
      * Opens the connection pool. After the connection pool is opened
      * connections can be added, removed or retrieved.
@@ -33,6 +51,7 @@ final class ConnectionPool {
     public void close() {
 
         final Map<String, IByteStreamConnection> currentPoolCopy;
+        final List<IByteStreamConnection> standbyConnections = new ArrayList<IByteStreamConnection>();
 
         synchronized (this) {
             if (!isOpen)
@@ -41,6 +60,12 @@ final class ConnectionPool {
             isOpen = false;
             currentPoolCopy = new HashMap<String, IByteStreamConnection>(pool);
             pool.clear();
+
+            for (List<IByteStreamConnection> connections : standbyPool
+                .values())
+                standbyConnections.addAll(connections);
+
+            standbyPool.clear();
         }
 
         for (Entry<String, IByteStreamConnection> entry : currentPoolCopy
@@ -51,11 +76,17 @@ final class ConnectionPool {
 
             LOG.debug("closed connection [id=" + id + "]: " + connection);
         }
+
+        for (IByteStreamConnection connection : standbyConnections) {
+            connection.close();
+
+            LOG.debug("closed standby connection: " + connection);
+        }
     }
 
     /**
      * Returns the connection with the given id.
-     * 
+     *
      * @param id
      *            id of the connection
      * @return the connection associated with the id or <code>null</code> if no
@@ -66,15 +97,18 @@ final class ConnectionPool {
     }
 
     /**
-     * Adds the connection with the given id to the pool.
-     * 
+     * Adds the connection with the given id to the pool. If the pool already
+     * contains a connected connection with the given id, the connection with
+     * the better connection mode becomes the current connection and the other
+     * one is added as standby connection.
+     *
      * @param id
      *            id of the connection
      * @param connection
      *            the connection to add
      * @return either the original connection if the pool is <b>closed</b> or
-     *         the previous connection that was already added with the given id
-     *         or <code>null</code> if no connection was added with the given id
+     *         the previous connection that was replaced by the connection or
+     *         <code>null</code> if no connection was replaced
      */
     public synchronized IByteStreamConnection add(final String id,
         final IByteStreamConnection connection) {
@@ -82,21 +116,186 @@ final class ConnectionPool {
         if (!isOpen)
             return connection;
 
-        return pool.put(id, connection);
+        final IByteStreamConnection current = pool.get(id);
+
+        if (current == null || current == connection
+            || !current.isConnected())
+            return pool.put(id, connection);
+
+        List<IByteStreamConnection> standbyConnections = standbyPool.get(id);
+
+        if (standbyConnections == null) {
+            standbyConnections = new ArrayList<IByteStreamConnection>(1);
+            standbyPool.put(id, standbyConnections);
+        }
+
+        if (rank(connection) > rank(current)) {
+            pool.put(id, connection);
+            standbyConnections.add(current);
+
+            LOG.debug("connection [id=" + id + "] " + connection
+                + " replaced current connection, which is now a standby"
+                + " connection: " + current);
+            return null;
+        }
+
+        standbyConnections.add(connection);
+
+        LOG.debug("added standby connection [id=" + id + "]: " + connection);
+        return null;
     }
 
     /**
-     * Removes the connection with the given id from the pool.
-     * 
+     * Returns the standby connections with the given id.
+     *
+     * @param id
+     *            id of the connections
+     * @return a copy of the standby connections associated with the id, the
+     *         list is empty if no such connections exist or the pool is closed
+     */
+    public synchronized List<IByteStreamConnection> getStandbyConnections(
+        final String id) {
+
+        final List<IByteStreamConnection> standbyConnections = standbyPool
+            .get(id);
+
+        if (!isOpen || standbyConnections == null)
+            return new ArrayList<IByteStreamConnection>();
+
+        return new ArrayList<IByteStreamConnection>(standbyConnections);
+    }
+
+    /**
+     * Removes the given standby connection with the given id from the pool.
+     * Nothing is removed if the connection is the current connection.
+     *
+     * @param id
+     *            id of the connection
+     * @param connection
+     *            the standby connection to remove
+     * @return <code>true</code> if the connection was removed,
+     *         <code>false</code> if the pool does not contain the connection as
+     *         standby connection or the pool is closed
+     */
+    public synchronized boolean removeStandbyConnection(final String id,
+        final IByteStreamConnection connection) {
+
+        if (!isOpen)
+            return false;
+
+        final List<IByteStreamConnection> standbyConnections = standbyPool
+            .get(id);
+
+        if (standbyConnections == null
+            || !standbyConnections.remove(connection))
+            return false;
+
+        if (standbyConnections.isEmpty())
+            standbyPool.remove(id);
+
+        return true;
+    }
+
+    /**
+     * Removes the connection with the given id from the pool. Standby
+     * connections with the given id are closed.
+     *
      * @param id
      *            id of the connection
      * @return the connection associated with the id or <code>null</code> if no
      *         such connection exists or the pool is closed
      */
-    public synchronized IByteStreamConnection remove(final String id) {
+    public IByteStreamConnection remove(final String id) {
+
+        final IByteStreamConnection connection;
+        final List<IByteStreamConnection> standbyConnections;
+
+        synchronized (this) {
+            if (!isOpen)
+                return null;
+
+            connection = pool.remove(id);
+            standbyConnections = standbyPool.remove(id);
+        }
+
+        if (standbyConnections == null)
+            return connection;
+
+        for (IByteStreamConnection standbyConnection : standbyConnections) {
+            standbyConnection.close();
+
+            LOG.debug("closed standby connection [id=" + id + "]: "
+                + standbyConnection);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Removes the given connection with the given id from the pool. If it is
+     * the current connection, the first standby connection that is still
+     * connected becomes the current connection.
+     *
+     * @param id
+     *            id of the connection
+     * @param connection
+     *            the connection to remove
+     * @return <code>true</code> if the connection was removed,
+     *         <code>false</code> if the pool does not contain the connection
+     *         or the pool is closed
+     */
+    public synchronized boolean remove(final String id,
+        final IByteStreamConnection connection) {
+
         if (!isOpen)
-            return null;
+            return false;
+
+        final List<IByteStreamConnection> standbyConnections = standbyPool
+            .get(id);
+
+        if (pool.get(id) != connection) {
+            if (standbyConnections == null
+                || !standbyConnections.remove(connection))
+                return false;
+
+            if (standbyConnections.isEmpty())
+                standbyPool.remove(id);
+
+            return true;
+        }
+
+        pool.remove(id);
 
-        return pool.remove(id);
+        if (standbyConnections == null)
+            return true;
+
+        for (Iterator<IByteStreamConnection> it = standbyConnections
+            .iterator(); it.hasNext();) {
+            final IByteStreamConnection standbyConnection = it.next();
+            it.remove();
+
+            if (standbyConnection.isConnected()) {
+                pool.put(id, standbyConnection);
+
+                LOG.debug("standby connection [id=" + id
+                    + "] replaced closed connection " + connection + ": "
+                    + standbyConnection);
+                break;
+            }
+        }
+
+        if (standbyConnections.isEmpty())
+            standbyPool.remove(id);
+
+        return true;
+    }
+
+    /*
+     * the connection modes are declared from the worst to the best one, which
+     * matches the order in which the transports are preferred
+     */
+    private static int rank(final IByteStreamConnection connection) {
+        final ConnectionMode mode = connection.getMode();
+        return mode == null ? ConnectionMode.NONE.ordinal() : mode.ordinal();
     }
 }
@@ -1,20 +1,30 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
@@ -22,6 +32,7 @@ import org.picocontainer.annotations.Nullable;
 
 import de.fu_berlin.inf.dpp.ISarosContextBindings.IBBTransport;
 import de.fu_berlin.inf.dpp.ISarosContextBindings.Socks5Transport;
+import de.fu_berlin.inf.dpp.ISarosContextBindings.TCPTransport;
 import de.fu_berlin.inf.dpp.annotations.Component;
 import de.fu_berlin.inf.dpp.net.ConnectionMode;
 import de.fu_berlin.inf.dpp.net.ConnectionState;
@@ -32,6 +43,7 @@ import de.fu_berlin.inf.dpp.net.ITransferListener;
 import de.fu_berlin.inf.dpp.net.xmpp.IConnectionListener;
 import de.fu_berlin.inf.dpp.net.xmpp.JID;
 import de.fu_berlin.inf.dpp.net.xmpp.XMPPConnectionService;
+import de.fu_berlin.inf.dpp.util.NamedThreadFactory;
 
 /**
  * This class is responsible for handling all transfers of binary data. It
@@ -49,14 +61,27 @@ public class DataTransferManager implements IConnectionListener,
     private static final Logger LOG = Logger
         .getLogger(DataTransferManager.class);
 
-    private static final int CHUNKSIZE = 16 * 1024;
-
     private static final String DEFAULT_CONNECTION_ID = "default";
 
     private static final String IN = "in";
 
     private static final String OUT = "out";
 
+    /**
+     * Time in milliseconds after which the next transport is tried in
+     * parallel if the transports that were already started neither succeeded
+     * nor failed.
+     */
+    private static final long CONNECT_ATTEMPT_DELAY = Long.getLong(
+        "de.fu_berlin.inf.dpp.net.CONNECT_ATTEMPT_DELAY", 2000);
+
+    /**
+     * Time in milliseconds to wait for higher ranked transports that are still
+     * connecting after a lower ranked transport connected.
+     */
+    private static final long CONNECT_GRACE_PERIOD = Long.getLong(
+        "de.fu_berlin.inf.dpp.net.CONNECT_GRACE_PERIOD", 5000);
+
     private final CopyOnWriteArrayList<IPacketInterceptor> packetInterceptors = new CopyOnWriteArrayList<IPacketInterceptor>();
 
     private final List<ITransferListener> transferListeners = new CopyOnWriteArrayList<ITransferListener>();
@@ -65,10 +90,12 @@ public class DataTransferManager implements IConnectionListener,
 
     private Connection connection;
 
-    private int transportMask = -1;
+    private int transportMask = SOCKS5_TRANSPORT | IBB_TRANSPORT;
 
     private final IReceiver receiver;
 
+    private final ITransport directTransport;
+
     private final ITransport mainTransport;
 
     private final ITransport fallbackTransport;
@@ -77,10 +104,174 @@ public class DataTransferManager implements IConnectionListener,
 
     private final ConnectionPool connectionPool = new ConnectionPool();
 
+    private final CompressionPool compressionPool = new CompressionPool();
+
+    private final CompressionPolicy compressionPolicy = new CompressionPolicy();
+
     private final Set<String> currentOutgoingConnectionEstablishments = new HashSet<String>();
 
     private final List<ITransport> availableTransports = new CopyOnWriteArrayList<ITransport>();
 
+    /**
+     * the highest ranked transport that connected to a peer the last time
+     */
+    private final Map<JID, ITransport> preferredTransports = Collections
+        .synchronizedMap(new HashMap<JID, ITransport>());
+
+    private final ExecutorService connectExecutor = Executors
+        .newCachedThreadPool(new NamedThreadFactory("Transport-Connect-"));
+
+    private final Timer standbyConnectionTimer = new Timer(
+        "Standby-Connection-Closer", true);
+
+    /**
+     * The outcome of the parallel connection attempts to a peer. The
+     * transports are ranked by their position in the list of available
+     * transports, a lower index means a higher rank.
+     * <p>
+     * Successful connections are collected until the connection establishment
+     * picks a winner. The winner is added to the connection pool first, all
+     * other connections are added as standby connections, because the peer
+     * may already use them. Connections of attempts that succeed after the
+     * winner was picked are added to the connection pool as well, unless the
+     * connection establishment was aborted. The pool ranks them the same way
+     * the peer ranks its incoming connections and the losing connections are
+     * closed after the grace period.
+     */
+    private final class ConnectRace {
+        private final String connectionID;
+        private final JID peer;
+        private final List<ITransport> ranking;
+
+        private final Map<ITransport, IByteStreamConnection> connections = new HashMap<ITransport, IByteStreamConnection>();
+
+        private ITransport winner;
+        private boolean isAborted;
+
+        private ConnectRace(String connectionID, JID peer,
+            List<ITransport> ranking) {
+            this.connectionID = connectionID;
+            this.peer = peer;
+            this.ranking = ranking;
+        }
+
+        private int rank(ITransport transport) {
+            return ranking.indexOf(transport);
+        }
+
+        private synchronized void add(ITransport transport,
+            IByteStreamConnection connection) {
+
+            if (isAborted) {
+                LOG.debug("closing connection to " + peer
+                    + " because the connection establishment was aborted: "
+                    + connection);
+                connection.close();
+                return;
+            }
+
+            if (winner == null) {
+                connections.put(transport, connection);
+                return;
+            }
+
+            LOG.debug("transport " + transport + " connected after transport "
+                + winner + " to " + peer);
+
+            if (rank(transport) < rank(winner))
+                preferredTransports.put(peer, transport);
+
+            byteStreamConnectionListener.connectionChanged(connectionID, peer,
+                connection, false);
+        }
+
+        /**
+         * Returns the highest ranked transport that connected so far or
+         * <code>null</code> if no transport connected yet.
+         */
+        private synchronized ITransport getBest() {
+            ITransport best = null;
+
+            for (ITransport transport : connections.keySet()) {
+                if (best == null || rank(transport) < rank(best))
+                    best = transport;
+            }
+
+            return best;
+        }
+
+        /**
+         * Returns <code>true</code> if one of the given transports ranks
+         * higher than the given transport.
+         */
+        private boolean isOutranked(ITransport transport,
+            Collection<ITransport> pending, Collection<ITransport> unstarted) {
+
+            for (ITransport other : pending) {
+                if (rank(other) < rank(transport))
+                    return true;
+            }
+
+            for (ITransport other : unstarted) {
+                if (rank(other) < rank(transport))
+                    return true;
+            }
+
+            return false;
+        }
+
+        private synchronized IByteStreamConnection finish(
+            ITransport transport) {
+            winner = transport;
+
+            final IByteStreamConnection connection = connections
+                .remove(transport);
+
+            byteStreamConnectionListener.connectionChanged(connectionID, peer,
+                connection, false);
+
+            for (IByteStreamConnection standbyConnection : connections
+                .values())
+                byteStreamConnectionListener.connectionChanged(connectionID,
+                    peer, standbyConnection, false);
+
+            connections.clear();
+
+            return connection;
+        }
+
+        private synchronized void abort() {
+            isAborted = true;
+
+            for (IByteStreamConnection connection : connections.values())
+                connection.close();
+
+            connections.clear();
+        }
+    }
+
+    /**
+     * Connects to a peer using one transport and adds the connection to the
+     * race.
+     */
+    private static class ConnectAttempt implements Callable<Void> {
+
+        private final ConnectRace race;
+        private final ITransport transport;
+
+        private ConnectAttempt(ConnectRace race, ITransport transport) {
+            this.race = race;
+            this.transport = transport;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            race.add(transport,
+                transport.connect(race.connectionID, race.peer));
+            return null;
+        }
+    }
+
     private final IByteStreamConnectionListener byteStreamConnectionListener = new IByteStreamConnectionListener() {
 
         @Override
@@ -102,11 +293,14 @@ public class DataTransferManager implements IConnectionListener,
                     + extension.getTransferMode() + "]");
 
             if (extension.getTransferDescription().compressContent()) {
-                byte[] payload = extension.getPayload();
-                long compressedPayloadLength = payload.length;
+                long compressedPayloadLength = extension.getPayloadLength();
+
+                final byte[] payload;
 
                 try {
-                    payload = inflate(payload);
+                    payload = compressionPool.inflate(
+                        extension.getPayloadBuffer(), 0,
+                        extension.getPayloadLength());
                 } catch (IOException e) {
                     LOG.error("could not decompress extension payload", e);
                     return;
@@ -158,12 +352,21 @@ public class DataTransferManager implements IConnectionListener,
             }
 
             connection.initialize();
+
+            closeStandbyConnections(id);
         }
 
         @Override
         public void connectionClosed(String connectionID, JID peer,
             IByteStreamConnection connection) {
-            closeConnection(connectionID, peer);
+            /*
+             * only remove the closed connection, it may have been replaced or
+             * may be a standby connection
+             */
+            connectionPool.remove(toConnectionIDToken(connectionID, OUT, peer),
+                connection);
+            connectionPool.remove(toConnectionIDToken(connectionID, IN, peer),
+                connection);
         }
     };
 
@@ -171,12 +374,28 @@ public class DataTransferManager implements IConnectionListener,
         IReceiver receiver,
         @Nullable @Socks5Transport ITransport mainTransport,
         @Nullable @IBBTransport ITransport fallbackTransport) {
+        this(connectionService, receiver, null, mainTransport,
+            fallbackTransport);
+    }
+
+    /**
+     * @param directTransport
+     *            transport for peers in the local network, it is preferred
+     *            over all other transports
+     */
+    public DataTransferManager(XMPPConnectionService connectionService,
+        IReceiver receiver,
+        @Nullable @TCPTransport ITransport directTransport,
+        @Nullable @Socks5Transport ITransport mainTransport,
+        @Nullable @IBBTransport ITransport fallbackTransport) {
 
         this.receiver = receiver;
+        this.directTransport = directTransport;
         this.fallbackTransport = fallbackTransport;
         this.mainTransport = mainTransport;
         this.initTransports();
 
+        transferListeners.add(compressionPolicy);
         connectionService.addListener(this);
     }
 
@@ -257,22 +476,50 @@ public class DataTransferManager implements IConnectionListener,
         if (!sendPacket)
             return;
 
-        long sizeUncompressed = payload.length;
+        final long sizeUncompressed = payload.length;
 
-        if (description.compressContent())
-            payload = deflate(payload);
+        /*
+         * the compressed data is sent directly from the pooled buffer, which
+         * can be reused as soon as the connection has sent it. If sending
+         * fails the data may still be written by the connection, so the buffer
+         * is not returned to the pool in this case.
+         */
+        CompressionPool.Buffer compressed = null;
+
+        byte[] content = payload;
+        int length = payload.length;
+
+        if (description.compressContent()) {
+            final int level = compressionPolicy.getCompressionLevel(
+                connection.getMode(), payload);
+
+            if (LOG.isTraceEnabled())
+                LOG.trace("compression level for " + description + ": "
+                    + level + " [" + connection.getMode() + "]");
+
+            if (level == Deflater.NO_COMPRESSION) {
+                description.setCompressContent(false);
+            } else {
+                compressed = compressionPool.deflate(payload, level);
+                content = compressed.getData();
+                length = compressed.getLength();
+            }
+        }
 
         final long transferStartTime = System.currentTimeMillis();
 
         try {
-            connection.send(description, payload);
+            connection.send(description, content, 0, length);
         } catch (IOException e) {
             LOG.error("failed to send " + description + ", connection="
                 + connection + ":" + e.getMessage(), e);
             throw e;
         }
 
-        notifyDataSent(connection.getMode(), payload.length, sizeUncompressed,
+        if (compressed != null)
+            compressionPool.release(compressed);
+
+        notifyDataSent(connection.getMode(), length, sizeUncompressed,
             System.currentTimeMillis() - transferStartTime);
 
     }
@@ -402,39 +649,165 @@ public class DataTransferManager implements IConnectionListener,
             if (connectionJID == null)
                 throw new IOException("not connected to a XMPP server");
 
-            final ArrayList<ITransport> transportModesToUse = new ArrayList<ITransport>(
+            final List<ITransport> ranking = new ArrayList<ITransport>(
                 availableTransports);
 
-            for (ITransport transport : transportModesToUse) {
-                LOG.info("establishing connection to " + peer + " from "
-                    + connectionJID + " using transport " + transport);
-                try {
-                    connection = transport.connect(connectionID, peer);
-                    break;
-                } catch (IOException e) {
-                    LOG.warn("failed to connect to " + peer
-                        + " using transport: " + transport, e);
-                } catch (InterruptedException e) {
-                    LOG.warn("interrupted while connecting to " + peer
-                        + " using transport: " + transport);
-                    IOException io = new InterruptedIOException(
-                        "connection establishment to " + peer + " aborted");
-                    io.initCause(e);
-                    throw io;
-                } catch (Exception e) {
-                    LOG.error("failed to connect to " + peer
-                        + " due to an internal error in transport: "
-                        + transport, e);
-                }
+            final List<ITransport> transportModesToUse = new ArrayList<ITransport>(
+                ranking);
+
+            /*
+             * the transport that connected to the peer the last time is tried
+             * at once together with the most preferred transport
+             */
+            int immediateAttempts = 1;
+
+            final ITransport preferredTransport = preferredTransports.get(peer);
+
+            if (preferredTransport != null
+                && transportModesToUse.indexOf(preferredTransport) > 0) {
+                transportModesToUse.remove(preferredTransport);
+                transportModesToUse.add(1, preferredTransport);
+                immediateAttempts = 2;
             }
 
-            if (connection != null) {
-                byteStreamConnectionListener.connectionChanged(connectionID,
-                    peer, connection, false);
+            final CompletionService<Void> attempts = new ExecutorCompletionService<Void>(
+                connectExecutor);
 
-                return connection;
+            final Map<Future<Void>, ITransport> pendingAttempts = new HashMap<Future<Void>, ITransport>();
+
+            final ConnectRace race = new ConnectRace(connectionID, peer,
+                ranking);
+
+            int startedAttempts = 0;
+            long nextAttemptTime = 0;
+            long graceEndTime = 0;
+
+            ITransport best = null;
+
+            try {
+                while (true) {
+                    final long currentTime = System.currentTimeMillis();
+
+                    /*
+                     * wait a grace period for better transports before a lower
+                     * ranked transport wins
+                     */
+                    if (best != null
+                        && (currentTime >= graceEndTime || !race.isOutranked(
+                            best, pendingAttempts.values(),
+                            transportModesToUse.subList(startedAttempts,
+                                transportModesToUse.size()))))
+                        break;
+
+                    final boolean startNextAttempt = pendingAttempts.isEmpty()
+                        || startedAttempts < immediateAttempts
+                        || currentTime >= nextAttemptTime;
+
+                    if (startedAttempts < transportModesToUse.size()
+                        && startNextAttempt) {
+
+                        final ITransport transport = transportModesToUse
+                            .get(startedAttempts++);
+
+                        // it could not win anymore
+                        if (best != null
+                            && race.rank(transport) > race.rank(best))
+                            continue;
+
+                        LOG.info("establishing connection to " + peer
+                            + " from " + connectionJID + " using transport "
+                            + transport);
+
+                        pendingAttempts.put(attempts.submit(new ConnectAttempt(
+                            race, transport)), transport);
+
+                        nextAttemptTime = currentTime + CONNECT_ATTEMPT_DELAY;
+                        continue;
+                    }
+
+                    if (pendingAttempts.isEmpty())
+                        break;
+
+                    long waitTime = Long.MAX_VALUE;
+
+                    if (startedAttempts < transportModesToUse.size())
+                        waitTime = nextAttemptTime - currentTime;
+
+                    if (best != null)
+                        waitTime = Math.min(waitTime, graceEndTime
+                            - currentTime);
+
+                    final Future<Void> attempt;
+
+                    if (waitTime == Long.MAX_VALUE)
+                        attempt = attempts.take();
+                    else
+                        attempt = attempts.poll(waitTime,
+                            TimeUnit.MILLISECONDS);
+
+                    // start the next transport or the grace period is over
+                    if (attempt == null)
+                        continue;
+
+                    final ITransport transport = pendingAttempts
+                        .remove(attempt);
+
+                    try {
+                        attempt.get();
+
+                        if (best == null)
+                            graceEndTime = System.currentTimeMillis()
+                                + CONNECT_GRACE_PERIOD;
+
+                        best = race.getBest();
+                    } catch (ExecutionException e) {
+                        final Throwable cause = e.getCause();
+
+                        if (cause instanceof IOException) {
+                            LOG.warn("failed to connect to " + peer
+                                + " using transport: " + transport, cause);
+                        } else if (cause instanceof InterruptedException) {
+                            LOG.warn("interrupted while connecting to " + peer
+                                + " using transport: " + transport);
+                        } else {
+                            LOG.error("failed to connect to " + peer
+                                + " due to an internal error in transport: "
+                                + transport, cause);
+                        }
+
+                        // do not wait any longer for the next transport
+                        nextAttemptTime = 0;
+                    }
+                }
+
+                if (best != null) {
+                    /*
+                     * only remember the transport if no better one could have
+                     * connected
+                     */
+                    if (!race.isOutranked(best, pendingAttempts.values(),
+                        transportModesToUse.subList(startedAttempts,
+                            transportModesToUse.size())))
+                        preferredTransports.put(peer, best);
+
+                    connection = race.finish(best);
+                }
+            } catch (InterruptedException e) {
+                race.abort();
+
+                LOG.warn("interrupted while connecting to " + peer);
+                IOException io = new InterruptedIOException(
+                    "connection establishment to " + peer + " aborted");
+                io.initCause(e);
+                throw io;
+            } finally {
+                for (Future<Void> attempt : pendingAttempts.keySet())
+                    attempt.cancel(true);
             }
 
+            if (connection != null)
+                return connection;
+
             throw new IOException("could not connect to " + peer
                 + ", exhausted all available transport modes: "
                 + transportModesToUse);
@@ -450,14 +823,19 @@ public class DataTransferManager implements IConnectionListener,
     private void initTransports() {
         boolean useIBB;
         boolean useSocks5;
+        boolean useTCP;
 
         synchronized (this) {
             useIBB = (transportMask & IBB_TRANSPORT) != 0;
             useSocks5 = (transportMask & SOCKS5_TRANSPORT) != 0;
+            useTCP = (transportMask & TCP_TRANSPORT) != 0;
         }
 
         availableTransports.clear();
 
+        if (useTCP && directTransport != null)
+            availableTransports.add(directTransport);
+
         if (useSocks5 && mainTransport != null)
             availableTransports.add(mainTransport);
 
@@ -568,6 +946,35 @@ public class DataTransferManager implements IConnectionListener,
         return connectionPool.get(toConnectionIDToken(connectionID, IN, jid));
     }
 
+    /**
+     * Closes the current standby connections with the given pool id after the
+     * grace period. Both sides prefer the connection with the best connection
+     * mode, so the peer no longer uses these connections by then. Waiting
+     * ensures that data which is already on the way is not lost.
+     */
+    private void closeStandbyConnections(final String id) {
+        final List<IByteStreamConnection> standbyConnections = connectionPool
+            .getStandbyConnections(id);
+
+        if (standbyConnections.isEmpty())
+            return;
+
+        standbyConnectionTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                for (IByteStreamConnection connection : standbyConnections) {
+                    if (!connectionPool.removeStandbyConnection(id, connection))
+                        continue;
+
+                    LOG.debug("closing standby connection [pool id=" + id
+                        + "]: " + connection);
+
+                    connection.close();
+                }
+            }
+        }, CONNECT_GRACE_PERIOD);
+    }
+
     private static String toConnectionIDToken(String connectionIdentifier,
         String mode, JID jid) {
 
@@ -605,43 +1012,4 @@ public class DataTransferManager implements IConnectionListener,
             }
         }
     }
-
-    private static byte[] deflate(byte[] input) {
-
-        Deflater compressor = new Deflater(Deflater.DEFLATED);
-        compressor.setInput(input);
-        compressor.finish();
-
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length);
-
-        byte[] buf = new byte[CHUNKSIZE];
-
-        while (!compressor.finished()) {
-            int count = compressor.deflate(buf);
-            bos.write(buf, 0, count);
-        }
-
-        return bos.toByteArray();
-    }
-
-    private static byte[] inflate(byte[] input) throws IOException {
-
-        ByteArrayOutputStream bos;
-        Inflater decompressor = new Inflater();
-
-        decompressor.setInput(input, 0, input.length);
-        bos = new ByteArrayOutputStream(input.length);
-
-        byte[] buf = new byte[CHUNKSIZE];
-
-        try {
-            while (!decompressor.finished()) {
-                int count = decompressor.inflate(buf);
-                bos.write(buf, 0, count);
-            }
-            return bos.toByteArray();
-        } catch (DataFormatException e) {
-            throw new IOException("failed to inflate data", e);
-        }
-    }
 }
@@ -29,12 +29,18 @@ public interface IByteStreamConnection {
      * 
      * @param data
      *            The data to be sent.
+     * @param content
+     *            array containing the content to send
+     * @param offset
+     *            offset of the content in the array
+     * @param length
+     *            length of the content
      * @throws IOException
      *             if the send failed
      * @blocking Send the given data as a blocking operation.
      */
-    public void send(TransferDescription data, byte[] content)
-        throws IOException;
+    public void send(TransferDescription data, byte[] content, int offset,
+        int length) throws IOException;
 
     /**
      * Returns the connection id of this connection.
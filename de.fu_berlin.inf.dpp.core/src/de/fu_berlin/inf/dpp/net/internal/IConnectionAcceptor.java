@@ -0,0 +1,22 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import java.net.Socket;
+
+/**
+ * Receives the connections accepted by a {@link TCPServer}.
+ */
+public interface IConnectionAcceptor {
+
+    /**
+     * Gets called for every accepted connection after its handshake was
+     * received completely. The socket has no read timeout set and the
+     * implementation is responsible for closing it if the connection is not
+     * used.
+     *
+     * @param socket
+     *            the socket of the accepted connection
+     * @param handshake
+     *            the handshake data that was sent by the remote side
+     */
+    public void accept(Socket socket, byte[] handshake);
+}
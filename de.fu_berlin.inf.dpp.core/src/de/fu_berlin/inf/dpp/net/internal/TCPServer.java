@@ -1,79 +1,99 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
 
-// TODO JavaDoc
-
-// Accepts incoming TCP connections
+/**
+ * Accepts incoming TCP connections.
+ * <p>
+ * All connections are accepted by a single thread. Before a connection is
+ * passed to the current {@link IConnectionAcceptor} the remote side has to
+ * send a handshake, which consists of its length as an unsigned 16 bit value
+ * followed by the handshake data. The handshake of every connection is read on
+ * its own thread, so a slow client does not delay other connections.
+ * Connections that do not send a valid handshake in time are closed without
+ * bothering the acceptor. If no acceptor is set all connections are closed.
+ * <p>
+ * The acceptor gets a plain {@link Socket} and not the socket of a
+ * {@link java.nio.channels.SocketChannel}, as the streams of the latter block
+ * each other on older runtimes when one thread reads while another one
+ * writes.
+ */
 public class TCPServer {
 
     private static final Logger LOG = Logger.getLogger(TCPServer.class);
 
+    private static final int MAX_PORT = 65535;
+
+    private static final int MAX_HANDSHAKE_SIZE = 4096;
+
+    /** time in milliseconds a client may take to send its handshake */
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+
     private ServerSocket server;
 
     private Thread connectionAcceptThread;
 
     private volatile boolean running;
 
+    private volatile IConnectionAcceptor acceptor;
+
+    /** connections whose handshake is currently read */
+    private final Set<Socket> pendingConnections = new HashSet<Socket>();
+
     private final Runnable acceptRunnable = new Runnable() {
 
         @Override
         public void run() {
-            while (running) {
-
-                final Socket client;
-
-                try {
-                    client = server.accept();
-                } catch (IOException e) {
-                    if (!running)
-                        return;
-
-                    LOG.error("server socket is closed", e);
-                    return;
-                }
-
-                LOG.debug("accept request from: "
-                    + client.getRemoteSocketAddress());
-
-                // TODO pass to logic
-                try {
-                    client.close();
-                } catch (Exception e) {
-                    // ignore
-                }
+            try {
+                runAcceptLoop();
+            } finally {
+                closeAll();
             }
         }
     };
 
+    /**
+     * Sets the acceptor for all connections that are accepted from now on.
+     *
+     * @param acceptor
+     *            the acceptor or <code>null</code> to close all further
+     *            connections
+     */
+    public void setConnectionAcceptor(IConnectionAcceptor acceptor) {
+        this.acceptor = acceptor;
+    }
+
     /**
      * Starts a server on the given address and port.
-     * 
+     *
      * @param address
      *            the address to bind the server to or <code>null</code>
      * @param port
      *            the port to use, if negative the server will try to bind to a
-     *            free port beginning with the given port number
-     * 
+     *            free port beginning with the given port number, if
+     *            <code>0</code> the server is bound to an ephemeral port
+     *
      * @throws IOException
      *             if the server could not been started
-     * 
+     *
      * @return the port number the server was bound to or -1 is already started
      */
     public synchronized int start(InetAddress address, int port)
         throws IOException {
 
-        final int MAX_PORT = 65535;
-
         if (running) {
             LOG.warn("server is already started");
             return -1;
@@ -86,26 +106,27 @@ public class TCPServer {
             searchFreePort = true;
         }
 
-        if (port <= 0 || port > MAX_PORT)
+        if (port > MAX_PORT)
             throw new IOException("invalid port number: " + port);
 
-        server = new ServerSocket();
-
         while (port <= MAX_PORT) {
             final SocketAddress serverAddress = new InetSocketAddress(address,
                 port);
 
+            server = new ServerSocket();
+
             try {
                 server.bind(serverAddress);
                 break;
             } catch (IOException e) {
+                closeSocket(server);
+
                 if (!searchFreePort) {
                     LOG.error("failed to bind socket to: " + serverAddress);
-                    closeServerSocket(server);
                     throw e;
                 }
             } catch (IllegalArgumentException e) {
-                closeServerSocket(server);
+                closeSocket(server);
                 throw new IOException("internet address " + address
                     + " is not supported", e);
             }
@@ -114,7 +135,6 @@ public class TCPServer {
         }
 
         if (port > MAX_PORT) {
-            closeServerSocket(server);
             throw new IOException(
                 "failed to bind socket, no free ports available");
         }
@@ -125,11 +145,13 @@ public class TCPServer {
             LOG, acceptRunnable);
 
         LOG.info("server started on: " + server.getLocalSocketAddress());
-        return port;
+
+        return server.getLocalPort();
     }
 
     /**
-     * Stops the currently running server.
+     * Stops the currently running server. Connections that were already passed
+     * to the acceptor are not affected.
      */
     public synchronized void stop() {
         if (!running) {
@@ -137,7 +159,12 @@ public class TCPServer {
             return;
         }
 
-        closeServerSocket(server);
+        final SocketAddress serverAddress = server.getLocalSocketAddress();
+
+        running = false;
+
+        // unblocks the accept thread
+        closeSocket(server);
 
         try {
             connectionAcceptThread.join();
@@ -147,21 +174,135 @@ public class TCPServer {
             return;
         }
 
-        LOG.info("server stopped on: " + server.getLocalSocketAddress());
+        LOG.info("server stopped on: " + serverAddress);
 
         server = null;
         connectionAcceptThread = null;
-        running = false;
     }
 
-    private static void closeServerSocket(ServerSocket socket) {
-        if (socket == null)
+    private void runAcceptLoop() {
+        while (running) {
+            final Socket client;
+
+            try {
+                client = server.accept();
+            } catch (SocketException e) {
+                if (running)
+                    LOG.error("server socket failed, no more connections are"
+                        + " accepted", e);
+
+                return;
+            } catch (IOException e) {
+                LOG.warn("failed to accept connection: " + e.getMessage());
+                continue;
+            }
+
+            LOG.debug("accept request from: " + client.getRemoteSocketAddress());
+
+            synchronized (pendingConnections) {
+                if (!running) {
+                    closeSocket(client);
+                    return;
+                }
+
+                pendingConnections.add(client);
+            }
+
+            ThreadUtils.runSafeAsync("TCP-Server-Dispatch", LOG,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(client);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Reads the handshake of the connection and passes the connection to the
+     * acceptor.
+     */
+    private void dispatch(final Socket client) {
+        byte[] handshake = null;
+
+        try {
+            handshake = readHandshake(client);
+        } catch (IOException e) {
+            LOG.debug("invalid handshake from "
+                + client.getRemoteSocketAddress() + ": " + e.getMessage());
+        }
+
+        synchronized (pendingConnections) {
+            /*
+             * the server was stopped in the meantime and already closed the
+             * connection
+             */
+            if (!pendingConnections.remove(client))
+                return;
+        }
+
+        if (handshake == null) {
+            closeSocket(client);
+            return;
+        }
+
+        final IConnectionAcceptor currentAcceptor = acceptor;
+
+        if (currentAcceptor == null) {
+            LOG.debug("no acceptor available, closing connection: "
+                + client.getRemoteSocketAddress());
+            closeSocket(client);
             return;
+        }
+
+        currentAcceptor.accept(client, handshake);
+    }
+
+    private static byte[] readHandshake(final Socket client)
+        throws IOException {
+
+        client.setSoTimeout(HANDSHAKE_TIMEOUT);
+
+        final DataInputStream in = new DataInputStream(client.getInputStream());
+
+        final int length = in.readUnsignedShort();
+
+        if (length == 0 || length > MAX_HANDSHAKE_SIZE)
+            throw new IOException("invalid handshake length: " + length);
+
+        final byte[] handshake = new byte[length];
+
+        in.readFully(handshake);
+
+        client.setSoTimeout(0);
+
+        return handshake;
+    }
+
+    private void closeAll() {
+        closeSocket(server);
+
+        synchronized (pendingConnections) {
+            for (Socket client : pendingConnections)
+                closeSocket(client);
+
+            pendingConnections.clear();
+        }
+    }
+
+    private static void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.warn("failed to close socket: " + socket, e);
+        }
+    }
 
+    private static void closeSocket(ServerSocket socket) {
         try {
             socket.close();
         } catch (IOException e) {
-            LOG.warn("failed to server close socket: " + socket, e);
+            LOG.warn("failed to close server socket: " + socket, e);
         }
     }
 }
@@ -1,63 +1,360 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import javax.jmdns.ServiceInfo;
+
+import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
 
 import de.fu_berlin.inf.dpp.net.ConnectionMode;
+import de.fu_berlin.inf.dpp.net.mdns.MDNSService;
 import de.fu_berlin.inf.dpp.net.xmpp.JID;
+import de.fu_berlin.inf.dpp.util.NamedThreadFactory;
+import de.fu_berlin.inf.dpp.util.ThreadUtils;
+
+/**
+ * Transport that connects directly to peers in the local network.
+ * <p>
+ * While the transport is initialized the local {@link TCPServer} accepts
+ * connections and the {@link MDNSService} announces it in the local network,
+ * the TXT record of the service carries the JID of the local user. A peer can
+ * only be connected if its service was resolved before, otherwise the
+ * connection attempt fails at once and the next transport is used.
+ * <p>
+ * After the TCP connection is established the connecting side sends a
+ * handshake containing the connection identifier, its own JID and the JID of
+ * the peer. The accepting side answers with a single byte and afterwards both
+ * sides use the socket for a {@link BinaryChannelConnection}.
+ * <p>
+ * <b>Note:</b> The handshake is not authenticated. A connection is only
+ * accepted if it originates from an address the claimed JID was announced
+ * from, which only protects against mistakes and not against an attacker in
+ * the local network. Therefore the transport is not used unless it is enabled
+ * explicitly, see
+ * {@link de.fu_berlin.inf.dpp.net.IConnectionManager#TCP_TRANSPORT}.
+ */
+public class TCPTransport implements ITransport, IConnectionAcceptor {
+
+    private static final Logger LOG = Logger.getLogger(TCPTransport.class);
+
+    static final String SERVICE_TYPE = "_dpp._tcp.local.";
+
+    static final String JID_PROPERTY = "jid";
+
+    private static final int PROTOCOL_VERSION = 1;
+
+    private static final int ACCEPTED = 1;
+
+    private static final int REJECTED = 0;
+
+    /** peers in the local network answer fast or not at all */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+
+    private final TCPServer server;
+
+    private final MDNSService mDNSService;
 
-// TODO rewrite ITransport interface
+    /**
+     * Starts and stops the service in order, as starting the MDNS service may
+     * take some seconds.
+     */
+    private final ThreadPoolExecutor serviceExecutor;
 
-public class TCPTransport implements ITransport {
+    /** only accessed by the service executor */
+    private boolean isServiceStarted;
 
     private volatile IByteStreamConnectionListener currentListener;
 
+    private volatile JID currentLocalJID;
+
+    public TCPTransport(TCPServer server, MDNSService mDNSService) {
+        this.server = server;
+        this.mDNSService = mDNSService;
+
+        serviceExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(
+                "TCP-Transport-Service", false));
+
+        serviceExecutor.allowCoreThreadTimeOut(true);
+    }
+
     @Override
     public IByteStreamConnection connect(String connectionID, JID peer)
         throws IOException, InterruptedException {
 
-        // TODO this should be configurable;
+        final IByteStreamConnectionListener listener = currentListener;
+        final JID localJID = currentLocalJID;
+
+        if (listener == null || localJID == null)
+            throw new IOException(this + " transport is not initialized");
+
+        final InetSocketAddress address = resolve(peer);
+
+        if (address == null)
+            throw new IOException(peer
+                + " is not available in the local network");
 
         final Socket socket = new Socket(Proxy.NO_PROXY);
 
-        final InetSocketAddress address = new InetSocketAddress("localhost",
-            4711);
+        boolean connected = false;
+
+        try {
+            socket.connect(address, CONNECT_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
 
-        socket.connect(address, 30000);
-        socket.setTcpNoDelay(true);
+            final byte[] handshake = createHandshake(connectionID, localJID,
+                peer);
 
+            final DataOutputStream out = new DataOutputStream(
+                socket.getOutputStream());
+
+            out.writeShort(handshake.length);
+            out.write(handshake);
+            out.flush();
+
+            if (socket.getInputStream().read() != ACCEPTED)
+                throw new IOException(peer + " at " + address
+                    + " rejected the connection");
+
+            final IByteStreamConnection connection = new BinaryChannelConnection(
+                peer, connectionID, new TCPByteStream(socket),
+                ConnectionMode.TCP, listener);
+
+            connected = true;
+            return connection;
+        } finally {
+            if (!connected)
+                closeSocket(socket);
+        }
+    }
+
+    @Override
+    public void accept(Socket socket, byte[] handshake) {
         final IByteStreamConnectionListener listener = currentListener;
+        final JID localJID = currentLocalJID;
 
-        if (listener == null) {
-            socket.close();
-            throw new IOException(this + " transport is not initialized");
+        final String connectionID;
+        final JID peer;
+        final JID recipient;
+
+        try {
+            final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(handshake));
+
+            if (in.readInt() != PROTOCOL_VERSION) {
+                reject(socket, "unsupported protocol version");
+                return;
+            }
+
+            connectionID = in.readUTF();
+            peer = new JID(in.readUTF());
+            recipient = new JID(in.readUTF());
+        } catch (IOException e) {
+            reject(socket, "malformed handshake");
+            return;
+        }
+
+        if (listener == null || localJID == null) {
+            reject(socket, "transport is not initialized");
+            return;
         }
 
-        final IByteStreamConnection connection = new BinaryChannelConnection(
-            peer, connectionID, new TCPByteStream(socket), ConnectionMode.TCP,
-            listener);
+        if (!localJID.strictlyEquals(recipient)) {
+            reject(socket, "connection is addressed to " + recipient);
+            return;
+        }
 
-        return connection;
+        if (!isAnnouncedFrom(peer, socket.getInetAddress())) {
+            reject(socket, peer + " is not announced from this address");
+            return;
+        }
+
+        final IByteStreamConnection connection;
+
+        try {
+            socket.setTcpNoDelay(true);
+
+            final OutputStream out = socket.getOutputStream();
+            out.write(ACCEPTED);
+            out.flush();
+
+            connection = new BinaryChannelConnection(peer, connectionID,
+                new TCPByteStream(socket), ConnectionMode.TCP, listener);
+        } catch (IOException e) {
+            LOG.warn("failed to accept connection from " + peer + ": "
+                + e.getMessage());
+            closeSocket(socket);
+            return;
+        }
+
+        LOG.debug("accepted connection from " + peer + " at "
+            + socket.getRemoteSocketAddress());
+
+        listener.connectionChanged(connectionID, peer, connection, true);
     }
 
     @Override
     public void initialize(Connection connection,
         IByteStreamConnectionListener listener) {
 
+        final JID localJID = new JID(connection.getUser());
+
+        currentLocalJID = localJID;
         currentListener = listener;
+
+        serviceExecutor.execute(ThreadUtils.wrapSafe(LOG, new Runnable() {
+            @Override
+            public void run() {
+                startService(localJID);
+            }
+        }));
     }
 
     @Override
     public void uninitialize() {
         currentListener = null;
+        currentLocalJID = null;
+
+        serviceExecutor.execute(ThreadUtils.wrapSafe(LOG, new Runnable() {
+            @Override
+            public void run() {
+                stopService();
+            }
+        }));
     }
 
     @Override
     public String toString() {
         return "TCP-Transport";
     }
+
+    private void startService(JID localJID) {
+        if (isServiceStarted)
+            stopService();
+
+        final int port;
+
+        try {
+            port = server.start(null, 0);
+        } catch (IOException e) {
+            LOG.error("failed to start TCP server: " + e.getMessage(), e);
+            return;
+        }
+
+        // the server is used by someone else
+        if (port == -1)
+            return;
+
+        server.setConnectionAcceptor(this);
+
+        mDNSService.configure(SERVICE_TYPE, localJID.toString(), port,
+            Collections.singletonMap(JID_PROPERTY, localJID.toString()));
+
+        try {
+            mDNSService.start();
+        } catch (IOException e) {
+            LOG.error("failed to start MDNS service", e);
+            server.setConnectionAcceptor(null);
+            server.stop();
+            return;
+        }
+
+        isServiceStarted = true;
+    }
+
+    private void stopService() {
+        if (!isServiceStarted)
+            return;
+
+        mDNSService.stop();
+        server.setConnectionAcceptor(null);
+        server.stop();
+
+        isServiceStarted = false;
+    }
+
+    /**
+     * Returns the address the given peer was announced with.
+     *
+     * @return the address or <code>null</code> if the peer is not announced
+     */
+    private InetSocketAddress resolve(JID peer) {
+        for (ServiceInfo info : mDNSService.getResolvedServices()) {
+            final InetAddress[] addresses = info.getInetAddresses();
+
+            if (addresses.length > 0 && isAnnouncing(info, peer))
+                return new InetSocketAddress(addresses[0], info.getPort());
+        }
+
+        return null;
+    }
+
+    private boolean isAnnouncedFrom(JID peer, InetAddress address) {
+        for (ServiceInfo info : mDNSService.getResolvedServices()) {
+            if (isAnnouncing(info, peer)
+                && Arrays.asList(info.getInetAddresses()).contains(address))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isAnnouncing(ServiceInfo info, JID peer) {
+        final String jid = info.getPropertyString(JID_PROPERTY);
+        return jid != null && peer.strictlyEquals(new JID(jid));
+    }
+
+    private static byte[] createHandshake(String connectionID, JID from,
+        JID to) throws IOException {
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+
+        out.writeInt(PROTOCOL_VERSION);
+        out.writeUTF(connectionID);
+        out.writeUTF(from.toString());
+        out.writeUTF(to.toString());
+        out.flush();
+
+        return buffer.toByteArray();
+    }
+
+    private static void reject(Socket socket, String reason) {
+        LOG.warn("rejected connection from " + socket.getRemoteSocketAddress()
+            + ": " + reason);
+
+        try {
+            socket.getOutputStream().write(REJECTED);
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            closeSocket(socket);
+        }
+    }
+
+    private static void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
 }
@@ -21,6 +21,7 @@ import org.xmlpull.v1.XmlPullParser;
 import de.fu_berlin.inf.dpp.annotations.Component;
 import de.fu_berlin.inf.dpp.net.ConnectionState;
 import de.fu_berlin.inf.dpp.net.DispatchThreadContext;
+import de.fu_berlin.inf.dpp.net.IBinaryPacketExtensionProvider;
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.PacketCollector;
 import de.fu_berlin.inf.dpp.net.PacketCollector.CancelHook;
@@ -175,9 +176,24 @@ public class XMPPReceiver implements IReceiver {
 
         PacketExtension extension = null;
 
+        if (provider instanceof IBinaryPacketExtensionProvider) {
+            try {
+                extension = ((IBinaryPacketExtensionProvider) provider)
+                    .parseExtension(transferObject.getPayload());
+            } catch (Exception e) {
+                LOG.error("could not decode binary transfer object payload: "
+                    + e.getMessage(), e);
+                return null;
+            }
+
+            return createPacket(description, extension);
+        }
+
         try {
+            // parse the payload buffer directly, it may be larger than needed
             parser.setInput(
-                new ByteArrayInputStream(transferObject.getPayload()), "UTF-8");
+                new ByteArrayInputStream(transferObject.getPayloadBuffer(), 0,
+                    transferObject.getPayloadLength()), "UTF-8");
             /*
              * We have to skip the empty start tag because Smack expects a
              * parser that already has started parsing.
@@ -194,6 +210,11 @@ public class XMPPReceiver implements IReceiver {
             return null;
         }
 
+        return createPacket(description, extension);
+    }
+
+    private static Packet createPacket(TransferDescription description,
+        PacketExtension extension) {
         Packet packet = new Message();
         packet.setPacketID(Packet.ID_NOT_AVAILABLE);
         packet.setFrom(description.getSender().toString());
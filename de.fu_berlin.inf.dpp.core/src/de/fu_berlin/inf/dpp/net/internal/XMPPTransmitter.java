@@ -29,6 +29,7 @@ import org.jivesoftware.smack.packet.PacketExtension;
 
 import de.fu_berlin.inf.dpp.annotations.Component;
 import de.fu_berlin.inf.dpp.net.ConnectionState;
+import de.fu_berlin.inf.dpp.net.IBinaryPacketExtension;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
 import de.fu_berlin.inf.dpp.net.xmpp.IConnectionListener;
 import de.fu_berlin.inf.dpp.net.xmpp.JID;
@@ -78,10 +79,17 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
             .setElementName(extension.getElementName())
             .setNamespace(extension.getNamespace());
 
-        byte[] data = extension.toXML().getBytes("UTF-8");
+        byte[] data;
 
-        if (data.length > PACKET_EXTENSION_COMPRESS_THRESHOLD)
-            transferDescription.setCompressContent(true);
+        if (extension instanceof IBinaryPacketExtension) {
+            // binary extensions are already compressed if it is worth it
+            data = ((IBinaryPacketExtension) extension).toByteArray();
+        } else {
+            data = extension.toXML().getBytes("UTF-8");
+
+            if (data.length > PACKET_EXTENSION_COMPRESS_THRESHOLD)
+                transferDescription.setCompressContent(true);
+        }
 
         // recipient is included in the transfer description
         if (connectionID == null)
@@ -0,0 +1,141 @@
+package de.fu_berlin.inf.dpp.session;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import de.fu_berlin.inf.dpp.activities.AbstractActivityReceiver;
+import de.fu_berlin.inf.dpp.activities.IActivity;
+
+/**
+ * Holds the {@link IActivityConsumer consumers} of a session and determines
+ * which of them have to execute an activity.
+ * <p>
+ * An {@link AbstractActivityConsumer} that does not override
+ * {@link AbstractActivityConsumer#exec(IActivity) exec()} declares the
+ * activities it handles by overriding the matching <code>receive()</code>
+ * methods, all other activities would only reach the empty default methods of
+ * {@link AbstractActivityReceiver}. Such a consumer only gets the activities
+ * it handles, all other consumers get every activity.
+ * <p>
+ * The consumers of an activity class are computed once and looked up for
+ * every following activity of that class until the consumers change. The
+ * consumers are returned in the order they were added.
+ * <p>
+ * This class is thread safe.
+ */
+public final class ActivityRoutingTable {
+
+    private static final IActivityConsumer[] NO_CONSUMERS = new IActivityConsumer[0];
+
+    private final CopyOnWriteArrayList<IActivityConsumer> consumers = new CopyOnWriteArrayList<IActivityConsumer>();
+
+    /** the consumers of every activity class routed since the last change */
+    private volatile Map<Class<?>, IActivityConsumer[]> routes = new ConcurrentHashMap<Class<?>, IActivityConsumer[]>();
+
+    /**
+     * Adds the consumer if it is not already contained.
+     *
+     * @return <code>true</code> if the consumer was added
+     */
+    public synchronized boolean add(IActivityConsumer consumer) {
+        if (!consumers.addIfAbsent(consumer))
+            return false;
+
+        routes = new ConcurrentHashMap<Class<?>, IActivityConsumer[]>();
+        return true;
+    }
+
+    /**
+     * Removes the consumer.
+     *
+     * @return <code>true</code> if the consumer was contained
+     */
+    public synchronized boolean remove(IActivityConsumer consumer) {
+        if (!consumers.remove(consumer))
+            return false;
+
+        routes = new ConcurrentHashMap<Class<?>, IActivityConsumer[]>();
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return consumers.isEmpty();
+    }
+
+    public int size() {
+        return consumers.size();
+    }
+
+    /**
+     * Returns the consumers that have to execute the given activity.
+     *
+     * @return the consumers, the array must not be modified
+     */
+    public IActivityConsumer[] getConsumers(IActivity activity) {
+        final Class<?> activityClass = activity.getClass();
+
+        IActivityConsumer[] result = routes.get(activityClass);
+
+        if (result == null)
+            result = computeConsumers(activityClass);
+
+        return result;
+    }
+
+    private synchronized IActivityConsumer[] computeConsumers(
+        Class<?> activityClass) {
+
+        IActivityConsumer[] result = routes.get(activityClass);
+
+        if (result != null)
+            return result;
+
+        final List<IActivityConsumer> matching = new ArrayList<IActivityConsumer>();
+
+        for (IActivityConsumer consumer : consumers) {
+            if (handles(consumer, activityClass))
+                matching.add(consumer);
+        }
+
+        result = matching.isEmpty() ? NO_CONSUMERS : matching
+            .toArray(new IActivityConsumer[matching.size()]);
+
+        routes.put(activityClass, result);
+        return result;
+    }
+
+    /**
+     * Returns whether the given consumer has to execute activities of the
+     * given class. If this cannot be determined the consumer is assumed to
+     * handle the activities.
+     */
+    static boolean handles(IActivityConsumer consumer, Class<?> activityClass) {
+        if (!(consumer instanceof AbstractActivityConsumer))
+            return true;
+
+        final Class<?> consumerClass = consumer.getClass();
+
+        try {
+            if (consumerClass.getMethod("exec", IActivity.class)
+                .getDeclaringClass() != AbstractActivityConsumer.class)
+                return true;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+
+        for (Class<?> c = activityClass; c != null; c = c.getSuperclass()) {
+            try {
+                return consumerClass.getMethod("receive", c)
+                    .getDeclaringClass() != AbstractActivityReceiver.class;
+            } catch (NoSuchMethodException e) {
+                // try the super class
+            }
+        }
+
+        return true;
+    }
+}
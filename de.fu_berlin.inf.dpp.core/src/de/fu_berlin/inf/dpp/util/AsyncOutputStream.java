@@ -0,0 +1,240 @@
+package de.fu_berlin.inf.dpp.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Output stream that writes its data to another output stream in a separate
+ * thread. The written data is collected in chunks which are passed to the
+ * writing thread through a bounded queue, i.e a writer is only blocked if the
+ * underlying stream cannot keep up with the data that is written to this
+ * stream.
+ * <p>
+ * Errors of the underlying stream are reported on the next call to one of the
+ * write methods, {@link #flush()} or {@link #close()}. Closing this stream
+ * waits until all data is written and the underlying stream is closed.
+ * {@link #abort()} discards all data that is not yet written instead.
+ * <p>
+ * This class is <b>not</b> thread safe, i.e only one thread may write to this
+ * stream.
+ */
+public final class AsyncOutputStream extends OutputStream {
+
+    private static final Logger LOG = Logger.getLogger(AsyncOutputStream.class);
+
+    private static final byte[] EOF = new byte[0];
+
+    private final OutputStream out;
+
+    private final BlockingQueue<byte[]> queue;
+
+    private final Thread writer;
+
+    private final byte[] buffer;
+
+    private int count;
+
+    private boolean isClosed;
+
+    private volatile boolean isAborted;
+
+    private volatile IOException error;
+
+    /**
+     * Creates a new stream and starts the thread that writes to the given
+     * stream.
+     *
+     * @param out
+     *            the stream to write the data to
+     * @param name
+     *            the name of the writing thread
+     * @param chunkSize
+     *            the size of the chunks that are passed to the writing thread
+     * @param capacity
+     *            the maximum number of chunks that are not yet written
+     *
+     * @throws IllegalArgumentException
+     *             if chunkSize or capacity is less than one
+     */
+    public AsyncOutputStream(OutputStream out, String name, int chunkSize,
+        int capacity) {
+
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunk size is less than 1: "
+                + chunkSize);
+
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity is less than 1: "
+                + capacity);
+
+        this.out = out;
+        this.buffer = new byte[chunkSize];
+        this.queue = new ArrayBlockingQueue<byte[]>(capacity);
+
+        writer = ThreadUtils.runSafeAsync(name, LOG, new Runnable() {
+            @Override
+            public void run() {
+                writeChunks();
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+
+        if (count == buffer.length)
+            enqueue();
+
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0)
+            throw new IndexOutOfBoundsException();
+
+        while (len > 0) {
+            if (count == buffer.length)
+                enqueue();
+
+            final int n = Math.min(len, buffer.length - count);
+
+            System.arraycopy(b, off, buffer, count, n);
+
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Passes the buffered data to the writing thread. This method does
+     * <b>not</b> wait until the data is written to the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+
+        if (count > 0)
+            enqueue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed)
+            return;
+
+        isClosed = true;
+
+        try {
+            if (error == null && count > 0)
+                enqueue();
+        } finally {
+            put(EOF);
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "interrupted while waiting for the writer to finish");
+        }
+
+        checkError();
+    }
+
+    /**
+     * Closes this stream without writing the data that is buffered or not yet
+     * passed to the underlying stream. The underlying stream is closed by the
+     * writing thread which is interrupted if it is currently blocked. This
+     * method does <b>not</b> wait until the underlying stream is closed and
+     * has no effect if this stream is already closed.
+     */
+    public void abort() {
+        if (isClosed)
+            return;
+
+        isClosed = true;
+        isAborted = true;
+        count = 0;
+
+        queue.clear();
+        // the writer only takes chunks so there is always space left
+        queue.offer(EOF);
+
+        writer.interrupt();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (isClosed)
+            throw new IOException("stream is closed");
+
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        final IOException e = error;
+
+        if (e != null)
+            throw new IOException("writing to the underlying stream failed", e);
+    }
+
+    private void enqueue() throws IOException {
+        final byte[] chunk = new byte[count];
+        System.arraycopy(buffer, 0, chunk, 0, count);
+        count = 0;
+        put(chunk);
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "interrupted while waiting for free space");
+        }
+    }
+
+    /*
+     * once writing failed or was aborted all remaining chunks are discarded so
+     * the writing side is never blocked forever
+     */
+    private void writeChunks() {
+        try {
+            byte[] chunk;
+
+            while ((chunk = queue.take()) != EOF) {
+                if (error != null || isAborted)
+                    continue;
+
+                try {
+                    out.write(chunk);
+                } catch (IOException e) {
+                    error = e;
+                    IOUtils.closeQuietly(out);
+                }
+            }
+
+            if (isAborted)
+                IOUtils.closeQuietly(out);
+            else if (error == null)
+                out.close();
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException("writer was interrupted");
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.fu_berlin.inf.dpp.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor that executes tasks with the same key in the order they were
+ * submitted while tasks with different keys may be executed in parallel. Every
+ * key is mapped to one of a fixed number of single threaded stripes, so tasks
+ * for different keys may also share a stripe.
+ */
+public final class StripedExecutor {
+
+    private final ExecutorService[] stripes;
+
+    /**
+     * Creates a new striped executor.
+     *
+     * @param name
+     *            the name of the threads that execute the tasks, the threads
+     *            are suffixed with the number of their stripe
+     * @param stripeCount
+     *            the number of stripes, i.e the maximum number of tasks that
+     *            are executed in parallel
+     *
+     * @throws IllegalArgumentException
+     *             if stripeCount is less than one
+     */
+    public StripedExecutor(String name, int stripeCount) {
+        if (stripeCount < 1)
+            throw new IllegalArgumentException("stripe count is less than 1: "
+                + stripeCount);
+
+        stripes = new ExecutorService[stripeCount];
+
+        for (int i = 0; i < stripeCount; i++)
+            stripes[i] = Executors.newSingleThreadExecutor(new NamedThreadFactory(
+                name + "-" + i, false));
+    }
+
+    /**
+     * Executes the task after all tasks that were previously submitted with an
+     * equal key.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             if the executor is already shut down
+     */
+    public void execute(Object key, Runnable task) {
+        stripes[(key.hashCode() & Integer.MAX_VALUE) % stripes.length]
+            .execute(task);
+    }
+
+    /**
+     * Waits until all tasks that were submitted before calling this method are
+     * executed.
+     *
+     * @throws InterruptedException
+     *             if the current thread was interrupted while waiting
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             if the executor is already shut down
+     */
+    public void await() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(stripes.length);
+
+        for (ExecutorService stripe : stripes) {
+            stripe.execute(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            });
+        }
+
+        latch.await();
+    }
+
+    /**
+     * Shuts down this executor. Already submitted tasks are still executed.
+     */
+    public void shutdown() {
+        for (ExecutorService stripe : stripes)
+            stripe.shutdown();
+    }
+
+    /**
+     * Waits until all tasks are executed after a shutdown request.
+     *
+     * @return <code>true</code> if all stripes terminated, <code>false</code>
+     *         if the timeout elapsed before
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException {
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        for (ExecutorService stripe : stripes) {
+            if (!stripe.awaitTermination(deadline - System.nanoTime(),
+                TimeUnit.NANOSECONDS))
+                return false;
+        }
+
+        return true;
+    }
+}
@@ -2,12 +2,17 @@ package de.fu_berlin.inf.dpp.versioning;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.PacketListener;
@@ -19,6 +24,7 @@ import org.jivesoftware.smack.packet.Packet;
 import de.fu_berlin.inf.dpp.ISarosContextBindings.SarosVersion;
 import de.fu_berlin.inf.dpp.annotations.Component;
 import de.fu_berlin.inf.dpp.communication.extensions.VersionExchangeExtension;
+import de.fu_berlin.inf.dpp.misc.binary.ActivitiesExtensionCodec;
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
 import de.fu_berlin.inf.dpp.net.PacketCollector;
@@ -37,9 +43,58 @@ import de.fu_berlin.inf.dpp.net.xmpp.JID;
 @Component(module = "core")
 public class VersionManager {
 
+    /**
+     * Feature that indicates that the peer is able to receive
+     * {@linkplain de.fu_berlin.inf.dpp.communication.extensions.ActivitiesExtension
+     * activities} in their binary representation. The feature contains the
+     * version of the binary format, so peers using different formats fall
+     * back to XStream.
+     */
+    public static final String BINARY_ACTIVITIES_FEATURE = "adosb"
+        + ActivitiesExtensionCodec.FORMAT_VERSION;
+
+    /**
+     * Feature that indicates that the peer is able to attach block signatures
+     * to the files it requests during a project negotiation and to apply the
+     * {@linkplain de.fu_berlin.inf.dpp.negotiation.FileDelta deltas} it
+     * receives for them. Without it, altered files are sent completely.
+     */
+    public static final String FILE_DELTA_FEATURE = "fdelta1";
+
+    /**
+     * Feature that indicates that the peer is able to receive the
+     * {@linkplain de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums range
+     * hashes} of a
+     * {@linkplain de.fu_berlin.inf.dpp.activities.ChecksumActivity checksum}.
+     * Without it, only the hash of the whole document is sent.
+     */
+    public static final String RANGE_CHECKSUMS_FEATURE = "rangechecksums1";
+
+    /**
+     * Feature that indicates that the peer is able to attach range hashes to
+     * a {@linkplain de.fu_berlin.inf.dpp.activities.ChecksumErrorActivity
+     * recovery request} and to apply a
+     * {@linkplain de.fu_berlin.inf.dpp.activities.RecoveryTextEditActivity
+     * partial recovery} of a document. Without it, the whole file is
+     * recovered.
+     */
+    public static final String PARTIAL_RECOVERY_FEATURE = "partialrecovery1";
+
     private static final String VERSION_KEY = "version";
     private static final String COMPATIBILITY_KEY = "compatibility";
     private static final String ID_KEY = "id";
+    private static final String FEATURES_KEY = "features";
+
+    private static final String FEATURE_SEPARATOR = ",";
+
+    /**
+     * Optional protocol features supported by this version. Features allow
+     * the usage of more efficient protocols with peers that support them
+     * while falling back to the default protocols for older peers.
+     */
+    private static final List<String> SUPPORTED_FEATURES = Arrays
+        .asList(BINARY_ACTIVITIES_FEATURE, FILE_DELTA_FEATURE,
+            RANGE_CHECKSUMS_FEATURE, PARTIAL_RECOVERY_FEATURE);
 
     private static final Random ID_GENERATOR = new Random();
 
@@ -54,6 +109,12 @@ public class VersionManager {
      */
     private volatile Map<Version, List<Version>> compatibilityChart = new HashMap<Version, List<Version>>();
 
+    /**
+     * The features of remote peers learned from version exchanges, keyed by
+     * the string representation of their resource qualified JIDs
+     */
+    private final Map<String, Set<String>> remoteFeatures = new ConcurrentHashMap<String, Set<String>>();
+
     private final Version version;
     private final ITransmitter transmitter;
     private final IReceiver receiver;
@@ -76,11 +137,14 @@ public class VersionManager {
                 return;
             }
 
+            updateRemoteFeatures(packet.getFrom(), versionExchangeRequest);
+
             VersionExchangeExtension versionExchangeResponse = new VersionExchangeExtension();
 
             createResponseData: {
 
                 versionExchangeResponse.set(VERSION_KEY, version.toString());
+                versionExchangeResponse.set(FEATURES_KEY, getFeaturesString());
                 versionExchangeResponse.set(COMPATIBILITY_KEY,
                     String.valueOf(Compatibility.UNKNOWN.getCode()));
 
@@ -179,6 +243,8 @@ public class VersionManager {
         if (versionExchangeResponse == null)
             return null;
 
+        updateRemoteFeatures(rqJID.toString(), versionExchangeResponse);
+
         Compatibility remoteCompatibility = Compatibility.UNKNOWN;
         Compatibility compatibility = Compatibility.UNKNOWN;
         Version remoteVersion = Version.INVALID;
@@ -228,6 +294,24 @@ public class VersionManager {
             remoteVersion);
     }
 
+    /**
+     * Returns whether the given peer supports the given feature. The features
+     * of a peer are only known after a version exchange with that peer took
+     * place, i.e after {@link #determineVersionCompatibility(JID)} was called
+     * by either side.
+     * 
+     * @param rqJID
+     *            the resource qualified JID of the peer
+     * @param feature
+     *            the feature, e.g {@link #BINARY_ACTIVITIES_FEATURE}
+     * @return <code>true</code> if the peer announced support for the feature
+     *         during the last version exchange, <code>false</code> otherwise
+     */
+    public boolean isFeatureSupported(JID rqJID, String feature) {
+        Set<String> features = remoteFeatures.get(rqJID.toString());
+        return features != null && features.contains(feature);
+    }
+
     /**
      * Sets an compatibility char that contains additional version information.
      * The chart should be loaded from a property file which must use the
@@ -303,6 +387,7 @@ public class VersionManager {
 
         versionExchangeRequest.set(VERSION_KEY, version.toString());
         versionExchangeRequest.set(ID_KEY, String.valueOf(exchangeID));
+        versionExchangeRequest.set(FEATURES_KEY, getFeaturesString());
 
         IQ request = VersionExchangeExtension.PROVIDER
             .createIQ(versionExchangeRequest);
@@ -340,6 +425,41 @@ public class VersionManager {
         }
     }
 
+    private void updateRemoteFeatures(String rqJID,
+        VersionExchangeExtension versionExchange) {
+
+        if (rqJID == null)
+            return;
+
+        Set<String> features = new HashSet<String>();
+
+        String featuresString = versionExchange.get(FEATURES_KEY);
+
+        if (featuresString != null) {
+            for (String feature : featuresString.split(FEATURE_SEPARATOR)) {
+                if (feature.trim().length() > 0)
+                    features.add(feature.trim());
+            }
+        }
+
+        LOG.debug("features of " + rqJID + ": " + features);
+
+        remoteFeatures.put(rqJID, Collections.unmodifiableSet(features));
+    }
+
+    private static String getFeaturesString() {
+        StringBuilder builder = new StringBuilder();
+
+        for (String feature : SUPPORTED_FEATURES) {
+            if (builder.length() > 0)
+                builder.append(FEATURE_SEPARATOR);
+
+            builder.append(feature);
+        }
+
+        return builder.toString();
+    }
+
     /**
      * Compares the two given versions for compatibility. The result indicates
      * whether the local version is compatible with the remote version.
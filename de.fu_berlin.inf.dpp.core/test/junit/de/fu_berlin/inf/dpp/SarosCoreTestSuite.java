@@ -14,20 +14,30 @@ de.fu_berlin.inf.dpp.communication.extensions.TestSuite.class,
 
 de.fu_berlin.inf.dpp.concurrent.TestSuite.class,
 
+de.fu_berlin.inf.dpp.concurrent.jupiter.internal.TestSuite.class,
+
 de.fu_berlin.inf.dpp.concurrent.jupiter.test.puzzles.TestSuite.class,
 
+de.fu_berlin.inf.dpp.concurrent.management.TestSuite.class,
+
+de.fu_berlin.inf.dpp.concurrent.watchdog.TestSuite.class,
+
 de.fu_berlin.inf.dpp.editor.colorstorage.TestSuite.class,
 
 de.fu_berlin.inf.dpp.filesystem.TestSuite.class,
 
 de.fu_berlin.inf.dpp.negotiation.TestSuite.class,
 
+de.fu_berlin.inf.dpp.misc.binary.TestSuite.class,
+
 de.fu_berlin.inf.dpp.misc.xstream.TestSuite.class,
 
 de.fu_berlin.inf.dpp.net.TestSuite.class,
 
 de.fu_berlin.inf.dpp.net.internal.TestSuite.class,
 
+de.fu_berlin.inf.dpp.session.TestSuite.class,
+
 de.fu_berlin.inf.dpp.synchronize.TestSuite.class,
 
 de.fu_berlin.inf.dpp.util.TestSuite.class,
@@ -0,0 +1,133 @@
+package de.fu_berlin.inf.dpp.activities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.concurrent.watchdog.BlockChecksum;
+import de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums;
+import de.fu_berlin.inf.dpp.filesystem.IPath;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.net.xmpp.JID;
+import de.fu_berlin.inf.dpp.session.User;
+
+public class RecoveryTextEditActivityTest {
+
+    private final User alice = new User(new JID("alice@junit"), null, true,
+        true, 0, 0);
+    private final User bob = new User(new JID("bob@junit"), null, false, false,
+        0, 0);
+
+    private final Random random = new Random(1234);
+
+    private SPath path;
+
+    @Before
+    public void setup() {
+        IProject project = EasyMock.createNiceMock(IProject.class);
+        IPath projectRelativePath = EasyMock.createNiceMock(IPath.class);
+
+        EasyMock.replay(project, projectRelativePath);
+
+        path = new SPath(project, projectRelativePath);
+    }
+
+    @Test
+    public void testChangedCharacter() {
+        String text = randomText(200000);
+
+        StringBuilder content = new StringBuilder(text);
+        content.setCharAt(123456, '#');
+
+        RecoveryTextEditActivity recovery = createRecovery(text,
+            content.toString());
+
+        assertTrue("too much text is sent: " + recovery.getText().length(),
+            recovery.getText().length() < 10000);
+
+        assertRecovers(text, content.toString(), recovery);
+    }
+
+    @Test
+    public void testInsertedAndRemovedText() {
+        String text = randomText(300000);
+
+        String content = text.substring(0, 100000) + randomText(5000)
+            + text.substring(100000, 150000) + text.substring(160000);
+
+        RecoveryTextEditActivity recovery = createRecovery(text, content);
+
+        assertRecovers(text, content, recovery);
+    }
+
+    @Test
+    public void testTextInsertedAtRangeBorder() {
+        String text = randomText(100000);
+
+        RangeChecksums ranges = ranges(text);
+        int offset = ranges.getOffset(3);
+
+        String content = text.substring(0, offset) + "inserted"
+            + text.substring(offset);
+
+        RecoveryTextEditActivity recovery = RecoveryTextEditActivity.create(
+            alice, path, bob, ranges, content);
+
+        assertRecovers(text, content, recovery);
+    }
+
+    @Test
+    public void testEqualText() {
+        String text = randomText(100000);
+
+        RecoveryTextEditActivity recovery = createRecovery(text, text);
+
+        assertEquals(0, recovery.getReplacedLength());
+        assertEquals("", recovery.getText());
+    }
+
+    @Test
+    public void testCompletelyDifferentText() {
+        assertNull(createRecovery(randomText(100000), randomText(100000)));
+    }
+
+    private RecoveryTextEditActivity createRecovery(String targetText,
+        String content) {
+        return RecoveryTextEditActivity.create(alice, path, bob,
+            ranges(targetText), content);
+    }
+
+    private static RangeChecksums ranges(String text) {
+        BlockChecksum checksum = new BlockChecksum();
+        checksum.reset(text.length());
+        checksum.update(text);
+        return checksum.getRanges(64);
+    }
+
+    private static void assertRecovers(String targetText, String content,
+        RecoveryTextEditActivity recovery) {
+
+        assertEquals(targetText.hashCode(), recovery.getBaseHash());
+
+        StringBuilder recovered = new StringBuilder(targetText);
+        recovered.replace(recovery.getOffset(), recovery.getOffset()
+            + recovery.getReplacedLength(), recovery.getText());
+
+        assertEquals(content, recovered.toString());
+    }
+
+    private String randomText(int length) {
+        char[] chars = new char[length];
+
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) (' ' + random.nextInt(95));
+
+        return new String(chars);
+    }
+}
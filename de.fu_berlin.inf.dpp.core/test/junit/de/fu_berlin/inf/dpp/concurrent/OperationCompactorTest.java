@@ -0,0 +1,145 @@
+package de.fu_berlin.inf.dpp.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.ITextOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.OperationCompactor;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
+
+public class OperationCompactorTest {
+
+    private final Random random = new Random(4711);
+
+    @Test
+    public void testTyping() {
+        Operation typing = S(S(I(3, "a"), I(4, "b")), S(I(5, "c"), I(6, "d")));
+
+        assertEquals(I(3, "abcd"), OperationCompactor.compact(typing));
+    }
+
+    @Test
+    public void testBackspaces() {
+        Operation backspaces = S(D(9, "d"), S(D(8, "c"), S(D(7, "b"),
+            D(6, "a"))));
+
+        assertEquals(D(6, "abcd"), OperationCompactor.compact(backspaces));
+    }
+
+    @Test
+    public void testTypingAndCorrection() {
+        Operation op = S(S(I(3, "abc"), D(5, "c")), I(5, "x"));
+
+        assertEquals(I(3, "abx"), OperationCompactor.compact(op));
+    }
+
+    @Test
+    public void testInsertedTextDeleted() {
+        Operation op = S(new NoOperation(), S(I(3, "abc"), D(3, "abc")));
+
+        assertEquals(new NoOperation(), OperationCompactor.compact(op));
+    }
+
+    @Test
+    public void testSeparatedInserts() {
+        // the original text between the insertions must not be removed
+        Operation op = S(I(5, "ab"), I(3, "cd"));
+
+        assertEquals(op, OperationCompactor.compact(op));
+    }
+
+    @Test
+    public void testReplaceIsNotCombined() {
+        Operation op = S(D(5, "abc"), I(5, "xyz"));
+
+        assertEquals(op, OperationCompactor.compact(op));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        for (int run = 0; run < 1000; run++) {
+            String document = randomText(random.nextInt(50));
+
+            StringBuilder current = new StringBuilder(document);
+
+            Operation op = null;
+
+            for (int i = 0, count = 1 + random.nextInt(10); i < count; i++) {
+                Operation next = randomOperation(current);
+                apply(current, next);
+
+                op = op == null ? next : random.nextBoolean() ? S(op, next)
+                    : S(op, S(new NoOperation(), next));
+            }
+
+            Operation compacted = OperationCompactor.compact(op);
+
+            StringBuilder result = new StringBuilder(document);
+            apply(result, compacted);
+
+            assertEquals("compacting " + op + " to " + compacted,
+                current.toString(), result.toString());
+
+            assertTrue(compacted.getTextOperations().size() <= op
+                .getTextOperations().size());
+        }
+    }
+
+    private Operation randomOperation(CharSequence document) {
+        int position = random.nextInt(document.length() + 1);
+
+        if (document.length() == 0 || random.nextBoolean())
+            return I(position, randomText(1 + random.nextInt(3)));
+
+        position = Math.min(position, document.length() - 1);
+
+        int end = position + 1
+            + random.nextInt(Math.min(3, document.length() - position));
+
+        return D(position, document.subSequence(position, end).toString());
+    }
+
+    private static void apply(StringBuilder document, Operation op) {
+        for (ITextOperation textOp : op.getTextOperations()) {
+            int position = textOp.getPosition();
+
+            if (textOp instanceof InsertOperation) {
+                document.insert(position, textOp.getText());
+            } else {
+                assertEquals(textOp.getText(), document.substring(position,
+                    position + textOp.getTextLength()));
+
+                document.delete(position, position + textOp.getTextLength());
+            }
+        }
+    }
+
+    private String randomText(int length) {
+        StringBuilder text = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++)
+            text.append((char) ('a' + random.nextInt(3)));
+
+        return text.toString();
+    }
+
+    private static Operation S(Operation one, Operation two) {
+        return new SplitOperation(one, two);
+    }
+
+    private static Operation I(int position, String text) {
+        return new InsertOperation(position, text);
+    }
+
+    private static Operation D(int position, String text) {
+        return new DeleteOperation(position, text);
+    }
+}
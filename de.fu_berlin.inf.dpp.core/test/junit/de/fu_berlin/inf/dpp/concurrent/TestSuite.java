@@ -4,7 +4,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ SplitOperationTest.class })
+@Suite.SuiteClasses({ OperationCompactorTest.class,
+    SplitOperationTest.class })
 public class TestSuite {
     // the class remains completely empty,
     // being used only as a holder for the above annotations
@@ -0,0 +1,108 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.JupiterActivity;
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.TextEditActivity;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.TransformationException;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.JupiterTestCase;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.PathFake;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.session.User;
+
+public class JupiterDocumentServerTest {
+
+    private static final int KEYSTROKES = 10;
+
+    private final User alice = JupiterTestCase.createUser("alice");
+    private final User bob = JupiterTestCase.createUser("bob");
+    private final User carl = JupiterTestCase.createUser("carl");
+
+    private SPath path;
+
+    private JupiterDocumentServer server;
+
+    @Before
+    public void setUp() {
+        IProject project = EasyMock.createMock(IProject.class);
+        EasyMock.replay(project);
+
+        path = new SPath(project, new PathFake("path"));
+
+        server = new JupiterDocumentServer(path);
+        server.addProxyClient(alice);
+        server.addProxyClient(bob);
+        server.addProxyClient(carl);
+    }
+
+    @Test
+    public void testConsecutiveActivitiesAreForwardedAsSingleActivity()
+        throws TransformationException {
+
+        Jupiter client = new Jupiter(true);
+
+        List<JupiterActivity> activities = new ArrayList<JupiterActivity>();
+
+        for (int i = 0; i < KEYSTROKES; i++)
+            activities.add(client.generateJupiterActivity(new InsertOperation(
+                i, String.valueOf(i)), alice, path));
+
+        Map<User, JupiterActivity> forwarded = server
+            .transformJupiterActivities(activities);
+
+        assertEquals(2, forwarded.size());
+
+        List<TextEditActivity> expected = Collections
+            .singletonList(new TextEditActivity(alice, 0, "0123456789", "",
+                path));
+
+        assertEquals(expected,
+            forwarded.get(bob).getOperation().toTextEdit(path, alice));
+        assertEquals(expected,
+            forwarded.get(carl).getOperation().toTextEdit(path, alice));
+    }
+
+    @Test
+    public void testForwardedActivityIsTransformedByReceiver()
+        throws TransformationException {
+
+        Jupiter aliceClient = new Jupiter(true);
+        Jupiter bobClient = new Jupiter(true);
+
+        List<JupiterActivity> activities = new ArrayList<JupiterActivity>();
+
+        for (int i = 0; i < KEYSTROKES; i++)
+            activities.add(aliceClient.generateJupiterActivity(
+                new InsertOperation(i, String.valueOf(i)), alice, path));
+
+        JupiterActivity forwarded = server.transformJupiterActivities(
+            activities).get(bob);
+
+        assertEquals(
+            Collections.singletonList(new TextEditActivity(alice, 0,
+                "0123456789", "", path)),
+            bobClient.receiveJupiterActivity(forwarded).toTextEdit(path,
+                alice));
+
+        // the server must acknowledge the combined activity only once
+        JupiterActivity reply = bobClient.generateJupiterActivity(
+            new InsertOperation(KEYSTROKES, "x"), bob, path);
+
+        assertEquals(
+            Collections.singletonList(new TextEditActivity(bob, KEYSTROKES,
+                "x", "", path)),
+            server.transformJupiterActivity(reply).get(alice).getOperation()
+                .toTextEdit(path, bob));
+    }
+}
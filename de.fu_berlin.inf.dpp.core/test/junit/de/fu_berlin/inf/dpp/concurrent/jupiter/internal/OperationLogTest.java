@@ -0,0 +1,88 @@
+package de.fu_berlin.inf.dpp.concurrent.jupiter.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.concurrent.jupiter.Operation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+
+public class OperationLogTest {
+
+    private final OperationLog log = new OperationLog();
+
+    @Test
+    public void testDiscardAcrossBufferBorder() {
+        int count = 0;
+
+        // move the head into the middle of the buffer before it wraps around
+        for (int i = 0; i < 10; i++)
+            log.add(op(count), count++);
+
+        log.discardBefore(8);
+
+        for (int i = 0; i < 100; i++)
+            log.add(op(count), count++);
+
+        assertEquals(102, log.size());
+
+        for (int i = 0; i < log.size(); i++) {
+            assertEquals(8 + i, log.getLocalOperationCount(i));
+            assertEquals(op(8 + i), log.get(i));
+        }
+
+        log.discardBefore(100);
+
+        assertEquals(10, log.size());
+        assertEquals(100, log.getLocalOperationCount(0));
+        assertEquals(op(100), log.get(0));
+
+        // already discarded counts are ignored
+        log.discardBefore(50);
+        assertEquals(10, log.size());
+
+        log.discardBefore(count + 10);
+        assertTrue(log.isEmpty());
+    }
+
+    @Test
+    public void testSet() {
+        log.add(op(0), 0);
+        log.add(op(1), 1);
+
+        log.set(1, op(42));
+
+        assertEquals(op(0), log.get(0));
+        assertEquals(op(42), log.get(1));
+        assertEquals(1, log.getLocalOperationCount(1));
+    }
+
+    @Test
+    public void testCountsAfterEmptyLog() {
+        log.add(op(0), 0);
+        log.discardBefore(1);
+
+        // the counts may jump if the log is empty
+        log.add(op(5), 5);
+
+        assertEquals(5, log.getLocalOperationCount(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonConsecutiveCount() {
+        log.add(op(0), 0);
+        log.add(op(2), 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        log.add(op(0), 0);
+        log.discardBefore(1);
+        log.get(0);
+    }
+
+    private static Operation op(int position) {
+        return new InsertOperation(position, "x");
+    }
+}
@@ -0,0 +1,130 @@
+package de.fu_berlin.inf.dpp.concurrent.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.IActivity;
+import de.fu_berlin.inf.dpp.activities.JupiterActivity;
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.TextEditActivity;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.JupiterTestCase;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.test.util.PathFake;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.session.ISarosSession;
+import de.fu_berlin.inf.dpp.session.User;
+
+public class ConcurrentDocumentClientTest {
+
+    private static final int KEYSTROKES = 10;
+
+    private final User alice = JupiterTestCase.createUser("alice");
+
+    private ISarosSession session;
+
+    private SPath path;
+
+    @Before
+    public void setUp() {
+        IProject project = EasyMock.createMock(IProject.class);
+        EasyMock.replay(project);
+
+        path = new SPath(project, new PathFake("path"));
+
+        session = EasyMock.createNiceMock(ISarosSession.class);
+        EasyMock.expect(session.getLocalUser()).andStubReturn(alice);
+        EasyMock.replay(session);
+    }
+
+    @Test
+    public void testTypingBurstIsSentAsSingleActivity() {
+        ConcurrentDocumentClient client = new ConcurrentDocumentClient(
+            session, Long.MAX_VALUE);
+
+        List<IActivity> sent = new ArrayList<IActivity>();
+
+        for (int i = 0; i < KEYSTROKES; i++)
+            sent.addAll(client.transformToJupiter(insert(i)));
+
+        assertTrue("text edits were sent within the merge window",
+            sent.isEmpty());
+        assertTrue(client.hasPendingTextEdits());
+
+        sent.addAll(client.flushTextEdits());
+
+        assertEquals(1, sent.size());
+        assertFalse(client.hasPendingTextEdits());
+
+        assertEquals(Collections.singletonList(new TextEditActivity(alice, 0,
+            "0123456789", "", path)), ((JupiterActivity) sent.get(0))
+            .getOperation().toTextEdit(path, alice));
+    }
+
+    @Test
+    public void testTextEditsAreSentImmediatelyWithoutMergeWindow() {
+        ConcurrentDocumentClient client = new ConcurrentDocumentClient(
+            session, 0);
+
+        List<IActivity> sent = new ArrayList<IActivity>();
+
+        for (int i = 0; i < KEYSTROKES; i++)
+            sent.addAll(client.transformToJupiter(insert(i)));
+
+        assertEquals(KEYSTROKES, sent.size());
+        assertFalse(client.hasPendingTextEdits());
+    }
+
+    @Test
+    public void testOtherActivityIsSentAfterPendingTextEdits() {
+        ConcurrentDocumentClient client = new ConcurrentDocumentClient(
+            session, Long.MAX_VALUE);
+
+        IActivity activity = EasyMock.createNiceMock(IActivity.class);
+        EasyMock.replay(activity);
+
+        for (int i = 0; i < KEYSTROKES; i++)
+            client.transformToJupiter(insert(i));
+
+        List<IActivity> sent = client.transformToJupiter(activity);
+
+        assertEquals(2, sent.size());
+        assertTrue(sent.get(0) instanceof JupiterActivity);
+        assertSame(activity, sent.get(1));
+        assertFalse(client.hasPendingTextEdits());
+    }
+
+    @Test
+    public void testTextEditOfOtherDocumentIsNotMerged() {
+        ConcurrentDocumentClient client = new ConcurrentDocumentClient(
+            session, Long.MAX_VALUE);
+
+        SPath otherPath = new SPath(path.getProject(), new PathFake("other"));
+
+        client.transformToJupiter(insert(0));
+
+        List<IActivity> sent = client.transformToJupiter(new TextEditActivity(
+            alice, 0, "x", "", otherPath));
+
+        assertEquals(1, sent.size());
+        assertEquals(path, ((JupiterActivity) sent.get(0)).getPath());
+
+        sent = client.flushTextEdits();
+
+        assertEquals(1, sent.size());
+        assertEquals(otherPath, ((JupiterActivity) sent.get(0)).getPath());
+    }
+
+    private TextEditActivity insert(int offset) {
+        return new TextEditActivity(alice, offset, String.valueOf(offset), "",
+            path);
+    }
+}
@@ -0,0 +1,155 @@
+package de.fu_berlin.inf.dpp.concurrent.watchdog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BlockChecksumTest {
+
+    private final Random random = new Random(4711);
+
+    @Test
+    public void testEmptyText() {
+        BlockChecksum checksum = new BlockChecksum();
+        checksum.update("");
+
+        assertEquals("".hashCode(), checksum.getHash());
+        assertEquals(0, checksum.getLength());
+    }
+
+    @Test
+    public void testHashEqualsStringHashCode() {
+        String text = randomText(3 * BlockChecksum.BLOCK_SIZE + 17);
+
+        BlockChecksum checksum = new BlockChecksum();
+        checksum.reset(text.length());
+        checksum.update(text);
+
+        assertFalse(checksum.isDirty());
+        assertEquals(text.hashCode(), checksum.getHash());
+        assertEquals(text.length(), checksum.getLength());
+    }
+
+    @Test
+    public void testRandomReplacements() {
+        StringBuilder text = new StringBuilder(randomText(50000));
+
+        BlockChecksum checksum = new BlockChecksum();
+        checksum.reset(text.length());
+        checksum.update(text);
+
+        for (int i = 0; i < 500; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(200, text.length() - offset)
+                + 1);
+            String inserted = randomText(random.nextInt(300));
+
+            text.replace(offset, offset + removed, inserted);
+            checksum.replace(offset, removed, inserted.length());
+
+            assertTrue(checksum.isDirty());
+
+            if (random.nextInt(5) == 0) {
+                checksum.update(text);
+                assertEquals(text.toString().hashCode(), checksum.getHash());
+            }
+        }
+
+        checksum.update(text);
+        assertEquals(text.toString().hashCode(), checksum.getHash());
+        assertEquals(text.length(), checksum.getLength());
+    }
+
+    @Test
+    public void testOnlyDirtyBlocksAreRead() {
+        final String text = randomText(10 * BlockChecksum.BLOCK_SIZE);
+
+        BlockChecksum checksum = new BlockChecksum();
+        checksum.reset(text.length());
+        checksum.update(text);
+
+        final StringBuilder changed = new StringBuilder(text);
+        changed.setCharAt(5 * BlockChecksum.BLOCK_SIZE + 10, '#');
+        checksum.replace(5 * BlockChecksum.BLOCK_SIZE + 10, 1, 1);
+
+        final int[] readChars = new int[1];
+
+        checksum.update(new CharSequence() {
+            @Override
+            public int length() {
+                return changed.length();
+            }
+
+            @Override
+            public char charAt(int index) {
+                return changed.charAt(index);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                readChars[0] += end - start;
+                return changed.subSequence(start, end);
+            }
+        });
+
+        assertEquals(changed.toString().hashCode(), checksum.getHash());
+        assertEquals(BlockChecksum.BLOCK_SIZE, readChars[0]);
+    }
+
+    @Test
+    public void testRanges() {
+        String text = randomText(20 * BlockChecksum.BLOCK_SIZE + 100);
+
+        BlockChecksum checksum = new BlockChecksum();
+        checksum.reset(text.length());
+        checksum.update(text);
+
+        RangeChecksums ranges = checksum.getRanges(8);
+
+        assertTrue(ranges.getCount() <= 8);
+        assertEquals(text.length(), ranges.getTotalLength());
+
+        for (int i = 0; i < ranges.getCount(); i++) {
+            int offset = ranges.getOffset(i);
+            assertEquals(
+                text.substring(offset, offset + ranges.getLength(i))
+                    .hashCode(), ranges.getHash(i));
+        }
+
+        assertEquals(ranges.getCount(), ranges.findFirstMismatch(text));
+        assertEquals(-1, ranges.findLastMismatch(text));
+    }
+
+    @Test
+    public void testFindMismatch() {
+        String text = randomText(20 * BlockChecksum.BLOCK_SIZE);
+
+        BlockChecksum checksum = new BlockChecksum();
+        checksum.reset(text.length());
+        checksum.update(text);
+
+        RangeChecksums ranges = checksum.getRanges(10);
+
+        int offset = ranges.getOffset(4) + 5;
+
+        // the inserted text shifts all following ranges
+        String changed = text.substring(0, offset) + "inserted"
+            + text.substring(offset);
+
+        assertEquals(4, ranges.findFirstMismatch(changed));
+        assertEquals(4, ranges.findLastMismatch(changed));
+    }
+
+    private String randomText(int length) {
+        char[] chars = new char[length];
+
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) (' ' + random.nextInt(95));
+
+        return new String(chars);
+    }
+}
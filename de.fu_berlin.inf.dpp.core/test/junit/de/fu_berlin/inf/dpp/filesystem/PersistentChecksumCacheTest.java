@@ -0,0 +1,198 @@
+package de.fu_berlin.inf.dpp.filesystem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentChecksumCacheTest {
+
+    private File tmpDir;
+    private File storeFile;
+
+    private File localFile;
+    private IFile file;
+
+    private IFileContentChangedListener listener;
+
+    private IFileContentChangedNotifier notifier = new IFileContentChangedNotifier() {
+
+        @Override
+        public void addFileContentChangedListener(
+            IFileContentChangedListener listener) {
+            // the last one is the listener of the persistent cache
+            PersistentChecksumCacheTest.this.listener = listener;
+        }
+
+        @Override
+        public void removeFileContentChangedListener(
+            IFileContentChangedListener listener) {
+            // NOP
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        tmpDir = File.createTempFile("saros_checksums", "");
+        tmpDir.delete();
+        tmpDir.mkdir();
+
+        storeFile = new File(tmpDir, "checksums");
+        localFile = new File(tmpDir, "Main.java");
+
+        writeFile("class Main {}");
+
+        file = createFileMock("/project/src/Main.java", localFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Test
+    public void testChecksumSurvivesRestart() {
+        PersistentChecksumCache cache = new PersistentChecksumCache(notifier,
+            storeFile);
+
+        assertFalse(cache.addChecksum(file, 42L));
+        cache.dispose();
+
+        assertTrue(storeFile.exists());
+
+        cache = new PersistentChecksumCache(notifier, storeFile);
+        assertEquals(Long.valueOf(42), cache.getChecksum(file));
+    }
+
+    @Test
+    public void testModifiedFileIsDetectedAfterRestart() throws IOException {
+        PersistentChecksumCache cache = new PersistentChecksumCache(notifier,
+            storeFile);
+
+        cache.addChecksum(file, 42L);
+        cache.dispose();
+
+        writeFile("class Main { int i; }");
+
+        cache = new PersistentChecksumCache(notifier, storeFile);
+        assertNull(cache.getChecksum(file));
+    }
+
+    @Test
+    public void testChangedFileIsNotStored() {
+        PersistentChecksumCache cache = new PersistentChecksumCache(notifier,
+            storeFile);
+
+        cache.addChecksum(file, 42L);
+        listener.fileContentChanged(file);
+        cache.dispose();
+
+        cache = new PersistentChecksumCache(notifier, storeFile);
+        assertNull(cache.getChecksum(file));
+    }
+
+    @Test
+    public void testRecentlyModifiedFileIsNotStored() {
+        localFile.setLastModified(System.currentTimeMillis());
+
+        PersistentChecksumCache cache = new PersistentChecksumCache(notifier,
+            storeFile);
+
+        cache.addChecksum(file, 42L);
+        cache.dispose();
+
+        cache = new PersistentChecksumCache(notifier, storeFile);
+        assertNull(cache.getChecksum(file));
+    }
+
+    @Test
+    public void testCorruptedStoreIsIgnored() throws IOException {
+        FileUtils.writeStringToFile(storeFile, "garbage");
+
+        PersistentChecksumCache cache = new PersistentChecksumCache(notifier,
+            storeFile);
+
+        assertNull(cache.getChecksum(file));
+
+        cache.addChecksum(file, 42L);
+        cache.dispose();
+
+        cache = new PersistentChecksumCache(notifier, storeFile);
+        assertEquals(Long.valueOf(42), cache.getChecksum(file));
+    }
+
+    @Test
+    public void testDeletedFileIsPruned() throws IOException {
+        File otherLocalFile = new File(tmpDir, "Other.java");
+        FileUtils.writeStringToFile(otherLocalFile, "class Other {}");
+        otherLocalFile.setLastModified(System.currentTimeMillis() - 60 * 1000);
+
+        IFile otherFile = createFileMock("/project/src/Other.java",
+            otherLocalFile);
+
+        PersistentChecksumCache cache = new PersistentChecksumCache(notifier,
+            storeFile);
+
+        cache.addChecksum(file, 42L);
+        cache.addChecksum(otherFile, 43L);
+        cache.dispose();
+
+        assertEquals(2, getStoredChecksumCount());
+
+        assertTrue(otherLocalFile.delete());
+
+        cache = new PersistentChecksumCache(notifier, storeFile);
+        assertEquals(Long.valueOf(42), cache.getChecksum(file));
+        cache.dispose();
+
+        assertEquals(1, getStoredChecksumCount());
+    }
+
+    private int getStoredChecksumCount() throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(
+            storeFile));
+
+        try {
+            // skip magic and version
+            in.readInt();
+            in.readInt();
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeFile(String content) throws IOException {
+        FileUtils.writeStringToFile(localFile, content);
+        // make sure the modification time is not too recent
+        localFile.setLastModified(System.currentTimeMillis() - 60 * 1000);
+    }
+
+    private static IFile createFileMock(String path, File localFile) {
+        IFile fileMock = EasyMock.createMock(IFile.class);
+        IPath pathMock = EasyMock.createMock(IPath.class);
+        IPath locationMock = EasyMock.createMock(IPath.class);
+
+        EasyMock.expect(pathMock.toOSString()).andStubReturn(path);
+        EasyMock.expect(pathMock.toPortableString()).andStubReturn(path);
+        EasyMock.expect(locationMock.toFile()).andStubReturn(localFile);
+
+        EasyMock.expect(fileMock.getFullPath()).andStubReturn(pathMock);
+        EasyMock.expect(fileMock.getLocation()).andStubReturn(locationMock);
+
+        EasyMock.replay(fileMock, pathMock, locationMock);
+
+        return fileMock;
+    }
+}
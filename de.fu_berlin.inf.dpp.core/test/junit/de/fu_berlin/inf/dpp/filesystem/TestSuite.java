@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ ChecksumCacheTest.class })
+@Suite.SuiteClasses({ ChecksumCacheTest.class,
+    PersistentChecksumCacheTest.class })
 public class TestSuite {
     // the class remains completely empty,
     // being used only as a holder for the above annotations
@@ -0,0 +1,314 @@
+package de.fu_berlin.inf.dpp.misc.binary;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.ChecksumActivity;
+import de.fu_berlin.inf.dpp.activities.IActivity;
+import de.fu_berlin.inf.dpp.activities.JupiterActivity;
+import de.fu_berlin.inf.dpp.activities.NOPActivity;
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.TextEditActivity;
+import de.fu_berlin.inf.dpp.activities.TextSelectionActivity;
+import de.fu_berlin.inf.dpp.activities.ViewportActivity;
+import de.fu_berlin.inf.dpp.communication.extensions.ActivitiesExtension;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.JupiterVectorTime;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.DeleteOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.InsertOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.NoOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.SplitOperation;
+import de.fu_berlin.inf.dpp.concurrent.jupiter.internal.text.TimestampOperation;
+import de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums;
+import de.fu_berlin.inf.dpp.filesystem.IPath;
+import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
+import de.fu_berlin.inf.dpp.filesystem.IProject;
+import de.fu_berlin.inf.dpp.net.xmpp.JID;
+import de.fu_berlin.inf.dpp.session.ISarosSession;
+import de.fu_berlin.inf.dpp.session.User;
+
+public class ActivitiesExtensionCodecTest {
+
+    private User alice;
+    private User bob;
+
+    private SPath mainPath;
+    private SPath testPath;
+
+    private IPathFactory pathFactory;
+
+    private ActivitiesExtensionCodec codec;
+
+    @Before
+    public void setUp() {
+        alice = new User(new JID("alice@test/Saros"), null, true, true, 0, 0);
+        bob = new User(new JID("bob@test/Saros"), null, false, false, 1, 1);
+
+        IProject project = EasyMock.createNiceMock(IProject.class);
+
+        IPath main = EasyMock.createMock(IPath.class);
+        expect(main.isAbsolute()).andStubReturn(false);
+
+        IPath test = EasyMock.createMock(IPath.class);
+        expect(test.isAbsolute()).andStubReturn(false);
+
+        pathFactory = EasyMock.createMock(IPathFactory.class);
+        expect(pathFactory.fromPath(main)).andStubReturn("src/Main.java");
+        expect(pathFactory.fromPath(test)).andStubReturn("src/Test.java");
+        expect(pathFactory.fromString("src/Main.java")).andStubReturn(main);
+        expect(pathFactory.fromString("src/Test.java")).andStubReturn(test);
+
+        ISarosSession session = EasyMock.createMock(ISarosSession.class);
+        expect(session.getProjectID(project)).andStubReturn("ABC");
+        expect(session.getProject("ABC")).andStubReturn(project);
+        expect(session.getUser(alice.getJID())).andStubReturn(alice);
+        expect(session.getUser(bob.getJID())).andStubReturn(bob);
+
+        EasyMock.replay(project, main, test, pathFactory, session);
+
+        mainPath = new SPath(project, main);
+        testPath = new SPath(project, test);
+
+        codec = new ActivitiesExtensionCodec(session, pathFactory);
+    }
+
+    @After
+    public void tearDown() {
+        ActivitiesExtension.BINARY_PROVIDER.unregisterCodec(codec);
+    }
+
+    @Test
+    public void testRoundtrip() throws Exception {
+        List<IActivity> activities = new ArrayList<IActivity>();
+
+        activities.add(new JupiterActivity(new JupiterVectorTime(3, 7),
+            new InsertOperation(42, "fooä", 40), alice, mainPath));
+
+        activities.add(new JupiterActivity(new JupiterVectorTime(4, 7),
+            new SplitOperation(new DeleteOperation(10, "bar"),
+                new InsertOperation(10, "baz")), alice, testPath));
+
+        activities.add(new JupiterActivity(new JupiterVectorTime(5, 7),
+            new SplitOperation(new NoOperation(), new TimestampOperation()),
+            bob, mainPath));
+
+        activities.add(new TextSelectionActivity(alice, 100, -5, mainPath));
+        activities.add(new ViewportActivity(bob, 10, 50, testPath));
+
+        activities.add(new ChecksumActivity(alice, mainPath, -123456789L,
+            4711L, new JupiterVectorTime(1, 2)));
+        activities.add(ChecksumActivity.missing(alice, testPath));
+        activities.add(new ChecksumActivity(bob, testPath, 42L, 8192L,
+            new RangeChecksums(new int[] { 4096, 4096 }, new int[] { -1, 7 }),
+            null));
+
+        activities.add(new TextEditActivity(bob, 7, "new", "old", mainPath));
+        activities.add(new NOPActivity(alice, bob, 13));
+
+        ActivitiesExtension extension = new ActivitiesExtension("4711",
+            activities, 1000);
+
+        ActivitiesExtension copy = codec.decode(codec.encode(extension));
+
+        assertEquals("4711", copy.getSessionID());
+        assertEquals(1000, copy.getSequenceNumber());
+        assertEquals(activities, copy.getActivities());
+    }
+
+    @Test
+    public void testBroadcastEncoder() throws Exception {
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < 100; i++)
+            text.append("line ").append(i).append('\n');
+
+        InsertOperation operation = new InsertOperation(10, text.toString());
+        TextSelectionActivity selection = new TextSelectionActivity(alice, 5,
+            0, mainPath);
+
+        List<IActivity> activitiesForAlice = new ArrayList<IActivity>();
+        activitiesForAlice.add(new ViewportActivity(bob, 10, 50, testPath));
+        activitiesForAlice.add(new JupiterActivity(new JupiterVectorTime(3,
+            7), operation, bob, mainPath));
+
+        List<IActivity> activitiesForBob = new ArrayList<IActivity>();
+        activitiesForBob.add(selection);
+        activitiesForBob.add(new JupiterActivity(new JupiterVectorTime(1, 2),
+            operation, bob, mainPath));
+
+        List<IActivity> activitiesForCarl = new ArrayList<IActivity>();
+        activitiesForCarl.add(new JupiterActivity(new JupiterVectorTime(0, 9),
+            operation, bob, mainPath));
+        activitiesForCarl.add(selection);
+
+        ActivitiesExtensionCodec.BroadcastEncoder encoder = codec
+            .createBroadcastEncoder();
+
+        for (List<IActivity> activities : Arrays.asList(activitiesForAlice,
+            activitiesForBob, activitiesForCarl)) {
+
+            ActivitiesExtension extension = new ActivitiesExtension("4711",
+                activities, activities.size());
+
+            byte[] data = encoder.encode(extension);
+
+            ActivitiesExtension copy = codec.decode(data);
+
+            assertEquals(activities.size(), copy.getSequenceNumber());
+            assertEquals(activities, copy.getActivities());
+        }
+    }
+
+    @Test
+    public void testUnreferencedUnknownUsersAreIgnored() throws Exception {
+        ISarosSession session = EasyMock.createNiceMock(ISarosSession.class);
+        expect(session.getProject("ABC")).andStubReturn(mainPath.getProject());
+        expect(session.getUser(alice.getJID())).andStubReturn(alice);
+        EasyMock.replay(session);
+
+        ActivitiesExtensionCodec.BroadcastEncoder encoder = codec
+            .createBroadcastEncoder();
+
+        // adds bob to the dictionary of the broadcast
+        encoder.encode(new ActivitiesExtension("4711",
+            Arrays.<IActivity> asList(new TextSelectionActivity(bob, 0, 0,
+                mainPath)), 0));
+
+        List<IActivity> activities = Arrays.<IActivity> asList(
+            new TextSelectionActivity(alice, 1, 2, mainPath));
+
+        ActivitiesExtension copy = new ActivitiesExtensionCodec(session,
+            pathFactory).decode(encoder.encode(new ActivitiesExtension("4711",
+            activities, 1)));
+
+        assertEquals(activities, copy.getActivities());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReferencedUnknownUserIsRejected() throws Exception {
+        ISarosSession session = EasyMock.createNiceMock(ISarosSession.class);
+        expect(session.getProject("ABC")).andStubReturn(mainPath.getProject());
+        EasyMock.replay(session);
+
+        new ActivitiesExtensionCodec(session, pathFactory).decode(codec
+            .encode(new ActivitiesExtension("4711", Arrays
+                .<IActivity> asList(new TextSelectionActivity(bob, 0, 0,
+                    mainPath)), 0)));
+    }
+
+    @Test
+    public void testPathsAndUsersAreInterned() throws Exception {
+        List<IActivity> activities = new ArrayList<IActivity>();
+
+        activities.add(new TextSelectionActivity(alice, 0, 0, mainPath));
+
+        int sizeOfOne = codec.encode(
+            new ActivitiesExtension("4711", activities, 0)).length;
+
+        for (int i = 1; i < 10; i++)
+            activities.add(new TextSelectionActivity(alice, i, 0, mainPath));
+
+        int sizeOfTen = codec.encode(new ActivitiesExtension("4711",
+            activities, 0)).length;
+
+        // type + user index + path index + offset + length
+        assertEquals(sizeOfOne + 9 * 5, sizeOfTen);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedFormatVersion() throws Exception {
+        byte[] data = codec.encode(new ActivitiesExtension("4711",
+            new ArrayList<IActivity>(), 0));
+
+        data[0] = (byte) (ActivitiesExtensionCodec.FORMAT_VERSION + 1);
+
+        codec.decode(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedData() throws Exception {
+        List<IActivity> activities = new ArrayList<IActivity>();
+        activities.add(new TextEditActivity(bob, 7, "new", "old", mainPath));
+
+        byte[] data = codec.encode(new ActivitiesExtension("4711",
+            activities, 0));
+
+        byte[] truncated = new byte[data.length - 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+        codec.decode(truncated);
+    }
+
+    @Test
+    public void testLargeContentIsCompressed() throws Exception {
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < 100; i++)
+            text.append("public static void main(String[] args) {}\n");
+
+        List<IActivity> activities = new ArrayList<IActivity>();
+        activities.add(new TextEditActivity(bob, 0, text.toString(), "",
+            mainPath));
+
+        byte[] data = codec.encode(new ActivitiesExtension("4711",
+            activities, 0));
+
+        assertTrue(data.length < text.length() / 2);
+        assertEquals(activities, codec.decode(data).getActivities());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedCompressedData() throws Exception {
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < 100; i++)
+            text.append("foobar");
+
+        List<IActivity> activities = new ArrayList<IActivity>();
+        activities.add(new TextEditActivity(bob, 0, text.toString(), "",
+            mainPath));
+
+        byte[] data = codec.encode(new ActivitiesExtension("4711",
+            activities, 0));
+
+        byte[] truncated = new byte[data.length - 4];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+        codec.decode(truncated);
+    }
+
+    @Test
+    public void testBinaryProviderDeliversXStreamExtension() throws Exception {
+        List<IActivity> activities = new ArrayList<IActivity>();
+        activities.add(new ViewportActivity(bob, 10, 50, testPath));
+
+        ActivitiesExtension.BINARY_PROVIDER.registerCodec(codec);
+
+        assertTrue(ActivitiesExtension.BINARY_PROVIDER.isCodecAvailable());
+
+        byte[] data = ActivitiesExtension.BINARY_PROVIDER.create(
+            new ActivitiesExtension("4711", activities, 3)).toByteArray();
+
+        PacketExtension extension = ActivitiesExtension.BINARY_PROVIDER
+            .parseExtension(data);
+
+        ActivitiesExtension payload = ActivitiesExtension.PROVIDER
+            .getPayload(extension);
+
+        assertEquals(ActivitiesExtension.PROVIDER.getElementName(),
+            extension.getElementName());
+        assertEquals(3, payload.getSequenceNumber());
+        assertEquals(activities, payload.getActivities());
+    }
+}
@@ -0,0 +1,82 @@
+package de.fu_berlin.inf.dpp.misc.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.EOFException;
+
+import org.junit.Test;
+
+public class BinaryWriterReaderTest {
+
+    private static final int[] INTS = { 0, 1, -1, 63, -64, 64, 127, 128,
+        16383, 16384, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+    private static final long[] LONGS = { 0L, 1L, -1L, 4294967296L,
+        -4294967296L, Long.MAX_VALUE, Long.MIN_VALUE };
+
+    @Test
+    public void testRoundtrip() throws Exception {
+        BinaryWriter out = new BinaryWriter(1);
+
+        for (int value : INTS) {
+            out.writeVarInt(value);
+
+            if (value >= 0)
+                out.writeUnsignedVarInt(value);
+        }
+
+        for (long value : LONGS)
+            out.writeVarLong(value);
+
+        out.writeString("");
+        out.writeString("süß €");
+
+        BinaryReader in = new BinaryReader(out.toByteArray());
+
+        for (int value : INTS) {
+            assertEquals(value, in.readVarInt());
+
+            if (value >= 0)
+                assertEquals(value, in.readUnsignedVarInt());
+        }
+
+        for (long value : LONGS)
+            assertEquals(value, in.readVarLong());
+
+        assertEquals("", in.readString());
+        assertEquals("süß €", in.readString());
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void testSmallValuesUseOneByte() {
+        BinaryWriter out = new BinaryWriter();
+        out.writeUnsignedVarInt(127);
+        out.writeVarInt(-64);
+        out.writeVarInt(63);
+        assertEquals(3, out.size());
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        BinaryWriter out = new BinaryWriter();
+        out.writeString("keep");
+        int mark = out.size();
+        out.writeString("discard");
+        out.truncate(mark);
+
+        BinaryReader in = new BinaryReader(out.toByteArray());
+        assertEquals("keep", in.readString());
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testReadBeyondEnd() throws Exception {
+        BinaryWriter out = new BinaryWriter();
+        out.writeUnsignedVarInt(300);
+
+        byte[] data = out.toByteArray();
+        new BinaryReader(data, 0, data.length - 1).readUnsignedVarInt();
+    }
+}
@@ -0,0 +1,114 @@
+package de.fu_berlin.inf.dpp.negotiation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+
+import org.junit.Test;
+
+public class FileDeltaTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void testUnchangedContent() throws Exception {
+        byte[] base = randomBytes(64 * 1024);
+
+        byte[] delta = createDelta(base, base);
+
+        assertTrue("delta is not smaller than the file: " + delta.length,
+            delta.length < base.length / 10);
+
+        assertArrayEquals(base, applyDelta(base, delta));
+    }
+
+    @Test
+    public void testInsertedAndRemovedContent() throws Exception {
+        byte[] base = randomBytes(128 * 1024);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(randomBytes(100));
+        out.write(base, 0, 40000);
+        out.write(randomBytes(1000));
+        out.write(base, 50000, base.length - 50000);
+        out.write(randomBytes(17));
+
+        byte[] content = out.toByteArray();
+
+        byte[] delta = createDelta(base, content);
+
+        assertTrue("delta is not smaller than the file: " + delta.length,
+            delta.length < content.length / 4);
+
+        assertArrayEquals(content, applyDelta(base, delta));
+    }
+
+    @Test
+    public void testCompletelyDifferentContent() throws Exception {
+        byte[] base = randomBytes(16 * 1024);
+        byte[] content = randomBytes(20 * 1024 + 3);
+
+        assertArrayEquals(content,
+            applyDelta(base, createDelta(base, content)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testApplyToWrongBase() throws Exception {
+        byte[] base = randomBytes(16 * 1024);
+        byte[] content = base.clone();
+        content[4000]++;
+
+        byte[] delta = createDelta(base, content);
+
+        base[0]++;
+
+        applyDelta(base, delta);
+    }
+
+    @Test
+    public void testSignatureSerialization() throws Exception {
+        byte[] base = randomBytes(100 * 1024);
+
+        FileSignature signature = FileSignature.create(
+            new ByteArrayInputStream(base), base.length);
+
+        FileSignature restored = FileSignature.fromByteArray(signature
+            .toByteArray());
+
+        assertEquals(signature.getBlockSize(), restored.getBlockSize());
+        assertEquals(signature.getBlockCount(), restored.getBlockCount());
+        assertEquals(base.length / signature.getBlockSize(),
+            restored.getBlockCount());
+    }
+
+    @Test
+    public void testDeltaEntry() {
+        assertTrue(FileDelta.isDelta(FileDelta.createEntry("a")));
+        assertFalse(FileDelta.isDelta(new ZipEntry("a")));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] createDelta(byte[] base, byte[] content)
+        throws IOException {
+        return FileDelta.create(
+            FileSignature.create(new ByteArrayInputStream(base), base.length),
+            content);
+    }
+
+    private static byte[] applyDelta(byte[] base, byte[] delta)
+        throws IOException {
+        return FileDelta.apply(base, new ByteArrayInputStream(delta));
+    }
+}
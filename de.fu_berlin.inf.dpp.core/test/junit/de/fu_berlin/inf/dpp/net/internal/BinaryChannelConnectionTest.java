@@ -2,14 +2,17 @@ package de.fu_berlin.inf.dpp.net.internal;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -19,6 +22,7 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import de.fu_berlin.inf.dpp.net.ConnectionMode;
+import de.fu_berlin.inf.dpp.net.internal.BinaryChannelConnection.Dictionary;
 import de.fu_berlin.inf.dpp.net.internal.BinaryChannelConnection.IDPool;
 import de.fu_berlin.inf.dpp.net.xmpp.JID;
 
@@ -31,7 +35,7 @@ public class BinaryChannelConnectionTest {
         private InputStream in;
         private OutputStream out;
 
-        public PipedBytestreamSession(PipedInputStream in, PipedOutputStream out) {
+        public PipedBytestreamSession(InputStream in, OutputStream out) {
             this.in = in;
             this.out = out;
         }
@@ -83,9 +87,50 @@ public class BinaryChannelConnectionTest {
         public abstract void receive(BinaryXMPPExtension extension);
     }
 
+    /**
+     * Input stream that blocks all reads while it is closed.
+     */
+    private static class GatedInputStream extends FilterInputStream {
+
+        private boolean open = true;
+
+        public GatedInputStream(InputStream in) {
+            super(in);
+        }
+
+        public synchronized void setOpen(boolean open) {
+            this.open = open;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            awaitOpen();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            awaitOpen();
+            return super.read(b, off, len);
+        }
+
+        private synchronized void awaitOpen() throws IOException {
+            try {
+                while (!open)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted");
+            }
+        }
+    }
+
     private ByteStream aliceStream;
     private ByteStream bobStream;
 
+    private GatedInputStream bobIn;
+
     @Before
     public void setUp() throws IOException {
         PipedOutputStream aliceOut = new PipedOutputStream();
@@ -97,8 +142,10 @@ public class BinaryChannelConnectionTest {
         aliceOut.connect(bobIn);
         aliceIn.connect(bobOut);
 
+        this.bobIn = new GatedInputStream(bobIn);
+
         aliceStream = new PipedBytestreamSession(aliceIn, aliceOut);
-        bobStream = new PipedBytestreamSession(bobIn, bobOut);
+        bobStream = new PipedBytestreamSession(this.bobIn, bobOut);
     }
 
     private volatile byte[] receivedBytes;
@@ -143,14 +190,14 @@ public class BinaryChannelConnectionTest {
             description.setSender(new JID("sender-0@local"));
             description.setRecipient(new JID("receiver-0@local"));
 
-            alice.send(description, bytesToSend);
+            alice.send(description, bytesToSend, 0, bytesToSend.length);
 
             description.setNamespace("foo-namespace-1");
             description.setElementName("bar-1");
             description.setSender(new JID("sender-1@local"));
             description.setRecipient(new JID("receiver-1@local"));
 
-            alice.send(description, bytesToSend);
+            alice.send(description, bytesToSend, 0, bytesToSend.length);
 
             received.await(10000, TimeUnit.MILLISECONDS);
         } finally {
@@ -188,6 +235,16 @@ public class BinaryChannelConnectionTest {
 
     @Test
     public void testFragmentationOnLargeDataToBeSend() throws Exception {
+        assertDataIsReassembled(512 * 1024);
+    }
+
+    @Test
+    public void testReassemblyBufferGrowsWithReceivedChunks() throws Exception {
+        // exceeds the buffer that is allocated for the first chunk
+        assertDataIsReassembled(3 * 1024 * 1024 + 17);
+    }
+
+    private void assertDataIsReassembled(int size) throws Exception {
 
         final CountDownLatch received = new CountDownLatch(1);
 
@@ -220,13 +277,13 @@ public class BinaryChannelConnectionTest {
         description.setSender(new JID("sender@local"));
         description.setRecipient(new JID("receiver@local"));
 
-        byte[] bytesToSend = new byte[512 * 1024];
+        byte[] bytesToSend = new byte[size];
 
         for (int i = 0; i < bytesToSend.length; i++)
             bytesToSend[i] = (byte) i;
 
         try {
-            alice.send(description, bytesToSend);
+            alice.send(description, bytesToSend, 0, bytesToSend.length);
             received.await(10000, TimeUnit.MILLISECONDS);
         } finally {
             alice.close();
@@ -238,6 +295,179 @@ public class BinaryChannelConnectionTest {
         assertArrayEquals("fragmentation error", bytesToSend, receivedBytes);
     }
 
+    @Test
+    public void testSmallPacketsOvertakeLargePackets() throws Exception {
+
+        final List<Integer> receivedLengths = Collections
+            .synchronizedList(new ArrayList<Integer>());
+
+        final CountDownLatch received = new CountDownLatch(2);
+
+        // block bob so the large packet cannot be written completely
+        bobIn.setOpen(false);
+
+        final BinaryChannelConnection alice = new BinaryChannelConnection(
+            new JID("alice@baumeister.de"), "junit", aliceStream,
+            ConnectionMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void receive(final BinaryXMPPExtension extension) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobStream,
+            ConnectionMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void receive(final BinaryXMPPExtension extension) {
+                    receivedLengths.add(extension.getPayload().length);
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+        bob.initialize();
+
+        final TransferDescription description = TransferDescription
+            .newDescription();
+
+        description.setNamespace("foo-namespace");
+        description.setElementName("bar");
+        description.setSender(new JID("sender@local"));
+        description.setRecipient(new JID("receiver@local"));
+
+        final byte[] largePacket = new byte[4 * PIPE_BUFFER_SIZE];
+        final byte[] smallPacket = new byte[128];
+
+        try {
+            Thread largeSender = sendAsync(alice, description, largePacket);
+
+            // wait until the pipe is full
+            Thread.sleep(500);
+
+            Thread smallSender = sendAsync(alice, description, smallPacket);
+
+            // wait until the small packet is queued
+            Thread.sleep(500);
+
+            bobIn.setOpen(true);
+
+            largeSender.join(10000);
+            smallSender.join(10000);
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+        } finally {
+            alice.close();
+            bob.close();
+        }
+
+        assertEquals(2, receivedLengths.size());
+        assertEquals(smallPacket.length, receivedLengths.get(0).intValue());
+        assertEquals(largePacket.length, receivedLengths.get(1).intValue());
+    }
+
+    @Test
+    public void testStreamsAreServedFairly() throws Exception {
+
+        final List<String> receivedElements = Collections
+            .synchronizedList(new ArrayList<String>());
+
+        final CountDownLatch received = new CountDownLatch(4);
+
+        bobIn.setOpen(false);
+
+        final BinaryChannelConnection alice = new BinaryChannelConnection(
+            new JID("alice@baumeister.de"), "junit", aliceStream,
+            ConnectionMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void receive(final BinaryXMPPExtension extension) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobStream,
+            ConnectionMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void receive(final BinaryXMPPExtension extension) {
+                    receivedElements.add(extension.getTransferDescription()
+                        .getElementName());
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+        bob.initialize();
+
+        final TransferDescription bulk = TransferDescription.newDescription();
+
+        bulk.setNamespace("foo-namespace");
+        bulk.setElementName("bulk");
+        bulk.setSender(new JID("sender@local"));
+        bulk.setRecipient(new JID("receiver@local"));
+
+        final TransferDescription interactive = TransferDescription
+            .newDescription();
+
+        interactive.setNamespace("foo-namespace");
+        interactive.setElementName("interactive");
+        interactive.setSender(new JID("sender@local"));
+        interactive.setRecipient(new JID("receiver@local"));
+
+        final byte[] bulkPacket = new byte[PIPE_BUFFER_SIZE];
+        final byte[] interactivePacket = new byte[PIPE_BUFFER_SIZE / 4];
+
+        final List<Thread> senders = new ArrayList<Thread>();
+
+        try {
+            for (int i = 0; i < 3; i++)
+                senders.add(sendAsync(alice, bulk, bulkPacket));
+
+            // wait until the pipe is full
+            Thread.sleep(500);
+
+            senders.add(sendAsync(alice, interactive, interactivePacket));
+
+            // wait until the packet is queued
+            Thread.sleep(500);
+
+            bobIn.setOpen(true);
+
+            for (Thread sender : senders)
+                sender.join(10000);
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+        } finally {
+            alice.close();
+            bob.close();
+        }
+
+        assertEquals(4, receivedElements.size());
+
+        assertTrue("packet of other stream was not scheduled fairly: "
+            + receivedElements,
+            receivedElements.indexOf("interactive") < 3);
+    }
+
+    private static Thread sendAsync(final BinaryChannelConnection connection,
+        final TransferDescription description, final byte[] content) {
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connection.send(description, content, 0,
+                        content.length);
+                } catch (IOException e) {
+                    // the test will fail anyway
+                }
+            }
+        });
+
+        thread.start();
+        return thread;
+    }
+
     @Test
     @Ignore("this test consumes much CPU resources and should only executed manually when making changes")
     public void testFragmentationCleanup() throws Exception {
@@ -284,12 +514,12 @@ public class BinaryChannelConnectionTest {
 
         try {
             for (int i = 0; i < packetsToSend - 1; i++)
-                alice.send(description, bytesToSend);
+                alice.send(description, bytesToSend, 0, bytesToSend.length);
 
             for (int i = 0; i < bytesToSend.length; i++)
                 bytesToSend[i] = (byte) 0x7F;
 
-            alice.send(description, bytesToSend);
+            alice.send(description, bytesToSend, 0, bytesToSend.length);
 
             received.await(60000, TimeUnit.MILLISECONDS);
         } finally {
@@ -303,10 +533,149 @@ public class BinaryChannelConnectionTest {
 
     }
 
+    @Test
+    public void testManyConcurrentSends() throws Exception {
+
+        final int senders = 100;
+
+        final CountDownLatch received = new CountDownLatch(senders);
+
+        bobIn.setOpen(false);
+
+        final BinaryChannelConnection alice = new BinaryChannelConnection(
+            new JID("alice@baumeister.de"), "junit", aliceStream,
+            ConnectionMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void receive(final BinaryXMPPExtension extension) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobStream,
+            ConnectionMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void receive(final BinaryXMPPExtension extension) {
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+        bob.initialize();
+
+        final TransferDescription description = TransferDescription
+            .newDescription();
+
+        description.setNamespace("foo-namespace");
+        description.setElementName("bar");
+        description.setSender(new JID("sender@local"));
+        description.setRecipient(new JID("receiver@local"));
+
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        try {
+            // the packets stay pending until bob starts reading
+            for (int i = 0; i < senders; i++)
+                threads.add(sendAsync(alice, description, new byte[64 * 1024]));
+
+            Thread.sleep(500);
+
+            bobIn.setOpen(true);
+
+            for (Thread thread : threads)
+                thread.join(10000);
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+
+            assertTrue("connection was closed", alice.isConnected());
+        } finally {
+            alice.close();
+            bob.close();
+        }
+
+        assertEquals(0, received.getCount());
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+
+        final int namespaces = 300;
+
+        final List<String> receivedNamespaces = Collections
+            .synchronizedList(new ArrayList<String>());
+
+        final CountDownLatch received = new CountDownLatch(namespaces);
+
+        BinaryChannelConnection alice = new BinaryChannelConnection(new JID(
+            "alice@baumeister.de"), "junit", aliceStream,
+            ConnectionMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void receive(final BinaryXMPPExtension extension) {
+                    // NOP
+                }
+            });
+
+        BinaryChannelConnection bob = new BinaryChannelConnection(new JID(
+            "bob@baumeister.de"), "junit", bobStream,
+            ConnectionMode.SOCKS5_DIRECT, new StreamConnectionListener() {
+                @Override
+                public void receive(final BinaryXMPPExtension extension) {
+                    receivedNamespaces.add(extension.getTransferDescription()
+                        .getNamespace());
+                    received.countDown();
+                }
+            });
+
+        alice.initialize();
+        bob.initialize();
+
+        final TransferDescription description = TransferDescription
+            .newDescription();
+
+        description.setElementName("bar");
+        description.setSender(new JID("sender@local"));
+        description.setRecipient(new JID("receiver@local"));
+
+        final byte[] bytesToSend = new byte[128];
+
+        try {
+            for (int i = 0; i < namespaces; i++) {
+                description.setNamespace("foo-namespace-" + i);
+                alice.send(description, bytesToSend, 0, bytesToSend.length);
+            }
+
+            received.await(10000, TimeUnit.MILLISECONDS);
+        } finally {
+            alice.close();
+            bob.close();
+        }
+
+        assertEquals(namespaces, receivedNamespaces.size());
+
+        for (int i = 0; i < namespaces; i++)
+            assertEquals("foo-namespace-" + i, receivedNamespaces.get(i));
+    }
+
+    @Test
+    public void testDictionary() {
+        Dictionary dictionary = new Dictionary(2);
+
+        assertEquals(0, dictionary.add("a"));
+        assertEquals(1, dictionary.add("b"));
+
+        // access a, so b is the least recently used string
+        assertEquals(Integer.valueOf(0), dictionary.get("a"));
+
+        assertEquals(1, dictionary.add("c"));
+        assertNull(dictionary.get("b"));
+        assertEquals(Integer.valueOf(1), dictionary.get("c"));
+        assertEquals(Integer.valueOf(0), dictionary.get("a"));
+    }
+
     @Test
     public void testIDPool() {
 
-        IDPool pool = new IDPool();
+        IDPool pool = new IDPool(32);
 
         for (int i = 0; i < 32; i++)
             assertEquals(i, pool.nextID());
@@ -0,0 +1,107 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import static de.fu_berlin.inf.dpp.net.internal.CompressionPolicy.MAX_ENTROPY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.net.ConnectionMode;
+
+public class CompressionPolicyTest {
+
+    private final CompressionPolicy policy = new CompressionPolicy();
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void testDefaultLevels() {
+        byte[] text = text(64 * 1024);
+
+        assertEquals(Deflater.NO_COMPRESSION,
+            policy.getCompressionLevel(ConnectionMode.TCP, text));
+
+        assertEquals(Deflater.BEST_SPEED,
+            policy.getCompressionLevel(ConnectionMode.SOCKS5_DIRECT, text));
+
+        assertEquals(Deflater.BEST_COMPRESSION,
+            policy.getCompressionLevel(ConnectionMode.IBB, text));
+    }
+
+    @Test
+    public void testRandomDataIsNotCompressed() {
+        byte[] data = new byte[64 * 1024];
+        random.nextBytes(data);
+
+        assertTrue(CompressionPolicy.estimateEntropy(data) > MAX_ENTROPY);
+
+        assertEquals(Deflater.NO_COMPRESSION,
+            policy.getCompressionLevel(ConnectionMode.IBB, data));
+    }
+
+    @Test
+    public void testEntropy() {
+        assertEquals(0, CompressionPolicy.estimateEntropy(new byte[1000]),
+            0.0001);
+
+        byte[] alternating = new byte[100000];
+
+        for (int i = 0; i < alternating.length; i++)
+            alternating[i] = (byte) (i % 2);
+
+        assertEquals(1, CompressionPolicy.estimateEntropy(alternating), 0.0001);
+
+        double entropy = CompressionPolicy.estimateEntropy(text(100000));
+
+        assertTrue("entropy of text: " + entropy, entropy < MAX_ENTROPY);
+    }
+
+    @Test
+    public void testThroughputAdaptsToTransfers() {
+        byte[] text = text(64 * 1024);
+
+        // 100 MB/s over a mediated SOCKS5 connection
+        for (int i = 0; i < 20; i++)
+            policy.sent(ConnectionMode.SOCKS5_MEDIATED, 1024 * 1024,
+                4 * 1024 * 1024, 10);
+
+        assertEquals(Deflater.NO_COMPRESSION,
+            policy.getCompressionLevel(ConnectionMode.SOCKS5_MEDIATED, text));
+
+        // 100 KB/s
+        for (int i = 0; i < 20; i++)
+            policy.received(ConnectionMode.SOCKS5_MEDIATED, 100 * 1024,
+                400 * 1024, 1000);
+
+        assertEquals(Deflater.BEST_COMPRESSION,
+            policy.getCompressionLevel(ConnectionMode.SOCKS5_MEDIATED, text));
+    }
+
+    @Test
+    public void testSmallTransfersAreIgnored() {
+        double throughput = policy.getThroughput(ConnectionMode.IBB);
+
+        policy.sent(ConnectionMode.IBB, 100, 200, 1);
+        policy.sent(ConnectionMode.IBB, 1024 * 1024, 2048 * 1024, 0);
+
+        assertEquals(throughput, policy.getThroughput(ConnectionMode.IBB), 0);
+    }
+
+    private byte[] text(int length) {
+        String[] words = { "public", "class", "void", "return", "final",
+            "int", "String", "if", "else", "for", "new", "null", "{", "}",
+            ";", "\n" };
+
+        StringBuilder builder = new StringBuilder(length);
+
+        while (builder.length() < length)
+            builder.append(words[random.nextInt(words.length)]).append(' ');
+
+        builder.setLength(length);
+
+        return builder.toString().getBytes();
+    }
+}
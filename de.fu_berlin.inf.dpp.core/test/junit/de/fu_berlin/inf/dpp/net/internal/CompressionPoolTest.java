@@ -0,0 +1,100 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+public class CompressionPoolTest {
+
+    private final CompressionPool pool = new CompressionPool();
+
+    private final Random random = new Random(17);
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (int length : new int[] { 1, 100, 16 * 1024, 100 * 1024,
+            2 * 1024 * 1024 }) {
+
+            byte[] input = randomText(length);
+
+            CompressionPool.Buffer buffer = pool.deflate(input,
+                Deflater.DEFAULT_COMPRESSION);
+
+            byte[] compressed = Arrays.copyOf(buffer.getData(),
+                buffer.getLength());
+
+            pool.release(buffer);
+
+            assertArrayEquals(input, pool.inflate(compressed));
+        }
+    }
+
+    @Test
+    public void testIncompressibleData() throws Exception {
+        byte[] input = new byte[64 * 1024];
+        random.nextBytes(input);
+
+        CompressionPool.Buffer buffer = pool.deflate(input,
+            Deflater.DEFAULT_COMPRESSION);
+
+        assertTrue(buffer.getLength() > input.length);
+
+        byte[] compressed = Arrays.copyOf(buffer.getData(),
+            buffer.getLength());
+
+        pool.release(buffer);
+
+        assertArrayEquals(input, pool.inflate(compressed));
+    }
+
+    @Test
+    public void testInflateFromLargerBuffer() throws Exception {
+        byte[] input = randomText(100000);
+
+        CompressionPool.Buffer buffer = pool.deflate(input,
+            Deflater.DEFAULT_COMPRESSION);
+
+        // the compressed data is followed by unused space of the buffer
+        assertTrue(buffer.getData().length > buffer.getLength());
+
+        try {
+            assertArrayEquals(input,
+                pool.inflate(buffer.getData(), 0, buffer.getLength()));
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedData() throws Exception {
+        CompressionPool.Buffer buffer = pool.deflate(randomText(10000),
+            Deflater.DEFAULT_COMPRESSION);
+
+        byte[] compressed = Arrays.copyOf(buffer.getData(),
+            buffer.getLength() / 2);
+
+        pool.release(buffer);
+
+        pool.inflate(compressed);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedData() throws Exception {
+        pool.inflate(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    }
+
+    private byte[] randomText(int length) {
+        byte[] text = new byte[length];
+
+        for (int i = 0; i < length; i++)
+            text[i] = (byte) ('a' + random.nextInt(8));
+
+        return text;
+    }
+}
@@ -1,12 +1,17 @@
 package de.fu_berlin.inf.dpp.net.internal;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
+import de.fu_berlin.inf.dpp.net.ConnectionMode;
+
 public class ConnectionPoolTest {
 
     private ConnectionPool pool;
@@ -112,4 +117,141 @@ public class ConnectionPoolTest {
         EasyMock.verify(connection0, connection1);
 
     }
+
+    @Test
+    public void testStandbyConnection() {
+
+        final IByteStreamConnection connection0 = EasyMock
+            .createNiceMock(IByteStreamConnection.class);
+
+        final IByteStreamConnection connection1 = EasyMock
+            .createNiceMock(IByteStreamConnection.class);
+
+        EasyMock.expect(connection0.isConnected()).andStubReturn(true);
+        EasyMock.expect(connection1.isConnected()).andStubReturn(true);
+
+        EasyMock.replay(connection0, connection1);
+
+        pool.open();
+
+        pool.add("foo", connection0);
+
+        assertNull("connected connection was replaced",
+            pool.add("foo", connection1));
+
+        assertSame("standby connection is used", connection0,
+            pool.get("foo"));
+
+        assertTrue("connection was not removed",
+            pool.remove("foo", connection0));
+
+        assertSame("standby connection was not used", connection1,
+            pool.get("foo"));
+
+        assertFalse("removed connection was removed again",
+            pool.remove("foo", connection0));
+
+        assertTrue("connection was not removed",
+            pool.remove("foo", connection1));
+
+        assertNull("pool does contain the removed connection", pool.get("foo"));
+    }
+
+    @Test
+    public void testRemoveClosesStandbyConnections() {
+
+        final IByteStreamConnection connection0 = EasyMock
+            .createNiceMock(IByteStreamConnection.class);
+
+        final IByteStreamConnection connection1 = EasyMock
+            .createNiceMock(IByteStreamConnection.class);
+
+        EasyMock.expect(connection0.isConnected()).andStubReturn(true);
+
+        connection1.close();
+        EasyMock.expectLastCall().once();
+
+        EasyMock.replay(connection0, connection1);
+
+        pool.open();
+
+        pool.add("foo", connection0);
+        pool.add("foo", connection1);
+
+        assertSame("pool did not return the current connection on remove()",
+            connection0, pool.remove("foo"));
+
+        EasyMock.verify(connection1);
+    }
+
+    @Test
+    public void testBetterConnectionReplacesCurrentConnection() {
+
+        final IByteStreamConnection connection0 = EasyMock
+            .createNiceMock(IByteStreamConnection.class);
+
+        final IByteStreamConnection connection1 = EasyMock
+            .createNiceMock(IByteStreamConnection.class);
+
+        EasyMock.expect(connection0.isConnected()).andStubReturn(true);
+        EasyMock.expect(connection0.getMode()).andStubReturn(
+            ConnectionMode.IBB);
+
+        EasyMock.expect(connection1.isConnected()).andStubReturn(true);
+        EasyMock.expect(connection1.getMode()).andStubReturn(
+            ConnectionMode.SOCKS5_DIRECT);
+
+        EasyMock.replay(connection0, connection1);
+
+        pool.open();
+
+        pool.add("foo", connection0);
+
+        assertNull("replaced connection was returned",
+            pool.add("foo", connection1));
+
+        assertSame("better connection is not used", connection1,
+            pool.get("foo"));
+
+        assertEquals("replaced connection is not a standby connection",
+            connection0, pool.getStandbyConnections("foo").get(0));
+
+        assertTrue("replaced connection was promoted on removal",
+            pool.remove("foo", connection1));
+
+        assertSame("standby connection was not used", connection0,
+            pool.get("foo"));
+    }
+
+    @Test
+    public void testRemoveStandbyConnection() {
+
+        final IByteStreamConnection connection0 = EasyMock
+            .createNiceMock(IByteStreamConnection.class);
+
+        final IByteStreamConnection connection1 = EasyMock
+            .createNiceMock(IByteStreamConnection.class);
+
+        EasyMock.expect(connection0.isConnected()).andStubReturn(true);
+        EasyMock.expect(connection1.isConnected()).andStubReturn(true);
+
+        EasyMock.replay(connection0, connection1);
+
+        pool.open();
+
+        pool.add("foo", connection0);
+        pool.add("foo", connection1);
+
+        assertFalse("current connection was removed as standby connection",
+            pool.removeStandbyConnection("foo", connection0));
+
+        assertTrue("standby connection was not removed",
+            pool.removeStandbyConnection("foo", connection1));
+
+        assertTrue("standby connection is still pooled", pool
+            .getStandbyConnections("foo").isEmpty());
+
+        assertSame("current connection was changed", connection0,
+            pool.get("foo"));
+    }
 }
@@ -3,6 +3,7 @@ package de.fu_berlin.inf.dpp.net.internal;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -156,8 +157,8 @@ public class DataTransferManagerTest {
         }
 
         @Override
-        public void send(TransferDescription data, byte[] content)
-            throws IOException {
+        public void send(TransferDescription data, byte[] content,
+            int offset, int length) throws IOException {
             sendPackets++;
         }
 
@@ -640,4 +641,117 @@ public class DataTransferManagerTest {
         assertEquals(ConnectionMode.NONE,
             dtm.getTransferMode(new JID("fallback@emergency")));
     }
+
+    @Test(timeout = 30000)
+    public void testSlowTransportIsRacedByFallbackTransport()
+        throws Exception {
+
+        final CountDownLatch connectAcknowledge = new CountDownLatch(1);
+        final CountDownLatch connectProceed = new CountDownLatch(1);
+
+        BlockableTransport mainTransport = new BlockableTransport(
+            new HashSet<JID>(), ConnectionMode.SOCKS5_DIRECT,
+            connectAcknowledge, connectProceed);
+
+        Transport fallbackTransport = new Transport(ConnectionMode.IBB);
+
+        IConnectionManager dtm = new DataTransferManager(
+            connectionServiceStub, null, mainTransport, fallbackTransport);
+
+        connectionListener.getValue().connectionStateChanged(connectionMock,
+            ConnectionState.CONNECTED);
+
+        try {
+            dtm.connect(new JID("foo@bar.com"));
+        } finally {
+            connectProceed.countDown();
+        }
+
+        assertEquals("main transport was not tried first", 0,
+            connectAcknowledge.getCount());
+
+        assertEquals("fallback transport did not win the race",
+            ConnectionMode.IBB, dtm.getTransferMode(new JID("foo@bar.com")));
+
+        assertEquals("slow transport was not cancelled", 0, mainTransport
+            .getEstablishedConnections().size());
+    }
+
+    @Test(timeout = 30000)
+    public void testHigherRankedTransportWinsWithinGracePeriod()
+        throws Exception {
+
+        final CountDownLatch connectAcknowledge = new CountDownLatch(1);
+        final CountDownLatch connectProceed = new CountDownLatch(1);
+
+        BlockableTransport mainTransport = new BlockableTransport(
+            new HashSet<JID>(), ConnectionMode.SOCKS5_DIRECT,
+            connectAcknowledge, connectProceed);
+
+        Transport fallbackTransport = new Transport(ConnectionMode.IBB) {
+            @Override
+            public IByteStreamConnection connect(String connectionIdentifier,
+                JID peer) throws IOException, InterruptedException {
+                IByteStreamConnection connection = super.connect(
+                    connectionIdentifier, peer);
+
+                // the main transport connects shortly after the fallback
+                connectProceed.countDown();
+                return connection;
+            }
+        };
+
+        IConnectionManager dtm = new DataTransferManager(
+            connectionServiceStub, null, mainTransport, fallbackTransport);
+
+        connectionListener.getValue().connectionStateChanged(connectionMock,
+            ConnectionState.CONNECTED);
+
+        dtm.connect(new JID("foo@bar.com"));
+
+        assertEquals("higher ranked transport did not win",
+            ConnectionMode.SOCKS5_DIRECT,
+            dtm.getTransferMode(new JID("foo@bar.com")));
+
+        ChannelConnection fallbackConnection = fallbackTransport
+            .getEstablishedConnections().get(0);
+
+        assertTrue("fallback connection was not kept as standby",
+            fallbackConnection.isConnected());
+
+        while (fallbackConnection.isConnected())
+            Thread.sleep(100);
+
+        assertEquals("higher ranked transport is no longer used",
+            ConnectionMode.SOCKS5_DIRECT,
+            dtm.getTransferMode(new JID("foo@bar.com")));
+    }
+
+    @Test(timeout = 30000)
+    public void testHigherRankedIncomingConnectionIsUsed() throws Exception {
+        Transport mainTransport = new Transport(ConnectionMode.SOCKS5_DIRECT);
+        Transport fallbackTransport = new Transport(ConnectionMode.IBB);
+
+        IConnectionManager dtm = new DataTransferManager(
+            connectionServiceStub, null, mainTransport, fallbackTransport);
+
+        connectionListener.getValue().connectionStateChanged(connectionMock,
+            ConnectionState.CONNECTED);
+
+        fallbackTransport.announceIncomingRequest(new JID("foo@bar.com"));
+        mainTransport.announceIncomingRequest(new JID("foo@bar.com"));
+
+        assertEquals("higher ranked incoming connection is not used",
+            ConnectionMode.SOCKS5_DIRECT,
+            dtm.getTransferMode(new JID("foo@bar.com")));
+
+        ChannelConnection fallbackConnection = fallbackTransport
+            .getEstablishedConnections().get(0);
+
+        while (fallbackConnection.isConnected())
+            Thread.sleep(100);
+
+        assertTrue("higher ranked incoming connection was closed",
+            mainTransport.getEstablishedConnections().get(0).isConnected());
+    }
 }
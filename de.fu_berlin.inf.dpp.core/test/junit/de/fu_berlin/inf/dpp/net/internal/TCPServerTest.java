@@ -0,0 +1,206 @@
+package de.fu_berlin.inf.dpp.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TCPServerTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private final BlockingQueue<byte[]> handshakes = new LinkedBlockingQueue<byte[]>();
+
+    private final IConnectionAcceptor acceptor = new IConnectionAcceptor() {
+        @Override
+        public void accept(Socket socket, byte[] handshake) {
+            try {
+                socket.getOutputStream().write(handshake.length);
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+
+            handshakes.add(handshake);
+        }
+    };
+
+    private TCPServer server;
+
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TCPServer();
+        server.setConnectionAcceptor(acceptor);
+        port = server.start(InetAddress.getByName("127.0.0.1"), 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testAcceptHandshake() throws Exception {
+        final Socket socket = connect();
+
+        try {
+            sendHandshake(socket, new byte[] { 1, 2, 3 });
+
+            assertArrayEquals(new byte[] { 1, 2, 3 },
+                handshakes.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+            assertEquals("acceptor did not get the socket", 3, socket
+                .getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testAcceptFragmentedHandshake() throws Exception {
+        final Socket socket = connect();
+
+        try {
+            final DataOutputStream out = new DataOutputStream(
+                socket.getOutputStream());
+
+            out.write(0);
+            out.flush();
+            Thread.sleep(100);
+            out.write(2);
+            out.write(42);
+            out.flush();
+            Thread.sleep(100);
+            out.write(43);
+            out.flush();
+
+            assertArrayEquals(new byte[] { 42, 43 },
+                handshakes.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testRejectInvalidHandshake() throws Exception {
+        final Socket socket = connect();
+
+        try {
+            sendHandshake(socket, new byte[0]);
+
+            assertEquals("connection was not closed", -1, socket
+                .getInputStream().read());
+
+            assertTrue(handshakes.isEmpty());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testCloseConnectionsWithoutAcceptor() throws Exception {
+        server.setConnectionAcceptor(null);
+
+        final Socket socket = connect();
+
+        try {
+            sendHandshake(socket, new byte[] { 1 });
+
+            assertEquals("connection was not closed", -1, socket
+                .getInputStream().read());
+
+            assertTrue(handshakes.isEmpty());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testReadAndWriteConcurrentlyOnAcceptedConnection()
+        throws Exception {
+
+        final BlockingQueue<Integer> received = new LinkedBlockingQueue<Integer>();
+
+        server.setConnectionAcceptor(new IConnectionAcceptor() {
+            @Override
+            public void accept(final Socket socket, byte[] handshake) {
+                final Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            received.add(socket.getInputStream().read());
+                        } catch (IOException e) {
+                            received.add(-2);
+                        }
+                    }
+                });
+
+                reader.start();
+
+                try {
+                    // give the reader some time to block in read()
+                    Thread.sleep(200);
+                    socket.getOutputStream().write(7);
+                    socket.getOutputStream().flush();
+                    reader.join(TIMEOUT);
+                } catch (Exception e) {
+                    // ignore
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        });
+
+        final Socket socket = connect();
+
+        try {
+            sendHandshake(socket, new byte[] { 1 });
+
+            final InputStream in = socket.getInputStream();
+
+            assertEquals("write was blocked by the pending read", 7, in.read());
+
+            socket.getOutputStream().write(8);
+            socket.getOutputStream().flush();
+
+            assertEquals(Integer.valueOf(8),
+                received.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout((int) TIMEOUT);
+        return socket;
+    }
+
+    private static void sendHandshake(Socket socket, byte[] handshake)
+        throws IOException {
+        final DataOutputStream out = new DataOutputStream(
+            socket.getOutputStream());
+
+        out.writeShort(handshake.length);
+        out.write(handshake);
+        out.flush();
+    }
+}
@@ -5,7 +5,9 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({ BinaryChannelConnectionTest.class,
-    ConnectionPoolTest.class, DataTransferManagerTest.class })
+    CompressionPolicyTest.class, CompressionPoolTest.class,
+    ConnectionPoolTest.class, DataTransferManagerTest.class,
+    TCPServerTest.class })
 public class TestSuite {
     // the class remains completely empty,
     // being used only as a holder for the above annotations
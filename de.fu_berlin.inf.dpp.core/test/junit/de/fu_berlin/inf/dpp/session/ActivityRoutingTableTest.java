@@ -0,0 +1,131 @@
+package de.fu_berlin.inf.dpp.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.fu_berlin.inf.dpp.activities.IActivity;
+import de.fu_berlin.inf.dpp.activities.NOPActivity;
+import de.fu_berlin.inf.dpp.activities.StartFollowingActivity;
+import de.fu_berlin.inf.dpp.activities.StopFollowingActivity;
+import de.fu_berlin.inf.dpp.net.xmpp.JID;
+
+public class ActivityRoutingTableTest {
+
+    private ActivityRoutingTable table;
+
+    private User alice;
+    private User bob;
+
+    private final List<IActivity> received = new ArrayList<IActivity>();
+
+    private final IActivityConsumer followConsumer = new AbstractActivityConsumer() {
+        @Override
+        public void receive(StartFollowingActivity activity) {
+            received.add(activity);
+        }
+
+        @Override
+        public void receive(StopFollowingActivity activity) {
+            received.add(activity);
+        }
+    };
+
+    private final IActivityConsumer nopConsumer = new AbstractActivityConsumer() {
+        @Override
+        public void receive(NOPActivity activity) {
+            received.add(activity);
+        }
+    };
+
+    private final IActivityConsumer execConsumer = new AbstractActivityConsumer() {
+        @Override
+        public void exec(IActivity activity) {
+            received.add(activity);
+        }
+    };
+
+    private final IActivityConsumer plainConsumer = new IActivityConsumer() {
+        @Override
+        public void exec(IActivity activity) {
+            received.add(activity);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        table = new ActivityRoutingTable();
+        alice = new User(new JID("alice@test"), "alice", true, true, 0, 0);
+        bob = new User(new JID("bob@test"), "bob", false, false, 1, 1);
+    }
+
+    @Test
+    public void testRouteToDeclaredReceivers() {
+        table.add(followConsumer);
+        table.add(nopConsumer);
+
+        assertArrayEquals(new IActivityConsumer[] { followConsumer },
+            table.getConsumers(new StartFollowingActivity(alice, bob)));
+
+        assertArrayEquals(new IActivityConsumer[] { followConsumer },
+            table.getConsumers(new StopFollowingActivity(alice)));
+
+        assertArrayEquals(new IActivityConsumer[] { nopConsumer },
+            table.getConsumers(new NOPActivity(alice, bob, 0)));
+    }
+
+    @Test
+    public void testRouteAllActivitiesToCustomConsumers() {
+        table.add(execConsumer);
+        table.add(nopConsumer);
+        table.add(plainConsumer);
+
+        assertArrayEquals(new IActivityConsumer[] { execConsumer,
+            plainConsumer },
+            table.getConsumers(new StopFollowingActivity(alice)));
+
+        assertArrayEquals(new IActivityConsumer[] { execConsumer, nopConsumer,
+            plainConsumer },
+            table.getConsumers(new NOPActivity(alice, bob, 0)));
+    }
+
+    @Test
+    public void testRoutesChangeWithConsumers() {
+        final IActivity activity = new NOPActivity(alice, bob, 0);
+
+        assertEquals(0, table.getConsumers(activity).length);
+
+        assertTrue(table.add(nopConsumer));
+        assertFalse("consumer added twice", table.add(nopConsumer));
+
+        assertArrayEquals(new IActivityConsumer[] { nopConsumer },
+            table.getConsumers(activity));
+
+        assertTrue(table.remove(nopConsumer));
+        assertFalse(table.remove(nopConsumer));
+
+        assertEquals(0, table.getConsumers(activity).length);
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void testRoutedConsumersReceiveActivity() {
+        table.add(followConsumer);
+        table.add(nopConsumer);
+
+        final IActivity activity = new StopFollowingActivity(alice);
+
+        for (IActivityConsumer consumer : table.getConsumers(activity))
+            consumer.exec(activity);
+
+        assertEquals(1, received.size());
+        assertEquals(activity, received.get(0));
+    }
+}
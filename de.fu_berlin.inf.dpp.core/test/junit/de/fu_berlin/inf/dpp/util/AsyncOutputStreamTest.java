@@ -0,0 +1,131 @@
+package de.fu_berlin.inf.dpp.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AsyncOutputStreamTest {
+
+    private static class CloseAwareOutputStream extends ByteArrayOutputStream {
+        private volatile boolean isClosed;
+
+        @Override
+        public void close() throws IOException {
+            isClosed = true;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new AsyncOutputStream(new ByteArrayOutputStream(), "test", 16, 0);
+    }
+
+    @Test(timeout = 10000)
+    public void testAllDataIsWritten() throws Exception {
+        final CloseAwareOutputStream target = new CloseAwareOutputStream();
+
+        final byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+
+        final OutputStream out = new AsyncOutputStream(target, "test", 1024, 2);
+
+        int offset = 0;
+
+        for (int length = 1; offset < data.length; length = length * 3 % 4097) {
+            length = Math.min(length, data.length - offset);
+
+            if (length % 7 == 0) {
+                out.write(data[offset]);
+                length = 1;
+            } else {
+                out.write(data, offset, length);
+            }
+
+            offset += length;
+        }
+
+        out.close();
+
+        assertTrue("underlying stream was not closed", target.isClosed);
+        assertArrayEquals(data, target.toByteArray());
+    }
+
+    @Test(timeout = 10000)
+    public void testWriterIsNotBlockedByFailingStream() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+
+        final OutputStream target = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                failed.countDown();
+                throw new IOException("test");
+            }
+        };
+
+        final OutputStream out = new AsyncOutputStream(target, "test", 1, 1);
+
+        out.write(new byte[16]);
+        failed.await();
+
+        try {
+            for (int i = 0; i < 1000; i++)
+                out.write(new byte[16]);
+
+            out.close();
+        } catch (IOException e) {
+            return;
+        }
+
+        fail("error of the underlying stream was not reported");
+    }
+
+    @Test(timeout = 10000)
+    public void testAbortDiscardsPendingData() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+
+        final CloseAwareOutputStream target = new CloseAwareOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                super.write(b, off, len);
+                writing.countDown();
+
+                // simulate a stalled connection
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        final AsyncOutputStream out = new AsyncOutputStream(target, "test", 4,
+            4);
+
+        out.write(new byte[] { 1, 2, 3, 4, 5 });
+        writing.await();
+
+        out.write(new byte[8]);
+        out.abort();
+
+        while (!target.isClosed)
+            Thread.sleep(10);
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, target.toByteArray());
+
+        try {
+            out.write(6);
+        } catch (IOException e) {
+            return;
+        }
+
+        fail("aborted stream is still writable");
+    }
+}
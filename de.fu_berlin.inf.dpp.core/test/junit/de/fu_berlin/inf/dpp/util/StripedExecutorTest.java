@@ -0,0 +1,89 @@
+package de.fu_berlin.inf.dpp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+    private StripedExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new StripedExecutor("test", 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoStripes() {
+        new StripedExecutor("test", 0);
+    }
+
+    @Test
+    public void testTasksWithSameKeyAreExecutedInOrder() throws Exception {
+        final List<Integer> executed = Collections
+            .synchronizedList(new ArrayList<Integer>());
+
+        List<Integer> expected = new ArrayList<Integer>();
+
+        for (int i = 0; i < 1000; i++) {
+            final int value = i;
+            expected.add(value);
+
+            executor.execute("key", new Runnable() {
+                @Override
+                public void run() {
+                    executed.add(value);
+                }
+            });
+        }
+
+        executor.await();
+
+        assertEquals(expected, executed);
+    }
+
+    @Test(timeout = 10000)
+    public void testBlockedKeyDoesNotBlockOtherKeys() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch executed = new CountDownLatch(1);
+
+        // the hash code of an integer is its value, so both use other stripes
+        executor.execute(0, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        executor.execute(1, new Runnable() {
+            @Override
+            public void run() {
+                executed.countDown();
+            }
+        });
+
+        assertTrue(executed.await(5, TimeUnit.SECONDS));
+
+        blocked.countDown();
+        executor.await();
+    }
+}
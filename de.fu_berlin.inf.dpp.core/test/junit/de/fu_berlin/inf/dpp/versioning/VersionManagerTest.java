@@ -22,12 +22,15 @@
 package de.fu_berlin.inf.dpp.versioning;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Properties;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import de.fu_berlin.inf.dpp.misc.binary.ActivitiesExtensionCodec;
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
 import de.fu_berlin.inf.dpp.net.xmpp.JID;
@@ -172,4 +175,42 @@ public class VersionManagerTest {
         assertEquals(resultLocal.getCompatibility(),
             resultRemote.getCompatibility());
     }
+
+    @Test
+    public void testFeaturesAreExchanged() {
+        Version version = Version.parseVersion("1.1.1.r1");
+
+        init(version, version);
+
+        assertFalse(versionManagerLocal.isFeatureSupported(bobJID,
+            VersionManager.BINARY_ACTIVITIES_FEATURE));
+
+        assertFalse(versionManagerRemote.isFeatureSupported(aliceJID,
+            VersionManager.BINARY_ACTIVITIES_FEATURE));
+
+        versionManagerLocal.determineVersionCompatibility(bobJID);
+
+        assertTrue(versionManagerLocal.isFeatureSupported(bobJID,
+            VersionManager.BINARY_ACTIVITIES_FEATURE));
+
+        assertTrue(versionManagerRemote.isFeatureSupported(aliceJID,
+            VersionManager.BINARY_ACTIVITIES_FEATURE));
+
+        assertTrue(versionManagerRemote.isFeatureSupported(aliceJID,
+            VersionManager.FILE_DELTA_FEATURE));
+
+        assertTrue(versionManagerRemote.isFeatureSupported(aliceJID,
+            VersionManager.RANGE_CHECKSUMS_FEATURE));
+
+        assertTrue(versionManagerRemote.isFeatureSupported(aliceJID,
+            VersionManager.PARTIAL_RECOVERY_FEATURE));
+
+        assertFalse(versionManagerLocal.isFeatureSupported(bobJID,
+            "unknown-feature"));
+
+        assertFalse(
+            "feature of an older binary format is supported",
+            versionManagerLocal.isFeatureSupported(bobJID, "adosb"
+                + (ActivitiesExtensionCodec.FORMAT_VERSION - 1)));
+    }
 }
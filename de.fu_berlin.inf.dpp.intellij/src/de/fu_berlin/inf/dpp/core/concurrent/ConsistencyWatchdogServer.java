@@ -30,11 +30,13 @@ import de.fu_berlin.inf.dpp.intellij.editor.EditorManager;
 import de.fu_berlin.inf.dpp.intellij.project.fs.ResourceConverter;
 import de.fu_berlin.inf.dpp.session.AbstractActivityProducer;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
+import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.Blockable;
 import de.fu_berlin.inf.dpp.synchronize.StopManager;
 import de.fu_berlin.inf.dpp.synchronize.UISynchronizer;
 import de.fu_berlin.inf.dpp.util.NamedThreadFactory;
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 import org.apache.log4j.Logger;
 import org.picocontainer.Startable;
 
@@ -74,6 +76,7 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
     private final ISarosSession session;
     private final StopManager stopManager;
     private final UISynchronizer synchronizer;
+    private final VersionManager versionManager;
     private ScheduledThreadPoolExecutor executor;
     private ScheduledFuture<?> triggerChecksumFuture;
     private boolean locked;
@@ -97,11 +100,12 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
     public ConsistencyWatchdogServer(ISarosSession session,
         EditorManager editorManager, StopManager stopManager,
-        UISynchronizer synchronizer) {
+        UISynchronizer synchronizer, VersionManager versionManager) {
         this.session = session;
         this.editorManager = editorManager;
         this.stopManager = stopManager;
         this.synchronizer = synchronizer;
+        this.versionManager = versionManager;
     }
 
     @Override
@@ -259,9 +263,26 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
         ChecksumActivity checksumActivity = new ChecksumActivity(
             session.getLocalUser(), checksum.getPath(), checksum.getHash(),
-            checksum.getLength(), null);
+            checksum.getLength(),
+            isRangeChecksumSupported() ? checksum.getRanges() : null, null);
 
         fireActivity(checksumActivity);
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns whether all remote users are able to receive range hashes.
+     * Checksums are sent to all users, so they only contain the hash of the
+     * whole document if one of them uses an older version.
+     */
+    private boolean isRangeChecksumSupported() {
+        for (User user : session.getRemoteUsers()) {
+            if (!versionManager.isFeatureSupported(user.getJID(),
+                VersionManager.RANGE_CHECKSUMS_FEATURE)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
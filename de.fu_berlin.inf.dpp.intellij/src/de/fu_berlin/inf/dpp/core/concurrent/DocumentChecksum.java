@@ -26,6 +26,8 @@ import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.event.DocumentListener;
 import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.concurrent.watchdog.BlockChecksum;
+import de.fu_berlin.inf.dpp.concurrent.watchdog.RangeChecksums;
 
 /**
  * This Class represents a checksum of a document. It contains the path, the
@@ -39,6 +41,12 @@ public class DocumentChecksum {
      * Constant used for representing a missing file
      */
     public static final int NON_EXISTING_DOC = -1;
+    /**
+     * Documents shorter than this are not split into
+     * {@linkplain #getRanges() ranges}.
+     */
+    private static final int MIN_RANGES_LENGTH = 64 * 1024;
+    private static final int MAX_RANGES = 64;
     // the path to the concurrent document
     private final SPath path;
     // the length of the document
@@ -47,6 +55,7 @@ public class DocumentChecksum {
     private int hash;
     private Document document;
     private boolean dirty;
+    private final BlockChecksum blockChecksum = new BlockChecksum();
     private final DocumentListener dirtyListener = new DocumentListener() {
 
         @Override
@@ -56,6 +65,8 @@ public class DocumentChecksum {
 
         @Override
         public void documentChanged(DocumentEvent event) {
+            blockChecksum.replace(event.getOffset(), event.getOldLength(),
+                event.getNewLength());
             dirty = true;
         }
     };
@@ -113,8 +124,10 @@ public class DocumentChecksum {
 
         this.document = document;
 
-        if (this.document != null)
+        if (this.document != null) {
             document.addDocumentListener(dirtyListener);
+            blockChecksum.reset(document.getTextLength());
+        }
 
         dirty = true;
     }
@@ -128,13 +141,31 @@ public class DocumentChecksum {
         if (document == null) {
             length = hash = NON_EXISTING_DOC;
         } else {
-            length = document.getTextLength();
-            hash = document.getText().hashCode();
+            // should not happen, but do not rely on a complete event history
+            if (blockChecksum.getLength() != document.getTextLength())
+                blockChecksum.reset(document.getTextLength());
+
+            blockChecksum.update(document.getCharsSequence());
+            length = blockChecksum.getLength();
+            hash = blockChecksum.getHash();
         }
 
         dirty = false;
     }
 
+    /**
+     * Returns the hashes of the ranges of the document.
+     *
+     * @return the hashes or <code>null</code> if the document is too small or
+     * does not exist
+     */
+    public RangeChecksums getRanges() {
+        if (document == null || dirty || length < MIN_RANGES_LENGTH)
+            return null;
+
+        return blockChecksum.getRanges(MAX_RANGES);
+    }
+
     /**
      * Returns whether this checksum represents a file which exists at the host.
      * <p/>
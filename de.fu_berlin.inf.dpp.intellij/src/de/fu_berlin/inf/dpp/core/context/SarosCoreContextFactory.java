@@ -45,6 +45,7 @@ import de.fu_berlin.inf.dpp.net.internal.IBBTransport;
 import de.fu_berlin.inf.dpp.net.internal.ITransport;
 import de.fu_berlin.inf.dpp.net.internal.Socks5Transport;
 import de.fu_berlin.inf.dpp.net.internal.TCPServer;
+import de.fu_berlin.inf.dpp.net.internal.TCPTransport;
 import de.fu_berlin.inf.dpp.net.internal.XMPPReceiver;
 import de.fu_berlin.inf.dpp.net.internal.XMPPTransmitter;
 import de.fu_berlin.inf.dpp.net.mdns.MDNSService;
@@ -114,6 +115,11 @@ public class SarosCoreContextFactory extends AbstractSarosContextFactory {
             Socks5Transport.class
         ),
 
+        Component.create(BindKey.bindKey(ITransport.class,
+                ISarosContextBindings.TCPTransport.class),
+            TCPTransport.class
+        ),
+
         Component.create(RosterTracker.class),
         Component.create(XMPPConnectionService.class),
         Component.create(MDNSService.class),
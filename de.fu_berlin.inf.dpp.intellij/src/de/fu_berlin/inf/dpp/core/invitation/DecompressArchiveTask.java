@@ -31,19 +31,21 @@ import de.fu_berlin.inf.dpp.filesystem.IResource;
 import de.fu_berlin.inf.dpp.filesystem.IWorkspace;
 import de.fu_berlin.inf.dpp.filesystem.IWorkspaceRunnable;
 import de.fu_berlin.inf.dpp.monitoring.IProgressMonitor;
+import de.fu_berlin.inf.dpp.negotiation.FileDelta;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.log4j.Logger;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 //TODO: Clean up when movin eclipse class to core
 public class DecompressArchiveTask implements IWorkspaceRunnable {
@@ -51,28 +53,35 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
     private static final Logger LOG = Logger
         .getLogger(DecompressArchiveTask.class);
 
-    private final File file;
+    private final InputStream in;
+    private final int fileCount;
     private final IProgressMonitor monitor;
     private final Map<String, IProject> idToProjectMapping;
     private final String delimiter;
 
     /**
-     * Creates a decompress task for an archive file that can be executed by
-     * {@link IWorkspace#run}. All necessary folders will be created on the fly.
-     * </P> <b>Important:</b> Existing files will be <b>overwritten without
-     * confirmation</b>!
+     * Creates a decompress task for an archive stream that can be executed by
+     * {@link IWorkspace#run}. The entries of the archive are unpacked while
+     * they are read from the stream. All necessary folders will be created on
+     * the fly. Entries that contain a {@link FileDelta delta} are applied to
+     * the existing files. </P> <b>Important:</b> Existing files will be <b>overwritten
+     * without confirmation</b>!
      *
-     * @param file               Zip file containing the compressed data
+     * @param in                 stream containing the compressed data, it is
+     *                           closed after the archive was unpacked
+     * @param fileCount          the number of files the archive contains, an
+     *                           archive with fewer files is treated as truncated
      * @param idToProjectMapping map containing the id to project mapping (see also
      *                           {@link ISarosSession#getProjectID(de.fu_berlin.inf.dpp.filesystem.IProject)}
      * @param monitor            monitor that is used for progress report and cancellation or
      *                           <code>null</code> to use the monitor provided by the
      *                           {@link #run(IProgressMonitor)} method
      */
-    public DecompressArchiveTask(final File file,
+    public DecompressArchiveTask(final InputStream in, final int fileCount,
         final Map<String, IProject> idToProjectMapping, final String delimiter,
         final IProgressMonitor monitor) {
-        this.file = file;
+        this.in = in;
+        this.fileCount = fileCount;
         this.idToProjectMapping = idToProjectMapping;
         this.delimiter = delimiter;
         this.monitor = monitor;
@@ -90,18 +99,20 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
             monitor = this.monitor;
         }
 
-        ZipFile zipFile = null;
+        final ZipInputStream zipStream = new ZipInputStream(in);
+
+        int entryCount = 0;
 
         try {
 
-            zipFile = new ZipFile(file);
             monitor.beginTask("Unpacking archive file to workspace",
-                zipFile.size());
+                fileCount);
+
+            ZipEntry entry;
 
-            for (Enumeration<? extends ZipEntry> entries = zipFile
-                .entries(); entries.hasMoreElements(); ) {
+            while ((entry = zipStream.getNextEntry()) != null) {
 
-                final ZipEntry entry = entries.nextElement();
+                entryCount++;
 
                 final String entryName = entry.getName();
 
@@ -144,22 +155,38 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
 
                 monitor.subTask("decompressing: " + path);
 
-                final InputStream in = zipFile.getInputStream(entry);
+                // the file implementations may close the stream after reading
+                final InputStream entryStream = new CloseShieldInputStream(
+                    zipStream);
 
-                if (!file.exists()) {
+                if (FileDelta.isDelta(entry)) {
+                    applyDelta(file, entryStream);
+                } else if (!file.exists()) {
                     //FIXME: Cancellation from UI is only possible between file writes
                     // thus leading to long delays for large files. Make this
                     // cancelable
-                    file.create(in, true);
+                    file.create(entryStream, true);
                 } else {
-                    file.setContents(in, true, true);
+                    file.setContents(entryStream, true, true);
                 }
 
+                monitor.worked(1);
+
                 if (LOG.isTraceEnabled()) {
                     LOG.trace("file written to disk: " + path);
                 }
             }
 
+            /*
+             * a stream that ends before the next entry header looks like the
+             * regular end of the archive
+             */
+            if (entryCount < fileCount) {
+                throw new IOException(
+                    "archive is incomplete, received only " + entryCount
+                        + " of " + fileCount + " files");
+            }
+
         } catch (IOException e) {
             LOG.error("failed to unpack archive", e);
 
@@ -167,22 +194,36 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
         } finally {
             monitor.subTask("");
 
-            try {
-                if (zipFile != null) {
-                    zipFile.close();
-                }
-            } catch (IOException e) {
-                LOG.warn(
-                    "failed to close zip file " + zipFile.getName() + " : " + e
-                        .getMessage()
-                );
-                throw e;
-            }
+            IOUtils.closeQuietly(zipStream);
 
             monitor.done();
         }
     }
 
+    private static void applyDelta(IFile file, InputStream delta)
+        throws IOException {
+
+        if (!file.exists()) {
+            throw new IOException(
+                "cannot apply delta to missing file: " + file);
+        }
+
+        final byte[] base;
+
+        InputStream in = null;
+
+        try {
+            in = file.getContents();
+            base = IOUtils.toByteArray(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        file.setContents(
+            new ByteArrayInputStream(FileDelta.apply(base, delta)), true,
+            true);
+    }
+
     private void createFoldersForFile(IFile file) throws IOException {
         List<IFolder> parents = new ArrayList<IFolder>();
 
@@ -26,8 +26,8 @@ import de.fu_berlin.inf.dpp.net.xmpp.JID;
 import de.fu_berlin.inf.dpp.observables.FileReplacementInProgressObservable;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.ISarosSessionManager;
-import de.fu_berlin.inf.dpp.util.CoreUtils;
 import de.fu_berlin.inf.dpp.vcs.VCSProvider;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Packet;
@@ -36,11 +36,13 @@ import org.jivesoftware.smackx.filetransfer.FileTransferRequest;
 import org.jivesoftware.smackx.filetransfer.IncomingFileTransfer;
 import org.picocontainer.annotations.Inject;
 
-import java.io.File;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -55,6 +57,8 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
 
     private static int MONITOR_WORK_SCALE = 1000;
 
+    private static final int ARCHIVE_BUFFER_SIZE = 32 * 1024;
+
     private final ISarosSession session;
 
     private final List<ProjectNegotiationData> projectInfos;
@@ -65,6 +69,8 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
     private IWorkspace workspace;
     @Inject
     private FileReplacementInProgressObservable fileReplacementInProgressObservable;
+    @Inject
+    private VersionManager versionManager;
     /**
      * Maps the projectID to the project in workspace
      */
@@ -195,14 +201,15 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
 
             checkCancellation(CancelOption.NOTIFY_PEER);
 
-            boolean filesMissing = false;
+            int missingFileCount = 0;
 
             for (FileList list : missingFiles)
-                filesMissing |= !list.getPaths().isEmpty();
+                missingFileCount += list.getPaths().size();
 
             // Host/Inviter decided to transmit files with one big archive
-            if (filesMissing)
-                acceptArchive(archiveTransferListener, monitor);
+            if (missingFileCount > 0)
+                acceptArchive(archiveTransferListener, missingFileCount,
+                    monitor);
 
             /*
              * We are finished with the exchanging process. Add all projects
@@ -261,36 +268,45 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
     }
 
     /**
-     * Accepts the archive with all missing files and decompress it.
+     * Accepts the archive with all missing files and decompresses it while it
+     * is received.
      */
     private void acceptArchive(ArchiveTransferListener archiveTransferListener,
-        IProgressMonitor monitor) throws IOException,
+        int fileCount, IProgressMonitor monitor) throws IOException,
         SarosCancellationException {
 
-        // waiting for the big archive to come in
-
         monitor.beginTask("Receiving project files...", 100);
 
-        File archiveFile = receiveArchive(archiveTransferListener, getID(),
-            new SubProgressMonitor(monitor, 50));
+        IncomingFileTransfer transfer = awaitArchiveTransfer(
+            archiveTransferListener, new SubProgressMonitor(monitor, 1));
 
-        /*
-         * FIXME at this point it makes no sense to report the cancellation to
-         * the remote side, because his negotiation is already finished !
-         */
+        LOG.debug(this + " : receiving archive");
+
+        InputStream in;
 
         try {
-            unpackArchive(archiveFile, new SubProgressMonitor(monitor, 50));
-            monitor.done();
+            in = transfer.recieveFile();
+        } catch (XMPPException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        }
+
+        boolean isUnpacked = false;
+
+        try {
+            unpackArchive(new BufferedInputStream(in, ARCHIVE_BUFFER_SIZE),
+                fileCount, new SubProgressMonitor(monitor, 99));
+            isUnpacked = true;
+        } catch (IOException e) {
+            // a transfer that is canceled remotely ends with a broken archive
+            checkCancellation(CancelOption.DO_NOT_NOTIFY_PEER);
+            throw e;
         } finally {
-            if (archiveFile != null) {
-                boolean result = archiveFile.delete();
-                if (!result) {
-                    LOG.warn("could not delete archive File "
-                        + archiveFile.getAbsolutePath());
-                }
+            if (!isUnpacked) {
+                transfer.cancel();
             }
         }
+
+        monitor.done();
     }
 
     /**
@@ -451,7 +467,18 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             return FileListFactory.createEmptyFileList();
         }
 
-        return FileListFactory.createFileList(missingFiles);
+        // older versions can neither read signatures nor send deltas
+        if (!versionManager.isFeatureSupported(peer,
+            VersionManager.FILE_DELTA_FEATURE)) {
+            return FileListFactory.createFileList(missingFiles);
+        }
+
+        /*
+         * altered files are usually only slightly outdated, so request them as
+         * deltas against the local version
+         */
+        return FileListFactory.createFileList(project, missingFiles,
+            new HashSet<String>(filesToSynchronize.getAlteredPaths()));
     }
 
     /**
@@ -513,9 +540,9 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         }
     }
 
-    private void unpackArchive(final File archiveFile,
-        final IProgressMonitor monitor) throws LocalCancellationException,
-        IOException {
+    private void unpackArchive(final InputStream archiveStream,
+        final int fileCount, final IProgressMonitor monitor)
+        throws LocalCancellationException, IOException {
 
         final Map<String, de.fu_berlin.inf.dpp.filesystem.IProject> projectMapping = new HashMap<String, de.fu_berlin.inf.dpp.filesystem.IProject>();
 
@@ -524,11 +551,11 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
 
 
         final DecompressArchiveTask decompressTask = new DecompressArchiveTask(
-            archiveFile, projectMapping, PATH_DELIMITER, monitor);
+            archiveStream, fileCount, projectMapping, PATH_DELIMITER, monitor);
 
         long startTime = System.currentTimeMillis();
 
-        LOG.debug(this + " : unpacking archive file...");
+        LOG.debug(this + " : unpacking archive stream...");
 
         /*
          * TODO: calculate the ADLER32 checksums during decompression and add
@@ -541,8 +568,9 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         try {
             workspace.run(decompressTask);
         } catch (OperationCanceledException e) {
+            // the remote side is still sending the archive
             throw new LocalCancellationException(null,
-                CancelOption.DO_NOT_NOTIFY_PEER);
+                CancelOption.NOTIFY_PEER);
         }
 
         LOG.debug(String.format("unpacked archive in %d s",
@@ -588,12 +616,11 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         startActivityQueuingRequestCollector.cancel();
     }
 
-    private File receiveArchive(
-        ArchiveTransferListener archiveTransferListener, String transferID,
-        IProgressMonitor monitor) throws IOException,
-        SarosCancellationException {
+    private IncomingFileTransfer awaitArchiveTransfer(
+        ArchiveTransferListener archiveTransferListener,
+        IProgressMonitor monitor) throws SarosCancellationException {
 
-        monitor.beginTask("Receiving archive file...", 100);
+        monitor.beginTask("Receiving archive file...", 1);
         LOG.debug("waiting for incoming archive stream request");
 
         monitor
@@ -611,41 +638,9 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             throw new LocalCancellationException();
         }
 
-        monitor.subTask("Receiving archive file...");
-
-        LOG.debug(this + " : receiving archive");
-
-        IncomingFileTransfer transfer = archiveTransferListener.getRequest()
-            .accept();
-
-        File archiveFile = File.createTempFile(
-            "saros_archive_" + System.currentTimeMillis(), null);
-
-        boolean transferFailed = true;
-
-        try {
-            transfer.recieveFile(archiveFile);
-
-            monitorFileTransfer(transfer, monitor);
-            transferFailed = false;
-        } catch (XMPPException e) {
-            throw new IOException(e.getMessage(), e.getCause());
-        } finally {
-            if (transferFailed) {
-                boolean result = archiveFile.delete();
-                if (!result) {
-                    LOG.warn("could not delete archive File "
-                        + archiveFile.getAbsolutePath());
-                }
-            }
-            monitor.done();
-        }
-
-        LOG.debug(this + " : stored archive in file "
-            + archiveFile.getAbsolutePath() + ", size: "
-            + CoreUtils.formatByte(archiveFile.length()));
+        monitor.done();
 
-        return archiveFile;
+        return archiveTransferListener.getRequest().accept();
     }
 
     private void checkProjectMapping(final Map<String, IProject> mapping) {
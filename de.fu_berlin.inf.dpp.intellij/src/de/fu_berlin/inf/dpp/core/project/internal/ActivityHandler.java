@@ -29,20 +29,29 @@ import de.fu_berlin.inf.dpp.activities.IResourceActivity;
 import de.fu_berlin.inf.dpp.activities.ITargetedActivity;
 import de.fu_berlin.inf.dpp.activities.JupiterActivity;
 import de.fu_berlin.inf.dpp.activities.QueueItem;
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.TextSelectionActivity;
+import de.fu_berlin.inf.dpp.activities.ViewportActivity;
 import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentClient;
 import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentServer;
 import de.fu_berlin.inf.dpp.concurrent.management.TransformationResult;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.UISynchronizer;
+import de.fu_berlin.inf.dpp.util.StripedExecutor;
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
 import org.apache.log4j.Logger;
 import org.picocontainer.Startable;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This handler is responsible for handling the correct thread access when
@@ -80,12 +89,24 @@ public final class ActivityHandler implements Startable {
         DISPATCH_MODE = dispatchModeToUse;
     }
 
+    /**
+     * Number of threads that transform the activities of different documents
+     * in parallel on the host.
+     */
+    private static final int TRANSFORMATION_STRIPES = Runtime.getRuntime()
+        .availableProcessors();
+
     private static ConcurrentDocumentClient documentClient;
     private final LinkedBlockingQueue<List<IActivity>> dispatchQueue = new LinkedBlockingQueue<List<IActivity>>();
     private final IActivityHandlerCallback callback;
     private final ISarosSession session;
     private final ConcurrentDocumentServer documentServer;
     private final UISynchronizer synchronizer;
+    /**
+     * Transforms the activities of different documents in parallel, only
+     * available on the host
+     */
+    private StripedExecutor transformationExecutor;
     private final Runnable dispatchThreadRunnable = new Runnable() {
 
         @Override
@@ -108,6 +129,25 @@ public final class ActivityHandler implements Startable {
      */
     private Thread dispatchThread;
 
+    /**
+     * Sends the local text edits that the {@link ConcurrentDocumentClient}
+     * holds back once their merge window has expired
+     */
+    private Timer textEditFlushTimer;
+
+    /**
+     * only accessed in the UI thread
+     */
+    private boolean isTextEditFlushScheduled;
+
+    private final Runnable textEditFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isTextEditFlushScheduled = false;
+            sendPendingTextEdits();
+        }
+    };
+
     public ActivityHandler(ISarosSession session,
         IActivityHandlerCallback callback,
         ConcurrentDocumentServer documentServer,
@@ -133,24 +173,115 @@ public final class ActivityHandler implements Startable {
         List<IActivity> activities) {
 
         if (session.isHost()) {
+            handleIncomingServerActivities(activities);
+            return;
+        }
 
-            /**
-             * @JTourBusStop 8, Activity sending, Activity Server:
-             *
-             *               This is where the server receives activities. The
-             *               Server may transform activities again if necessary
-             *               and afterward sends them to the correct clients.
-             */
+        dispatchIncomingActivities(activities);
+    }
+
+    /**
+     * Transforms and dispatches the activities on the host. Activities of
+     * different documents are transformed in parallel, activities of the same
+     * document are transformed in the order they were received. All other
+     * activities are handled after all previously received activities were
+     * handled.
+     */
+    private void handleIncomingServerActivities(List<IActivity> activities) {
+
+        final Map<SPath, List<IActivity>> documentActivities = new LinkedHashMap<SPath, List<IActivity>>();
+
+        for (IActivity activity : activities) {
+            SPath path = getDocumentPath(activity);
+
+            if (path != null) {
+                List<IActivity> pathActivities = documentActivities.get(path);
 
-            TransformationResult result = directServerActivities(activities);
-            activities = result.getLocalActivities();
-            for (QueueItem item : result.getSendToPeers()) {
+                if (pathActivities == null) {
+                    pathActivities = new ArrayList<IActivity>();
+                    documentActivities.put(path, pathActivities);
+                }
+
+                pathActivities.add(activity);
+                continue;
+            }
+
+            submitServerActivities(documentActivities);
+            documentActivities.clear();
 
-                List<User> recipients = getRecipientsForQueueItem(item);
-                callback.send(recipients, item.activity);
+            try {
+                transformationExecutor.await();
+            } catch (InterruptedException e) {
+                LOG.warn(
+                    "interrupted while waiting for pending transformations");
+                Thread.currentThread().interrupt();
             }
+
+            transformAndDispatchServerActivities(
+                Collections.singletonList(activity));
+        }
+
+        submitServerActivities(documentActivities);
+    }
+
+    private void submitServerActivities(
+        Map<SPath, List<IActivity>> documentActivities) {
+
+        for (Map.Entry<SPath, List<IActivity>> entry : documentActivities
+            .entrySet()) {
+
+            final List<IActivity> activities = entry.getValue();
+
+            transformationExecutor.execute(entry.getKey(),
+                ThreadUtils.wrapSafe(LOG, new Runnable() {
+                    @Override
+                    public void run() {
+                        transformAndDispatchServerActivities(activities);
+                    }
+                }));
+        }
+    }
+
+    private void transformAndDispatchServerActivities(
+        List<IActivity> activities) {
+
+        /**
+         * @JTourBusStop 8, Activity sending, Activity Server:
+         *
+         *               This is where the server receives activities. The
+         *               Server may transform activities again if necessary
+         *               and afterward sends them to the correct clients.
+         */
+
+        TransformationResult result = directServerActivities(activities);
+
+        for (QueueItem item : result.getSendToPeers()) {
+
+            List<User> recipients = getRecipientsForQueueItem(item);
+            callback.send(recipients, item.activity);
+        }
+
+        dispatchIncomingActivities(result.getLocalActivities());
+    }
+
+    /**
+     * Returns the path of the document the activity belongs to if the activity
+     * can be handled concurrently to activities of other documents, otherwise
+     * <code>null</code>.
+     */
+    private static SPath getDocumentPath(IActivity activity) {
+        if (activity instanceof JupiterActivity
+            || activity instanceof ChecksumActivity
+            || activity instanceof TextSelectionActivity
+            || activity instanceof ViewportActivity) {
+            return ((IResourceActivity) activity).getPath();
         }
 
+        return null;
+    }
+
+    private void dispatchIncomingActivities(List<IActivity> activities) {
+
         /**
          * @JTourBusStop 9, Activity sending, Client Receiver:
          *
@@ -243,20 +374,67 @@ public final class ActivityHandler implements Startable {
             @Override
             public void run() {
                 for (IActivity activity : activities) {
+                    sendToHost(documentClient.transformToJupiter(activity));
+                }
 
-                    IActivity transformationResult = documentClient
-                        .transformToJupiter(activity);
+                scheduleTextEditFlush();
+            }
+        }));
+    }
 
-                    callback.send(Collections.singletonList(session.getHost()),
-                        transformationResult);
+    private void sendToHost(List<IActivity> transformedActivities) {
+        for (IActivity transformedActivity : transformedActivities) {
+            callback.send(Collections.singletonList(session.getHost()),
+                transformedActivity);
+        }
+    }
 
+    /**
+     * Sends the text edits that are held back by the document client. Must be
+     * called in the UI thread.
+     */
+    private void sendPendingTextEdits() {
+        if (documentClient.hasPendingTextEdits()) {
+            sendToHost(documentClient.flushTextEdits());
+        }
+    }
+
+    /**
+     * Schedules sending the text edits that are held back by the document
+     * client after their merge window has expired. Must be called in the UI
+     * thread.
+     */
+    private void scheduleTextEditFlush() {
+        if (isTextEditFlushScheduled || !documentClient
+            .hasPendingTextEdits()) {
+            return;
+        }
+
+        try {
+            textEditFlushTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    synchronizer.asyncExec(
+                        ThreadUtils.wrapSafe(LOG, textEditFlushRunnable));
                 }
-            }
-        }));
+            }, ConcurrentDocumentClient.TEXT_EDIT_MERGE_WINDOW);
+
+            isTextEditFlushScheduled = true;
+        } catch (IllegalStateException e) {
+            // handler is already stopped
+            LOG.warn("dropping pending text edits, handler is stopped");
+        }
     }
 
     @Override
     public void start() {
+        textEditFlushTimer = new Timer("TextEditFlusher", true);
+
+        if (session.isHost()) {
+            transformationExecutor = new StripedExecutor(
+                "ActivityTransformer", TRANSFORMATION_STRIPES);
+        }
+
         if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) {
             return;
         }
@@ -267,6 +445,12 @@ public final class ActivityHandler implements Startable {
 
     @Override
     public void stop() {
+        textEditFlushTimer.cancel();
+
+        if (transformationExecutor != null) {
+            stopTransformationExecutor();
+        }
+
         if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) {
             return;
         }
@@ -286,6 +470,21 @@ public final class ActivityHandler implements Startable {
         }
     }
 
+    private void stopTransformationExecutor() {
+        transformationExecutor.shutdown();
+
+        try {
+            if (!transformationExecutor
+                .awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.error("pending activity transformations did not finish");
+            }
+        } catch (InterruptedException e) {
+            LOG.warn(
+                "interrupted while waiting for pending activity transformations");
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Executes the current activities by dispatching the received activities to
      * the SWT EDT.
@@ -377,6 +576,11 @@ public final class ActivityHandler implements Startable {
                     }
                 }
 
+                /*
+                 * the document client passes held back text edits to Jupiter
+                 * before it transforms a remote operation
+                 */
+                sendPendingTextEdits();
             }
         };
 
@@ -412,6 +616,12 @@ public final class ActivityHandler implements Startable {
         final List<User> remoteUsers = session.getRemoteUsers();
         final List<User> allUsers = session.getUsers();
 
+        /*
+         * consecutive document activities are transformed at once, so the
+         * server can merge the operations of a typing burst
+         */
+        final List<IActivity> documentActivities = new ArrayList<IActivity>();
+
         for (IActivity activity : activities) {
 
             if (activity instanceof FileActivity) {
@@ -421,8 +631,17 @@ public final class ActivityHandler implements Startable {
             if (activity instanceof JupiterActivity
                 || activity instanceof ChecksumActivity) {
 
-                result.addAll(documentServer.transformIncoming(activity));
-            } else if (activity instanceof ITargetedActivity) {
+                documentActivities.add(activity);
+                continue;
+            }
+
+            if (!documentActivities.isEmpty()) {
+                result.addAll(
+                    documentServer.transformIncoming(documentActivities));
+                documentActivities.clear();
+            }
+
+            if (activity instanceof ITargetedActivity) {
                 ITargetedActivity target = (ITargetedActivity) activity;
                 result.add(new QueueItem(target.getTarget(), activity));
 
@@ -445,6 +664,11 @@ public final class ActivityHandler implements Startable {
                 result.executeLocally.add(activity);
             }
         }
+
+        if (!documentActivities.isEmpty()) {
+            result.addAll(documentServer.transformIncoming(documentActivities));
+        }
+
         return result;
     }
 }
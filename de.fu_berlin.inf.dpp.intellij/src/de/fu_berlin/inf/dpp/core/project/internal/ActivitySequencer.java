@@ -25,6 +25,9 @@ package de.fu_berlin.inf.dpp.core.project.internal;
 import de.fu_berlin.inf.dpp.activities.IActivity;
 import de.fu_berlin.inf.dpp.communication.extensions.ActivitiesExtension;
 import de.fu_berlin.inf.dpp.core.util.ActivityUtils;
+import de.fu_berlin.inf.dpp.misc.binary.ActivitiesExtensionCodec;
+import de.fu_berlin.inf.dpp.misc.binary.ActivitiesExtensionCodec.BroadcastEncoder;
+import de.fu_berlin.inf.dpp.misc.binary.IBinaryCodec;
 import de.fu_berlin.inf.dpp.net.DispatchThreadContext;
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
@@ -32,6 +35,7 @@ import de.fu_berlin.inf.dpp.net.xmpp.JID;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.packet.Packet;
@@ -77,6 +81,8 @@ public class ActivitySequencer implements Startable {
     private final ITransmitter transmitter;
     private final IReceiver receiver;
     private final DispatchThreadContext dispatchThread;
+
+    private final VersionManager versionManager;
     private final Map<JID, ActivityBuffer<SequencedActivity>> bufferedIncomingActivities;
     private final Map<JID, ActivityBuffer<IActivity>> bufferedOutgoingActivities;
     private volatile IActivitySequencerCallback callback;
@@ -133,11 +139,7 @@ public class ActivitySequencer implements Startable {
                     }
                 }
 
-                for (Map.Entry<JID, SequencedActivities> e : activitiesToSend
-                    .entrySet()) {
-                    sendActivities(e.getKey(), e.getValue().activites,
-                        e.getValue().sequenceNumber);
-                }
+                sendActivities(activitiesToSend);
 
                 synchronized (bufferedOutgoingActivities) {
                     for (Map.Entry<JID, ActivityBuffer<IActivity>> entry : bufferedOutgoingActivities
@@ -162,9 +164,11 @@ public class ActivitySequencer implements Startable {
 
     public ActivitySequencer(final ISarosSession sarosSession,
         final ITransmitter transmitter, final IReceiver receiver,
-        final DispatchThreadContext threadContext) {
+        final DispatchThreadContext threadContext,
+        final VersionManager versionManager) {
 
         this.dispatchThread = threadContext;
+        this.versionManager = versionManager;
         this.sarosSession = sarosSession;
         this.transmitter = transmitter;
         this.receiver = receiver;
@@ -489,16 +493,34 @@ public class ActivitySequencer implements Startable {
         }
     }
 
+    /**
+     * Sends the activities to their recipients. The host usually sends the
+     * same activities or the same transformed operations to several
+     * participants, so the binary representations of all recipients are
+     * created by one {@link BroadcastEncoder} that encodes these parts only
+     * once.
+     */
+    private void sendActivities(Map<JID, SequencedActivities> activitiesToSend) {
+
+        final BroadcastEncoder encoder = activitiesToSend.size() > 1 ? createBroadcastEncoder()
+            : null;
+
+        for (Map.Entry<JID, SequencedActivities> e : activitiesToSend
+            .entrySet()) {
+            sendActivities(e.getKey(), e.getValue().activites,
+                e.getValue().sequenceNumber, encoder);
+        }
+    }
+
     private void sendActivities(JID recipient, List<IActivity> activities,
-        int sequenceNumber) {
+        int sequenceNumber, BroadcastEncoder encoder) {
 
         if (activities.size() == 0) {
             return;
         }
 
-        PacketExtension activityPacketExtension = ActivitiesExtension.PROVIDER
-            .create(new ActivitiesExtension(currentSessionID, activities,
-                sequenceNumber));
+        ActivitiesExtension extension = new ActivitiesExtension(
+            currentSessionID, activities, sequenceNumber);
 
         String msg = "send (" + String.format("%03d", activities.size()) + ") "
             + recipient + " -> " + activities;
@@ -511,6 +533,19 @@ public class ActivitySequencer implements Startable {
         }
 
         try {
+            PacketExtension activityPacketExtension;
+
+            if (!isBinaryEncodingSupported(recipient)) {
+                activityPacketExtension = ActivitiesExtension.PROVIDER
+                    .create(extension);
+            } else if (encoder == null) {
+                activityPacketExtension = ActivitiesExtension.BINARY_PROVIDER
+                    .create(extension);
+            } else {
+                activityPacketExtension = ActivitiesExtension.BINARY_PROVIDER
+                    .create(extension, encoder.encode(extension));
+            }
+
             transmitter.send(ISarosSession.SESSION_CONNECTION_ID, recipient,
                 activityPacketExtension);
         } catch (IOException e) {
@@ -529,6 +564,33 @@ public class ActivitySequencer implements Startable {
         }
     }
 
+    /**
+     * Returns whether the activities for the given recipient can be sent in
+     * their binary representation. Older peers only understand the XStream
+     * representation.
+     */
+    private boolean isBinaryEncodingSupported(JID recipient) {
+        return versionManager != null
+            && ActivitiesExtension.BINARY_PROVIDER.isCodecAvailable()
+            && versionManager.isFeatureSupported(recipient,
+                VersionManager.BINARY_ACTIVITIES_FEATURE);
+    }
+
+    /**
+     * Returns a new broadcast encoder of the currently registered binary codec
+     * or <code>null</code> if the codec does not support broadcasts.
+     */
+    private static BroadcastEncoder createBroadcastEncoder() {
+        IBinaryCodec<ActivitiesExtension> codec = ActivitiesExtension.BINARY_PROVIDER
+            .getCodec();
+
+        if (!(codec instanceof ActivitiesExtensionCodec)) {
+            return null;
+        }
+
+        return ((ActivitiesExtensionCodec) codec).createBroadcastEncoder();
+    }
+
     private void receiveActivities(Packet activityPacket) {
 
         /* *
@@ -29,6 +29,7 @@ import de.fu_berlin.inf.dpp.session.User;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class is responsible for mapping global project IDs to local
@@ -50,14 +51,42 @@ public class SarosProjectMapper {
         .getLogger(SarosProjectMapper.class);
 
     /**
-     * Mapping from project IDs to currently registered shared projects.
+     * Immutable view of the currently shared projects. It is replaced as a
+     * whole when a project is added or removed, so the lookup methods never
+     * have to acquire the lock of the mapper.
      */
-    private Map<String, IProject> idToProjectMapping = new HashMap<String, IProject>();
+    private static final class Snapshot {
+
+        /**
+         * Mapping from project IDs to currently registered shared projects.
+         */
+        private final Map<String, IProject> idToProjectMapping;
+
+        /**
+         * Mapping from currently registered shared projects to their id's.
+         */
+        private final Map<IProject, String> projectToIDMapping;
+
+        /**
+         * Map containing the partially shared resources for each shared
+         * project. The value is <code>null</code> for completely shared
+         * projects. The sets are thread safe and modified in place.
+         */
+        private final Map<IProject, Set<IResource>> partiallySharedResourceMapping;
+
+        private Snapshot(Map<String, IProject> idToProjectMapping,
+            Map<IProject, String> projectToIDMapping,
+            Map<IProject, Set<IResource>> partiallySharedResourceMapping) {
+            this.idToProjectMapping = idToProjectMapping;
+            this.projectToIDMapping = projectToIDMapping;
+            this.partiallySharedResourceMapping = partiallySharedResourceMapping;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(
+        new HashMap<String, IProject>(), new HashMap<IProject, String>(),
+        new HashMap<IProject, Set<IResource>>());
 
-    /**
-     * Mapping from currently registered shared projects to their id's.
-     */
-    private Map<IProject, String> projectToIDMapping = new HashMap<IProject, String>();
     /**
      * Mapping of which user shared which project in the session. Needed for
      * partial sharing when the Needbased Feature is enabled.
@@ -81,22 +110,6 @@ public class SarosProjectMapper {
      */
     private HashMap<User, List<String>> projectsOfUsers = new HashMap<User, List<String>>();
 
-    /**
-     * Map containing the partially shared resources for each shared project.
-     * The value is <code>null</code> for completely shared projects.
-     */
-    private HashMap<IProject, Set<IResource>> partiallySharedResourceMapping = new HashMap<IProject, Set<IResource>>();
-
-    /**
-     * Set containing the currently completely shared projects.
-     */
-    private Set<IProject> completelySharedProjects = new HashSet<IProject>();
-
-    /**
-     * Set containing the currently partially shared projects.
-     */
-    private Set<IProject> partiallySharedProjects = new HashSet<IProject>();
-
     public SarosProjectMapper() {
         // NOP
     }
@@ -119,7 +132,6 @@ public class SarosProjectMapper {
      */
     public synchronized void addProject(String id, IProject project,
         boolean isPartially) {
-        boolean upgrade = false;
 
         if (id == null) {
             throw new NullPointerException("id is null");
@@ -129,8 +141,10 @@ public class SarosProjectMapper {
             throw new NullPointerException("project is null");
         }
 
-        String currentProjectID = projectToIDMapping.get(project);
-        IProject currentProject = idToProjectMapping.get(id);
+        final Snapshot current = snapshot;
+
+        String currentProjectID = current.projectToIDMapping.get(project);
+        IProject currentProject = current.idToProjectMapping.get(id);
 
         if (currentProjectID != null && !id.equals(currentProjectID)) {
             throw new IllegalStateException(
@@ -147,40 +161,48 @@ public class SarosProjectMapper {
             );
         }
 
-        if (isPartially && partiallySharedProjects.contains(project)) {
+        if (isPartially && isPartiallyShared(project)) {
             throw new IllegalStateException(
                 "project " + project + " is already partially shared");
         }
 
-        if (!isPartially && completelySharedProjects.contains(project)) {
+        if (!isPartially && isCompletelyShared(project)) {
             throw new IllegalStateException(
                 "project " + project + " is already completely shared");
         }
 
-        if (isPartially && completelySharedProjects.contains(project)) {
+        if (isPartially && isCompletelyShared(project)) {
             throw new IllegalStateException("project " + project
                 + " is already completely shared (cannot downgrade a completely shared project)"
             );
         }
 
-        if (!isPartially && partiallySharedProjects.contains(project)) {
-            partiallySharedProjects.remove(project);
-            upgrade = true;
-        }
+        final boolean upgrade = !isPartially && isPartiallyShared(project);
 
-        if (isPartially) {
-            partiallySharedProjects.add(project);
-        } else {
-            completelySharedProjects.add(project);
+        Map<String, IProject> idToProjectMapping = current.idToProjectMapping;
+        Map<IProject, String> projectToIDMapping = current.projectToIDMapping;
+
+        if (!upgrade) {
+            idToProjectMapping = new HashMap<String, IProject>(
+                idToProjectMapping);
+            projectToIDMapping = new HashMap<IProject, String>(
+                projectToIDMapping);
+
+            idToProjectMapping.put(id, project);
+            projectToIDMapping.put(project, id);
         }
 
-        assert Collections
-            .disjoint(completelySharedProjects, partiallySharedProjects);
+        Map<IProject, Set<IResource>> partiallySharedResourceMapping = new HashMap<IProject, Set<IResource>>(
+            current.partiallySharedResourceMapping);
 
-        if (upgrade) {
-            // release resources
-            partiallySharedResourceMapping.put(project, null);
+        // an upgrade releases the resources
+        partiallySharedResourceMapping
+            .put(project, isPartially ? createResourceSet() : null);
 
+        snapshot = new Snapshot(idToProjectMapping, projectToIDMapping,
+            partiallySharedResourceMapping);
+
+        if (upgrade) {
             LOG.debug(
                 "upgraded partially shared project " + project + " with ID "
                     + id + " to a completely shared project"
@@ -188,16 +210,6 @@ public class SarosProjectMapper {
             return;
         }
 
-        idToProjectMapping.put(id, project);
-        projectToIDMapping.put(project, id);
-
-        if (isPartially) {
-            partiallySharedResourceMapping
-                .put(project, new HashSet<IResource>());
-        } else {
-            partiallySharedResourceMapping.put(project, null);
-        }
-
         LOG.debug("added project " + project + " with ID " + id
             + " [completely shared:" + !isPartially + "]");
     }
@@ -209,7 +221,9 @@ public class SarosProjectMapper {
      * @param id the id of the project to removeAll
      */
     public synchronized void removeProject(String id) {
-        IProject project = idToProjectMapping.get(id);
+        final Snapshot current = snapshot;
+
+        IProject project = current.idToProjectMapping.get(id);
 
         if (project == null) {
             LOG.warn(
@@ -219,16 +233,20 @@ public class SarosProjectMapper {
             return;
         }
 
-        if (partiallySharedProjects.contains(project)) {
-            partiallySharedProjects.remove(project);
-        } else {
-            completelySharedProjects.remove(project);
-        }
+        Map<String, IProject> idToProjectMapping = new HashMap<String, IProject>(
+            current.idToProjectMapping);
+        Map<IProject, String> projectToIDMapping = new HashMap<IProject, String>(
+            current.projectToIDMapping);
+        Map<IProject, Set<IResource>> partiallySharedResourceMapping = new HashMap<IProject, Set<IResource>>(
+            current.partiallySharedResourceMapping);
 
         idToProjectMapping.remove(id);
         projectToIDMapping.remove(project);
         partiallySharedResourceMapping.remove(project);
 
+        snapshot = new Snapshot(idToProjectMapping, projectToIDMapping,
+            partiallySharedResourceMapping);
+
         LOG.debug("removed project " + project + " with ID " + id);
 
     }
@@ -294,7 +312,7 @@ public class SarosProjectMapper {
     public synchronized void addResources(IProject project,
         Collection<? extends IResource> resources) {
 
-        if (projectToIDMapping.get(project) == null) {
+        if (getID(project) == null) {
             LOG.warn("could not add resources to project " + project
                 + " because it is not shared");
             // throw new IllegalStateException(
@@ -303,7 +321,7 @@ public class SarosProjectMapper {
             return;
         }
 
-        if (completelySharedProjects.contains(project)) {
+        if (isCompletelyShared(project)) {
             LOG.warn("cannot add resources to completely shared project: "
                 + project);
             // throw new IllegalStateException(
@@ -311,18 +329,7 @@ public class SarosProjectMapper {
             return;
         }
 
-        Set<IResource> partiallySharedResources = partiallySharedResourceMapping
-            .get(project);
-
-        if (partiallySharedResources.isEmpty()) {
-            partiallySharedResources = new HashSet<IResource>(
-                Math.max(1024, (resources.size() * 3) / 2));
-
-            partiallySharedResourceMapping
-                .put(project, partiallySharedResources);
-        }
-
-        partiallySharedResources.addAll(resources);
+        snapshot.partiallySharedResourceMapping.get(project).addAll(resources);
     }
 
     /**
@@ -340,7 +347,7 @@ public class SarosProjectMapper {
     public synchronized void removeResources(IProject project,
         Collection<? extends IResource> resources) {
 
-        if (projectToIDMapping.get(project) == null) {
+        if (getID(project) == null) {
             LOG.warn("could not removeAll resources from project " + project
                 + " because it is not shared");
             // throw new IllegalStateException(
@@ -349,7 +356,7 @@ public class SarosProjectMapper {
             return;
         }
 
-        if (completelySharedProjects.contains(project)) {
+        if (isCompletelyShared(project)) {
             LOG.warn(
                 "cannot removeAll resources from completely shared project: "
                     + project
@@ -360,15 +367,14 @@ public class SarosProjectMapper {
             return;
         }
 
-        Set<IResource> partiallySharedResources = partiallySharedResourceMapping
-            .get(project);
-
-        partiallySharedResources.removeAll(resources);
+        snapshot.partiallySharedResourceMapping.get(project)
+            .removeAll(resources);
     }
 
     /**
-     * Atomically removes and adds resources. The resources to removeAll will be
-     * removed first before the resources to add will be added.
+     * Removes and adds resources. The resources to removeAll will be removed
+     * first before the resources to add will be added. Concurrent calls of
+     * {@link #isShared(IResource)} may observe the state in between.
      *
      * @param project           a project that was added as a partially shared project
      * @param resourcesToRemove the resources to removeAll
@@ -395,8 +401,8 @@ public class SarosProjectMapper {
      * @return the ID for the shared project or <code>null</code> if the project
      * is not shared
      */
-    public synchronized String getID(IProject project) {
-        return projectToIDMapping.get(project);
+    public String getID(IProject project) {
+        return snapshot.projectToIDMapping.get(project);
     }
 
     /**
@@ -406,8 +412,8 @@ public class SarosProjectMapper {
      * @return the shared project for the given ID or <code>null</code> if no
      * shared project is registered with this ID
      */
-    public synchronized IProject getProject(String id) {
-        return idToProjectMapping.get(id);
+    public IProject getProject(String id) {
+        return snapshot.idToProjectMapping.get(id);
     }
 
     /**
@@ -417,28 +423,32 @@ public class SarosProjectMapper {
      * @param resource
      * @return
      */
-    public synchronized boolean isShared(IResource resource) {
+    public boolean isShared(IResource resource) {
         if (resource == null) {
             return false;
         }
 
+        final Snapshot current = snapshot;
+
         if (resource.getType() == IResource.PROJECT) {
-            return idToProjectMapping.containsValue(resource);
+            return current.projectToIDMapping.containsKey(resource);
         }
 
         IProject project = resource.getProject();
 
-        if (!idToProjectMapping.containsValue(project)) {
+        if (!current.partiallySharedResourceMapping.containsKey(project)) {
             return false;
         }
 
-        if (isCompletelyShared(project))
+        Set<IResource> partiallySharedResources = current.partiallySharedResourceMapping
+            .get(project);
+
+        if (partiallySharedResources == null)
         // TODO how should partial sharing handle this case ?
         {
             return !resource.isDerived(true);
         } else {
-            return partiallySharedResourceMapping.get(project)
-                .contains(resource);
+            return partiallySharedResources.contains(resource);
         }
     }
 
@@ -447,8 +457,8 @@ public class SarosProjectMapper {
      *
      * @return
      */
-    public synchronized Set<IProject> getProjects() {
-        return new HashSet<IProject>(idToProjectMapping.values());
+    public Set<IProject> getProjects() {
+        return new HashSet<IProject>(snapshot.idToProjectMapping.values());
     }
 
     /**
@@ -456,11 +466,12 @@ public class SarosProjectMapper {
      *
      * @return
      */
-    public synchronized List<IResource> getPartiallySharedResources() {
+    public List<IResource> getPartiallySharedResources() {
+        final Snapshot current = snapshot;
 
         int size = 0;
 
-        for (Set<IResource> resources : partiallySharedResourceMapping
+        for (Set<IResource> resources : current.partiallySharedResourceMapping
             .values()) {
             if (resources != null) {
                 size += resources.size();
@@ -470,7 +481,7 @@ public class SarosProjectMapper {
         List<IResource> partiallySharedResources = new ArrayList<IResource>(
             size);
 
-        for (Set<IResource> resources : partiallySharedResourceMapping
+        for (Set<IResource> resources : current.partiallySharedResourceMapping
             .values()) {
             if (resources != null) {
                 partiallySharedResources.addAll(resources);
@@ -485,8 +496,8 @@ public class SarosProjectMapper {
      *
      * @return
      */
-    public synchronized int size() {
-        return idToProjectMapping.size();
+    public int size() {
+        return snapshot.idToProjectMapping.size();
     }
 
     /**
@@ -496,11 +507,11 @@ public class SarosProjectMapper {
      *
      * @return
      */
-    public synchronized Map<IProject, List<IResource>> getProjectResourceMapping() {
+    public Map<IProject, List<IResource>> getProjectResourceMapping() {
 
         Map<IProject, List<IResource>> result = new HashMap<IProject, List<IResource>>();
 
-        for (Map.Entry<IProject, Set<IResource>> entry : partiallySharedResourceMapping
+        for (Map.Entry<IProject, Set<IResource>> entry : snapshot.partiallySharedResourceMapping
             .entrySet()) {
 
             List<IResource> partiallySharedResources = null;
@@ -523,8 +534,11 @@ public class SarosProjectMapper {
      * @return <code>true</code> if the project is completely shared,
      * <code>false</code> if the project is not or partially shared
      */
-    public synchronized boolean isCompletelyShared(IProject project) {
-        return completelySharedProjects.contains(project);
+    public boolean isCompletelyShared(IProject project) {
+        final Snapshot current = snapshot;
+
+        return current.partiallySharedResourceMapping.containsKey(project)
+            && current.partiallySharedResourceMapping.get(project) == null;
     }
 
     /**
@@ -534,8 +548,8 @@ public class SarosProjectMapper {
      * @return <code>true</code> if the project is partially shared,
      * <code>false</code> if the project is not or completely shared
      */
-    public synchronized boolean isPartiallyShared(IProject project) {
-        return partiallySharedProjects.contains(project);
+    public boolean isPartiallyShared(IProject project) {
+        return snapshot.partiallySharedResourceMapping.get(project) != null;
     }
 
     /**
@@ -558,10 +572,8 @@ public class SarosProjectMapper {
      * @param user
      */
     public synchronized void addMissingProjectsToUser(User user) {
-        List<String> projects = new ArrayList<String>();
-        for (String project : idToProjectMapping.keySet()) {
-            projects.add(project);
-        }
+        List<String> projects = new ArrayList<String>(
+            snapshot.idToProjectMapping.keySet());
 
         this.projectsOfUsers.put(user, projects);
     }
@@ -572,4 +584,9 @@ public class SarosProjectMapper {
     public void userLeft(User user) {
         projectsOfUsers.remove(user);
     }
+
+    private static Set<IResource> createResourceSet() {
+        return Collections
+            .newSetFromMap(new ConcurrentHashMap<IResource, Boolean>(1024));
+    }
 }
@@ -47,6 +47,7 @@ import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
 import de.fu_berlin.inf.dpp.filesystem.IProject;
 import de.fu_berlin.inf.dpp.filesystem.IResource;
 import de.fu_berlin.inf.dpp.intellij.project.SharedResourcesManager;
+import de.fu_berlin.inf.dpp.misc.binary.ActivitiesExtensionCodec;
 import de.fu_berlin.inf.dpp.misc.xstream.SPathConverter;
 import de.fu_berlin.inf.dpp.misc.xstream.UserConverter;
 import de.fu_berlin.inf.dpp.net.IConnectionManager;
@@ -55,6 +56,7 @@ import de.fu_berlin.inf.dpp.net.xmpp.JID;
 import de.fu_berlin.inf.dpp.net.xmpp.XMPPConnectionService;
 import de.fu_berlin.inf.dpp.observables.SessionIDObservable;
 import de.fu_berlin.inf.dpp.preferences.IPreferences;
+import de.fu_berlin.inf.dpp.session.ActivityRoutingTable;
 import de.fu_berlin.inf.dpp.session.IActivityConsumer;
 import de.fu_berlin.inf.dpp.session.IActivityListener;
 import de.fu_berlin.inf.dpp.session.IActivityProducer;
@@ -96,7 +98,7 @@ public final class SarosSession implements ISarosSession {
     private final ConcurrentDocumentServer concurrentDocumentServer;
     private final ActivityHandler activityHandler;
     private final CopyOnWriteArrayList<IActivityProducer> activityProducers = new CopyOnWriteArrayList<IActivityProducer>();
-    private final CopyOnWriteArrayList<IActivityConsumer> activityConsumers = new CopyOnWriteArrayList<IActivityConsumer>();
+    private final ActivityRoutingTable activityConsumers = new ActivityRoutingTable();
     private final IActivityHandlerCallback activityCallback = new IActivityHandlerCallback() {
 
         @Override
@@ -111,12 +113,15 @@ public final class SarosSession implements ISarosSession {
              *
              *               Afterwards every registered ActivityConsumer is
              *               informed about the remote activity that should be
-             *               executed locally.
+             *               executed locally. The routing table only returns
+             *               the consumers that handle the type of activity.
              */
-            for (IActivityConsumer consumer : activityConsumers) {
+            for (IActivityConsumer consumer : activityConsumers
+                .getConsumers(activity)) {
                 consumer.exec(activity);
-                updatePartialSharedResources(activity);
             }
+
+            updatePartialSharedResources(activity);
         }
     };
     /* Instance fields */
@@ -171,6 +176,7 @@ public final class SarosSession implements ISarosSession {
     private boolean stopped = false;
     private SPathConverter pathConverter;
     private UserConverter userConverter;
+    private ActivitiesExtensionCodec activitiesCodec;
 
     // FIXME those parameter passing feels strange, find a better way
 
@@ -666,6 +672,9 @@ public final class SarosSession implements ISarosSession {
         userConverter = new UserConverter(this);
         ActivitiesExtension.PROVIDER.registerConverter(userConverter);
 
+        activitiesCodec = new ActivitiesExtensionCodec(this, pathFactory);
+        ActivitiesExtension.BINARY_PROVIDER.registerCodec(activitiesCodec);
+
         synchronized (componentAccessLock) {
             started = true;
         }
@@ -717,6 +726,7 @@ public final class SarosSession implements ISarosSession {
         // TODO Pull that out
         ActivitiesExtension.PROVIDER.unregisterConverter(pathConverter);
         ActivitiesExtension.PROVIDER.unregisterConverter(userConverter);
+        ActivitiesExtension.BINARY_PROVIDER.unregisterCodec(activitiesCodec);
     }
 
     @Override
@@ -938,7 +948,7 @@ public final class SarosSession implements ISarosSession {
 
     @Override
     public void addActivityConsumer(IActivityConsumer consumer) {
-        activityConsumers.addIfAbsent(consumer);
+        activityConsumers.add(consumer);
     }
 
     @Override
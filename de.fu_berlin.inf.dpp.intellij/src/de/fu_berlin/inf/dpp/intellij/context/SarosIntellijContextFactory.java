@@ -1,5 +1,6 @@
 package de.fu_berlin.inf.dpp.intellij.context;
 
+import com.intellij.openapi.application.PathManager;
 import de.fu_berlin.inf.dpp.AbstractSarosContextFactory;
 import de.fu_berlin.inf.dpp.ISarosContextBindings;
 import de.fu_berlin.inf.dpp.communication.connection.IProxyResolver;
@@ -12,11 +13,11 @@ import de.fu_berlin.inf.dpp.core.ui.eventhandler.UserStatusChangeHandler;
 import de.fu_berlin.inf.dpp.core.ui.eventhandler.XMPPAuthorizationHandler;
 import de.fu_berlin.inf.dpp.core.util.FileUtils;
 import de.fu_berlin.inf.dpp.editor.IEditorManager;
-import de.fu_berlin.inf.dpp.filesystem.ChecksumCacheImpl;
 import de.fu_berlin.inf.dpp.filesystem.IChecksumCache;
 import de.fu_berlin.inf.dpp.filesystem.IFileContentChangedNotifier;
 import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
 import de.fu_berlin.inf.dpp.filesystem.IWorkspace;
+import de.fu_berlin.inf.dpp.filesystem.PersistentChecksumCache;
 import de.fu_berlin.inf.dpp.intellij.editor.EditorAPI;
 import de.fu_berlin.inf.dpp.intellij.editor.EditorManager;
 import de.fu_berlin.inf.dpp.intellij.editor.LocalEditorHandler;
@@ -35,7 +36,10 @@ import de.fu_berlin.inf.dpp.synchronize.UISynchronizer;
 import de.fu_berlin.inf.dpp.ui.manager.IDialogManager;
 import org.picocontainer.BindKey;
 import org.picocontainer.MutablePicoContainer;
+import org.picocontainer.parameters.ComponentParameter;
+import org.picocontainer.parameters.ConstantParameter;
 
+import java.io.File;
 import java.util.Arrays;
 
 /**
@@ -43,6 +47,9 @@ import java.util.Arrays;
  */
 public class SarosIntellijContextFactory extends AbstractSarosContextFactory {
 
+    private static final String CHECKSUM_STORE = "saros" + File.separator
+        + "checksums.dat";
+
     private Saros saros;
 
     private final Component[] components = new Component[] {
@@ -63,8 +70,6 @@ public class SarosIntellijContextFactory extends AbstractSarosContextFactory {
         Component.create(UserStatusChangeHandler.class),
         Component.create(XMPPAuthorizationHandler.class),
 
-        Component.create(IChecksumCache.class, ChecksumCacheImpl.class),
-
         Component.create(UISynchronizer.class, IntelliJSynchronizer.class),
 
         Component.create(IFileContentChangedNotifier.class,
@@ -101,6 +106,11 @@ public class SarosIntellijContextFactory extends AbstractSarosContextFactory {
                 component.getImplementation());
         }
 
+        container.addComponent(IChecksumCache.class,
+            PersistentChecksumCache.class, ComponentParameter.DEFAULT,
+            new ConstantParameter(
+                new File(PathManager.getSystemPath(), CHECKSUM_STORE)));
+
         container.addComponent(saros);
 
         container.addComponent(BindKey.bindKey(String.class,
@@ -23,6 +23,7 @@
 package de.fu_berlin.inf.dpp.intellij.ui.wizards;
 
 import com.intellij.util.ui.UIUtil;
+import de.fu_berlin.inf.dpp.core.exceptions.OperationCanceledException;
 import de.fu_berlin.inf.dpp.core.invitation.IncomingProjectNegotiation;
 import de.fu_berlin.inf.dpp.filesystem.IChecksumCache;
 import de.fu_berlin.inf.dpp.filesystem.IProject;
@@ -57,6 +58,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Wizard for adding projects to a session.
@@ -273,17 +275,29 @@ public class AddProjectToSessionWizard extends Wizard {
         final Map<String, IProject> projectMapping) {
 
         final Map<String, FileListDiff> modifiedResources = new HashMap<String, FileListDiff>();
+        final AtomicBoolean canceled = new AtomicBoolean();
 
         runTask(new Runnable() {
                     @Override
                     public void run() {
-                        modifiedResources.putAll(
-                            getModifiedResourcesFromMofifiableProjects(
-                                projectMapping, new NullProgressMonitor())
-                        );
+                        try {
+                            modifiedResources.putAll(
+                                getModifiedResourcesFromMofifiableProjects(
+                                    projectMapping, new NullProgressMonitor())
+                            );
+                        } catch (OperationCanceledException e) {
+                            canceled.set(true);
+                        }
                     }
                 }, "Gathering files that have to be modified..."
         );
+
+        if (canceled.get()) {
+            LOG.debug("computing the local file list was canceled");
+            fileListPageListener.cancel();
+            return;
+        }
+
         fillFileListPage(modifiedResources);
     }
 
@@ -314,6 +328,8 @@ public class AddProjectToSessionWizard extends Wizard {
 
     /**
      * Creates a FileListDiff for all projects that will be modified.
+     *
+     * @throws OperationCanceledException if the computation was canceled
      */
     private Map<String, FileListDiff> getModifiedResourcesFromMofifiableProjects(
         Map<String, IProject> projectMapping, IProgressMonitor monitor) {
@@ -381,6 +397,8 @@ public class AddProjectToSessionWizard extends Wizard {
      *
      * <b>Important:</b> Do not call this inside the UI Thread. This is a long
      * running operation !
+     *
+     * @throws OperationCanceledException if the computation was canceled
      */
     private Map<String, FileListDiff> getModifiedResources(
         Map<String, IProject> projectMapping, IProgressMonitor monitor) {
@@ -443,6 +461,11 @@ public class AddProjectToSessionWizard extends Wizard {
                 }
 
             } catch (IOException e) {
+                if (monitor.isCanceled() || Thread.currentThread()
+                    .isInterrupted()) {
+                    throw new OperationCanceledException();
+                }
+
                 LOG.warn("could not refresh project: " + project, e);
             }
         }
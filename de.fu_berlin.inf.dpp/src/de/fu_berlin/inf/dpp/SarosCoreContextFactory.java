@@ -28,6 +28,7 @@ import de.fu_berlin.inf.dpp.net.internal.IBBTransport;
 import de.fu_berlin.inf.dpp.net.internal.ITransport;
 import de.fu_berlin.inf.dpp.net.internal.Socks5Transport;
 import de.fu_berlin.inf.dpp.net.internal.TCPServer;
+import de.fu_berlin.inf.dpp.net.internal.TCPTransport;
 import de.fu_berlin.inf.dpp.net.internal.XMPPReceiver;
 import de.fu_berlin.inf.dpp.net.internal.XMPPTransmitter;
 import de.fu_berlin.inf.dpp.net.mdns.MDNSService;
@@ -100,6 +101,9 @@ public class SarosCoreContextFactory extends AbstractSarosContextFactory {
                 ISarosContextBindings.Socks5Transport.class),
                 Socks5Transport.class),
 
+        Component.create(BindKey.bindKey(ITransport.class,
+            ISarosContextBindings.TCPTransport.class), TCPTransport.class),
+
         Component.create(RosterTracker.class),
         Component.create(XMPPConnectionService.class),
         Component.create(MDNSService.class),
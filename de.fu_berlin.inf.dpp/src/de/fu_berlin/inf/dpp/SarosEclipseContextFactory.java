@@ -1,5 +1,6 @@
 package de.fu_berlin.inf.dpp;
 
+import java.io.File;
 import java.util.Arrays;
 
 import org.eclipse.core.resources.ResourcesPlugin;
@@ -16,13 +17,13 @@ import de.fu_berlin.inf.dpp.concurrent.watchdog.ConsistencyWatchdogClient;
 import de.fu_berlin.inf.dpp.editor.EditorManager;
 import de.fu_berlin.inf.dpp.editor.IEditorManager;
 import de.fu_berlin.inf.dpp.editor.internal.EditorAPI;
-import de.fu_berlin.inf.dpp.filesystem.ChecksumCacheImpl;
 import de.fu_berlin.inf.dpp.filesystem.EclipsePathFactory;
 import de.fu_berlin.inf.dpp.filesystem.EclipseWorkspaceImpl;
 import de.fu_berlin.inf.dpp.filesystem.FileContentNotifierBridge;
 import de.fu_berlin.inf.dpp.filesystem.IChecksumCache;
 import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
 import de.fu_berlin.inf.dpp.filesystem.IWorkspace;
+import de.fu_berlin.inf.dpp.filesystem.PersistentChecksumCache;
 import de.fu_berlin.inf.dpp.monitoring.remote.RemoteProgressManager;
 import de.fu_berlin.inf.dpp.preferences.EclipsePreferences;
 import de.fu_berlin.inf.dpp.preferences.IPreferences;
@@ -50,6 +51,12 @@ import de.fu_berlin.inf.dpp.vcs.VCSProviderFactory;
 // TODO class is misplaced in the current package along with Saros Eclipse stuff
 public class SarosEclipseContextFactory extends AbstractSarosContextFactory {
 
+    /**
+     * Name of the file in the state location of the plugin that contains the
+     * checksums of the workspace files.
+     */
+    private static final String CHECKSUM_STORE = "checksums.dat";
+
     private final Saros saros;
 
     private final Component[] components = new Component[] {
@@ -78,15 +85,6 @@ public class SarosEclipseContextFactory extends AbstractSarosContextFactory {
         Component.create(SessionStatusRequestHandler.class),
         Component.create(XMPPAuthorizationHandler.class),
         Component.create(ConnectingFailureHandler.class),
-        // Cache support
-        /*
-         * TODO avoid direct creation as this will become tricky especially if
-         * we are the delegate and depends on components that are only available
-         * after we added all our context stuff or vice versa
-         */
-        Component.create(IChecksumCache.class, new ChecksumCacheImpl(
-            new FileContentNotifierBridge())),
-
         Component.create(IWorkspace.class, new EclipseWorkspaceImpl(
             ResourcesPlugin.getWorkspace())),
 
@@ -115,6 +113,16 @@ public class SarosEclipseContextFactory extends AbstractSarosContextFactory {
 
         container.addComponent(saros);
 
+        // Cache support
+        /*
+         * TODO avoid direct creation as this will become tricky especially if
+         * we are the delegate and depends on components that are only available
+         * after we added all our context stuff or vice versa
+         */
+        container.addComponent(IChecksumCache.class,
+            new PersistentChecksumCache(new FileContentNotifierBridge(),
+                new File(saros.getStateLocation().toFile(), CHECKSUM_STORE)));
+
         container.addComponent(BindKey.bindKey(String.class,
             ISarosContextBindings.SarosVersion.class), saros.getBundle()
             .getVersion().toString());
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -25,6 +26,7 @@ import org.eclipse.ui.texteditor.IDocumentProvider;
 import de.fu_berlin.inf.dpp.activities.ChecksumActivity;
 import de.fu_berlin.inf.dpp.activities.ChecksumErrorActivity;
 import de.fu_berlin.inf.dpp.activities.FileActivity;
+import de.fu_berlin.inf.dpp.activities.RecoveryTextEditActivity;
 import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.TextEditActivity;
 import de.fu_berlin.inf.dpp.annotations.Component;
@@ -43,7 +45,9 @@ import de.fu_berlin.inf.dpp.session.ISharedProjectListener;
 import de.fu_berlin.inf.dpp.session.NullSarosSessionListener;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.ui.actions.ConsistencyAction;
+import de.fu_berlin.inf.dpp.ui.util.SWTUtils;
 import de.fu_berlin.inf.dpp.ui.views.SarosView;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 
 /**
  * This class is responsible for two things:
@@ -106,6 +110,8 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
 
     private final RemoteProgressManager remoteProgressManager;
 
+    private final VersionManager versionManager;
+
     private final ISarosSessionManager sessionManager;
 
     private volatile ISarosSession session;
@@ -113,12 +119,14 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
     public ConsistencyWatchdogClient(final ISarosSessionManager sessionManager,
         final IsInconsistentObservable inconsistencyToResolve,
         final EditorManager editorManager, final IEditorAPI editorAPI,
-        final RemoteProgressManager remoteProgressManager) {
+        final RemoteProgressManager remoteProgressManager,
+        final VersionManager versionManager) {
         this.sessionManager = sessionManager;
         this.inconsistencyToResolve = inconsistencyToResolve;
         this.editorManager = editorManager;
         this.editorAPI = editorAPI;
         this.remoteProgressManager = remoteProgressManager;
+        this.versionManager = versionManager;
 
         this.sessionManager.addSarosSessionListener(sessionListener);
     }
@@ -194,16 +202,15 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
             }
         }
 
+        @Override
+        public void receive(RecoveryTextEditActivity recoveryTextEdit) {
+            fileRecovered();
+        }
+
         @Override
         public void receive(FileActivity fileActivity) {
             if (fileActivity.isRecovery()) {
-                int currentValue;
-                while ((currentValue = filesRemaining.get()) > 0) {
-                    if (filesRemaining.compareAndSet(currentValue,
-                        currentValue - 1)) {
-                        break;
-                    }
-                }
+                fileRecovered();
                 // Recoveries do not invalidate checksums :-)
                 return;
             }
@@ -228,6 +235,15 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
         }
     };
 
+    private void fileRecovered() {
+        int currentValue;
+        while ((currentValue = filesRemaining.get()) > 0) {
+            if (filesRemaining.compareAndSet(currentValue, currentValue - 1)) {
+                break;
+            }
+        }
+    }
+
     /**
      * Returns the set of files for which the ConsistencyWatchdog has identified
      * an inconsistency
@@ -300,6 +316,15 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
             if (cancelRecovery.get())
                 return;
 
+            // older hosts can neither read the ranges nor recover partially
+            final List<RangeChecksums> ranges;
+
+            if (versionManager.isFeatureSupported(currentSession.getHost()
+                .getJID(), VersionManager.PARTIAL_RECOVERY_FEATURE))
+                ranges = getLocalRanges(pathsOfHandledFiles);
+            else
+                ranges = null;
+
             monitor.beginTask("Consistency recovery",
                 pathsOfHandledFiles.size());
 
@@ -316,7 +341,7 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
 
             fireActivity(new ChecksumErrorActivity(
                 currentSession.getLocalUser(), currentSession.getHost(),
-                pathsOfHandledFiles, recoveryID));
+                pathsOfHandledFiles, ranges, recoveryID));
 
             try {
                 // block until all inconsistencies are resolved
@@ -354,6 +379,63 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
         }
     }
 
+    /**
+     * Returns the hashes of the ranges of the local documents, which allow the
+     * host to send only the differing part of a document.
+     * 
+     * @return the hashes in the order of the given paths or <code>null</code>
+     *         if they could not be calculated
+     */
+    private List<RangeChecksums> getLocalRanges(final List<SPath> paths) {
+        final List<RangeChecksums> ranges = new ArrayList<RangeChecksums>();
+
+        SWTUtils.runSafeSWTSync(LOG, new Runnable() {
+            @Override
+            public void run() {
+                for (SPath path : paths)
+                    ranges.add(getLocalRanges(path));
+            }
+        });
+
+        return ranges.size() == paths.size() ? ranges : null;
+    }
+
+    private RangeChecksums getLocalRanges(SPath path) {
+        IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
+
+        if (!file.exists())
+            return null;
+
+        FileEditorInput input = new FileEditorInput(file);
+        IDocumentProvider provider = editorAPI.getDocumentProvider(input);
+
+        try {
+            provider.connect(input);
+        } catch (CoreException e) {
+            LOG.warn("could not calculate the ranges of file " + path, e);
+            return null;
+        }
+
+        try {
+            IDocument doc = provider.getDocument(input);
+
+            if (doc == null)
+                return null;
+
+            DocumentChecksum checksum = new DocumentChecksum(path);
+            checksum.bind(doc);
+            checksum.update();
+
+            RangeChecksums ranges = checksum.getRanges();
+
+            checksum.dispose();
+
+            return ranges;
+        } finally {
+            provider.disconnect(input);
+        }
+    }
+
     private String getNextRecoveryID() {
         return Long.toHexString(RANDOM.nextLong());
     }
@@ -399,16 +481,20 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
                 return false;
             }
 
-            if ((doc.getLength() != checksum.getLength())
-                || (doc.get().hashCode() != checksum.getHash())) {
+            final String content = doc.get();
+            final int hash = content.hashCode();
+
+            if ((content.length() != checksum.getLength())
+                || (hash != checksum.getHash())) {
 
                 LOG.debug(String.format(
-                    "Inconsistency detected: %s L(%d %s %d) H(%x %s %x)", path
-                        .toString(), doc.getLength(),
-                    doc.getLength() == checksum.getLength() ? "==" : "!=",
-                    checksum.getLength(), doc.get().hashCode(), doc.get()
-                        .hashCode() == checksum.getHash() ? "==" : "!=",
-                    checksum.getHash()));
+                    "Inconsistency detected: %s L(%d %s %d) H(%x %s %x)%s",
+                    path.toString(), content.length(),
+                    content.length() == checksum.getLength() ? "==" : "!=",
+                    checksum.getLength(), hash,
+                    hash == checksum.getHash() ? "==" : "!=",
+                    checksum.getHash(),
+                    describeMismatch(checksum.getRanges(), content)));
 
                 return true;
             }
@@ -418,6 +504,30 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer {
         return false;
     }
 
+    /**
+     * Describes the part of the local content that differs from the ranges of
+     * the host's document.
+     */
+    private static String describeMismatch(RangeChecksums ranges,
+        String content) {
+
+        if (ranges == null)
+            return "";
+
+        final int first = ranges.findFirstMismatch(content);
+        final int last = ranges.findLastMismatch(content);
+
+        if (first > last)
+            return "";
+
+        final int start = ranges.getOffset(first);
+        final int end = ranges.getOffset(last) + ranges.getLength(last);
+
+        return String.format(" differing range: host [%d, %d) local [%d, %d)",
+            start, end, start, content.length()
+                - (ranges.getTotalLength() - end));
+    }
+
     private void performCheck(ChecksumActivity checksumActivity) {
 
         final ISarosSession currentSession = session;
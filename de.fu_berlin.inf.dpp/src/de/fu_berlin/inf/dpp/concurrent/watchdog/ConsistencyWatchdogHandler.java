@@ -20,6 +20,7 @@ import org.picocontainer.Startable;
 import de.fu_berlin.inf.dpp.activities.ChecksumActivity;
 import de.fu_berlin.inf.dpp.activities.ChecksumErrorActivity;
 import de.fu_berlin.inf.dpp.activities.RecoveryFileActivity;
+import de.fu_berlin.inf.dpp.activities.RecoveryTextEditActivity;
 import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.annotations.Component;
 import de.fu_berlin.inf.dpp.editor.EditorManager;
@@ -33,6 +34,7 @@ import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.StartHandle;
 import de.fu_berlin.inf.dpp.ui.util.SWTUtils;
 import de.fu_berlin.inf.dpp.util.FileUtils;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 
 /**
  * This component is responsible for handling Consistency Errors on the host. It
@@ -51,6 +53,8 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
 
     private final IEditorAPI editorAPI;
 
+    private final VersionManager versionManager;
+
     private final IActivityConsumer consumer = new AbstractActivityConsumer() {
         @Override
         public void receive(ChecksumErrorActivity checksumError) {
@@ -72,10 +76,12 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
     }
 
     public ConsistencyWatchdogHandler(final ISarosSession session,
-        final EditorManager editorManager, final IEditorAPI editorAPI) {
+        final EditorManager editorManager, final IEditorAPI editorAPI,
+        final VersionManager versionManager) {
         this.session = session;
         this.editorManager = editorManager;
         this.editorAPI = editorAPI;
+        this.versionManager = versionManager;
     }
 
     /**
@@ -196,13 +202,16 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
         monitor.beginTask("Performing recovery...", inconsistentPaths.size());
 
         try {
-            for (final SPath path : inconsistentPaths) {
+            for (int i = 0; i < inconsistentPaths.size(); i++) {
+                final SPath path = inconsistentPaths.get(i);
+                final RangeChecksums ranges = checksumError.getRanges(i);
+
                 monitor.subTask("recovering file: " + path.getFullPath());
 
                 SWTUtils.runSafeSWTSync(LOG, new Runnable() {
                     @Override
                     public void run() {
-                        recoverFile(checksumError.getSource(), path);
+                        recoverFile(checksumError.getSource(), path, ranges);
                     }
                 });
 
@@ -218,10 +227,16 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
     }
 
     /**
-     * Recover a single file for the given user (that is either send the file or
-     * tell the user to remove it).
+     * Recover a single file for the given user (that is either send the
+     * differing part of the document, send the file or tell the user to remove
+     * it).
+     * 
+     * @param ranges
+     *            the hashes of the ranges of the user's document or
+     *            <code>null</code>
      */
-    private void recoverFile(final User from, final SPath path) {
+    private void recoverFile(final User from, final SPath path,
+        final RangeChecksums ranges) {
 
         final IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
 
@@ -244,6 +259,12 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
          */
         editorManager.saveLazy(path);
 
+        if (ranges != null
+            && versionManager.isFeatureSupported(from.getJID(),
+                VersionManager.PARTIAL_RECOVERY_FEATURE)
+            && recoverDocument(from, path, file, ranges))
+            return;
+
         String charset = null;
 
         try {
@@ -262,30 +283,76 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
         fireActivity(RecoveryFileActivity.created(user, path, content, from,
             charset));
 
-        /*
-         * immediately follow up with a new checksum to the remote side can
-         * verify the recovered file
-         */
         final FileEditorInput input = new FileEditorInput(file);
         final IDocumentProvider provider = editorAPI.getDocumentProvider(input);
 
         try {
             provider.connect(input);
-            IDocument doc = provider.getDocument(input);
-
-            final DocumentChecksum checksum = new DocumentChecksum(path);
-            checksum.bind(doc);
-            checksum.update();
+            fireChecksum(path, provider.getDocument(input));
+        } catch (CoreException e) {
+            LOG.warn("could not check checksum of file: " + file, e);
+        } finally {
+            provider.disconnect(input);
+        }
+    }
 
-            fireActivity(new ChecksumActivity(user, path, checksum.getHash(),
-                checksum.getLength(), null));
+    /**
+     * Sends only the part of the document that differs from the ranges of the
+     * given user's document.
+     * 
+     * @return <code>true</code> if the document was recovered,
+     *         <code>false</code> if the whole file has to be sent
+     */
+    private boolean recoverDocument(final User from, final SPath path,
+        final IFile file, final RangeChecksums ranges) {
 
-            checksum.dispose();
+        final FileEditorInput input = new FileEditorInput(file);
+        final IDocumentProvider provider = editorAPI.getDocumentProvider(input);
 
+        try {
+            provider.connect(input);
         } catch (CoreException e) {
-            LOG.warn("could not check checksum of file: " + file, e);
+            LOG.warn("could not connect to the document of file: " + file, e);
+            return false;
+        }
+
+        try {
+            final IDocument doc = provider.getDocument(input);
+
+            if (doc == null)
+                return false;
+
+            final RecoveryTextEditActivity recovery = RecoveryTextEditActivity
+                .create(session.getLocalUser(), path, from, ranges, doc.get());
+
+            if (recovery == null)
+                return false;
+
+            LOG.debug("recovering " + recovery.getText().length() + " of "
+                + doc.getLength() + " characters of file: " + file);
+
+            fireActivity(recovery);
+            fireChecksum(path, doc);
+
+            return true;
         } finally {
             provider.disconnect(input);
         }
     }
+
+    /**
+     * Immediately follow up with a new checksum so the remote side can verify
+     * the recovered file. The checksum does not contain range hashes, because
+     * it is sent to all users and they may not support them.
+     */
+    private void fireChecksum(final SPath path, final IDocument doc) {
+        final DocumentChecksum checksum = new DocumentChecksum(path);
+        checksum.bind(doc);
+        checksum.update();
+
+        fireActivity(new ChecksumActivity(session.getLocalUser(), path,
+            checksum.getHash(), checksum.getLength(), null));
+
+        checksum.dispose();
+    }
 }
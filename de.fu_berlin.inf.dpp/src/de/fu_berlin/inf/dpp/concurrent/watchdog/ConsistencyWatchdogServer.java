@@ -25,11 +25,13 @@ import de.fu_berlin.inf.dpp.editor.internal.IEditorAPI;
 import de.fu_berlin.inf.dpp.filesystem.EclipseFileImpl;
 import de.fu_berlin.inf.dpp.session.AbstractActivityProducer;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
+import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.Blockable;
 import de.fu_berlin.inf.dpp.synchronize.StopManager;
 import de.fu_berlin.inf.dpp.synchronize.UISynchronizer;
 import de.fu_berlin.inf.dpp.util.NamedThreadFactory;
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 
 /**
  * This class is an eclipse job run on the host side ONLY.
@@ -73,6 +75,8 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
     private final UISynchronizer synchronizer;
 
+    private final VersionManager versionManager;
+
     private boolean locked;
 
     private final Runnable checksumCalculationTrigger = new Runnable() {
@@ -93,12 +97,14 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
     public ConsistencyWatchdogServer(ISarosSession session,
         EditorManager editorManager, IEditorAPI editorAPI,
-        StopManager stopManager, UISynchronizer synchronizer) {
+        StopManager stopManager, UISynchronizer synchronizer,
+        VersionManager versionManager) {
         this.session = session;
         this.editorManager = editorManager;
         this.editorAPI = editorAPI;
         this.stopManager = stopManager;
         this.synchronizer = synchronizer;
+        this.versionManager = versionManager;
     }
 
     @Override
@@ -262,7 +268,8 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
             ChecksumActivity checksumActivity = new ChecksumActivity(
                 session.getLocalUser(), checksum.getPath(), checksum.getHash(),
-                checksum.getLength(), null);
+                checksum.getLength(),
+                isRangeChecksumSupported() ? checksum.getRanges() : null, null);
 
             fireActivity(checksumActivity);
 
@@ -272,4 +279,19 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
             }
         }
     }
+
+    /**
+     * Returns whether all remote users are able to receive range hashes.
+     * Checksums are sent to all users, so they only contain the hash of the
+     * whole document if one of them uses an older version.
+     */
+    private boolean isRangeChecksumSupported() {
+        for (User user : session.getRemoteUsers()) {
+            if (!versionManager.isFeatureSupported(user.getJID(),
+                VersionManager.RANGE_CHECKSUMS_FEATURE))
+                return false;
+        }
+
+        return true;
+    }
 }
@@ -1,5 +1,6 @@
 package de.fu_berlin.inf.dpp.concurrent.watchdog;
 
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentListener;
@@ -9,6 +10,10 @@ import de.fu_berlin.inf.dpp.activities.SPath;
 /**
  * This Class represents a checksum of a document. It contains the path, the
  * length and the hash code of the document.
+ * <p>
+ * The checksum is maintained incrementally by a {@link BlockChecksum}, so an
+ * update only reads the parts of the document that were changed since the last
+ * update.
  * 
  * @author chjacob
  */
@@ -19,6 +24,14 @@ public class DocumentChecksum {
      */
     public static final int NON_EXISTING_DOC = -1;
 
+    /**
+     * Documents shorter than this are not split into
+     * {@linkplain #getRanges() ranges}.
+     */
+    private static final int MIN_RANGES_LENGTH = 64 * 1024;
+
+    private static final int MAX_RANGES = 64;
+
     protected IDocumentListener dirtyListener = new IDocumentListener() {
 
         @Override
@@ -28,10 +41,17 @@ public class DocumentChecksum {
 
         @Override
         public void documentChanged(DocumentEvent event) {
+            final String text = event.getText();
+
+            blockChecksum.replace(event.getOffset(), event.getLength(),
+                text == null ? 0 : text.length());
+
             dirty = true;
         }
     };
 
+    protected final BlockChecksum blockChecksum = new BlockChecksum();
+
     // the path to the concurrent document
     protected final SPath path;
 
@@ -98,8 +118,10 @@ public class DocumentChecksum {
 
         this.document = doc;
 
-        if (document != null)
+        if (document != null) {
             doc.addDocumentListener(dirtyListener);
+            blockChecksum.reset(doc.getLength());
+        }
 
         dirty = true;
     }
@@ -113,13 +135,31 @@ public class DocumentChecksum {
         if (document == null) {
             this.length = this.hash = NON_EXISTING_DOC;
         } else {
-            this.length = document.getLength();
-            this.hash = document.get().hashCode();
+            // should not happen, but do not rely on a complete event history
+            if (blockChecksum.getLength() != document.getLength())
+                blockChecksum.reset(document.getLength());
+
+            blockChecksum.update(new DocumentText(document));
+            this.length = blockChecksum.getLength();
+            this.hash = blockChecksum.getHash();
         }
 
         dirty = false;
     }
 
+    /**
+     * Returns the hashes of the ranges of the document.
+     * 
+     * @return the hashes or <code>null</code> if the document is too small or
+     *         does not exist
+     */
+    public RangeChecksums getRanges() {
+        if (document == null || dirty || length < MIN_RANGES_LENGTH)
+            return null;
+
+        return blockChecksum.getRanges(MAX_RANGES);
+    }
+
     /**
      * Returns whether this checksum represents a file which exists at the host.
      * 
@@ -134,4 +174,39 @@ public class DocumentChecksum {
     public String toString() {
         return path.toString() + " [" + this.length + "," + this.hash + "]";
     }
-}
\ No newline at end of file
+
+    /**
+     * Provides the content of a document without copying the whole text.
+     */
+    private static class DocumentText implements CharSequence {
+
+        private final IDocument document;
+
+        DocumentText(IDocument document) {
+            this.document = document;
+        }
+
+        @Override
+        public int length() {
+            return document.getLength();
+        }
+
+        @Override
+        public char charAt(int index) {
+            try {
+                return document.getChar(index);
+            } catch (BadLocationException e) {
+                throw new IndexOutOfBoundsException(e.getMessage());
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            try {
+                return document.get(start, end - start);
+            } catch (BadLocationException e) {
+                throw new IndexOutOfBoundsException(e.getMessage());
+            }
+        }
+    }
+}
@@ -56,7 +56,9 @@ import org.picocontainer.annotations.Inject;
 
 import de.fu_berlin.inf.dpp.activities.EditorActivity;
 import de.fu_berlin.inf.dpp.activities.EditorActivity.Type;
+import de.fu_berlin.inf.dpp.activities.FileActivity;
 import de.fu_berlin.inf.dpp.activities.IActivity;
+import de.fu_berlin.inf.dpp.activities.RecoveryTextEditActivity;
 import de.fu_berlin.inf.dpp.activities.SPath;
 import de.fu_berlin.inf.dpp.activities.TextEditActivity;
 import de.fu_berlin.inf.dpp.activities.TextSelectionActivity;
@@ -77,6 +79,7 @@ import de.fu_berlin.inf.dpp.editor.internal.EditorAPI;
 import de.fu_berlin.inf.dpp.editor.internal.IEditorAPI;
 import de.fu_berlin.inf.dpp.editor.internal.LocationAnnotationManager;
 import de.fu_berlin.inf.dpp.editor.internal.SafePartListener2;
+import de.fu_berlin.inf.dpp.editor.internal.TextEditBatch;
 import de.fu_berlin.inf.dpp.filesystem.EclipseFileImpl;
 import de.fu_berlin.inf.dpp.filesystem.IProject;
 import de.fu_berlin.inf.dpp.filesystem.ResourceAdapterFactory;
@@ -183,6 +186,18 @@ public class EditorManager extends AbstractActivityProducer implements
     private LocationAnnotationManager locationAnnotationManager;
     private ContributionAnnotationManager contributionAnnotationManager;
 
+    /**
+     * the document consecutive remote text edits are currently applied to or
+     * <code>null</code>
+     */
+    private TextEditBatch textEditBatch;
+
+    /**
+     * the connected documents of recently edited files, also of files that are
+     * not open in a local editor
+     */
+    private ShadowDocumentCache shadowDocuments;
+
     private final CustomAnnotationManager customAnnotationManager = new CustomAnnotationManager();
 
     private final IPropertyChangeListener annotationPreferenceListener = new IPropertyChangeListener() {
@@ -218,6 +233,15 @@ public class EditorManager extends AbstractActivityProducer implements
                 return;
             }
 
+            /*
+             * Consecutive text edits of the same document are applied in one
+             * batch that ends as soon as any other activity arrives.
+             */
+            if (!(activity instanceof TextEditActivity)
+                || !((TextEditActivity) activity).getPath().equals(
+                    getTextEditBatchPath()))
+                closeTextEditBatch();
+
             // First let the remote managers update itself based on the
             // Activity
             remoteEditorManager.exec(activity);
@@ -231,6 +255,23 @@ public class EditorManager extends AbstractActivityProducer implements
             execEditorActivity(editorActivity);
         }
 
+        @Override
+        public void receive(FileActivity fileActivity) {
+            /*
+             * the cached document must not be written back as the file is
+             * replaced, moved or deleted
+             */
+            shadowDocuments.discard(fileActivity.getPath());
+
+            if (fileActivity.getOldPath() != null)
+                shadowDocuments.discard(fileActivity.getOldPath());
+        }
+
+        @Override
+        public void receive(RecoveryTextEditActivity recoveryTextEditActivity) {
+            execRecoveryTextEdit(recoveryTextEditActivity);
+        }
+
         @Override
         public void receive(TextEditActivity textEditActivity) {
             execTextEdit(textEditActivity);
@@ -482,6 +523,16 @@ public class EditorManager extends AbstractActivityProducer implements
         connectedFiles.add(file);
     }
 
+    /**
+     * Returns whether the document of the given file is connected by a local
+     * editor or because a remote user with {@link Permission#WRITE_ACCESS} has
+     * opened it.
+     */
+    boolean isConnected(SPath path) {
+        return isManaged(((EclipseFileImpl) path.getFile()).getDelegate())
+            || remoteWriteAccessManager.isConnected(path);
+    }
+
     void disconnect(final IFile file) {
 
         LOG.trace(".disconnect(" + file + ") invoked");
@@ -723,9 +774,17 @@ public class EditorManager extends AbstractActivityProducer implements
             break;
         case CLOSED:
             execClosed(sender, sPath);
+
+            /*
+             * the changes of the last user with write access who had the
+             * document open are gone if they were not saved
+             */
+            if (sPath != null && !isConnected(sPath))
+                shadowDocuments.discard(sPath);
             break;
         case SAVED:
             saveEditor(sPath);
+            shadowDocuments.saved(sPath);
             break;
         default:
             LOG.warn("Unexpected type: " + editorActivity.getType());
@@ -794,6 +853,82 @@ public class EditorManager extends AbstractActivityProducer implements
             textEdit.getReplacedText(), textEdit.getOffset());
     }
 
+    /**
+     * Replaces the differing part of an inconsistent document in place. The
+     * Jupiter algorithm for the document is always reset, because upon
+     * receiving that activity, it was already reset on the host side.
+     */
+    private void execRecoveryTextEdit(RecoveryTextEditActivity recovery) {
+
+        SPath path = recovery.getPath();
+        IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
+
+        LOG.debug("performing recovery for document: " + path.getFullPath());
+
+        try {
+            if (!file.exists()) {
+                LOG.error("RecoveryTextEditActivity refers to file which"
+                    + " is not available locally: " + recovery);
+                return;
+            }
+
+            FileEditorInput input = new FileEditorInput(file);
+            IDocumentProvider provider = editorAPI.getDocumentProvider(input);
+
+            try {
+                provider.connect(input);
+            } catch (CoreException e) {
+                LOG.error("Could not connect document provider for file: "
+                    + file.toString(), e);
+                return;
+            }
+
+            try {
+                IDocument doc = provider.getDocument(input);
+
+                if (doc == null) {
+                    LOG.error("Could not connect document provider for file: "
+                        + file.toString(), new StackTrace());
+                    return;
+                }
+
+                /*
+                 * the document may have been changed after the hashes of its
+                 * ranges were sent to the host, leave it untouched so the next
+                 * checksum reports the inconsistency again
+                 */
+                if (doc.get().hashCode() != recovery.getBaseHash()) {
+                    LOG.error("document " + path
+                        + " was changed during the recovery: " + recovery);
+                    return;
+                }
+
+                editorPool.setDocumentListenerEnabled(false);
+
+                try {
+                    doc.replace(recovery.getOffset(),
+                        recovery.getReplacedLength(), recovery.getText());
+                } catch (BadLocationException e) {
+                    LOG.error("Could not apply recovery to document " + path
+                        + " with length " + doc.getLength() + ": " + recovery,
+                        e);
+                    return;
+                } finally {
+                    editorPool.setDocumentListenerEnabled(true);
+                }
+
+                // nobody else holds the document, so write it to the file
+                if (!isManaged(file))
+                    saveEditor(path);
+
+            } finally {
+                provider.disconnect(input);
+            }
+        } finally {
+            session.getConcurrentDocumentClient().reset(path);
+        }
+    }
+
     private void execTextSelection(TextSelectionActivity selection) {
 
         LOG.trace(".execTextSelection invoked");
@@ -1238,74 +1373,105 @@ public class EditorManager extends AbstractActivityProducer implements
     private void replaceText(SPath path, int offset, String replacedText,
         String text, User source) {
 
-        IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
-        FileEditorInput input = new FileEditorInput(file);
-        IDocumentProvider provider = editorAPI.getDocumentProvider(input);
+        TextEditBatch batch = openTextEditBatch(path);
 
-        try {
-            provider.connect(input);
-        } catch (CoreException e) {
-            LOG.error(
-                "Could not connect document provider for file: "
-                    + file.toString(), e);
+        if (batch == null) {
             // TODO Trigger a consistency recovery
             return;
         }
 
-        try {
-            IDocument doc = provider.getDocument(input);
-            if (doc == null) {
-                LOG.error("Could not connect document provider for file: "
-                    + file.toString(), new StackTrace());
-                // TODO Trigger a consistency recovery
-                return;
-            }
-
-            // Check if the replaced text is really there.
-            if (LOG.isDebugEnabled()) {
+        IDocument doc = batch.beginEdit();
 
-                String is;
-                try {
-                    is = doc.get(offset, replacedText.length());
-                    if (!is.equals(replacedText)) {
-                        LOG.error("replaceText should be '"
-                            + StringEscapeUtils.escapeJava(replacedText)
-                            + "' is '" + StringEscapeUtils.escapeJava(is) + "'");
-                    }
-                } catch (BadLocationException e) {
-                    // Ignore, because this is going to fail again just below
-                }
-            }
+        // Check if the replaced text is really there.
+        if (LOG.isDebugEnabled()) {
 
-            // Try to replace
+            String is;
             try {
-                doc.replace(offset, replacedText.length(), text);
+                is = doc.get(offset, replacedText.length());
+                if (!is.equals(replacedText)) {
+                    LOG.error("replaceText should be '"
+                        + StringEscapeUtils.escapeJava(replacedText) + "' is '"
+                        + StringEscapeUtils.escapeJava(is) + "'");
+                }
             } catch (BadLocationException e) {
-                LOG.error(String.format(
-                    "Could not apply TextEdit at %d-%d of document "
-                        + "with length %d.\nWas supposed to replace"
-                        + " '%s' with '%s'.", offset,
-                    offset + replacedText.length(), doc.getLength(),
-                    replacedText, text));
-                return;
+                // Ignore, because this is going to fail again just below
             }
+        }
+
+        // Try to replace
+        try {
+            doc.replace(offset, replacedText.length(), text);
+        } catch (BadLocationException e) {
+            LOG.error(String.format(
+                "Could not apply TextEdit at %d-%d of document "
+                    + "with length %d.\nWas supposed to replace"
+                    + " '%s' with '%s'.", offset,
+                offset + replacedText.length(), doc.getLength(), replacedText,
+                text));
+            return;
+        }
 
-            for (IEditorPart editorPart : editorPool.getEditors(path)) {
+        for (IEditorPart editorPart : editorPool.getEditors(path)) {
 
-                if (editorPart instanceof ITextEditor) {
-                    ITextEditor textEditor = (ITextEditor) editorPart;
-                    IAnnotationModel model = textEditor.getDocumentProvider()
-                        .getAnnotationModel(textEditor.getEditorInput());
-                    contributionAnnotationManager.insertAnnotation(model,
-                        offset, text.length(), source);
-                }
+            if (editorPart instanceof ITextEditor) {
+                ITextEditor textEditor = (ITextEditor) editorPart;
+                IAnnotationModel model = textEditor.getDocumentProvider()
+                    .getAnnotationModel(textEditor.getEditorInput());
+                contributionAnnotationManager.insertAnnotation(model, offset,
+                    text.length(), source);
             }
-            IAnnotationModel model = provider.getAnnotationModel(input);
-            contributionAnnotationManager.insertAnnotation(model, offset,
-                text.length(), source);
-        } finally {
-            provider.disconnect(input);
         }
+        IAnnotationModel model = shadowDocuments.getAnnotationModel(path);
+        contributionAnnotationManager.insertAnnotation(model, offset,
+            text.length(), source);
+    }
+
+    /**
+     * Returns the batch for text edits of the given document. The current
+     * batch is closed if it belongs to another document. A new batch is closed
+     * at the latest after all pending SWT runnables were executed, i.e. after
+     * the currently received activities were executed.
+     * 
+     * @return the batch or <code>null</code> if the document could not be
+     *         connected
+     * @see ShadowDocumentCache
+     */
+    private TextEditBatch openTextEditBatch(SPath path) {
+        if (textEditBatch != null && textEditBatch.getPath().equals(path))
+            return textEditBatch;
+
+        closeTextEditBatch();
+
+        IDocument doc = shadowDocuments.getDocument(path);
+
+        if (doc == null)
+            return null;
+
+        final TextEditBatch batch = new TextEditBatch(path, doc);
+        textEditBatch = batch;
+
+        SWTUtils.runSafeSWTAsync(LOG, new Runnable() {
+            @Override
+            public void run() {
+                if (textEditBatch == batch)
+                    closeTextEditBatch();
+            }
+        });
+
+        return batch;
+    }
+
+    private SPath getTextEditBatchPath() {
+        return textEditBatch == null ? null : textEditBatch.getPath();
+    }
+
+    private void closeTextEditBatch() {
+        if (textEditBatch == null)
+            return;
+
+        TextEditBatch batch = textEditBatch;
+        textEditBatch = null;
+        batch.close();
     }
 
     /**
@@ -2041,6 +2207,8 @@ public class EditorManager extends AbstractActivityProducer implements
         remoteWriteAccessManager = new RemoteWriteAccessManager(session,
             editorAPI);
 
+        shadowDocuments = new ShadowDocumentCache(this, editorAPI);
+
         preferenceStore.addPropertyChangeListener(annotationPreferenceListener);
 
         /*
@@ -2078,6 +2246,10 @@ public class EditorManager extends AbstractActivityProducer implements
         /*
          * First need to remove the annotations and then clear the editorPool
          */
+        closeTextEditBatch();
+        shadowDocuments.releaseAll();
+        shadowDocuments = null;
+
         removeAnnotationsFromAllEditors(new Predicate<Annotation>() {
             @Override
             public boolean evaluate(Annotation annotation) {
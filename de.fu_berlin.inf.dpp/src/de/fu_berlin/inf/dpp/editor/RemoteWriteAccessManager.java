@@ -139,6 +139,14 @@ public class RemoteWriteAccessManager extends AbstractActivityConsumer {
         }
     }
 
+    /**
+     * Returns whether the document under the given path is connected because
+     * a user with {@link Permission#WRITE_ACCESS} has opened it.
+     */
+    public boolean isConnected(SPath path) {
+        return connectedUserWithWriteAccessFiles.contains(path);
+    }
+
     /**
      * Connects a document under the given path as a reaction on a remote
      * Activity of a user with {@link Permission#WRITE_ACCESS} (e.g. Activate
@@ -0,0 +1,289 @@
+package de.fu_berlin.inf.dpp.editor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.part.FileEditorInput;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.editor.internal.IEditorAPI;
+import de.fu_berlin.inf.dpp.filesystem.EclipseFileImpl;
+import de.fu_berlin.inf.dpp.ui.util.SWTUtils;
+
+/**
+ * Keeps the documents of recently edited files connected to their
+ * {@link IDocumentProvider}, so consecutive remote text edits of a file that
+ * is not open in a local editor do not load the file again and again.
+ * <p>
+ * Documents are released when they were not used for {@link #IDLE_TIMEOUT}
+ * milliseconds, when the cache exceeds its size or when the session ends.
+ * Changes are only written back to the file if their author saved them, as
+ * the author may still discard them. Unsaved changes of a released document
+ * that is not connected otherwise are lost, just like the changes of a remote
+ * user who closes the editor without saving.
+ * <p>
+ * This class must only be used from the SWT thread.
+ */
+final class ShadowDocumentCache {
+
+    private static final Logger LOG = Logger
+        .getLogger(ShadowDocumentCache.class);
+
+    /** time in milliseconds after which an unused document is released */
+    private static final int IDLE_TIMEOUT = 10000;
+
+    private static final int MAX_DOCUMENTS = 32;
+
+    /**
+     * Approximate number of bytes the cached documents may occupy, the most
+     * recently used document is kept regardless of its size.
+     */
+    private static final long MEMORY_BUDGET = Long.getLong(
+        "de.fu_berlin.inf.dpp.editor.SHADOW_DOCUMENT_CACHE_SIZE",
+        16 * 1024 * 1024);
+
+    private static class Entry {
+        private final FileEditorInput input;
+        private final IDocumentProvider provider;
+        private final IDocument document;
+        private long lastAccess;
+
+        /** whether the document was changed since its author saved it */
+        private boolean hasUnsavedChanges;
+
+        private Entry(FileEditorInput input, IDocumentProvider provider,
+            IDocument document) {
+            this.input = input;
+            this.provider = provider;
+            this.document = document;
+        }
+    }
+
+    private final EditorManager editorManager;
+    private final IEditorAPI editorAPI;
+
+    /** the cached documents, least recently used first */
+    private final Map<SPath, Entry> entries = new LinkedHashMap<SPath, Entry>(
+        16, 0.75f, true);
+
+    private boolean isIdleCheckScheduled;
+
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            isIdleCheckScheduled = false;
+
+            final long now = System.currentTimeMillis();
+
+            for (SPath path : new ArrayList<SPath>(entries.keySet())) {
+                if (now - entries.get(path).lastAccess >= IDLE_TIMEOUT)
+                    release(path);
+            }
+
+            scheduleIdleCheck();
+        }
+    };
+
+    ShadowDocumentCache(EditorManager editorManager, IEditorAPI editorAPI) {
+        this.editorManager = editorManager;
+        this.editorAPI = editorAPI;
+    }
+
+    /**
+     * Returns the connected document of the given file in order to change it.
+     * The document stays connected until it is released by this cache and its
+     * changes are considered unsaved until {@link #saved(SPath)} is called.
+     *
+     * @return the document or <code>null</code> if the document could not be
+     *         connected
+     */
+    IDocument getDocument(SPath path) {
+        Entry entry = entries.get(path);
+
+        if (entry == null) {
+            entry = connect(path);
+
+            if (entry == null)
+                return null;
+
+            entries.put(path, entry);
+            evict();
+        }
+
+        entry.lastAccess = System.currentTimeMillis();
+        entry.hasUnsavedChanges = true;
+        scheduleIdleCheck();
+
+        return entry.document;
+    }
+
+    /**
+     * Returns the annotation model of a document that was returned by
+     * {@link #getDocument(SPath)} before.
+     */
+    IAnnotationModel getAnnotationModel(SPath path) {
+        Entry entry = entries.get(path);
+
+        return entry == null ? null : entry.provider
+            .getAnnotationModel(entry.input);
+    }
+
+    /**
+     * Marks the changes of the given file as saved by their author.
+     */
+    void saved(SPath path) {
+        Entry entry = entries.get(path);
+
+        if (entry != null)
+            entry.hasUnsavedChanges = false;
+    }
+
+    /**
+     * Releases the document of the given file if it is cached.
+     */
+    void release(SPath path) {
+        Entry entry = entries.remove(path);
+
+        if (entry == null)
+            return;
+
+        try {
+            if (!entry.provider.canSaveDocument(entry.input)
+                || editorManager.isConnected(path))
+                return;
+
+            if (entry.hasUnsavedChanges)
+                LOG.debug("discarding changes that were not saved: " + path);
+            else
+                writeBack(path, entry);
+        } finally {
+            entry.provider.disconnect(entry.input);
+        }
+    }
+
+    /**
+     * Releases the document of the given file without writing back its
+     * changes, e.g. because the file was replaced or deleted.
+     */
+    void discard(SPath path) {
+        Entry entry = entries.remove(path);
+
+        if (entry != null)
+            entry.provider.disconnect(entry.input);
+    }
+
+    /**
+     * Releases all cached documents.
+     */
+    void releaseAll() {
+        for (SPath path : new ArrayList<SPath>(entries.keySet()))
+            release(path);
+    }
+
+    private Entry connect(SPath path) {
+        IFile file = ((EclipseFileImpl) path.getFile()).getDelegate();
+
+        FileEditorInput input = new FileEditorInput(file);
+        IDocumentProvider provider = editorAPI.getDocumentProvider(input);
+
+        try {
+            provider.connect(input);
+        } catch (CoreException e) {
+            LOG.error("Could not connect document provider for file: "
+                + file.toString(), e);
+            return null;
+        }
+
+        IDocument document = provider.getDocument(input);
+
+        if (document == null) {
+            LOG.error("Could not connect document provider for file: "
+                + file.toString());
+            provider.disconnect(input);
+            return null;
+        }
+
+        return new Entry(input, provider, document);
+    }
+
+    /**
+     * Writes the document back to its file. This is not a save of any user, so
+     * neither activities nor editor listeners are notified.
+     */
+    private void writeBack(SPath path, Entry entry) {
+        final IFile file = entry.input.getFile();
+
+        if (!file.exists()) {
+            LOG.debug("discarding changes of deleted file: " + path);
+            return;
+        }
+
+        LOG.trace("writing back changes of document: " + path);
+
+        /*
+         * connect to the file so the SharedResourceManager will ignore the
+         * file change
+         */
+        editorManager.connect(file);
+
+        try {
+            entry.provider.saveDocument(new NullProgressMonitor(),
+                entry.input, entry.document, true);
+        } catch (CoreException e) {
+            LOG.error("failed to write back changes of document: " + path, e);
+        } finally {
+            editorManager.disconnect(file);
+        }
+    }
+
+    /**
+     * Releases the least recently used documents until the cache fits into
+     * its size, the most recently used document is never released.
+     */
+    private void evict() {
+        final List<SPath> evicted = new ArrayList<SPath>();
+
+        long size = 0;
+        int count = entries.size();
+
+        for (Entry entry : entries.values())
+            size += entry.document.getLength() * 2L;
+
+        Iterator<Map.Entry<SPath, Entry>> it = entries.entrySet().iterator();
+
+        while (count > 1 && (count > MAX_DOCUMENTS || size > MEMORY_BUDGET)) {
+            Map.Entry<SPath, Entry> eldest = it.next();
+
+            evicted.add(eldest.getKey());
+            size -= eldest.getValue().document.getLength() * 2L;
+            count--;
+        }
+
+        for (SPath path : evicted)
+            release(path);
+    }
+
+    private void scheduleIdleCheck() {
+        if (isIdleCheckScheduled || entries.isEmpty())
+            return;
+
+        Display display = SWTUtils.getDisplay();
+
+        if (display.isDisposed())
+            return;
+
+        isIdleCheckScheduled = true;
+        display.timerExec(IDLE_TIMEOUT, idleCheck);
+    }
+}
@@ -3,12 +3,9 @@ package de.fu_berlin.inf.dpp.editor.internal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -38,7 +35,86 @@ public class ContributionAnnotationManager {
 
     static final int MAX_HISTORY_LENGTH = 20;
 
-    private final Map<User, LinkedList<ContributionAnnotation>> sourceToHistory = new HashMap<User, LinkedList<ContributionAnnotation>>();
+    /**
+     * The contribution annotations of a user, oldest first. As the history is
+     * bounded, it is also an index of all contribution annotations that is
+     * much smaller than the annotation models which contain all kinds of
+     * annotations.
+     */
+    private static final class History {
+
+        private final ContributionAnnotation[] annotations = new ContributionAnnotation[MAX_HISTORY_LENGTH];
+
+        /** array index of the oldest annotation */
+        private int head;
+
+        private int size;
+
+        /**
+         * Appends the annotation.
+         * 
+         * @return the oldest annotation if it was removed to make room for the
+         *         new annotation, otherwise <code>null</code>
+         */
+        private ContributionAnnotation add(ContributionAnnotation annotation) {
+            ContributionAnnotation removed = null;
+
+            if (size == annotations.length) {
+                removed = annotations[head];
+                head = (head + 1) % annotations.length;
+                size--;
+            }
+
+            annotations[(head + size) % annotations.length] = annotation;
+            size++;
+
+            return removed;
+        }
+
+        private ContributionAnnotation get(int index) {
+            return annotations[(head + index) % annotations.length];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int indexOf(ContributionAnnotation annotation) {
+            for (int i = 0; i < size; i++)
+                if (get(i).equals(annotation))
+                    return i;
+
+            return -1;
+        }
+
+        private boolean remove(ContributionAnnotation annotation) {
+            int index = indexOf(annotation);
+
+            if (index == -1)
+                return false;
+
+            for (int i = index; i < size - 1; i++)
+                annotations[(head + i) % annotations.length] = get(i + 1);
+
+            annotations[(head + size - 1) % annotations.length] = null;
+            size--;
+
+            return true;
+        }
+
+        private boolean replace(ContributionAnnotation oldAnnotation,
+            ContributionAnnotation newAnnotation) {
+            int index = indexOf(oldAnnotation);
+
+            if (index == -1)
+                return false;
+
+            annotations[(head + index) % annotations.length] = newAnnotation;
+            return true;
+        }
+    }
+
+    private final Map<User, History> sourceToHistory = new HashMap<User, History>();
 
     private final ISarosSession sarosSession;
 
@@ -104,7 +180,6 @@ public class ContributionAnnotationManager {
      * @param source
      *            of the annotation.
      */
-    @SuppressWarnings("unchecked")
     public void insertAnnotation(IAnnotationModel model, int offset,
         int length, User source) {
 
@@ -115,16 +190,18 @@ public class ContributionAnnotationManager {
             return;
 
         /* Return early if there already is an annotation at that offset */
-        for (Iterator<Annotation> it = model.getAnnotationIterator(); it
-            .hasNext();) {
-            Annotation annotation = it.next();
+        final History history = getHistory(source);
+
+        for (int i = 0; i < history.size(); i++) {
+            final ContributionAnnotation annotation = history.get(i);
+
+            if (annotation.getModel() != model)
+                continue;
+
+            final Position position = model.getPosition(annotation);
 
-            if (annotation instanceof ContributionAnnotation
-                && model.getPosition(annotation).includes(offset)
-                && ((ContributionAnnotation) annotation).getSource().equals(
-                    source)) {
+            if (position != null && position.includes(offset))
                 return;
-            }
         }
 
         addContributionAnnotation(new ContributionAnnotation(source, model),
@@ -149,7 +226,6 @@ public class ContributionAnnotationManager {
      * See also http://sourceforge.net/p/dpp/bugs/757/ that includes also
      * another defect which is part of this behavior
      */
-    @SuppressWarnings("unchecked")
     public void splitAnnotation(final IAnnotationModel model, final int offset) {
 
         if (!contribtionAnnotationsEnabled)
@@ -158,19 +234,15 @@ public class ContributionAnnotationManager {
         final List<ContributionAnnotation> annotationsToRemove = new ArrayList<ContributionAnnotation>();
         final Map<ContributionAnnotation, Position> annotationsToAdd = new HashMap<ContributionAnnotation, Position>();
 
-        for (Iterator<Annotation> it = model.getAnnotationIterator(); it
-            .hasNext();) {
-
-            final Annotation annotation = it.next();
-
-            if (!(annotation instanceof ContributionAnnotation))
-                continue;
+        for (final ContributionAnnotation contributionAnnotation : getAnnotations(model)) {
 
-            final ContributionAnnotation contributionAnnotation = (ContributionAnnotation) annotation;
             final User source = contributionAnnotation.getSource();
 
             final Position pos = model.getPosition(contributionAnnotation);
 
+            if (pos == null)
+                continue;
+
             if ((offset > pos.offset) && (offset < pos.offset + pos.length)) {
 
                 Position before = new Position(pos.offset, offset - pos.offset);
@@ -273,15 +345,32 @@ public class ContributionAnnotationManager {
      *            source of the user who's history we want.
      * @return the history of source.
      */
-    private Queue<ContributionAnnotation> getHistory(User source) {
-        LinkedList<ContributionAnnotation> result = sourceToHistory.get(source);
+    private History getHistory(User source) {
+        History result = sourceToHistory.get(source);
         if (result == null) {
-            result = new LinkedList<ContributionAnnotation>();
+            result = new History();
             sourceToHistory.put(source, result);
         }
         return result;
     }
 
+    /**
+     * Returns the contribution annotations of all users that belong to the
+     * given annotation model.
+     */
+    private List<ContributionAnnotation> getAnnotations(IAnnotationModel model) {
+        final List<ContributionAnnotation> result = new ArrayList<ContributionAnnotation>();
+
+        for (History history : sourceToHistory.values()) {
+            for (int i = 0; i < history.size(); i++) {
+                if (history.get(i).getModel() == model)
+                    result.add(history.get(i));
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Add a contribution annotation to the annotation model and store it into
      * the history of the associated user. Old entries are removed from the
@@ -292,13 +381,11 @@ public class ContributionAnnotationManager {
 
         annotation.getModel().addAnnotation(annotation, position);
 
-        Queue<ContributionAnnotation> history = getHistory(annotation
-            .getSource());
-        history.add(annotation);
-        while (history.size() > MAX_HISTORY_LENGTH) {
-            ContributionAnnotation oldAnnotation = history.remove();
+        ContributionAnnotation oldAnnotation = getHistory(
+            annotation.getSource()).add(annotation);
+
+        if (oldAnnotation != null)
             oldAnnotation.getModel().removeAnnotation(oldAnnotation);
-        }
     }
 
     /**
@@ -322,32 +409,25 @@ public class ContributionAnnotationManager {
         ContributionAnnotation newAnnotation) {
         assert oldAnnotation.getSource().equals(newAnnotation.getSource());
 
-        LinkedList<ContributionAnnotation> list = sourceToHistory
-            .get(oldAnnotation.getSource());
+        History history = sourceToHistory.get(oldAnnotation.getSource());
 
-        if (list == null) {
+        if (history == null) {
             log.warn("a annotation history for user "
                 + oldAnnotation.getSource() + " does not exists");
 
             return;
         }
 
-        for (ListIterator<ContributionAnnotation> it = list.listIterator(); it
-            .hasNext();) {
-            ContributionAnnotation annotation = it.next();
-            if (annotation.equals(oldAnnotation)) {
-                it.set(newAnnotation);
-                return;
-            }
-        }
+        if (history.replace(oldAnnotation, newAnnotation))
+            return;
 
         log.warn("could not find annotation " + oldAnnotation
             + " in the current history for user: " + oldAnnotation.getSource());
     }
 
     private void removeAllAnnotations() {
-        for (Queue<ContributionAnnotation> queue : sourceToHistory.values())
-            while (!queue.isEmpty())
-                removeFromHistory(queue.peek());
+        for (History history : sourceToHistory.values())
+            while (history.size() > 0)
+                removeFromHistory(history.get(0));
     }
 }
@@ -1,8 +1,12 @@
 package de.fu_berlin.inf.dpp.editor.internal;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -13,6 +17,7 @@ import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelExtension;
 import org.eclipse.jface.text.source.ILineRange;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.jface.util.PropertyChangeEvent;
@@ -44,6 +49,15 @@ public class LocationAnnotationManager {
 
     private boolean fillUpEnabled;
 
+    /**
+     * The location annotations this manager added to the annotation models,
+     * by user and annotation class. A user has at most one annotation of each
+     * class per model, so it can be replaced without searching the whole
+     * model. Annotations that were removed by others are removed again, which
+     * has no effect.
+     */
+    private final Map<IAnnotationModel, Map<User, Map<Class<?>, SarosAnnotation>>> locationAnnotations = new WeakHashMap<IAnnotationModel, Map<User, Map<Class<?>, SarosAnnotation>>>();
+
     public LocationAnnotationManager(IPreferenceStore preferenceStore) {
         annotationModelHelper = new AnnotationModelHelper();
 
@@ -120,24 +134,11 @@ public class LocationAnnotationManager {
             return;
         }
 
-        // TODO Make use of AnnotationModelHelper.replaceAnnotationsInModel()
-
         int top = lineRange.getStartLine();
         int bottom = top + lineRange.getNumberOfLines();
 
-        // Clean-up. Remove any existing ViewportAnnotations of the given user
-        annotationModelHelper.removeAnnotationsFromModel(model,
-            new Predicate<Annotation>() {
-                @Override
-                public boolean evaluate(Annotation annotation) {
-                    return (annotation instanceof ViewportAnnotation)
-                        && ((SarosAnnotation) annotation).getSource().equals(
-                            user);
-                }
-            });
-
-        // Calculate the position of the new ViewportAnnotation and then add it
-        // to the model
+        // Calculate the position of the new ViewportAnnotation and then
+        // replace any existing ViewportAnnotation of the given user with it
         try {
             int lines = document.getNumberOfLines();
             top = Math.max(0, Math.min(lines - 1, top));
@@ -157,12 +158,13 @@ public class LocationAnnotationManager {
             if (lines > 1)
                 va.setMoreThanOneLine(true);
 
-            // TODO Is there a reason *not* to use "va"?
-            SarosAnnotation annotation = va;
-            Position position = new Position(start, end - start);
-            model.addAnnotation(annotation, position);
+            Map<SarosAnnotation, Position> replacement = new HashMap<SarosAnnotation, Position>();
+            replacement.put(va, new Position(start, end - start));
+
+            replaceLocationAnnotations(model, user, replacement);
         } catch (BadLocationException e) {
             LOG.warn("Internal Error:", e);
+            removeLocationAnnotations(model, user, ViewportAnnotation.class);
         }
     }
 
@@ -174,22 +176,22 @@ public class LocationAnnotationManager {
      * @param editorPart
      */
     public void clearViewportForUser(final User user, IEditorPart editorPart) {
-        IAnnotationModel model = annotationModelHelper
-            .retrieveAnnotationModel(editorPart);
+        /*
+         * the viewport annotations are added to the annotation model of the
+         * viewer, see setViewportForUser()
+         */
+        ITextViewer viewer = EditorAPI.getViewer(editorPart);
+        if (!(viewer instanceof ISourceViewer)) {
+            return;
+        }
+
+        IAnnotationModel model = ((ISourceViewer) viewer).getAnnotationModel();
 
         if (model == null) {
             return;
         }
 
-        annotationModelHelper.removeAnnotationsFromModel(model,
-            new Predicate<Annotation>() {
-                @Override
-                public boolean evaluate(Annotation annotation) {
-                    return (annotation instanceof ViewportAnnotation)
-                        && ((SarosAnnotation) annotation).getSource().equals(
-                            user);
-                }
-            });
+        removeLocationAnnotations(model, user, ViewportAnnotation.class);
     }
 
     /**
@@ -238,11 +240,11 @@ public class LocationAnnotationManager {
         int length = selection.getLength();
         boolean isCursor = length == 0;
 
-        // TODO For better performance: Currently, all selection-related
-        // annotations are created and replaced individually. Since the access
-        // to the annotation model tends to be slow and the replacement may take
-        // place in batches, one could first create all new selection-related
-        // annotations and replace them at once.
+        /*
+         * All selection-related annotations are created first and replaced at
+         * once, since the access to the annotation model tends to be slow.
+         */
+        Map<SarosAnnotation, Position> replacement = new HashMap<SarosAnnotation, Position>();
 
         if (isCursor) {
             if (offset > 0) {
@@ -250,24 +252,24 @@ public class LocationAnnotationManager {
                  * Highlight the character left of the cursor in the light color
                  * of the user.
                  */
-                setSelectionAnnotation(source, isCursor, new Position(
-                    offset - 1, 1), model);
+                replacement.put(new SelectionAnnotation(source, isCursor),
+                    new Position(offset - 1, 1));
             } else {
                 /*
                  * We have to draw this "highlight" even though it's not visible
                  * at all. This is to prevent ghosting of the highlight when
                  * jumping to the beginning of the file (offset == 0).
                  */
-                setSelectionAnnotation(source, isCursor, new Position(0, 0),
-                    model);
+                replacement.put(new SelectionAnnotation(source, isCursor),
+                    new Position(0, 0));
             }
         } else {
             /*
              * Highlight the selection of a remote user in the remote user's
              * light color.
              */
-            setSelectionAnnotation(source, isCursor, new Position(offset,
-                length), model);
+            replacement.put(new SelectionAnnotation(source, isCursor),
+                new Position(offset, length));
         }
 
         /*
@@ -275,11 +277,19 @@ public class LocationAnnotationManager {
          * session. When there is a selection, the cursor will be shown at the
          * end of it.
          */
-        setRemoteCursorAnnotation(source, new Position(offset + length), model);
+        replacement.put(new RemoteCursorAnnotation(source), new Position(
+            offset + length));
 
+        /*
+         * Helper annotation that highlights the empty space between a line's
+         * last character an the right margin.
+         */
         if (fillUpEnabled) {
-            setFillUpAnnotation(source, new Position(offset, length), model);
+            replacement.put(new SelectionFillUpAnnotation(source, offset,
+                length), new Position(offset, length));
         }
+
+        replaceLocationAnnotations(model, source, replacement);
     }
 
     /**
@@ -298,85 +308,109 @@ public class LocationAnnotationManager {
             return;
         }
 
-        annotationModelHelper.removeAnnotationsFromModel(model,
-            new Predicate<Annotation>() {
-                @Override
-                public boolean evaluate(Annotation annotation) {
-                    return (annotation instanceof SelectionAnnotation
-                        || annotation instanceof SelectionFillUpAnnotation || annotation instanceof RemoteCursorAnnotation)
-                        && ((SarosAnnotation) annotation).getSource().equals(
-                            user);
-                }
-            });
+        removeLocationAnnotations(model, user, SelectionAnnotation.class,
+            SelectionFillUpAnnotation.class, RemoteCursorAnnotation.class);
     }
 
     /**
-     * Helper function to create and add an annotation that highlights the
-     * selected text (see {@link SelectionAnnotation}).
+     * Returns the location annotations of the given user in the given model by
+     * their class.
      */
-    private void setSelectionAnnotation(User user, boolean isCursor,
-        Position position, IAnnotationModel annotationModel) {
+    private Map<Class<?>, SarosAnnotation> getLocationAnnotations(
+        IAnnotationModel model, User user) {
 
-        setAnnotationForSelection(new SelectionAnnotation(user, isCursor),
-            position, annotationModel);
-    }
+        Map<User, Map<Class<?>, SarosAnnotation>> userAnnotations = locationAnnotations
+            .get(model);
 
-    /**
-     * Helper function to create an additional annotation that highlights the
-     * empty space between a line's last character an the right margin (see
-     * {@link SelectionFillUpAnnotation}).
-     */
-    private void setFillUpAnnotation(User user, Position position,
-        IAnnotationModel annotationModel) {
+        if (userAnnotations == null) {
+            userAnnotations = new HashMap<User, Map<Class<?>, SarosAnnotation>>();
+            locationAnnotations.put(model, userAnnotations);
+        }
 
-        setAnnotationForSelection(new SelectionFillUpAnnotation(user,
-            position.offset, position.length), position, annotationModel);
-    }
+        Map<Class<?>, SarosAnnotation> annotations = userAnnotations.get(user);
 
-    /**
-     * Helper function to create an add an annotation that marks the current
-     * text cursor position (see {@link RemoteCursorAnnotation}).
-     */
-    private void setRemoteCursorAnnotation(User user, Position position,
-        IAnnotationModel annotationModel) {
+        if (annotations == null) {
+            annotations = new HashMap<Class<?>, SarosAnnotation>();
+            userAnnotations.put(user, annotations);
+        }
 
-        setAnnotationForSelection(new RemoteCursorAnnotation(user), position,
-            annotationModel);
+        return annotations;
     }
 
     /**
-     * Sets annotations related to selections made by remote users.
+     * Replaces the location annotations of a user that are of the same class
+     * as the new annotations in one step.
      * 
-     * @param newAnnotation
-     *            {@link SarosAnnotation} that is set during this call.
-     * @param position
-     *            {@link Position} at which the annotation is replaced, removed,
-     *            or updated.
      * @param model
      *            {@link IAnnotationModel} that maintains the annotations for
      *            the opened document.
+     * @param user
+     *            the source of all new annotations
+     * @param replacement
+     *            the new annotations and their positions, at most one
+     *            annotation of each class
      */
-    private void setAnnotationForSelection(final SarosAnnotation newAnnotation,
-        Position position, IAnnotationModel model) {
+    private void replaceLocationAnnotations(IAnnotationModel model, User user,
+        Map<SarosAnnotation, Position> replacement) {
+
+        Map<Class<?>, SarosAnnotation> annotations = getLocationAnnotations(
+            model, user);
+
+        List<Annotation> annotationsToRemove = new ArrayList<Annotation>();
 
-        if (newAnnotation == null || position == null) {
-            throw new IllegalArgumentException(
-                "Both newAnnotation and position must not be null");
+        for (SarosAnnotation annotation : replacement.keySet()) {
+            SarosAnnotation oldAnnotation = annotations.put(
+                annotation.getClass(), annotation);
+
+            if (oldAnnotation != null)
+                annotationsToRemove.add(oldAnnotation);
         }
 
-        Predicate<Annotation> predicate = new Predicate<Annotation>() {
-            @Override
-            public boolean evaluate(Annotation annotation) {
-                return annotation.getType().equals(newAnnotation.getType())
-                    && ((SarosAnnotation) annotation).getSource().equals(
-                        newAnnotation.getSource());
-            }
-        };
+        replaceAnnotations(model, annotationsToRemove, replacement);
+    }
+
+    /**
+     * Removes the location annotations of a user that are of the given
+     * classes.
+     */
+    private void removeLocationAnnotations(IAnnotationModel model, User user,
+        Class<?>... annotationClasses) {
+
+        Map<Class<?>, SarosAnnotation> annotations = getLocationAnnotations(
+            model, user);
+
+        List<Annotation> annotationsToRemove = new ArrayList<Annotation>();
+
+        for (Class<?> annotationClass : annotationClasses) {
+            SarosAnnotation oldAnnotation = annotations.remove(annotationClass);
+
+            if (oldAnnotation != null)
+                annotationsToRemove.add(oldAnnotation);
+        }
+
+        if (annotationsToRemove.isEmpty())
+            return;
+
+        replaceAnnotations(model, annotationsToRemove,
+            new HashMap<SarosAnnotation, Position>());
+    }
+
+    private void replaceAnnotations(IAnnotationModel model,
+        List<Annotation> annotationsToRemove,
+        Map<SarosAnnotation, Position> annotationsToAdd) {
+
+        if (model instanceof IAnnotationModelExtension) {
+            ((IAnnotationModelExtension) model).replaceAnnotations(
+                annotationsToRemove.toArray(new Annotation[annotationsToRemove
+                    .size()]), annotationsToAdd);
+            return;
+        }
 
-        Map<Annotation, Position> replacement = Collections.singletonMap(
-            (Annotation) newAnnotation, position);
+        for (Annotation annotation : annotationsToRemove)
+            model.removeAnnotation(annotation);
 
-        annotationModelHelper.replaceAnnotationsInModel(model, predicate,
-            replacement);
+        for (Entry<SarosAnnotation, Position> entry : annotationsToAdd
+            .entrySet())
+            model.addAnnotation(entry.getKey(), entry.getValue());
     }
 }
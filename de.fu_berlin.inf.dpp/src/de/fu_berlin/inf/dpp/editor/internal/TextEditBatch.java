@@ -0,0 +1,67 @@
+package de.fu_berlin.inf.dpp.editor.internal;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jface.text.DocumentRewriteSession;
+import org.eclipse.jface.text.DocumentRewriteSessionType;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+
+import de.fu_berlin.inf.dpp.activities.SPath;
+
+/**
+ * Applies several remote text edits to the same document. Starting with the
+ * second edit all edits are performed in one {@link DocumentRewriteSession}, so
+ * the editors showing the document are only redrawn once after the batch was
+ * {@linkplain #close() closed}. The document must stay connected to its
+ * provider until the batch is closed.
+ * <p>
+ * This class must only be used from the SWT thread.
+ */
+public class TextEditBatch {
+
+    private static final Logger LOG = Logger.getLogger(TextEditBatch.class);
+
+    private final SPath path;
+
+    private final IDocument document;
+
+    private DocumentRewriteSession rewriteSession;
+
+    private int edits;
+
+    public TextEditBatch(SPath path, IDocument document) {
+        this.path = path;
+        this.document = document;
+    }
+
+    public SPath getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the document the next edit of this batch has to be applied to.
+     */
+    public IDocument beginEdit() {
+        /*
+         * a single edit, e.g. a typed character, is cheaper to display without
+         * a rewrite session that causes a redraw of the whole editor
+         */
+        if (++edits == 2 && document instanceof IDocumentExtension4)
+            rewriteSession = ((IDocumentExtension4) document)
+                .startRewriteSession(DocumentRewriteSessionType.UNRESTRICTED);
+
+        return document;
+    }
+
+    /**
+     * Ends the rewrite session.
+     */
+    public void close() {
+        if (rewriteSession != null)
+            ((IDocumentExtension4) document).stopRewriteSession(rewriteSession);
+
+        if (edits > 1 && LOG.isTraceEnabled())
+            LOG.trace("applied " + edits + " text edits to document " + path
+                + " at once");
+    }
+}
@@ -1,10 +1,8 @@
 package de.fu_berlin.inf.dpp.negotiation;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -22,23 +20,51 @@ import de.fu_berlin.inf.dpp.monitoring.IProgressMonitor;
 import de.fu_berlin.inf.dpp.monitoring.NullProgressMonitor;
 import de.fu_berlin.inf.dpp.util.CoreUtils;
 
-// TODO java doc
+/**
+ * Compresses files into a zip archive that is written to an output stream.
+ * The output stream does not need to be seekable, so the archive can be
+ * streamed to the remote side while it is created. Files for which the remote
+ * side provided a {@link FileSignature signature} are stored as a
+ * {@link FileDelta delta} if that is smaller than the file.
+ */
 public class CreateArchiveTask implements IWorkspaceRunnable {
 
     private static final int BUFFER_SIZE = 32 * 1024;
 
     private static final Logger LOG = Logger.getLogger(CreateArchiveTask.class);
 
-    private final File archive;
+    private final OutputStream out;
     private final List<IFile> files;
     private final List<String> alias;
+    private final List<FileSignature> signatures;
     private final IProgressMonitor monitor;
 
-    public CreateArchiveTask(final File archive, final List<IFile> files,
-        final List<String> alias, final IProgressMonitor monitor) {
-        this.archive = archive;
+    /**
+     * @param out
+     *            the stream the archive is written to, it is flushed after the
+     *            archive was written completely but never closed
+     * @param files
+     *            the files to compress
+     * @param alias
+     *            the entry names of the files or <code>null</code> to use the
+     *            full path of the files
+     * @param signatures
+     *            the signatures of the remote versions of the files or
+     *            <code>null</code> to send all files completely, a
+     *            <code>null</code> element denotes a file that must be sent
+     *            completely
+     * @param monitor
+     *            monitor that is used for progress report and cancellation or
+     *            <code>null</code> to use the monitor provided by the
+     *            {@link #run(IProgressMonitor)} method
+     */
+    public CreateArchiveTask(final OutputStream out, final List<IFile> files,
+        final List<String> alias, final List<FileSignature> signatures,
+        final IProgressMonitor monitor) {
+        this.out = out;
         this.files = files;
         this.alias = alias;
+        this.signatures = signatures;
         this.monitor = monitor;
     }
 
@@ -50,7 +76,8 @@ public class CreateArchiveTask implements IWorkspaceRunnable {
         if (monitor == null)
             monitor = new NullProgressMonitor();
 
-        assert files.size() == alias.size();
+        assert alias == null || files.size() == alias.size();
+        assert signatures == null || files.size() == signatures.size();
 
         long totalSize = getTotalFileSize(files);
 
@@ -60,20 +87,19 @@ public class CreateArchiveTask implements IWorkspaceRunnable {
         final Iterator<IFile> fileIt = files.iterator();
         final Iterator<String> aliasIt = alias == null ? null : alias
             .iterator();
+        final Iterator<FileSignature> signatureIt = signatures == null ? null
+            : signatures.iterator();
 
         long totalRead = 0L;
 
-        boolean cleanup = true;
+        int deltaCount = 0;
 
         byte[] buffer = new byte[BUFFER_SIZE];
 
-        ZipOutputStream zipStream = null;
-
         monitor.beginTask("Compressing files...", 100 /* percent */);
 
         try {
-            zipStream = new ZipOutputStream(new BufferedOutputStream(
-                new FileOutputStream(archive), BUFFER_SIZE));
+            final ZipOutputStream zipStream = new ZipOutputStream(out);
 
             while (fileIt.hasNext()) {
 
@@ -94,6 +120,28 @@ public class CreateArchiveTask implements IWorkspaceRunnable {
 
                 monitor.subTask("compressing file: " + originalEntryName);
 
+                final FileSignature signature = signatureIt == null ? null
+                    : signatureIt.next();
+
+                if (signature != null
+                    && FileDelta.isApplicable(file.getSize())) {
+
+                    if (monitor.isCanceled())
+                        throw new OperationCanceledException(
+                            "compressing of file '" + originalEntryName
+                                + "' was canceled");
+
+                    final byte[] content = readContents(file);
+
+                    if (writeDelta(zipStream, entryName, content, signature))
+                        deltaCount++;
+
+                    totalRead += content.length;
+
+                    updateMonitor(monitor, totalRead, totalSize);
+                    continue;
+                }
+
                 zipStream.putNextEntry(new ZipEntry(entryName));
 
                 InputStream in = null;
@@ -125,24 +173,59 @@ public class CreateArchiveTask implements IWorkspaceRunnable {
             }
 
             zipStream.finish();
-            cleanup = false;
+            zipStream.flush();
         } finally {
-            IOUtils.closeQuietly(zipStream);
-            if (cleanup && archive != null && archive.exists()
-                && !archive.delete())
-                LOG.warn("could not delete archive file: " + archive);
-
             monitor.done();
         }
 
         stopWatch.stop();
 
-        LOG.debug(String.format("created archive %s I/O: [%s]",
-            archive.getAbsolutePath(),
-            CoreUtils.throughput(archive.length(), stopWatch.getTime())));
+        LOG.debug(String.format(
+            "created archive with %d file(s), %d delta(s) I/O: [%s]",
+            files.size(), deltaCount,
+            CoreUtils.throughput(totalRead, stopWatch.getTime())));
 
     }
 
+    /**
+     * Writes the entry for a file whose remote version is known by its
+     * signature. The entry contains the delta of the file or the complete
+     * content if the delta is not smaller.
+     * 
+     * @return <code>true</code> if the delta was written
+     */
+    private boolean writeDelta(final ZipOutputStream zipStream,
+        final String entryName, final byte[] content,
+        final FileSignature signature) throws IOException {
+
+        final byte[] delta = FileDelta.create(signature, content);
+
+        final boolean useDelta = delta.length < content.length;
+
+        if (useDelta) {
+            zipStream.putNextEntry(FileDelta.createEntry(entryName));
+            zipStream.write(delta);
+        } else {
+            zipStream.putNextEntry(new ZipEntry(entryName));
+            zipStream.write(content);
+        }
+
+        zipStream.closeEntry();
+
+        return useDelta;
+    }
+
+    private static byte[] readContents(final IFile file) throws IOException {
+        InputStream in = null;
+
+        try {
+            in = file.getContents();
+            return IOUtils.toByteArray(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
     private int lastWorked = 0;
 
     private void updateMonitor(final IProgressMonitor monitor,
@@ -1,13 +1,14 @@
 package de.fu_berlin.inf.dpp.negotiation;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
 import java.util.Map;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.OperationCanceledException;
 
@@ -24,19 +25,26 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
     private static final Logger LOG = Logger
         .getLogger(DecompressArchiveTask.class);
 
-    private final File file;
+    private final InputStream in;
+    private final int fileCount;
     private final IProgressMonitor monitor;
     private final Map<String, IProject> idToProjectMapping;
     private final String delimiter;
 
     /**
-     * Creates a decompress task for an archive file that can be executed by
-     * {@link IWorkspace#run}. All necessary folders will be created on the fly.
-     * </P> <b>Important:</b> Existing files will be <b>overwritten without
-     * confirmation</b>!
+     * Creates a decompress task for an archive stream that can be executed by
+     * {@link IWorkspace#run}. The entries of the archive are unpacked while
+     * they are read from the stream. All necessary folders will be created on
+     * the fly. Entries that contain a {@link FileDelta delta} are applied to
+     * the existing files. </P> <b>Important:</b> Existing files will be <b>overwritten
+     * without confirmation</b>!
      * 
-     * @param file
-     *            Zip file containing the compressed data
+     * @param in
+     *            stream containing the compressed data, it is closed after the
+     *            archive was unpacked
+     * @param fileCount
+     *            the number of files the archive contains, an archive with
+     *            fewer files is treated as truncated
      * @param idToProjectMapping
      *            map containing the id to project mapping (see also
      *            {@link ISarosSession#getProjectID(de.fu_berlin.inf.dpp.filesystem.IProject)}
@@ -46,10 +54,11 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
      *            <code>null</code> to use the monitor provided by the
      *            {@link #run(IProgressMonitor)} method
      */
-    public DecompressArchiveTask(final File file,
+    public DecompressArchiveTask(final InputStream in, final int fileCount,
         final Map<String, IProject> idToProjectMapping, final String delimiter,
         final IProgressMonitor monitor) {
-        this.file = file;
+        this.in = in;
+        this.fileCount = fileCount;
         this.idToProjectMapping = idToProjectMapping;
         this.delimiter = delimiter;
         this.monitor = monitor;
@@ -65,19 +74,19 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
         if (this.monitor != null)
             monitor = this.monitor;
 
-        ZipFile zipFile = null;
+        final ZipInputStream zipStream = new ZipInputStream(in);
+
+        int entryCount = 0;
 
         try {
 
-            zipFile = new ZipFile(file);
+            monitor.beginTask("Unpacking archive file to workspace", fileCount);
 
-            monitor.beginTask("Unpacking archive file to workspace",
-                zipFile.size());
+            ZipEntry entry;
 
-            for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries
-                .hasMoreElements();) {
+            while ((entry = zipStream.getNextEntry()) != null) {
 
-                final ZipEntry entry = entries.nextElement();
+                entryCount++;
 
                 final String entryName = entry.getName();
 
@@ -116,33 +125,61 @@ public class DecompressArchiveTask implements IWorkspaceRunnable {
 
                 monitor.subTask("decompressing: " + path);
 
-                final InputStream in = zipFile.getInputStream(entry);
+                // the file implementations close the stream after reading it
+                final InputStream entryStream = new CloseShieldInputStream(
+                    zipStream);
 
                 /*
                  * FIXME make it possible to cancel the task during
                  * decompressing large files
                  */
-                if (!file.exists())
-                    file.create(in, false);
+                if (FileDelta.isDelta(entry))
+                    applyDelta(file, entryStream);
+                else if (!file.exists())
+                    file.create(entryStream, false);
                 else
-                    file.setContents(in, false, true);
+                    file.setContents(entryStream, false, true);
 
                 monitor.worked(1);
 
                 if (LOG.isTraceEnabled())
                     LOG.trace("file written to disk: " + path);
             }
+
+            /*
+             * a stream that ends before the next entry header looks like the
+             * regular end of the archive
+             */
+            if (entryCount < fileCount)
+                throw new IOException("archive is incomplete, received only "
+                    + entryCount + " of " + fileCount + " files");
         } finally {
             if (monitor != null)
                 monitor.done();
 
-            try {
-                if (zipFile != null)
-                    zipFile.close();
-            } catch (IOException e) {
-                LOG.warn("failed to close zip file " + zipFile.getName()
-                    + " : " + e.getMessage());
-            }
+            IOUtils.closeQuietly(zipStream);
         }
     }
+
+    private static void applyDelta(final IFile file, final InputStream delta)
+        throws IOException {
+
+        if (!file.exists())
+            throw new IOException("cannot apply delta to missing file: "
+                + file);
+
+        final byte[] base;
+
+        InputStream in = null;
+
+        try {
+            in = file.getContents();
+            base = IOUtils.toByteArray(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        file.setContents(new ByteArrayInputStream(FileDelta.apply(base, delta)),
+            false, true);
+    }
 }
@@ -1,11 +1,13 @@
 package de.fu_berlin.inf.dpp.negotiation;
 
-import java.io.File;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -44,10 +46,10 @@ import de.fu_berlin.inf.dpp.observables.FileReplacementInProgressObservable;
 import de.fu_berlin.inf.dpp.preferences.IPreferences;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.ISarosSessionManager;
-import de.fu_berlin.inf.dpp.util.CoreUtils;
 import de.fu_berlin.inf.dpp.vcs.VCSAdapter;
 import de.fu_berlin.inf.dpp.vcs.VCSProvider;
 import de.fu_berlin.inf.dpp.vcs.VCSResourceInfo;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 
 // MAJOR TODO refactor this class !!!
 public class IncomingProjectNegotiation extends ProjectNegotiation {
@@ -57,6 +59,8 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
 
     private static int MONITOR_WORK_SCALE = 1000;
 
+    private static final int ARCHIVE_BUFFER_SIZE = 32 * 1024;
+
     private List<ProjectNegotiationData> projectInfos;
 
     @Inject
@@ -71,6 +75,9 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
     @Inject
     private FileReplacementInProgressObservable fileReplacementInProgressObservable;
 
+    @Inject
+    private VersionManager versionManager;
+
     /*
      * FIXME remove this field, it is used as global access variable throughout
      * multiple methods in this class which is error prone !
@@ -205,14 +212,15 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
 
             checkCancellation(CancelOption.NOTIFY_PEER);
 
-            boolean filesMissing = false;
+            int missingFileCount = 0;
 
             for (FileList list : missingFiles)
-                filesMissing |= list.getPaths().size() > 0;
+                missingFileCount += list.getPaths().size();
 
             // Host/Inviter decided to transmit files with one big archive
-            if (filesMissing)
-                acceptArchive(archiveTransferListener, monitor);
+            if (missingFileCount > 0)
+                acceptArchive(archiveTransferListener, missingFileCount,
+                    monitor);
 
             /*
              * We are finished with the exchanging process. Add all projects
@@ -270,32 +278,45 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
     }
 
     /**
-     * Accepts the archive with all missing files and decompress it.
+     * Accepts the archive with all missing files and decompresses it while it
+     * is received.
      */
     private void acceptArchive(
         final ArchiveTransferListener archiveTransferListener,
-        final IProgressMonitor monitor) throws IOException,
-        SarosCancellationException {
-
-        // waiting for the big archive to come in
+        final int fileCount, final IProgressMonitor monitor)
+        throws IOException, SarosCancellationException {
 
         monitor.beginTask(null, 100);
 
-        File archiveFile = receiveArchive(archiveTransferListener, getID(),
-            new SubProgressMonitor(monitor, 50));
+        final IncomingFileTransfer transfer = awaitArchiveTransfer(
+            archiveTransferListener, new SubProgressMonitor(monitor, 1));
 
-        /*
-         * FIXME at this point it makes no sense to report the cancellation to
-         * the remote side, because his negotiation is already finished !
-         */
+        LOG.debug(this + " : receiving archive");
+
+        final InputStream in;
 
         try {
-            unpackArchive(archiveFile, new SubProgressMonitor(monitor, 50));
-            monitor.done();
+            in = transfer.recieveFile();
+        } catch (XMPPException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        }
+
+        boolean isUnpacked = false;
+
+        try {
+            unpackArchive(new BufferedInputStream(in, ARCHIVE_BUFFER_SIZE),
+                fileCount, new SubProgressMonitor(monitor, 99));
+            isUnpacked = true;
+        } catch (IOException e) {
+            // a transfer that is canceled remotely ends with a broken archive
+            checkCancellation(CancelOption.DO_NOT_NOTIFY_PEER);
+            throw e;
         } finally {
-            if (archiveFile != null)
-                archiveFile.delete();
+            if (!isUnpacked)
+                transfer.cancel();
         }
+
+        monitor.done();
     }
 
     /**
@@ -569,8 +590,20 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         LOG.debug(this + " : " + missingFiles.size()
             + " file(s) must be synchronized");
 
-        return missingFiles.isEmpty() ? FileListFactory.createEmptyFileList()
-            : FileListFactory.createFileList(missingFiles);
+        if (missingFiles.isEmpty())
+            return FileListFactory.createEmptyFileList();
+
+        // older versions can neither read signatures nor send deltas
+        if (!versionManager.isFeatureSupported(peer,
+            VersionManager.FILE_DELTA_FEATURE))
+            return FileListFactory.createFileList(missingFiles);
+
+        /*
+         * altered files are usually only slightly outdated, so request them as
+         * deltas against the local version
+         */
+        return FileListFactory.createFileList(project, missingFiles,
+            new HashSet<String>(filesToSynchronize.getAlteredPaths()));
     }
 
     /**
@@ -641,9 +674,9 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         }
     }
 
-    private void unpackArchive(final File archiveFile,
-        final IProgressMonitor monitor) throws LocalCancellationException,
-        IOException {
+    private void unpackArchive(final InputStream archiveStream,
+        final int fileCount, final IProgressMonitor monitor)
+        throws LocalCancellationException, IOException {
 
         final Map<String, de.fu_berlin.inf.dpp.filesystem.IProject> projectMapping = new HashMap<String, de.fu_berlin.inf.dpp.filesystem.IProject>();
 
@@ -651,11 +684,11 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             projectMapping.put(entry.getKey(), entry.getValue());
 
         final DecompressArchiveTask decompressTask = new DecompressArchiveTask(
-            archiveFile, projectMapping, PATH_DELIMITER, monitor);
+            archiveStream, fileCount, projectMapping, PATH_DELIMITER, monitor);
 
         long startTime = System.currentTimeMillis();
 
-        LOG.debug(this + " : unpacking archive file...");
+        LOG.debug(this + " : unpacking archive stream...");
 
         /*
          * TODO: calculate the ADLER32 checksums during decompression and add
@@ -670,8 +703,9 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             decompressTask.run(monitor);
 
         } catch (OperationCanceledException e) {
+            // the remote side is still sending the archive
             throw new LocalCancellationException(null,
-                CancelOption.DO_NOT_NOTIFY_PEER);
+                CancelOption.NOTIFY_PEER);
         }
 
         LOG.debug(String.format("unpacked archive in %d s",
@@ -823,12 +857,11 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
         startActivityQueuingRequestCollector.cancel();
     }
 
-    private File receiveArchive(
-        ArchiveTransferListener archiveTransferListener, String transferID,
-        IProgressMonitor monitor) throws IOException,
-        SarosCancellationException {
+    private IncomingFileTransfer awaitArchiveTransfer(
+        ArchiveTransferListener archiveTransferListener,
+        IProgressMonitor monitor) throws SarosCancellationException {
 
-        monitor.beginTask("Receiving archive file...", 100);
+        monitor.beginTask("Receiving archive file...", 1);
         LOG.debug("waiting for incoming archive stream request");
 
         monitor
@@ -844,37 +877,9 @@ public class IncomingProjectNegotiation extends ProjectNegotiation {
             throw new LocalCancellationException();
         }
 
-        monitor.subTask("Receiving archive file...");
-
-        LOG.debug(this + " : receiving archive");
-
-        IncomingFileTransfer transfer = archiveTransferListener.getRequest()
-            .accept();
-
-        File archiveFile = File.createTempFile(
-            "saros_archive_" + System.currentTimeMillis(), null);
-
-        boolean transferFailed = true;
-
-        try {
-            transfer.recieveFile(archiveFile);
-
-            monitorFileTransfer(transfer, monitor);
-            transferFailed = false;
-        } catch (XMPPException e) {
-            throw new IOException(e.getMessage(), e.getCause());
-        } finally {
-            if (transferFailed)
-                archiveFile.delete();
-        }
-
         monitor.done();
 
-        LOG.debug(this + " : stored archive in file "
-            + archiveFile.getAbsolutePath() + ", size: "
-            + CoreUtils.formatByte(archiveFile.length()));
-
-        return archiveFile;
+        return archiveTransferListener.getRequest().accept();
     }
 
     private void checkProjectMapping(final Map<String, IProject> mapping) {
@@ -1,7 +1,7 @@
 package de.fu_berlin.inf.dpp.negotiation;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -36,6 +36,7 @@ import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.ISarosSessionManager;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.StartHandle;
+import de.fu_berlin.inf.dpp.util.AsyncOutputStream;
 import de.fu_berlin.inf.dpp.vcs.VCSProvider;
 
 public class OutgoingProjectNegotiation extends ProjectNegotiation {
@@ -49,6 +50,19 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
 
     private static final Random NEGOTIATION_ID_GENERATOR = new Random();
 
+    /**
+     * The size of the archive is not known in advance as it is sent while it
+     * is created.
+     */
+    private static final long ARCHIVE_SIZE_UNKNOWN = 0;
+
+    private static final int ARCHIVE_CHUNK_SIZE = 32 * 1024;
+
+    /**
+     * Maximum number of archive chunks that are compressed but not yet sent.
+     */
+    private static final int ARCHIVE_CHUNK_COUNT = 32;
+
     @Inject
     private IEditorManager editorManager;
 
@@ -76,8 +90,6 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
 
         createCollectors();
 
-        File zipArchive = null;
-
         observeMonitor(monitor);
 
         Exception exception = null;
@@ -131,7 +143,11 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
                  */
                 session.userStartedQueuing(user);
 
-                zipArchive = createProjectArchive(fileLists, monitor);
+                /*
+                 * the users must stay stopped until all files are read, they
+                 * are restarted before the rest of the archive is sent
+                 */
+                sendProjectArchive(fileLists, stoppedUsers, monitor);
                 monitor.subTask("");
             } finally {
                 if (stoppedUsers != null)
@@ -140,10 +156,6 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
 
             checkCancellation(CancelOption.NOTIFY_PEER);
 
-            if (zipArchive != null)
-                sendArchive(zipArchive, peer, ARCHIVE_TRANSFER_ID + getID(),
-                    monitor);
-
             User user = session.getUser(peer);
 
             if (user == null)
@@ -155,10 +167,6 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
         } catch (Exception e) {
             exception = e;
         } finally {
-
-            if (zipArchive != null && !zipArchive.delete())
-                LOG.warn("could not delete archive file: "
-                    + zipArchive.getAbsolutePath());
             deleteCollectors();
             monitor.done();
         }
@@ -291,14 +299,22 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
     }
 
     /**
+     * Sends a zip archive containing all files denoted by the file lists to
+     * the remote side. The files are compressed while the archive is sent, so
+     * the archive is never stored completely on either side. Files that the
+     * remote side requested with a signature are sent as a delta. Nothing is
+     * sent if the file lists do not contain any files.
+     * 
      * @param fileLists
      *            a list of file lists containing the files to archive
-     * @return zip file containing all files denoted by the file lists or
-     *         <code>null</code> if the file lists do not contain any files
+     * @param stoppedUsers
+     *            the start handles of the stopped users or <code>null</code>,
+     *            the users are started and the handles are removed as soon as
+     *            all files are read
      */
-    private File createProjectArchive(final List<FileList> fileLists,
-        final IProgressMonitor monitor) throws IOException,
-        SarosCancellationException {
+    private void sendProjectArchive(final List<FileList> fileLists,
+        final List<StartHandle> stoppedUsers, final IProgressMonitor monitor)
+        throws IOException, SarosCancellationException {
 
         boolean skip = true;
 
@@ -310,12 +326,14 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
         }
 
         if (skip)
-            return null;
+            return;
 
         checkCancellation(CancelOption.NOTIFY_PEER);
 
         final List<IFile> filesToCompress = new ArrayList<IFile>(fileCount);
         final List<String> fileAlias = new ArrayList<String>(fileCount);
+        final List<FileSignature> signatures = new ArrayList<FileSignature>(
+            fileCount);
 
         for (final FileList list : fileLists) {
             final String projectID = list.getProjectID();
@@ -346,26 +364,71 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
                 filesToCompress.add(project.getFile(path));
                 aliasBuilder.append(path);
                 fileAlias.add(aliasBuilder.toString());
+                signatures.add(list.getSignature(path));
                 aliasBuilder.setLength(prefixLength);
             }
         }
 
-        LOG.debug(this + " : creating archive");
+        LOG.debug(this + " : sending archive");
+
+        assert fileTransferManager != null;
+
+        final OutgoingFileTransfer transfer = fileTransferManager
+            .createOutgoingFileTransfer(peer.toString());
+
+        final OutputStream out;
+
+        try {
+            out = transfer.sendFile("saros_" + getID() + ".zip",
+                ARCHIVE_SIZE_UNKNOWN, ARCHIVE_TRANSFER_ID + getID());
+        } catch (XMPPException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        final AsyncOutputStream archiveStream = new AsyncOutputStream(out,
+            "dpp-archive-sender-" + peer, ARCHIVE_CHUNK_SIZE,
+            ARCHIVE_CHUNK_COUNT);
 
-        File tempArchive = null;
+        boolean isWritten = false;
 
         try {
-            tempArchive = File.createTempFile("saros_" + getID(), ".zip");
             // TODO run inside workspace ?
-            new CreateArchiveTask(tempArchive, filesToCompress, fileAlias,
-                monitor).run(null);
+            new CreateArchiveTask(archiveStream, filesToCompress, fileAlias,
+                signatures, monitor).run(null);
+            isWritten = true;
         } catch (OperationCanceledException e) {
             throw new LocalCancellationException();
+        } finally {
+            /*
+             * do not close the stream, this would send the buffered data and
+             * end the transfer regularly so the remote side may read a
+             * truncated but otherwise valid archive
+             */
+            if (!isWritten) {
+                transfer.cancel();
+                archiveStream.abort();
+            }
+        }
+
+        /*
+         * all files are read, the rest of the archive is only waiting to be
+         * sent
+         */
+        if (stoppedUsers != null) {
+            startUsers(stoppedUsers);
+            stoppedUsers.clear();
+        }
+
+        try {
+            archiveStream.close();
+        } catch (IOException e) {
+            transfer.cancel();
+            throw e;
         }
 
         monitor.done();
 
-        return tempArchive;
+        LOG.debug(this + " : archive sent");
     }
 
     private void createCollectors() {
@@ -383,30 +446,6 @@ public class OutgoingProjectNegotiation extends ProjectNegotiation {
         startActivityQueuingResponseCollector.cancel();
     }
 
-    private void sendArchive(File archive, JID remoteContact,
-        String transferID, IProgressMonitor monitor)
-        throws SarosCancellationException, IOException {
-
-        LOG.debug(this + " : sending archive");
-        monitor.beginTask("Sending archive file...", 100);
-
-        assert fileTransferManager != null;
-
-        try {
-            OutgoingFileTransfer transfer = fileTransferManager
-                .createOutgoingFileTransfer(remoteContact.toString());
-
-            transfer.sendFile(archive, transferID);
-            monitorFileTransfer(transfer, monitor);
-        } catch (XMPPException e) {
-            throw new IOException(e.getMessage(), e);
-        }
-
-        monitor.done();
-
-        LOG.debug(this + " : archive send");
-    }
-
     /**
      * Method to create list of ProjectExchangeInfo.
      * 
@@ -2,8 +2,14 @@ package de.fu_berlin.inf.dpp.project.internal;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jface.operation.IRunnableContext;
@@ -19,12 +25,16 @@ import de.fu_berlin.inf.dpp.activities.IResourceActivity;
 import de.fu_berlin.inf.dpp.activities.ITargetedActivity;
 import de.fu_berlin.inf.dpp.activities.JupiterActivity;
 import de.fu_berlin.inf.dpp.activities.QueueItem;
+import de.fu_berlin.inf.dpp.activities.SPath;
+import de.fu_berlin.inf.dpp.activities.TextSelectionActivity;
+import de.fu_berlin.inf.dpp.activities.ViewportActivity;
 import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentClient;
 import de.fu_berlin.inf.dpp.concurrent.management.ConcurrentDocumentServer;
 import de.fu_berlin.inf.dpp.concurrent.management.TransformationResult;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.synchronize.UISynchronizer;
+import de.fu_berlin.inf.dpp.util.StripedExecutor;
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
 
 /**
@@ -60,6 +70,22 @@ public final class ActivityHandler implements Startable {
         DISPATCH_MODE = dispatchModeToUse;
     }
 
+    /**
+     * Time in milliseconds the SWT thread may spend on executing received
+     * activities before it is given the chance to process other events, e.g.
+     * to repaint the editors. Activities of the same document that were
+     * received together are always executed at once.
+     */
+    private static final long DISPATCH_TIME_BUDGET = Long.getLong(
+        "de.fu_berlin.inf.dpp.session.ACTIVITY_DISPATCH_TIME_BUDGET", 50);
+
+    /**
+     * Number of threads that transform the activities of different documents
+     * in parallel on the host.
+     */
+    private static final int TRANSFORMATION_STRIPES = Runtime.getRuntime()
+        .availableProcessors();
+
     private final LinkedBlockingQueue<List<IActivity>> dispatchQueue = new LinkedBlockingQueue<List<IActivity>>();
 
     private final IActivityHandlerCallback callback;
@@ -72,6 +98,12 @@ public final class ActivityHandler implements Startable {
 
     private final UISynchronizer synchronizer;
 
+    /**
+     * Transforms the activities of different documents in parallel, only
+     * available on the host
+     */
+    private StripedExecutor transformationExecutor;
+
     /*
      * We must use a thread for synchronous execution otherwise we would block
      * the DispatchThreadContext which handles the dispatching of all network
@@ -79,6 +111,23 @@ public final class ActivityHandler implements Startable {
      */
     private Thread dispatchThread;
 
+    /**
+     * Sends the local text edits that the {@link ConcurrentDocumentClient}
+     * holds back once their merge window has expired
+     */
+    private Timer textEditFlushTimer;
+
+    /** only accessed in the SWT thread */
+    private boolean isTextEditFlushScheduled;
+
+    private final Runnable textEditFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isTextEditFlushScheduled = false;
+            sendPendingTextEdits();
+        }
+    };
+
     private final Runnable dispatchThreadRunnable = new Runnable() {
 
         final List<List<IActivity>> pendingActivities = new ArrayList<List<IActivity>>();
@@ -133,24 +182,113 @@ public final class ActivityHandler implements Startable {
     public synchronized void handleIncomingActivities(List<IActivity> activities) {
 
         if (session.isHost()) {
+            handleIncomingServerActivities(activities);
+            return;
+        }
 
-            /**
-             * @JTourBusStop 8, Activity sending, Activity Server:
-             * 
-             *               This is where the server receives activities. The
-             *               Server may transform activities again if necessary
-             *               and afterward sends them to the correct clients.
-             */
+        dispatchIncomingActivities(activities);
+    }
+
+    /**
+     * Transforms and dispatches the activities on the host. Activities of
+     * different documents are transformed in parallel, activities of the same
+     * document are transformed in the order they were received. All other
+     * activities are handled after all previously received activities were
+     * handled.
+     */
+    private void handleIncomingServerActivities(List<IActivity> activities) {
+
+        final Map<SPath, List<IActivity>> documentActivities = new LinkedHashMap<SPath, List<IActivity>>();
+
+        for (IActivity activity : activities) {
+            SPath path = getDocumentPath(activity);
+
+            if (path != null) {
+                List<IActivity> pathActivities = documentActivities.get(path);
 
-            TransformationResult result = directServerActivities(activities);
-            activities = result.getLocalActivities();
-            for (QueueItem item : result.getSendToPeers()) {
+                if (pathActivities == null) {
+                    pathActivities = new ArrayList<IActivity>();
+                    documentActivities.put(path, pathActivities);
+                }
 
-                List<User> recipients = getRecipientsForQueueItem(item);
-                callback.send(recipients, item.activity);
+                pathActivities.add(activity);
+                continue;
             }
+
+            submitServerActivities(documentActivities);
+            documentActivities.clear();
+
+            try {
+                transformationExecutor.await();
+            } catch (InterruptedException e) {
+                LOG.warn("interrupted while waiting for pending transformations");
+                Thread.currentThread().interrupt();
+            }
+
+            transformAndDispatchServerActivities(Collections
+                .singletonList(activity));
         }
 
+        submitServerActivities(documentActivities);
+    }
+
+    private void submitServerActivities(
+        Map<SPath, List<IActivity>> documentActivities) {
+
+        for (Entry<SPath, List<IActivity>> entry : documentActivities
+            .entrySet()) {
+
+            final List<IActivity> activities = entry.getValue();
+
+            transformationExecutor.execute(entry.getKey(),
+                ThreadUtils.wrapSafe(LOG, new Runnable() {
+                    @Override
+                    public void run() {
+                        transformAndDispatchServerActivities(activities);
+                    }
+                }));
+        }
+    }
+
+    private void transformAndDispatchServerActivities(
+        List<IActivity> activities) {
+
+        /**
+         * @JTourBusStop 8, Activity sending, Activity Server:
+         * 
+         *               This is where the server receives activities. The
+         *               Server may transform activities again if necessary
+         *               and afterward sends them to the correct clients.
+         */
+
+        TransformationResult result = directServerActivities(activities);
+
+        for (QueueItem item : result.getSendToPeers()) {
+
+            List<User> recipients = getRecipientsForQueueItem(item);
+            callback.send(recipients, item.activity);
+        }
+
+        dispatchIncomingActivities(result.getLocalActivities());
+    }
+
+    /**
+     * Returns the path of the document the activity belongs to if the activity
+     * can be handled concurrently to activities of other documents, otherwise
+     * <code>null</code>.
+     */
+    private static SPath getDocumentPath(IActivity activity) {
+        if (activity instanceof JupiterActivity
+            || activity instanceof ChecksumActivity
+            || activity instanceof TextSelectionActivity
+            || activity instanceof ViewportActivity)
+            return ((IResourceActivity) activity).getPath();
+
+        return null;
+    }
+
+    private void dispatchIncomingActivities(List<IActivity> activities) {
+
         /**
          * @JTourBusStop 9, Activity sending, Client Receiver:
          * 
@@ -242,21 +380,62 @@ public final class ActivityHandler implements Startable {
 
             @Override
             public void run() {
-                for (IActivity activity : activities) {
+                for (IActivity activity : activities)
+                    sendToHost(documentClient.transformToJupiter(activity));
+
+                scheduleTextEditFlush();
+            }
+        }));
+    }
 
-                    IActivity transformationResult = documentClient
-                        .transformToJupiter(activity);
+    private void sendToHost(List<IActivity> transformedActivities) {
+        for (IActivity transformedActivity : transformedActivities)
+            callback.send(Collections.singletonList(session.getHost()),
+                transformedActivity);
+    }
 
-                    callback.send(Collections.singletonList(session.getHost()),
-                        transformationResult);
+    /**
+     * Sends the text edits that are held back by the document client. Must be
+     * called in the SWT thread.
+     */
+    private void sendPendingTextEdits() {
+        if (documentClient.hasPendingTextEdits())
+            sendToHost(documentClient.flushTextEdits());
+    }
 
+    /**
+     * Schedules sending the text edits that are held back by the document
+     * client after their merge window has expired. Must be called in the SWT
+     * thread.
+     */
+    private void scheduleTextEditFlush() {
+        if (isTextEditFlushScheduled || !documentClient.hasPendingTextEdits())
+            return;
+
+        try {
+            textEditFlushTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    synchronizer.asyncExec(ThreadUtils.wrapSafe(LOG,
+                        textEditFlushRunnable));
                 }
-            }
-        }));
+            }, ConcurrentDocumentClient.TEXT_EDIT_MERGE_WINDOW);
+
+            isTextEditFlushScheduled = true;
+        } catch (IllegalStateException e) {
+            // handler is already stopped
+            LOG.warn("dropping pending text edits, handler is stopped");
+        }
     }
 
     @Override
     public void start() {
+        textEditFlushTimer = new Timer("dpp-text-edit-flusher", true);
+
+        if (session.isHost())
+            transformationExecutor = new StripedExecutor(
+                "dpp-activity-transformer", TRANSFORMATION_STRIPES);
+
         if (DISPATCH_MODE == DISPATCH_MODE_ASYNC)
             return;
 
@@ -266,6 +445,11 @@ public final class ActivityHandler implements Startable {
 
     @Override
     public void stop() {
+        textEditFlushTimer.cancel();
+
+        if (transformationExecutor != null)
+            stopTransformationExecutor();
+
         if (DISPATCH_MODE == DISPATCH_MODE_ASYNC)
             return;
 
@@ -283,11 +467,28 @@ public final class ActivityHandler implements Startable {
             LOG.error(dispatchThread.getName() + " thread is still running");
     }
 
+    private void stopTransformationExecutor() {
+        transformationExecutor.shutdown();
+
+        try {
+            if (!transformationExecutor.awaitTermination(TIMEOUT,
+                TimeUnit.MILLISECONDS))
+                LOG.error("pending activity transformations did not finish");
+        } catch (InterruptedException e) {
+            LOG.warn("interrupted while waiting for pending activity transformations");
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * 
      * Executes the current activities by dispatching the received activities to
      * the SWT EDT.
      * 
+     * A long list of activities is executed in several steps, each taking
+     * about {@link #DISPATCH_TIME_BUDGET} milliseconds, so the SWT EDT can
+     * repaint the editors in between.
+     * 
      * We must use synchronous dispatching as it is possible that some handlers
      * or Eclipse itself open dialogs during the execution of an activity.
      * 
@@ -331,54 +532,14 @@ public final class ActivityHandler implements Startable {
      * SWT thread. Else, it would be possible that local activities are executed
      * between transformation and application of remote operations. In other
      * words, the transformation would be applied to an out-dated state.
+     * Executing the activities in several steps is safe as every single
+     * activity is still transformed and executed at once.
      */
     private void dispatchAndExecuteActivities(final List<IActivity> activities) {
 
         final List<IActivity> optimizedActivities = ActivityOptimizer
             .optimize(activities);
 
-        final Runnable transformingRunnable = new Runnable() {
-            @Override
-            public void run() {
-
-                for (IActivity activity : optimizedActivities) {
-
-                    User source = activity.getSource();
-
-                    /*
-                     * Ensure that we do not execute activities after all
-                     * listeners were notified (See SarosSession#removeUser). It
-                     * is still possible that a user may left during activity
-                     * execution but this is likely no to produce any errors.
-                     * 
-                     * TODO: as the notification for users who left the session
-                     * is send in parallel with the activities there will be
-                     * race conditions were one user may execute a given
-                     * activity but another user will not which may lead to
-                     * unwanted inconsistencies if that activity was a resource
-                     * activity.
-                     */
-                    if (!source.isInSession()) {
-                        LOG.warn("dropping activity for user that is no longer in session: "
-                            + activity);
-                        continue;
-                    }
-
-                    List<IActivity> transformedActivities = documentClient
-                        .transformFromJupiter(activity);
-
-                    for (IActivity transformedActivity : transformedActivities) {
-                        try {
-                            callback.execute(transformedActivity);
-                        } catch (Exception e) {
-                            LOG.error(
-                                "failed to execute activity: " + activity, e);
-                        }
-                    }
-                }
-            }
-        };
-
         if (LOG.isTraceEnabled()) {
 
             if (optimizedActivities.size() != activities.size()) {
@@ -391,12 +552,115 @@ public final class ActivityHandler implements Startable {
                 + optimizedActivities);
         }
 
-        if (DISPATCH_MODE == DISPATCH_MODE_SYNC)
-            synchronizer.syncExec(ThreadUtils.wrapSafe(LOG,
-                transformingRunnable));
-        else
+        if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) {
             synchronizer.asyncExec(ThreadUtils.wrapSafe(LOG,
-                transformingRunnable));
+                new ExecutingRunnable(optimizedActivities, Long.MAX_VALUE)));
+            return;
+        }
+
+        final ExecutingRunnable executingRunnable = new ExecutingRunnable(
+            optimizedActivities, DISPATCH_TIME_BUDGET);
+
+        while (!executingRunnable.isDone()) {
+            final int executed = executingRunnable.getExecutedCount();
+
+            synchronizer.syncExec(ThreadUtils.wrapSafe(LOG, executingRunnable));
+
+            if (executingRunnable.getExecutedCount() == executed) {
+                LOG.error("SWT thread did not execute any activities, dropping: "
+                    + executingRunnable.getRemainingActivities());
+                break;
+            }
+        }
+    }
+
+    /**
+     * Transforms and executes a list of activities in the SWT thread. Every
+     * run executes the activities until the time budget is exhausted and must
+     * be repeated until {@linkplain #isDone() all activities} are executed.
+     * Consecutive activities of the same document are executed in the same
+     * run, so the editor of the document is only updated once.
+     */
+    private final class ExecutingRunnable implements Runnable {
+
+        private final List<IActivity> activities;
+
+        private final long timeBudget;
+
+        private int next;
+
+        private ExecutingRunnable(List<IActivity> activities, long timeBudget) {
+            this.activities = activities;
+            this.timeBudget = timeBudget;
+        }
+
+        private boolean isDone() {
+            return next >= activities.size();
+        }
+
+        private int getExecutedCount() {
+            return next;
+        }
+
+        private List<IActivity> getRemainingActivities() {
+            return activities.subList(next, activities.size());
+        }
+
+        @Override
+        public void run() {
+            final long start = System.currentTimeMillis();
+
+            while (!isDone()) {
+                final SPath path = getDocumentPath(activities.get(next));
+
+                do {
+                    execute(activities.get(next++));
+                } while (path != null && !isDone()
+                    && path.equals(getDocumentPath(activities.get(next))));
+
+                if (System.currentTimeMillis() - start >= timeBudget)
+                    break;
+            }
+
+            /*
+             * the document client passes held back text edits to Jupiter
+             * before it transforms a remote operation
+             */
+            sendPendingTextEdits();
+        }
+
+        private void execute(IActivity activity) {
+            User source = activity.getSource();
+
+            /*
+             * Ensure that we do not execute activities after all listeners
+             * were notified (See SarosSession#removeUser). It is still possible
+             * that a user may left during activity execution but this is
+             * likely no to produce any errors.
+             * 
+             * TODO: as the notification for users who left the session is send
+             * in parallel with the activities there will be race conditions
+             * were one user may execute a given activity but another user will
+             * not which may lead to unwanted inconsistencies if that activity
+             * was a resource activity.
+             */
+            if (!source.isInSession()) {
+                LOG.warn("dropping activity for user that is no longer in session: "
+                    + activity);
+                return;
+            }
+
+            List<IActivity> transformedActivities = documentClient
+                .transformFromJupiter(activity);
+
+            for (IActivity transformedActivity : transformedActivities) {
+                try {
+                    callback.execute(transformedActivity);
+                } catch (Exception e) {
+                    LOG.error("failed to execute activity: " + activity, e);
+                }
+            }
+        }
     }
 
     /**
@@ -416,14 +680,29 @@ public final class ActivityHandler implements Startable {
         final List<User> remoteUsers = session.getRemoteUsers();
         final List<User> allUsers = session.getUsers();
 
+        /*
+         * consecutive document activities are transformed at once, so the
+         * server can merge the operations of a typing burst
+         */
+        final List<IActivity> documentActivities = new ArrayList<IActivity>();
+
         for (IActivity activity : activities) {
             documentServer.checkFileDeleted(activity);
 
             if (activity instanceof JupiterActivity
                 || activity instanceof ChecksumActivity) {
 
-                result.addAll(documentServer.transformIncoming(activity));
-            } else if (activity instanceof ITargetedActivity) {
+                documentActivities.add(activity);
+                continue;
+            }
+
+            if (!documentActivities.isEmpty()) {
+                result.addAll(documentServer
+                    .transformIncoming(documentActivities));
+                documentActivities.clear();
+            }
+
+            if (activity instanceof ITargetedActivity) {
                 ITargetedActivity target = (ITargetedActivity) activity;
                 result.add(new QueueItem(target.getTarget(), activity));
 
@@ -446,6 +725,10 @@ public final class ActivityHandler implements Startable {
                 result.executeLocally.add(activity);
             }
         }
+
+        if (!documentActivities.isEmpty())
+            result.addAll(documentServer.transformIncoming(documentActivities));
+
         return result;
     }
 }
@@ -38,6 +38,9 @@ import org.picocontainer.Startable;
 import de.fu_berlin.inf.dpp.activities.ActivityOptimizer;
 import de.fu_berlin.inf.dpp.activities.IActivity;
 import de.fu_berlin.inf.dpp.communication.extensions.ActivitiesExtension;
+import de.fu_berlin.inf.dpp.misc.binary.ActivitiesExtensionCodec;
+import de.fu_berlin.inf.dpp.misc.binary.ActivitiesExtensionCodec.BroadcastEncoder;
+import de.fu_berlin.inf.dpp.misc.binary.IBinaryCodec;
 import de.fu_berlin.inf.dpp.net.DispatchThreadContext;
 import de.fu_berlin.inf.dpp.net.IReceiver;
 import de.fu_berlin.inf.dpp.net.ITransmitter;
@@ -45,6 +48,7 @@ import de.fu_berlin.inf.dpp.net.xmpp.JID;
 import de.fu_berlin.inf.dpp.session.ISarosSession;
 import de.fu_berlin.inf.dpp.session.User;
 import de.fu_berlin.inf.dpp.util.ThreadUtils;
+import de.fu_berlin.inf.dpp.versioning.VersionManager;
 
 /**
  * The ActivitySequencer is responsible for making sure that transformed
@@ -147,11 +151,7 @@ public class ActivitySequencer implements Startable {
                     }
                 }
 
-                for (Entry<JID, SequencedActivities> e : activitiesToSend
-                    .entrySet()) {
-                    sendActivities(e.getKey(), e.getValue().activites,
-                        e.getValue().sequenceNumber);
-                }
+                sendActivities(activitiesToSend);
 
                 synchronized (bufferedOutgoingActivities) {
                     for (Entry<JID, ActivityBuffer<IActivity>> entry : bufferedOutgoingActivities
@@ -190,15 +190,19 @@ public class ActivitySequencer implements Startable {
 
     private final DispatchThreadContext dispatchThread;
 
+    private final VersionManager versionManager;
+
     private final Map<JID, ActivityBuffer<IActivity>> bufferedIncomingActivities;
 
     private final Map<JID, ActivityBuffer<IActivity>> bufferedOutgoingActivities;
 
     public ActivitySequencer(final ISarosSession sarosSession,
         final ITransmitter transmitter, final IReceiver receiver,
-        final DispatchThreadContext threadContext) {
+        final DispatchThreadContext threadContext,
+        final VersionManager versionManager) {
 
         this.dispatchThread = threadContext;
+        this.versionManager = versionManager;
         this.sarosSession = sarosSession;
         this.transmitter = transmitter;
         this.receiver = receiver;
@@ -479,15 +483,32 @@ public class ActivitySequencer implements Startable {
         }
     }
 
+    /**
+     * Sends the activities to their recipients. The host usually sends the
+     * same activities or the same transformed operations to several
+     * participants, so the binary representations of all recipients are
+     * created by one {@link BroadcastEncoder} that encodes these parts only
+     * once.
+     */
+    private void sendActivities(Map<JID, SequencedActivities> activitiesToSend) {
+
+        final BroadcastEncoder encoder = activitiesToSend.size() > 1 ? createBroadcastEncoder()
+            : null;
+
+        for (Entry<JID, SequencedActivities> e : activitiesToSend.entrySet()) {
+            sendActivities(e.getKey(), e.getValue().activites,
+                e.getValue().sequenceNumber, encoder);
+        }
+    }
+
     private void sendActivities(JID recipient, List<IActivity> activities,
-        int sequenceNumber) {
+        int sequenceNumber, BroadcastEncoder encoder) {
 
         if (activities.size() == 0)
             return;
 
-        PacketExtension activityPacketExtension = ActivitiesExtension.PROVIDER
-            .create(new ActivitiesExtension(currentSessionID, activities,
-                sequenceNumber));
+        ActivitiesExtension extension = new ActivitiesExtension(
+            currentSessionID, activities, sequenceNumber);
 
         if (LOG.isTraceEnabled()) {
             LOG.trace("send (" + String.format("%03d", activities.size())
@@ -498,6 +519,18 @@ public class ActivitySequencer implements Startable {
         }
 
         try {
+            PacketExtension activityPacketExtension;
+
+            if (!isBinaryEncodingSupported(recipient))
+                activityPacketExtension = ActivitiesExtension.PROVIDER
+                    .create(extension);
+            else if (encoder == null)
+                activityPacketExtension = ActivitiesExtension.BINARY_PROVIDER
+                    .create(extension);
+            else
+                activityPacketExtension = ActivitiesExtension.BINARY_PROVIDER
+                    .create(extension, encoder.encode(extension));
+
             transmitter.send(ISarosSession.SESSION_CONNECTION_ID, recipient,
                 activityPacketExtension);
         } catch (IOException e) {
@@ -508,6 +541,32 @@ public class ActivitySequencer implements Startable {
         }
     }
 
+    /**
+     * Returns whether the activities for the given recipient can be sent in
+     * their binary representation. Older peers only understand the XStream
+     * representation.
+     */
+    private boolean isBinaryEncodingSupported(JID recipient) {
+        return versionManager != null
+            && ActivitiesExtension.BINARY_PROVIDER.isCodecAvailable()
+            && versionManager.isFeatureSupported(recipient,
+                VersionManager.BINARY_ACTIVITIES_FEATURE);
+    }
+
+    /**
+     * Returns a new broadcast encoder of the currently registered binary codec
+     * or <code>null</code> if the codec does not support broadcasts.
+     */
+    private static BroadcastEncoder createBroadcastEncoder() {
+        IBinaryCodec<ActivitiesExtension> codec = ActivitiesExtension.BINARY_PROVIDER
+            .getCodec();
+
+        if (!(codec instanceof ActivitiesExtensionCodec))
+            return null;
+
+        return ((ActivitiesExtensionCodec) codec).createBroadcastEncoder();
+    }
+
     private void receiveActivities(Packet activityPacket) {
 
         /* *
@@ -8,6 +8,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -36,14 +37,42 @@ class SarosProjectMapper {
         .getLogger(SarosProjectMapper.class);
 
     /**
-     * Mapping from project IDs to currently registered shared projects.
+     * Immutable view of the currently shared projects. It is replaced as a
+     * whole when a project is added or removed, so the lookup methods never
+     * have to acquire the lock of the mapper.
      */
-    private Map<String, IProject> idToProjectMapping = new HashMap<String, IProject>();
+    private static final class Snapshot {
+
+        /**
+         * Mapping from project IDs to currently registered shared projects.
+         */
+        private final Map<String, IProject> idToProjectMapping;
+
+        /**
+         * Mapping from currently registered shared projects to their id's.
+         */
+        private final Map<IProject, String> projectToIDMapping;
+
+        /**
+         * Map containing the partially shared resources for each shared
+         * project. The value is <code>null</code> for completely shared
+         * projects. The sets are thread safe and modified in place.
+         */
+        private final Map<IProject, Set<IResource>> partiallySharedResourceMapping;
+
+        private Snapshot(Map<String, IProject> idToProjectMapping,
+            Map<IProject, String> projectToIDMapping,
+            Map<IProject, Set<IResource>> partiallySharedResourceMapping) {
+            this.idToProjectMapping = idToProjectMapping;
+            this.projectToIDMapping = projectToIDMapping;
+            this.partiallySharedResourceMapping = partiallySharedResourceMapping;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(
+        new HashMap<String, IProject>(), new HashMap<IProject, String>(),
+        new HashMap<IProject, Set<IResource>>());
 
-    /**
-     * Mapping from currently registered shared projects to their id's.
-     */
-    private Map<IProject, String> projectToIDMapping = new HashMap<IProject, String>();
     /**
      * Mapping of which user shared which project in the session. Needed for
      * partial sharing when the Needbased Feature is enabled.
@@ -67,18 +96,6 @@ class SarosProjectMapper {
      */
     private HashMap<User, List<String>> projectsOfUsers = new HashMap<User, List<String>>();
 
-    /**
-     * Map containing the partially shared resources for each shared project.
-     * The value is <code>null</code> for completely shared projects.
-     */
-    private HashMap<IProject, Set<IResource>> partiallySharedResourceMapping = new HashMap<IProject, Set<IResource>>();
-
-    /** Set containing the currently completely shared projects. */
-    private Set<IProject> completelySharedProjects = new HashSet<IProject>();
-
-    /** Set containing the currently partially shared projects. */
-    private Set<IProject> partiallySharedProjects = new HashSet<IProject>();
-
     SarosProjectMapper() {
         // NOP
     }
@@ -108,7 +125,6 @@ class SarosProjectMapper {
      */
     public synchronized void addProject(String id, IProject project,
         boolean isPartially) {
-        boolean upgrade = false;
 
         if (id == null)
             throw new NullPointerException("id is null");
@@ -116,8 +132,10 @@ class SarosProjectMapper {
         if (project == null)
             throw new NullPointerException("project is null");
 
-        String currentProjectID = projectToIDMapping.get(project);
-        IProject currentProject = idToProjectMapping.get(id);
+        final Snapshot current = snapshot;
+
+        String currentProjectID = current.projectToIDMapping.get(project);
+        IProject currentProject = current.idToProjectMapping.get(id);
 
         if (currentProjectID != null && !id.equals(currentProjectID)) {
             throw new IllegalStateException("cannot assign ID " + id
@@ -131,51 +149,51 @@ class SarosProjectMapper {
                 + project + " is already used by project " + currentProject);
         }
 
-        if (isPartially && partiallySharedProjects.contains(project))
+        if (isPartially && isPartiallyShared(project))
             throw new IllegalStateException("project " + project
                 + " is already partially shared");
 
-        if (!isPartially && completelySharedProjects.contains(project))
+        if (!isPartially && isCompletelyShared(project))
             throw new IllegalStateException("project " + project
                 + " is already completely shared");
 
-        if (isPartially && completelySharedProjects.contains(project))
+        if (isPartially && isCompletelyShared(project))
             throw new IllegalStateException(
                 "project "
                     + project
                     + " is already completely shared (cannot downgrade a completely shared project)");
 
-        if (!isPartially && partiallySharedProjects.contains(project)) {
-            partiallySharedProjects.remove(project);
-            upgrade = true;
+        final boolean upgrade = !isPartially && isPartiallyShared(project);
+
+        Map<String, IProject> idToProjectMapping = current.idToProjectMapping;
+        Map<IProject, String> projectToIDMapping = current.projectToIDMapping;
+
+        if (!upgrade) {
+            idToProjectMapping = new HashMap<String, IProject>(
+                idToProjectMapping);
+            projectToIDMapping = new HashMap<IProject, String>(
+                projectToIDMapping);
+
+            idToProjectMapping.put(id, project);
+            projectToIDMapping.put(project, id);
         }
 
-        if (isPartially)
-            partiallySharedProjects.add(project);
-        else
-            completelySharedProjects.add(project);
+        Map<IProject, Set<IResource>> partiallySharedResourceMapping = new HashMap<IProject, Set<IResource>>(
+            current.partiallySharedResourceMapping);
 
-        assert Collections.disjoint(completelySharedProjects,
-            partiallySharedProjects);
+        // an upgrade releases the resources
+        partiallySharedResourceMapping.put(project,
+            isPartially ? createResourceSet() : null);
 
-        if (upgrade) {
-            // release resources
-            partiallySharedResourceMapping.put(project, null);
+        snapshot = new Snapshot(idToProjectMapping, projectToIDMapping,
+            partiallySharedResourceMapping);
 
+        if (upgrade) {
             LOG.debug("upgraded partially shared project " + project
                 + " with ID " + id + " to a completely shared project");
             return;
         }
 
-        idToProjectMapping.put(id, project);
-        projectToIDMapping.put(project, id);
-
-        if (isPartially)
-            partiallySharedResourceMapping.put(project,
-                new HashSet<IResource>());
-        else
-            partiallySharedResourceMapping.put(project, null);
-
         LOG.debug("added project " + project + " with ID " + id
             + " [completely shared:" + !isPartially + "]");
     }
@@ -188,7 +206,9 @@ class SarosProjectMapper {
      *            the id of the project to remove
      */
     public synchronized void removeProject(String id) {
-        IProject project = idToProjectMapping.get(id);
+        final Snapshot current = snapshot;
+
+        IProject project = current.idToProjectMapping.get(id);
 
         if (project == null) {
             LOG.warn("could not remove project, no project is registerid with ID: "
@@ -196,15 +216,20 @@ class SarosProjectMapper {
             return;
         }
 
-        if (partiallySharedProjects.contains(project))
-            partiallySharedProjects.remove(project);
-        else
-            completelySharedProjects.remove(project);
+        Map<String, IProject> idToProjectMapping = new HashMap<String, IProject>(
+            current.idToProjectMapping);
+        Map<IProject, String> projectToIDMapping = new HashMap<IProject, String>(
+            current.projectToIDMapping);
+        Map<IProject, Set<IResource>> partiallySharedResourceMapping = new HashMap<IProject, Set<IResource>>(
+            current.partiallySharedResourceMapping);
 
         idToProjectMapping.remove(id);
         projectToIDMapping.remove(project);
         partiallySharedResourceMapping.remove(project);
 
+        snapshot = new Snapshot(idToProjectMapping, projectToIDMapping,
+            partiallySharedResourceMapping);
+
         LOG.debug("removed project " + project + " with ID " + id);
 
     }
@@ -267,7 +292,7 @@ class SarosProjectMapper {
     public synchronized void addResources(IProject project,
         Collection<? extends IResource> resources) {
 
-        if (projectToIDMapping.get(project) == null) {
+        if (getID(project) == null) {
             LOG.warn("could not add resources to project " + project
                 + " because it is not shared");
             // throw new IllegalStateException(
@@ -276,7 +301,7 @@ class SarosProjectMapper {
             return;
         }
 
-        if (completelySharedProjects.contains(project)) {
+        if (isCompletelyShared(project)) {
             LOG.warn("cannot add resources to completely shared project: "
                 + project);
             // throw new IllegalStateException(
@@ -284,18 +309,7 @@ class SarosProjectMapper {
             return;
         }
 
-        Set<IResource> partiallySharedResources = partiallySharedResourceMapping
-            .get(project);
-
-        if (partiallySharedResources.isEmpty()) {
-            partiallySharedResources = new HashSet<IResource>(Math.max(1024,
-                (resources.size() * 3) / 2));
-
-            partiallySharedResourceMapping.put(project,
-                partiallySharedResources);
-        }
-
-        partiallySharedResources.addAll(resources);
+        snapshot.partiallySharedResourceMapping.get(project).addAll(resources);
     }
 
     /**
@@ -315,7 +329,7 @@ class SarosProjectMapper {
     public synchronized void removeResources(IProject project,
         Collection<? extends IResource> resources) {
 
-        if (projectToIDMapping.get(project) == null) {
+        if (getID(project) == null) {
             LOG.warn("could not remove resources from project " + project
                 + " because it is not shared");
             // throw new IllegalStateException(
@@ -324,7 +338,7 @@ class SarosProjectMapper {
             return;
         }
 
-        if (completelySharedProjects.contains(project)) {
+        if (isCompletelyShared(project)) {
             LOG.warn("cannot remove resources from completely shared project: "
                 + project);
             // throw new IllegalStateException(
@@ -333,15 +347,14 @@ class SarosProjectMapper {
             return;
         }
 
-        Set<IResource> partiallySharedResources = partiallySharedResourceMapping
-            .get(project);
-
-        partiallySharedResources.removeAll(resources);
+        snapshot.partiallySharedResourceMapping.get(project).removeAll(
+            resources);
     }
 
     /**
-     * Atomically removes and adds resources. The resources to remove will be
-     * removed first before the resources to add will be added.
+     * Removes and adds resources. The resources to remove will be removed
+     * first before the resources to add will be added. Concurrent calls of
+     * {@link #isShared(IResource)} may observe the state in between.
      * 
      * @param project
      *            a project that was added as a partially shared project
@@ -372,8 +385,8 @@ class SarosProjectMapper {
      * @return the ID for the shared project or <code>null</code> if the project
      *         is not shared
      */
-    public synchronized String getID(IProject project) {
-        return projectToIDMapping.get(project);
+    public String getID(IProject project) {
+        return snapshot.projectToIDMapping.get(project);
     }
 
     /**
@@ -383,8 +396,8 @@ class SarosProjectMapper {
      * @return the shared project for the given ID or <code>null</code> if no
      *         shared project is registered with this ID
      */
-    public synchronized IProject getProject(String id) {
-        return idToProjectMapping.get(id);
+    public IProject getProject(String id) {
+        return snapshot.idToProjectMapping.get(id);
     }
 
     /**
@@ -394,24 +407,28 @@ class SarosProjectMapper {
      * @param resource
      * @return
      */
-    public synchronized boolean isShared(IResource resource) {
+    public boolean isShared(IResource resource) {
         if (resource == null)
             return false;
 
+        final Snapshot current = snapshot;
+
         if (resource.getType() == IResource.PROJECT)
-            return idToProjectMapping.containsValue(resource);
+            return current.projectToIDMapping.containsKey(resource);
 
         IProject project = resource.getProject();
 
-        if (!idToProjectMapping.containsValue(project))
+        if (!current.partiallySharedResourceMapping.containsKey(project))
             return false;
 
-        if (isCompletelyShared(project))
+        Set<IResource> partiallySharedResources = current.partiallySharedResourceMapping
+            .get(project);
+
+        if (partiallySharedResources == null)
             // TODO how should partial sharing handle this case ?
             return !resource.isDerived(true);
         else
-            return partiallySharedResourceMapping.get(project).contains(
-                resource);
+            return partiallySharedResources.contains(resource);
     }
 
     /**
@@ -419,8 +436,8 @@ class SarosProjectMapper {
      * 
      * @return
      */
-    public synchronized Set<IProject> getProjects() {
-        return new HashSet<IProject>(idToProjectMapping.values());
+    public Set<IProject> getProjects() {
+        return new HashSet<IProject>(snapshot.idToProjectMapping.values());
     }
 
     /**
@@ -428,18 +445,21 @@ class SarosProjectMapper {
      * 
      * @return
      */
-    public synchronized List<IResource> getPartiallySharedResources() {
+    public List<IResource> getPartiallySharedResources() {
+        final Snapshot current = snapshot;
 
         int size = 0;
 
-        for (Set<IResource> resources : partiallySharedResourceMapping.values())
+        for (Set<IResource> resources : current.partiallySharedResourceMapping
+            .values())
             if (resources != null)
                 size += resources.size();
 
         List<IResource> partiallySharedResources = new ArrayList<IResource>(
             size);
 
-        for (Set<IResource> resources : partiallySharedResourceMapping.values())
+        for (Set<IResource> resources : current.partiallySharedResourceMapping
+            .values())
             if (resources != null)
                 partiallySharedResources.addAll(resources);
 
@@ -451,8 +471,8 @@ class SarosProjectMapper {
      * 
      * @return
      */
-    public synchronized int size() {
-        return idToProjectMapping.size();
+    public int size() {
+        return snapshot.idToProjectMapping.size();
     }
 
     /**
@@ -462,11 +482,11 @@ class SarosProjectMapper {
      * 
      * @return
      */
-    public synchronized Map<IProject, List<IResource>> getProjectResourceMapping() {
+    public Map<IProject, List<IResource>> getProjectResourceMapping() {
 
         Map<IProject, List<IResource>> result = new HashMap<IProject, List<IResource>>();
 
-        for (Map.Entry<IProject, Set<IResource>> entry : partiallySharedResourceMapping
+        for (Map.Entry<IProject, Set<IResource>> entry : snapshot.partiallySharedResourceMapping
             .entrySet()) {
 
             List<IResource> partiallySharedResources = null;
@@ -489,8 +509,11 @@ class SarosProjectMapper {
      * @return <code>true</code> if the project is completely shared,
      *         <code>false</code> if the project is not or partially shared
      */
-    public synchronized boolean isCompletelyShared(IProject project) {
-        return completelySharedProjects.contains(project);
+    public boolean isCompletelyShared(IProject project) {
+        final Snapshot current = snapshot;
+
+        return current.partiallySharedResourceMapping.containsKey(project)
+            && current.partiallySharedResourceMapping.get(project) == null;
     }
 
     /**
@@ -501,8 +524,8 @@ class SarosProjectMapper {
      * @return <code>true</code> if the project is partially shared,
      *         <code>false</code> if the project is not or completely shared
      */
-    public synchronized boolean isPartiallyShared(IProject project) {
-        return partiallySharedProjects.contains(project);
+    public boolean isPartiallyShared(IProject project) {
+        return snapshot.partiallySharedResourceMapping.get(project) != null;
     }
 
     /**
@@ -527,10 +550,8 @@ class SarosProjectMapper {
      * @param user
      */
     public synchronized void addMissingProjectsToUser(User user) {
-        List<String> projects = new ArrayList<String>();
-        for (String project : idToProjectMapping.keySet()) {
-            projects.add(project);
-        }
+        List<String> projects = new ArrayList<String>(
+            snapshot.idToProjectMapping.keySet());
 
         this.projectsOfUsers.put(user, projects);
     }
@@ -541,4 +562,9 @@ class SarosProjectMapper {
     public void userLeft(User user) {
         projectsOfUsers.remove(user);
     }
+
+    private static Set<IResource> createResourceSet() {
+        return Collections
+            .newSetFromMap(new ConcurrentHashMap<IResource, Boolean>(1024));
+    }
 }
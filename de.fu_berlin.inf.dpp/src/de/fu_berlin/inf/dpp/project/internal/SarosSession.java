@@ -71,6 +71,7 @@ import de.fu_berlin.inf.dpp.filesystem.IFolder;
 import de.fu_berlin.inf.dpp.filesystem.IPathFactory;
 import de.fu_berlin.inf.dpp.filesystem.IProject;
 import de.fu_berlin.inf.dpp.filesystem.IResource;
+import de.fu_berlin.inf.dpp.misc.binary.ActivitiesExtensionCodec;
 import de.fu_berlin.inf.dpp.misc.xstream.SPathConverter;
 import de.fu_berlin.inf.dpp.misc.xstream.UserConverter;
 import de.fu_berlin.inf.dpp.net.IConnectionManager;
@@ -82,6 +83,7 @@ import de.fu_berlin.inf.dpp.preferences.IPreferences;
 import de.fu_berlin.inf.dpp.project.SharedResourcesManager;
 import de.fu_berlin.inf.dpp.project.internal.timeout.ClientSessionTimeoutHandler;
 import de.fu_berlin.inf.dpp.project.internal.timeout.ServerSessionTimeoutHandler;
+import de.fu_berlin.inf.dpp.session.ActivityRoutingTable;
 import de.fu_berlin.inf.dpp.session.IActivityConsumer;
 import de.fu_berlin.inf.dpp.session.IActivityListener;
 import de.fu_berlin.inf.dpp.session.IActivityProducer;
@@ -131,7 +133,7 @@ public final class SarosSession implements ISarosSession {
 
     private final CopyOnWriteArrayList<IActivityProducer> activityProducers = new CopyOnWriteArrayList<IActivityProducer>();
 
-    private final CopyOnWriteArrayList<IActivityConsumer> activityConsumers = new CopyOnWriteArrayList<IActivityConsumer>();
+    private final ActivityRoutingTable activityConsumers = new ActivityRoutingTable();
 
     /* Instance fields */
     private final User localUser;
@@ -207,17 +209,20 @@ public final class SarosSession implements ISarosSession {
              *
              *               Afterwards, every registered ActivityConsumer is
              *               informed about the remote activity that should be
-             *               executed locally.
+             *               executed locally. The routing table only returns
+             *               the consumers that handle the type of activity.
              */
-            for (IActivityConsumer consumer : activityConsumers) {
+            for (IActivityConsumer consumer : activityConsumers
+                .getConsumers(activity))
                 consumer.exec(activity);
-                updatePartialSharedResources(activity);
-            }
+
+            updatePartialSharedResources(activity);
         }
     };
 
     private SPathConverter pathConverter;
     private UserConverter userConverter;
+    private ActivitiesExtensionCodec activitiesCodec;
 
     // FIXME those parameter passing feels strange, find a better way
     /**
@@ -616,6 +621,9 @@ public final class SarosSession implements ISarosSession {
         userConverter = new UserConverter(this);
         ActivitiesExtension.PROVIDER.registerConverter(userConverter);
 
+        activitiesCodec = new ActivitiesExtensionCodec(this, pathFactory);
+        ActivitiesExtension.BINARY_PROVIDER.registerCodec(activitiesCodec);
+
         synchronized (componentAccessLock) {
             started = true;
         }
@@ -667,6 +675,7 @@ public final class SarosSession implements ISarosSession {
         // TODO Pull that out
         ActivitiesExtension.PROVIDER.unregisterConverter(pathConverter);
         ActivitiesExtension.PROVIDER.unregisterConverter(userConverter);
+        ActivitiesExtension.BINARY_PROVIDER.unregisterCodec(activitiesCodec);
     }
 
     @Override
@@ -889,7 +898,7 @@ public final class SarosSession implements ISarosSession {
 
     @Override
     public void addActivityConsumer(IActivityConsumer consumer) {
-        activityConsumers.addIfAbsent(consumer);
+        activityConsumers.add(consumer);
     }
 
     @Override
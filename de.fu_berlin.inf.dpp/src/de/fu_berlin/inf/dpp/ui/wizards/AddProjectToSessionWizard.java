@@ -25,6 +25,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.MultiStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.core.runtime.jobs.Job;
@@ -209,6 +210,9 @@ public class AddProjectToSessionWizard extends Wizard {
         try {
             modifiedResources = createProjectsAndGetModifiedResources(
                 targetProjectMapping, useVersionControl);
+        } catch (OperationCanceledException e) {
+            LOG.debug("computing the local file list was canceled");
+            return false;
         } catch (CoreException e) {
             LOG.error("could not compute local file list", e);
             MessageDialog.openError(getShell(), "Error computing file list",
@@ -479,6 +483,9 @@ public class AddProjectToSessionWizard extends Wizard {
     /**
      * Returns all modified resources (either changed or deleted) for the
      * current project mapping. Creates non existing projects if necessary.
+     * 
+     * @throws OperationCanceledException
+     *             if the computation was canceled
      */
     private Map<String, FileListDiff> createProjectsAndGetModifiedResources(
         final Map<String, IProject> projectMapping,
@@ -507,6 +514,8 @@ public class AddProjectToSessionWizard extends Wizard {
 
                         result.putAll(getModifiedResources(modifiedProjects,
                             useVersionControl, monitor));
+                    } catch (OperationCanceledException e) {
+                        throw new InterruptedException();
                     } catch (CoreException e) {
                         throw new InvocationTargetException(e);
                     } catch (RuntimeException e) {
@@ -524,7 +533,7 @@ public class AddProjectToSessionWizard extends Wizard {
             else
                 throw new RuntimeException(cause.getMessage(), cause);
         } catch (InterruptedException e) {
-            throw new RuntimeException("unexpected interruption", e);
+            throw new OperationCanceledException();
         }
 
         return result;
@@ -592,6 +601,9 @@ public class AddProjectToSessionWizard extends Wizard {
                         .convertTo(subMonitor.newChild(1,
                             SubMonitor.SUPPRESS_ALL_LABELS)));
             } catch (IOException e) {
+                if (subMonitor.isCanceled())
+                    throw new OperationCanceledException();
+
                 Throwable cause = e.getCause();
 
                 if (cause instanceof CoreException)
@@ -88,6 +88,31 @@ public class ContributionAnnotationManagerTest {
 
     }
 
+    @Test
+    public void testInsertAnnotationAtExistingAnnotation() {
+        final User alice = new User(new JID("alice@test"), null, false, false,
+            0, 0);
+        final User bob = new User(new JID("bob@test"), null, false, false, 0, 0);
+
+        final AnnotationModel model = new AnnotationModel();
+        final AnnotationModel otherModel = new AnnotationModel();
+
+        manager.insertAnnotation(model, 5, 7, alice);
+        manager.insertAnnotation(model, 8, 2, alice);
+
+        assertEquals("annotation inside an annotation of the same user added",
+            1, getAnnotationCount(model));
+
+        manager.insertAnnotation(model, 8, 2, bob);
+        manager.insertAnnotation(otherModel, 8, 2, alice);
+
+        assertEquals("annotation of another user not added", 2,
+            getAnnotationCount(model));
+
+        assertEquals("annotation of another model not added", 1,
+            getAnnotationCount(otherModel));
+    }
+
     @Test
     public void testAnnotationSplit() {
 
@@ -72,6 +72,9 @@ public class ActivityHandlerTest {
     // Needed to compare localActivities
     private volatile CountDownLatch gate;
 
+    // Needed to compare activities that are transformed by another thread
+    private volatile CountDownLatch sendGate;
+
     // Roles of the Users in this Test
     private User target;
     private User source;
@@ -86,6 +89,11 @@ public class ActivityHandlerTest {
             willBeSent = true;
             targets = recipients;
             transformedActivity = activity;
+
+            CountDownLatch gateToCountdown = sendGate;
+
+            if (gateToCountdown != null)
+                gateToCountdown.countDown();
         }
 
         @Override
@@ -175,11 +183,19 @@ public class ActivityHandlerTest {
         for (IActivity activity : activities) {
 
             willBeSent = false;
+            sendGate = new CountDownLatch(1);
 
             // SUT-CALL
             handler.handleIncomingActivities(Collections
                 .singletonList(activity));
 
+            // activities of documents are transformed by a different Thread
+            try {
+                sendGate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                fail("Interupted");
+            }
+
             if (!willBeSent) {
                 fail("Activity: " + activity + " was not send.");
             } else if (activity instanceof ITargetedActivity) {
@@ -436,11 +452,12 @@ public class ActivityHandlerTest {
             // transform TextEditActivity to JupiterActivities (outgoing)
             if (activity instanceof TextEditActivity) {
                 EasyMock.expect(client.transformToJupiter(activity)).andReturn(
-                    EasyMock.createNiceMock(JupiterActivity.class));
+                    Collections.singletonList((IActivity) EasyMock
+                        .createNiceMock(JupiterActivity.class)));
                 // return other activities
             } else {
                 EasyMock.expect(client.transformToJupiter(activity)).andReturn(
-                    activity);
+                    Collections.singletonList(activity));
             }
             // transform JupiterActivities to TextEditActivity (incoming)
             if (activity instanceof JupiterActivity) {
@@ -459,13 +476,25 @@ public class ActivityHandlerTest {
         // create CDS-Mock
         ConcurrentDocumentServer server = EasyMock
             .createNiceMock(ConcurrentDocumentServer.class);
-        for (IActivity activity : activities) {
-            // just return activities as the server doesn't change the type of
-            // activities
-            EasyMock.expect(server.transformIncoming(activity)).andReturn(
-                Collections
-                    .singletonList(new QueueItem(participants, activity)));
-        }
+        // just return activities as the server doesn't change the type of
+        // activities
+        EasyMock.expect(
+            server.transformIncoming(EasyMock.<List<IActivity>> anyObject()))
+            .andAnswer(new IAnswer<List<QueueItem>>() {
+                @Override
+                public List<QueueItem> answer() throws Throwable {
+                    @SuppressWarnings("unchecked")
+                    List<IActivity> incoming = (List<IActivity>) EasyMock
+                        .getCurrentArguments()[0];
+
+                    List<QueueItem> items = new ArrayList<QueueItem>();
+
+                    for (IActivity activity : incoming)
+                        items.add(new QueueItem(participants, activity));
+
+                    return items;
+                }
+            }).anyTimes();
 
         EasyMock.replay(server);
 
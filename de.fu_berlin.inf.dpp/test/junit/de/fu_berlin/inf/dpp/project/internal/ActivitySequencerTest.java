@@ -143,7 +143,7 @@ public class ActivitySequencerTest {
     @Test(timeout = 30000)
     public void testStartAndStop() {
         ActivitySequencer sequencer = new ActivitySequencer(sessionStubAlice,
-            aliceTransmitter, aliceReceiver, null);
+            aliceTransmitter, aliceReceiver, null, null);
 
         sequencer.start();
         sequencer.stop();
@@ -152,7 +152,7 @@ public class ActivitySequencerTest {
     @Test(timeout = 30000, expected = IllegalStateException.class)
     public void testMultipleStarts() {
         ActivitySequencer sequencer = new ActivitySequencer(sessionStubAlice,
-            aliceTransmitter, aliceReceiver, null);
+            aliceTransmitter, aliceReceiver, null, null);
 
         for (int i = 0; i < Integer.MAX_VALUE; i++)
             sequencer.start();
@@ -161,7 +161,7 @@ public class ActivitySequencerTest {
     @Test(timeout = 30000, expected = IllegalStateException.class)
     public void testStopWithoutStart() {
         ActivitySequencer sequencer = new ActivitySequencer(sessionStubAlice,
-            aliceTransmitter, aliceReceiver, null);
+            aliceTransmitter, aliceReceiver, null, null);
 
         sequencer.stop();
     }
@@ -169,7 +169,7 @@ public class ActivitySequencerTest {
     @Test(timeout = 30000)
     public void testMultipleStops() {
         ActivitySequencer sequencer = new ActivitySequencer(sessionStubAlice,
-            aliceTransmitter, aliceReceiver, null);
+            aliceTransmitter, aliceReceiver, null, null);
 
         sequencer.start();
         try {
@@ -200,7 +200,7 @@ public class ActivitySequencerTest {
         EasyMock.replay(brokenTransmitter);
 
         aliceSequencer = new ActivitySequencer(sessionStubAlice,
-            brokenTransmitter, aliceReceiver, null);
+            brokenTransmitter, aliceReceiver, null, null);
 
         aliceSequencer.start();
 
@@ -227,10 +227,10 @@ public class ActivitySequencerTest {
         int activityCount = 1000;
 
         aliceSequencer = new ActivitySequencer(sessionStubAlice,
-            aliceTransmitter, aliceReceiver, null);
+            aliceTransmitter, aliceReceiver, null, null);
 
         bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter,
-            bobReceiver, null);
+            bobReceiver, null, null);
 
         aliceSequencer.start();
         bobSequencer.start();
@@ -268,10 +268,10 @@ public class ActivitySequencerTest {
     public void testSendWithoutRegisteredUser() {
 
         aliceSequencer = new ActivitySequencer(sessionStubAlice,
-            aliceTransmitter, aliceReceiver, null);
+            aliceTransmitter, aliceReceiver, null, null);
 
         bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter,
-            bobReceiver, null);
+            bobReceiver, null, null);
 
         aliceSequencer.start();
         bobSequencer.start();
@@ -303,10 +303,10 @@ public class ActivitySequencerTest {
     public void testReceiveWithoutRegisteredUser() {
 
         aliceSequencer = new ActivitySequencer(sessionStubAlice,
-            aliceTransmitter, aliceReceiver, null);
+            aliceTransmitter, aliceReceiver, null, null);
 
         bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter,
-            bobReceiver, null);
+            bobReceiver, null, null);
 
         aliceSequencer.start();
         bobSequencer.start();
@@ -338,11 +338,11 @@ public class ActivitySequencerTest {
     public void testSendAndReceiveWithDifferendSessionIDs() {
 
         aliceSequencer = new ActivitySequencer(sessionStubAlice,
-            aliceTransmitter, aliceReceiver, null);
+            aliceTransmitter, aliceReceiver, null, null);
 
         sessionStubBob.setID("4711");
         bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter,
-            bobReceiver, null);
+            bobReceiver, null, null);
 
         aliceSequencer.start();
         bobSequencer.start();
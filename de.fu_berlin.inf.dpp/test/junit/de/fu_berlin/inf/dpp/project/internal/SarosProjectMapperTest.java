@@ -355,6 +355,34 @@ public class SarosProjectMapperTest {
 
     }
 
+    @Test
+    public void testLookupsDoNotBlock() throws Exception {
+        final IProject projectMock = createProjectMock();
+        mapper.addProject("0", projectMock, false);
+
+        final boolean[] result = new boolean[1];
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = mapper.isShared(projectMock)
+                    && "0".equals(mapper.getID(projectMock))
+                    && projectMock.equals(mapper.getProject("0"))
+                    && mapper.isCompletelyShared(projectMock);
+            }
+        });
+
+        // simulates a concurrent modification that holds the lock
+        synchronized (mapper) {
+            reader.start();
+            reader.join(10000);
+
+            assertFalse("lookup is blocked by the lock", reader.isAlive());
+        }
+
+        assertTrue("lookup returned wrong results", result[0]);
+    }
+
     /*
      * aware that misconfigured mocks may throw IllegalState and
      * IllegalArgumentExceptions as well which may lead to false positive